@@ -17,6 +17,9 @@
 
 package org.apache.jackrabbit.core.data;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Abstract data record base class. This base class contains only
  * a reference to the data identifier of the record and implements
@@ -48,6 +51,40 @@ public abstract class AbstractDataRecord implements DataRecord {
         return identifier;
     }
 
+    /**
+     * Returns a stream over a range of the record. This implementation skips
+     * the bytes before the offset, subclasses should override it if the
+     * underlying storage supports positional reads.
+     *
+     * @param offset the position of the first byte, starting at 0
+     * @param length the maximum number of bytes
+     * @return binary stream
+     * @throws DataStoreException if the record could not be accessed
+     */
+    public InputStream getStream(long offset, long length)
+            throws DataStoreException {
+        checkRange(offset, length);
+        try {
+            return BoundedInputStream.getRange(getStream(), offset, length);
+        } catch (IOException e) {
+            throw new DataStoreException("Error reading " + this, e);
+        }
+    }
+
+    /**
+     * Checks the arguments of a range read.
+     *
+     * @param offset the position of the first byte
+     * @param length the maximum number of bytes
+     * @throws IllegalArgumentException if the offset or length is negative
+     */
+    protected static void checkRange(long offset, long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid range: offset=" + offset + " length=" + length);
+        }
+    }
+
     /**
      * Returns the string representation of the data identifier.
      *
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * An input stream that returns at most a given number of bytes of the
+ * underlying stream. Closing this stream closes the underlying stream.
+ */
+public class BoundedInputStream extends ProxyInputStream {
+
+    /**
+     * The number of bytes that may still be read.
+     */
+    private long remaining;
+
+    /**
+     * Creates a stream that returns at most <code>length</code> bytes.
+     *
+     * @param in the underlying stream
+     * @param length the maximum number of bytes
+     */
+    public BoundedInputStream(InputStream in, long length) {
+        super(in);
+        this.remaining = length;
+    }
+
+    /**
+     * Returns a stream over a range of the given stream. The bytes before
+     * the offset are skipped.
+     *
+     * @param in the stream, which is closed if skipping fails
+     * @param offset the number of bytes to skip
+     * @param length the maximum number of bytes
+     * @return the stream
+     * @throws IOException if skipping fails
+     */
+    public static InputStream getRange(InputStream in, long offset, long length)
+            throws IOException {
+        try {
+            while (offset > 0) {
+                long skipped = in.skip(offset);
+                if (skipped <= 0) {
+                    // skip may return 0 before the end of the stream
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    skipped = 1;
+                }
+                offset -= skipped;
+            }
+        } catch (IOException e) {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+        return new BoundedInputStream(in, length);
+    }
+
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = super.read();
+        if (b >= 0) {
+            remaining--;
+        }
+        return b;
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int n = super.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) {
+            remaining -= n;
+        }
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    public int available() throws IOException {
+        return (int) Math.min(super.available(), remaining);
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data record of a {@link ChunkingDataStore}, which is based on a manifest
+ * file that lists the chunks of the record. The manifest is read when it is
+ * first needed, and the chunks are opened one after the other while the
+ * stream is read.
+ */
+class ChunkedDataRecord extends AbstractDataRecord {
+
+    /**
+     * The data store.
+     */
+    private final ChunkingDataStore store;
+
+    /**
+     * The manifest file.
+     */
+    private final File file;
+
+    /**
+     * The chunk identifiers or <code>null</code> if not yet read.
+     */
+    private DataIdentifier[] ids;
+
+    /**
+     * The chunk lengths.
+     */
+    private long[] lengths;
+
+    /**
+     * The length of the record.
+     */
+    private long length;
+
+    /**
+     * Creates a data record based on the given identifier and manifest file.
+     *
+     * @param store the data store
+     * @param identifier data identifier
+     * @param file the manifest file
+     */
+    ChunkedDataRecord(ChunkingDataStore store, DataIdentifier identifier, File file) {
+        super(identifier);
+        this.store = store;
+        this.file = file;
+    }
+
+    /**
+     * Reads the manifest unless it was read already.
+     */
+    private synchronized void readManifest() throws DataStoreException {
+        if (ids != null) {
+            return;
+        }
+        List idList = new ArrayList();
+        List lengthList = new ArrayList();
+        try {
+            ChunkingDataStore.readManifest(file, idList, lengthList);
+        } catch (IOException e) {
+            throw new DataStoreException("Error reading " + file.getAbsolutePath(), e);
+        }
+        lengths = new long[lengthList.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = ((Long) lengthList.get(i)).longValue();
+            length += lengths[i];
+        }
+        ids = (DataIdentifier[]) idList.toArray(new DataIdentifier[idList.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLength() throws DataStoreException {
+        readManifest();
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getStream() throws DataStoreException {
+        readManifest();
+        return new ChunkStream(0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The chunks before the offset are not read.
+     */
+    public InputStream getStream(long offset, long length)
+            throws DataStoreException {
+        checkRange(offset, length);
+        readManifest();
+        int index = 0;
+        while (index < lengths.length && offset >= lengths[index]) {
+            offset -= lengths[index++];
+        }
+        return new BoundedInputStream(new ChunkStream(index, offset), length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastModified() {
+        return file.lastModified();
+    }
+
+    /**
+     * A stream over the chunks of the record, starting with a given chunk.
+     */
+    private class ChunkStream extends InputStream {
+
+        /**
+         * The index of the next chunk.
+         */
+        private int next;
+
+        /**
+         * The offset within the first chunk.
+         */
+        private long offset;
+
+        /**
+         * The stream of the current chunk or <code>null</code>.
+         */
+        private InputStream current;
+
+        ChunkStream(int first, long offset) {
+            this.next = first;
+            this.offset = offset;
+        }
+
+        /**
+         * Opens the next chunk.
+         *
+         * @return false if there are no more chunks
+         */
+        private boolean nextChunk() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            if (next >= ids.length) {
+                return false;
+            }
+            try {
+                current = store.getChunkStream(ids[next++], offset);
+            } catch (DataStoreException e) {
+                IOException e2 = new IOException(e.getMessage());
+                e2.initCause(e);
+                throw e2;
+            }
+            offset = 0;
+            return true;
+        }
+
+        public int read() throws IOException {
+            while (current != null || nextChunk()) {
+                int x = current.read();
+                if (x >= 0) {
+                    return x;
+                }
+                current.close();
+                current = null;
+            }
+            return -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (current != null || nextChunk()) {
+                int n = current.read(b, off, len);
+                if (n >= 0) {
+                    return n;
+                }
+                current.close();
+                current = null;
+            }
+            return -1;
+        }
+
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            next = ids.length;
+        }
+    }
+
+}
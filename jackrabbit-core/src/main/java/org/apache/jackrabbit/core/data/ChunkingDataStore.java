@@ -0,0 +1,688 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * File-based data store that splits binary streams into content-defined
+ * chunks and stores each distinct chunk only once. Records that are mostly
+ * equal, for example versions of a large file that was edited or appended
+ * to, share most of their chunks.
+ *
+ * Configuration:
+ * <pre>
+ * &lt;DataStore class="org.apache.jackrabbit.core.data.ChunkingDataStore">
+ *     &lt;param name="{@link #setPath(String) path}" value="/data/datastore"/>
+ *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="1024"/>
+ *     &lt;param name="{@link #setAverageChunkSize(int) averageChunkSize}" value="65536"/>
+ * &lt/DataStore>
+ * </pre>
+ * <p>
+ * If the directory is not set, the directory &lt;repository home&gt;/repository/datastore is used.
+ * <p>
+ * Chunk boundaries are found with a rolling hash over the last 64 bytes
+ * (a gear hash), so that a boundary only depends on the nearby content
+ * and an insertion or deletion only changes the chunks around it. The
+ * chunks are stored in a {@link FileDataStore} in the sub directory
+ * "chunks". Each record is a manifest file in the sub directory "records",
+ * named using the message digest of the whole binary stream, that lists
+ * the chunks of the record and their length. A chunk that is already
+ * stored is not written again.
+ * <p>
+ * Records that are shorter than the minimum record length are not split.
+ * They are stored as a whole in a {@link FileDataStore} in the sub
+ * directory "small", because a manifest would be larger than the record.
+ * This only applies if the minimum record length is not larger than the
+ * minimum chunk size, which is a quarter of the average chunk size. The
+ * repository keeps shorter binaries in the persistence manager, so small
+ * records are only stored if the minimum record length was increased or
+ * if the data store is used directly.
+ * <p>
+ * {@link #deleteAllOlderThan(long)} deletes the old manifests first and
+ * then all old chunks that are not listed in a remaining manifest.
+ */
+public class ChunkingDataStore implements DataStore {
+
+    /**
+     * The digest algorithm used to uniquely identify records and chunks.
+     */
+    private static final String DIGEST = "SHA-1";
+
+    /**
+     * The default value for the minimum object size.
+     */
+    private static final int DEFAULT_MIN_RECORD_LENGTH = 100;
+
+    /**
+     * The default value for the average chunk size.
+     */
+    private static final int DEFAULT_AVERAGE_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The number of bytes that determine a chunk boundary.
+     */
+    private static final int WINDOW = 64;
+
+    /**
+     * The maximum last modified time resolution of the file system.
+     */
+    private static final int ACCESS_TIME_RESOLUTION = 2000;
+
+    /**
+     * The prefix of temporary manifest files.
+     */
+    private static final String TMP = "tmp";
+
+    /**
+     * The encoding of the manifest files.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The random values of the gear hash, one for each byte value. A fixed
+     * seed is used so that the chunk boundaries never change.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * The minimum modified date. If a manifest is accessed with a modified
+     * date older than this value, the modified date is updated to the
+     * current time.
+     */
+    private long minModifiedDate;
+
+    /**
+     * The name of the directory that contains the manifests and chunks.
+     */
+    private String path;
+
+    /**
+     * The directory that contains the manifest files.
+     */
+    private File directory;
+
+    /**
+     * The store of the chunks.
+     */
+    private final FileDataStore chunks = new FileDataStore();
+
+    /**
+     * The store of the records that are shorter than the minimum record
+     * length.
+     */
+    private final FileDataStore small = new FileDataStore();
+
+    /**
+     * The minimum size of an object that should be stored in this data store.
+     */
+    private int minRecordLength = DEFAULT_MIN_RECORD_LENGTH;
+
+    /**
+     * The average size of a chunk.
+     */
+    private int averageChunkSize = DEFAULT_AVERAGE_CHUNK_SIZE;
+
+    /**
+     * The minimum and maximum size of a chunk, derived from the average.
+     */
+    private int minChunkSize, maxChunkSize;
+
+    /**
+     * A chunk boundary is found if the hash shifted right by this number of
+     * bits is 0.
+     */
+    private int boundaryShift;
+
+    /**
+     * All data identifiers that are currently in use are in this set until they are garbage collected.
+     */
+    protected Map inUse = Collections.synchronizedMap(new WeakHashMap());
+
+    /**
+     * Initialized the data store.
+     * If the path is not set, &lt;repository home&gt;/repository/datastore is used.
+     * This directory is automatically created if it does not yet exist.
+     *
+     * @param homeDir the home directory of the repository
+     */
+    public void init(String homeDir) throws RepositoryException {
+        if (path == null) {
+            path = homeDir + "/repository/datastore";
+        }
+        directory = new File(path, "records");
+        directory.mkdirs();
+        chunks.setPath(new File(path, "chunks").getPath());
+        chunks.init(homeDir);
+        small.setPath(new File(path, "small").getPath());
+        small.init(homeDir);
+        // round down to a power of two, the boundary probability is 1/2^bits
+        int bits = 0;
+        while ((2 << bits) <= averageChunkSize) {
+            bits++;
+        }
+        boundaryShift = 64 - bits;
+        minChunkSize = Math.max(WINDOW, (1 << bits) / 4);
+        maxChunkSize = (1 << bits) * 4;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DataRecord getRecordIfStored(DataIdentifier identifier) {
+        File file = getFile(identifier);
+        synchronized (this) {
+            if (!file.exists()) {
+                return small.getRecordIfStored(identifier);
+            }
+            if (minModifiedDate != 0 && file.canWrite()) {
+                if (file.lastModified() < minModifiedDate) {
+                    file.setLastModified(System.currentTimeMillis() + ACCESS_TIME_RESOLUTION);
+                }
+            }
+            usesIdentifier(identifier);
+            return new ChunkedDataRecord(this, identifier, file);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DataRecord getRecord(DataIdentifier identifier) throws DataStoreException {
+        DataRecord record = getRecordIfStored(identifier);
+        if (record == null) {
+            throw new DataStoreException("Record not found: " + identifier);
+        }
+        return record;
+    }
+
+    private void usesIdentifier(DataIdentifier identifier) {
+        inUse.put(identifier, new WeakReference(identifier));
+    }
+
+    /**
+     * Creates a new data record. The stream is split into chunks while it is
+     * read, the chunks that are not yet stored are added to the chunk store,
+     * and a manifest that lists the chunks is written. If a record with the
+     * same message digest already exists, it is returned instead. A record
+     * that is shorter than the minimum record length and was not split yet
+     * is stored unchunked.
+     *
+     * @param input binary stream
+     * @return data record that contains the given stream
+     * @throws DataStoreException if the record could not be created
+     */
+    public DataRecord addRecord(InputStream input) throws DataStoreException {
+        File temporary = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST);
+            MessageDigest chunkDigest = MessageDigest.getInstance(DIGEST);
+            // the chunk identifiers are kept in this list, so that the
+            // chunks are in use until the manifest is written
+            List ids = new ArrayList();
+            List lengths = new ArrayList();
+            byte[] buffer = new byte[8192];
+            byte[] chunk = new byte[maxChunkSize];
+            int chunkLength = 0;
+            long hash = 0;
+            long length = 0;
+            while (true) {
+                int n = input.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                digest.update(buffer, 0, n);
+                length += n;
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    chunk[chunkLength++] = b;
+                    hash = (hash << 1) + GEAR[b & 255];
+                    if (chunkLength >= maxChunkSize || (chunkLength >= minChunkSize
+                            && (hash >>> boundaryShift) == 0)) {
+                        addChunk(chunk, chunkLength, chunkDigest, ids, lengths);
+                        chunkLength = 0;
+                        hash = 0;
+                    }
+                }
+            }
+            if (ids.isEmpty() && length < minRecordLength) {
+                return small.addRecord(
+                        new ByteArrayInputStream(chunk, 0, chunkLength));
+            }
+            if (chunkLength > 0) {
+                addChunk(chunk, chunkLength, chunkDigest, ids, lengths);
+            }
+
+            temporary = File.createTempFile(TMP, null, directory);
+            DataIdentifier tempId = new DataIdentifier(temporary.getName());
+            usesIdentifier(tempId);
+            writeManifest(temporary, ids, lengths);
+
+            DataIdentifier identifier = new DataIdentifier(digest.digest());
+            File file;
+            synchronized (this) {
+                // Check if the same record already exists, or
+                // move the temporary manifest in place if needed
+                usesIdentifier(identifier);
+                file = getFile(identifier);
+                File parent = file.getParentFile();
+                if (!parent.isDirectory()) {
+                    parent.mkdirs();
+                }
+                if (!file.exists()) {
+                    temporary.renameTo(file);
+                    if (!file.exists()) {
+                        throw new IOException(
+                                "Can not rename " + temporary.getAbsolutePath()
+                                + " to " + file.getAbsolutePath()
+                                + " (media read only?)");
+                    }
+                } else {
+                    long now = System.currentTimeMillis();
+                    if (file.lastModified() < now) {
+                        file.setLastModified(now);
+                    }
+                }
+            }
+            ChunkedDataRecord record = new ChunkedDataRecord(this, identifier, file);
+            if (record.getLength() != length) {
+                throw new IOException(DIGEST + " collision: " + file);
+            }
+            inUse.remove(tempId);
+            return record;
+        } catch (NoSuchAlgorithmException e) {
+            throw new DataStoreException(DIGEST + " not available", e);
+        } catch (IOException e) {
+            throw new DataStoreException("Could not add record", e);
+        } finally {
+            if (temporary != null) {
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Adds a chunk to the chunk store unless it is already stored.
+     *
+     * @param chunk the buffer that contains the chunk
+     * @param length the length of the chunk
+     * @param digest the digest to use
+     * @param ids the list of chunk identifiers of the record
+     * @param lengths the list of chunk lengths of the record
+     */
+    private void addChunk(byte[] chunk, int length, MessageDigest digest,
+            List ids, List lengths) throws DataStoreException {
+        digest.update(chunk, 0, length);
+        DataIdentifier id = new DataIdentifier(digest.digest());
+        if (chunks.getRecordIfStored(id) == null) {
+            id = chunks.addRecord(
+                    new ByteArrayInputStream(chunk, 0, length)).getIdentifier();
+        }
+        ids.add(id);
+        lengths.add(new Long(length));
+    }
+
+    /**
+     * Writes a manifest file with one line per chunk. Each line contains the
+     * chunk identifier and the chunk length, separated by a space.
+     *
+     * @param file the file
+     * @param ids the chunk identifiers
+     * @param lengths the chunk lengths
+     */
+    private static void writeManifest(File file, List ids, List lengths)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), ENCODING);
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                writer.write(ids.get(i) + " " + lengths.get(i) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads the chunk identifiers and lengths of a manifest file.
+     *
+     * @param file the manifest file
+     * @param ids the list to add the chunk identifiers to
+     * @param lengths the list to add the chunk lengths to
+     * @throws IOException if the file could not be read
+     */
+    static void readManifest(File file, List ids, List lengths) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), ENCODING));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int idx = line.indexOf(' ');
+                if (idx < 0) {
+                    throw new IOException("Corrupt manifest " + file + ": " + line);
+                }
+                ids.add(new DataIdentifier(line.substring(0, idx)));
+                lengths.add(new Long(line.substring(idx + 1)));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt manifest " + file + ": " + e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the stream of a chunk.
+     *
+     * @param id the chunk identifier
+     * @param offset the offset within the chunk
+     * @return the stream
+     * @throws DataStoreException if the chunk is missing
+     */
+    InputStream getChunkStream(DataIdentifier id, long offset)
+            throws DataStoreException {
+        DataRecord record = chunks.getRecord(id);
+        if (offset == 0) {
+            return record.getStream();
+        }
+        return record.getStream(offset, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the manifest file of a record.
+     *
+     * @param identifier data identifier
+     * @return the manifest file
+     */
+    private File getFile(DataIdentifier identifier) {
+        usesIdentifier(identifier);
+        String string = identifier.toString();
+        File file = directory;
+        file = new File(file, string.substring(0, 2));
+        file = new File(file, string.substring(2, 4));
+        file = new File(file, string.substring(4, 6));
+        return new File(file, string);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateModifiedDateOnAccess(long before) {
+        minModifiedDate = before;
+        chunks.updateModifiedDateOnAccess(before);
+        small.updateModifiedDateOnAccess(before);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The old manifests and unchunked records are deleted first. Then the
+     * chunks that are older than the specified date and not listed in a
+     * remaining manifest are deleted. The manifests and chunks are read one
+     * directory at a time and their identifiers are sorted in temporary
+     * files, so the number of chunks is not limited by the available memory.
+     */
+    public int deleteAllOlderThan(long min) throws DataStoreException {
+        int count = deleteOlderRecursive(directory, min)
+                + small.deleteAllOlderThan(min);
+        SortedIdentifierFile used = new SortedIdentifierFile();
+        SortedIdentifierFile all = new SortedIdentifierFile();
+        SortedIdentifierFile.Reader u = null;
+        SortedIdentifierFile.Reader a = null;
+        try {
+            addUsedChunks(used, directory);
+            for (Iterator it = chunks.getAllIdentifiers(); it.hasNext();) {
+                all.add((DataIdentifier) it.next());
+            }
+            u = used.open();
+            a = all.open();
+            String next = u.next();
+            for (String id = a.next(); id != null; id = a.next()) {
+                while (next != null && next.compareTo(id) < 0) {
+                    next = u.next();
+                }
+                if (!id.equals(next)) {
+                    chunks.deleteRecord(new DataIdentifier(id), min);
+                }
+            }
+            return count;
+        } catch (IOException e) {
+            throw new DataStoreException("Could not delete unused chunks", e);
+        } finally {
+            if (u != null) {
+                u.close();
+            }
+            if (a != null) {
+                a.close();
+            }
+            used.delete();
+            all.delete();
+        }
+    }
+
+    private int deleteOlderRecursive(File file, long min) {
+        int count = 0;
+        if (file.isFile() && file.exists() && file.canWrite()) {
+            synchronized (this) {
+                String fileName = file.getName();
+                if (file.lastModified() < min && !fileName.startsWith(TMP)) {
+                    DataIdentifier id = new DataIdentifier(fileName);
+                    if (!inUse.containsKey(id)) {
+                        file.delete();
+                        count++;
+                    }
+                }
+            }
+        } else if (file.isDirectory()) {
+            File[] list = file.listFiles();
+            for (int i = 0; i < list.length; i++) {
+                count += deleteOlderRecursive(list[i], min);
+            }
+            synchronized (this) {
+                if (file != directory && file.list().length == 0) {
+                    file.delete();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Adds the chunks listed in the manifests in a directory and its sub
+     * directories. Temporary manifests are included, as their chunks are in
+     * use.
+     */
+    private void addUsedChunks(SortedIdentifierFile used, File file)
+            throws IOException {
+        File[] l = file.listFiles();
+        for (int i = 0; l != null && i < l.length; i++) {
+            File f = l[i];
+            if (f.isDirectory()) {
+                addUsedChunks(used, f);
+            } else {
+                List ids = new ArrayList();
+                try {
+                    readManifest(f, ids, new ArrayList());
+                } catch (IOException e) {
+                    if (!f.exists()) {
+                        // deleted concurrently
+                        continue;
+                    }
+                    throw e;
+                }
+                for (int j = 0; j < ids.size(); j++) {
+                    used.add((DataIdentifier) ids.get(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the manifest files in a directory and its sub directories to the
+     * list. Temporary manifests are included, as their chunks are in use.
+     */
+    private void listRecursive(List list, File file) {
+        File[] l = file.listFiles();
+        for (int i = 0; l != null && i < l.length; i++) {
+            File f = l[i];
+            if (f.isDirectory()) {
+                listRecursive(list, f);
+            } else {
+                list.add(f);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator getAllIdentifiers() {
+        ArrayList files = new ArrayList();
+        listRecursive(files, directory);
+        ArrayList identifiers = new ArrayList();
+        for (int i = 0; i < files.size(); i++) {
+            String name = ((File) files.get(i)).getName();
+            if (!name.startsWith(TMP)) {
+                identifiers.add(new DataIdentifier(name));
+            }
+        }
+        for (Iterator it = small.getAllIdentifiers(); it.hasNext();) {
+            identifiers.add(it.next());
+        }
+        return identifiers.iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clearInUse() {
+        inUse.clear();
+        chunks.clearInUse();
+        small.clearInUse();
+    }
+
+    /**
+     * Get the name of the directory where this data store keeps the files.
+     *
+     * @return the full path name
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Set the name of the directory where this data store keeps the files.
+     *
+     * @param directoryName the path name
+     */
+    public void setPath(String directoryName) {
+        this.path = directoryName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMinRecordLength() {
+        return minRecordLength;
+    }
+
+    /**
+     * Set the minimum object length. Shorter binaries are kept in the
+     * persistence manager by the repository. If such a record is added to
+     * this data store, it is stored without splitting it into chunks. The
+     * default is 100.
+     *
+     * @param minRecordLength the length
+     */
+    public void setMinRecordLength(int minRecordLength) {
+        this.minRecordLength = minRecordLength;
+    }
+
+    /**
+     * Get the average chunk size.
+     *
+     * @return the size in bytes
+     */
+    public int getAverageChunkSize() {
+        return averageChunkSize;
+    }
+
+    /**
+     * Set the average chunk size in bytes. It is rounded down to a power of
+     * two. Chunks are at least a quarter and at most four times this size.
+     * Smaller chunks find more duplicate content but need more files. The
+     * chunk size must not be changed once records are stored, otherwise the
+     * chunks of new records do not match the existing chunks. The default
+     * is 65536.
+     *
+     * @param averageChunkSize the size in bytes
+     */
+    public void setAverageChunkSize(int averageChunkSize) {
+        this.averageChunkSize = averageChunkSize;
+    }
+
+    /**
+     * Get the number of stored chunks. This is only used for testing and
+     * monitoring, as all chunk files are listed.
+     *
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+        int count = 0;
+        for (Iterator it = chunks.getAllIdentifiers(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        chunks.close();
+        small.close();
+    }
+
+}
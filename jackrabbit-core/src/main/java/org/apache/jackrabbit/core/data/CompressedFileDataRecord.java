@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Data record of a {@link FileDataStore} that is stored compressed. The file
+ * contains the deflated binary stream followed by the uncompressed length.
+ */
+class CompressedFileDataRecord extends AbstractDataRecord {
+
+    /**
+     * The file that contains the compressed binary stream.
+     */
+    private final File file;
+
+    /**
+     * The uncompressed length, or -1 if not yet read.
+     */
+    private long length = -1;
+
+    /**
+     * Creates a data record based on the given identifier and file.
+     *
+     * @param identifier data identifier
+     * @param file file that contains the compressed binary stream
+     */
+    CompressedFileDataRecord(DataIdentifier identifier, File file) {
+        super(identifier);
+        this.file = file;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The uncompressed length is read from the end of the file.
+     */
+    public synchronized long getLength() throws DataStoreException {
+        if (length < 0) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    raf.seek(raf.length() - 8);
+                    length = raf.readLong();
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw new DataStoreException("Error reading the length of " + file.getAbsolutePath(), e);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The stream is decompressed while it is read. The inflater stops at the
+     * end of the deflated data, so the length at the end is not returned.
+     */
+    public InputStream getStream() throws DataStoreException {
+        try {
+            InputStream in = new LazyFileInputStream(file);
+            return new InflaterInputStream(in, new Inflater(), 8192) {
+                public void close() throws IOException {
+                    // release the native memory of the inflater
+                    super.close();
+                    inf.end();
+                }
+            };
+        } catch (IOException e) {
+            throw new DataStoreException("Error opening input stream of " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastModified() {
+        return file.lastModified();
+    }
+}
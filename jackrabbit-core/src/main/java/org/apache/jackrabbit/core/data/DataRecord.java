@@ -46,6 +46,17 @@ public interface DataRecord {
      */
     InputStream getStream() throws DataStoreException;
 
+    /**
+     * Returns a stream over a range of the binary stream in this record.
+     * The stream ends early if the end of the record is reached.
+     *
+     * @param offset the position of the first byte, starting at 0
+     * @param length the maximum number of bytes
+     * @return binary stream
+     * @throws DataStoreException if the record could not be accessed
+     */
+    InputStream getStream(long offset, long length) throws DataStoreException;
+
     /**
      * Returns the last modified of the record.
      * 
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+/**
+ * A data store that can delete single data records. The garbage collector
+ * uses this interface to delete the records that are not referenced if the
+ * mark and sweep mode is enabled, see
+ * {@link GarbageCollector#setMarkSweep(boolean)}.
+ */
+public interface DeletableDataStore extends DataStore {
+
+    /**
+     * Delete a data record if it is not in use and its modified date is
+     * older than the specified date. Records that are added or accessed
+     * while the garbage collection runs have a newer modified date and are
+     * therefore never deleted.
+     *
+     * @param identifier data identifier
+     * @param min the minimum time
+     * @return true if the record was deleted
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    boolean deleteRecord(DataIdentifier identifier, long min) throws DataStoreException;
+
+}
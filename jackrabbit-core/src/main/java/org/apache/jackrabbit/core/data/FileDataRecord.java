@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.data;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -60,6 +61,28 @@ public class FileDataRecord extends AbstractDataRecord {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The file is positioned at the offset, the bytes before it are not read.
+     */
+    public InputStream getStream(long offset, long length)
+            throws DataStoreException {
+        checkRange(offset, length);
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(offset);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return new BoundedInputStream(in, length);
+        } catch (IOException e) {
+            throw new DataStoreException("Error opening input stream of " + file.getAbsolutePath(), e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
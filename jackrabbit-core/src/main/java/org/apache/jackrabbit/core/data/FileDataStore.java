@@ -16,7 +16,9 @@
  */
 package org.apache.jackrabbit.core.data;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,12 +27,15 @@ import java.lang.ref.WeakReference;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.WeakHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import org.apache.commons.io.IOUtils;
 
@@ -43,11 +48,18 @@ import org.apache.commons.io.IOUtils;
  * &lt;DataStore class="org.apache.jackrabbit.core.data.FileDataStore">
  *     &lt;param name="{@link #setPath(String) path}" value="/data/datastore"/>
  *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="1024"/>
+ *     &lt;param name="{@link #setCompressThreshold(long) compressThreshold}" value="0"/>
  * &lt/DataStore>
  * </pre>
  * <p>
  * If the directory is not set, the directory &lt;repository home&gt;/repository/datastore is used.
  * <p>
+ * If compression is enabled, records that compress well are stored deflated
+ * in a file with the suffix ".deflate", followed by the uncompressed length.
+ * The identifier is still the message digest of the uncompressed stream,
+ * and records are decompressed while they are read. Records stored with and
+ * without compression can be mixed.
+ * <p>
  * A three level directory structure is used to avoid placing too many
  * files in a single directory. The chosen structure is designed to scale
  * up to billions of distinct records.
@@ -55,7 +67,7 @@ import org.apache.commons.io.IOUtils;
  * This implementation relies on the underlying file system to support
  * atomic O(1) move operations with {@link File#renameTo(File)}.
  */
-public class FileDataStore implements DataStore {
+public class FileDataStore implements DeletableDataStore {
 
     /**
      * The digest algorithm used to uniquely identify records.
@@ -78,11 +90,39 @@ public class FileDataStore implements DataStore {
      */
     private static final String TMP = "tmp";
 
+    /**
+     * The suffix of the files of compressed records.
+     */
+    private static final String COMPRESSED = ".deflate";
+
+    /**
+     * The number of bytes at the start of a record that are compressed to
+     * decide whether the record is compressed.
+     */
+    private static final int PROBE_SIZE = 64 * 1024;
+
+    /**
+     * A record is compressed if the start of the record compresses to at
+     * most this percentage of its size.
+     */
+    private static final int MAX_COMPRESSED_PERCENT = 80;
+
+    /**
+     * The number of locks used to synchronize access to the record files.
+     */
+    private static final int LOCK_STRIPES = 256;
+
+    /**
+     * How often a temporary file is moved in place again if the directory
+     * of the record was removed concurrently.
+     */
+    private static final int RENAME_RETRIES = 10;
+
     /**
      * The minimum modified date. If a file is accessed (read or write) with a modified date
      * older than this value, the modified date is updated to the current time.
      */
-    private long minModifiedDate;
+    private volatile long minModifiedDate;
 
     /**
      * The directory that contains all the data record files. The structure
@@ -101,16 +141,33 @@ public class FileDataStore implements DataStore {
      */
     private int minRecordLength = DEFAULT_MIN_RECORD_LENGTH;
 
+    /**
+     * The minimum size of a record that is compressed, 0 to disable
+     * compression.
+     */
+    private long compressThreshold;
+
     /**
      * All data identifiers that are currently in use are in this set until they are garbage collected.
      */
     protected Map inUse = Collections.synchronizedMap(new WeakHashMap());
 
+    /**
+     * The locks that synchronize existence checks, renames, deletes and
+     * modified date updates of a record file. A record is always guarded by
+     * the same lock, so that records with different identifiers can mostly
+     * be added, read and deleted concurrently.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
     /**
      * Creates a uninitialized data store.
      *
      */
     public FileDataStore() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
     }
 
     /**
@@ -133,9 +190,14 @@ public class FileDataStore implements DataStore {
      */
     public DataRecord getRecordIfStored(DataIdentifier identifier) {
         File file = getFile(identifier);
-        synchronized (this) {
+        synchronized (getLock(identifier)) {
+            boolean compressed = false;
             if (!file.exists()) {
-                return null;
+                file = getCompressedFile(file);
+                if (!file.exists()) {
+                    return null;
+                }
+                compressed = true;
             }
             if (minModifiedDate != 0 && file.canWrite()) {
                 if (file.lastModified() < minModifiedDate) {
@@ -143,6 +205,9 @@ public class FileDataStore implements DataStore {
                 }
             }
             usesIdentifier(identifier);
+            if (compressed) {
+                return new CompressedFileDataRecord(identifier, file);
+            }
             return new FileDataRecord(identifier, file);
         }
     }
@@ -174,7 +239,9 @@ public class FileDataStore implements DataStore {
      * and the SHA-1 message digest of the stream is calculated. If a
      * record with the same SHA-1 digest (and length) is found then it is
      * returned. Otherwise the temporary file is moved in place to become
-     * the new data record that gets returned.
+     * the new data record that gets returned. If compression is enabled and
+     * the record compresses well, a compressed copy of the temporary file is
+     * moved in place instead.
      *
      * @param input binary stream
      * @return data record that contains the given stream
@@ -182,6 +249,7 @@ public class FileDataStore implements DataStore {
      */
     public DataRecord addRecord(InputStream input) throws DataStoreException {
         File temporary = null;
+        File compressed = null;
         try {
             temporary = newTemporaryFile();
             DataIdentifier tempId = new DataIdentifier(temporary.getName());
@@ -198,22 +266,34 @@ public class FileDataStore implements DataStore {
                 output.close();
             }
             DataIdentifier identifier = new DataIdentifier(digest.digest());
-            File file;
+            File file = getFile(identifier);
+            File source = temporary;
+            if (compressThreshold > 0 && length >= compressThreshold
+                    && !file.exists() && !getCompressedFile(file).exists()
+                    && isCompressible(temporary)) {
+                compressed = compress(temporary, length);
+                source = compressed;
+            }
 
-            synchronized (this) {
+            DataRecord record;
+            synchronized (getLock(identifier)) {
                 // Check if the same record already exists, or
                 // move the temporary file in place if needed
                 usesIdentifier(identifier);
-                file = getFile(identifier);
-                File parent = file.getParentFile();
-                if (!parent.isDirectory()) {
-                    parent.mkdirs();
+                if (!file.exists() && (source == compressed
+                        || getCompressedFile(file).exists())) {
+                    file = getCompressedFile(file);
                 }
                 if (!file.exists()) {
-                    temporary.renameTo(file);
+                    // the garbage collector may remove the empty parent
+                    // directory between mkdirs and renameTo
+                    for (int i = 0; i < RENAME_RETRIES && !file.exists(); i++) {
+                        file.getParentFile().mkdirs();
+                        source.renameTo(file);
+                    }
                     if (!file.exists()) {
                         throw new IOException(
-                                "Can not rename " + temporary.getAbsolutePath()
+                                "Can not rename " + source.getAbsolutePath()
                                 + " to " + file.getAbsolutePath()
                                 + " (media read only?)");
                     }
@@ -228,14 +308,21 @@ public class FileDataStore implements DataStore {
                 if (!file.isFile()) {
                     throw new IOException("Not a file: " + file);
                 }
-                if (file.length() != length) {
+                if (file.getName().endsWith(COMPRESSED)) {
+                    record = new CompressedFileDataRecord(identifier, file);
+                } else {
+                    record = new FileDataRecord(identifier, file);
+                }
+                // the length is checked while the lock prevents
+                // a concurrent delete of the file
+                if (record.getLength() != length) {
                     throw new IOException(DIGEST + " collision: " + file);
                 }
             }
             // this will also make sure that
             // tempId is not garbage collected until here
             inUse.remove(tempId);
-            return new FileDataRecord(identifier, file);
+            return record;
         } catch (NoSuchAlgorithmException e) {
             throw new DataStoreException(DIGEST + " not available", e);
         } catch (IOException e) {
@@ -244,9 +331,82 @@ public class FileDataStore implements DataStore {
             if (temporary != null) {
                 temporary.delete();
             }
+            if (compressed != null) {
+                compressed.delete();
+            }
         }
     }
 
+    /**
+     * Checks whether a record compresses well by compressing its start.
+     *
+     * @param file the file that contains the record
+     * @return true if the record should be compressed
+     */
+    private static boolean isCompressible(File file) throws IOException {
+        byte[] probe = new byte[PROBE_SIZE];
+        int len = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            while (len < probe.length) {
+                int l = in.read(probe, len, probe.length - len);
+                if (l < 0) {
+                    break;
+                }
+                len += l;
+            }
+        } finally {
+            in.close();
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(probe, 0, len);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            return compressed * 100 <= (long) len * MAX_COMPRESSED_PERCENT;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes a compressed copy of a record to a new temporary file. The
+     * deflated data is followed by the uncompressed length as a long.
+     *
+     * @param file the file that contains the record
+     * @param length the length of the record
+     * @return the temporary file that contains the compressed record
+     */
+    private File compress(File file, long length) throws IOException {
+        File compressed = newTemporaryFile();
+        Deflater deflater = new Deflater();
+        InputStream in = new FileInputStream(file);
+        try {
+            OutputStream out = new FileOutputStream(compressed);
+            try {
+                DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater, 8192);
+                IOUtils.copyLarge(in, deflate);
+                deflate.finish();
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeLong(length);
+                data.flush();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            compressed.delete();
+            throw e;
+        } finally {
+            in.close();
+            deflater.end();
+        }
+        return compressed;
+    }
+
     /**
      * Returns the identified file. This method implements the pattern
      * used to avoid problems with too many files in a single directory.
@@ -266,6 +426,39 @@ public class FileDataStore implements DataStore {
         return new File(file, string);
     }
 
+    /**
+     * Returns the lock that guards the file of a record.
+     *
+     * @param identifier data identifier
+     * @return the lock
+     */
+    private Object getLock(DataIdentifier identifier) {
+        return locks[(identifier.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    /**
+     * Returns the file of a compressed record.
+     *
+     * @param file the file of the uncompressed record
+     * @return the file of the compressed record
+     */
+    private static File getCompressedFile(File file) {
+        return new File(file.getParentFile(), file.getName() + COMPRESSED);
+    }
+
+    /**
+     * Returns the data identifier of a record file.
+     *
+     * @param name the file name
+     * @return the data identifier
+     */
+    private static DataIdentifier getIdentifier(String name) {
+        if (name.endsWith(COMPRESSED)) {
+            name = name.substring(0, name.length() - COMPRESSED.length());
+        }
+        return new DataIdentifier(name);
+    }
+
     /**
      * Returns a unique temporary file to be used for creating a new
      * data record.
@@ -294,13 +487,39 @@ public class FileDataStore implements DataStore {
         return deleteOlderRecursive(directory, min);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean deleteRecord(DataIdentifier identifier, long min) {
+        File file;
+        synchronized (getLock(identifier)) {
+            if (inUse.containsKey(identifier)) {
+                return false;
+            }
+            file = getFile(identifier);
+            if (!file.exists()) {
+                file = getCompressedFile(file);
+            }
+            if (!file.exists() || file.lastModified() >= min || !file.delete()) {
+                return false;
+            }
+        }
+        // remove empty parent directories (but not the root), a directory
+        // that is not empty is not deleted
+        for (File dir = file.getParentFile();
+                !dir.equals(directory) && dir.delete();
+                dir = dir.getParentFile()) {
+            // continue with the parent
+        }
+        return true;
+    }
+
     private int deleteOlderRecursive(File file, long min) {
         int count = 0;
         if (file.isFile() && file.exists() && file.canWrite()) {
-            synchronized (this) {
-                String fileName = file.getName();
+            DataIdentifier id = getIdentifier(file.getName());
+            synchronized (getLock(id)) {
                 if (file.lastModified() < min) {
-                    DataIdentifier id = new DataIdentifier(fileName);
                     if (!inUse.containsKey(id)) {
                         file.delete();
                         count++;
@@ -309,48 +528,27 @@ public class FileDataStore implements DataStore {
             }
         } else if (file.isDirectory()) {
             File[] list = file.listFiles();
-            for (int i = 0; i < list.length; i++) {
+            for (int i = 0; list != null && i < list.length; i++) {
                 count += deleteOlderRecursive(list[i], min);
             }
             // JCR-1396: FileDataStore Garbage Collector and empty directories
             // Automatic removal of empty directories (but not the root!)
-            synchronized (this) {
-                if (file != directory && file.list().length == 0) {
-                    file.delete();
-                }
+            // delete fails if a record was added concurrently
+            if (file != directory) {
+                file.delete();
             }
         }
         return count;
     }
 
-    private void listRecursive(List list, File file) {
-        File[] l = file.listFiles();
-        for (int i = 0; l != null && i < l.length; i++) {
-            File f = l[i];
-            if (f.isDirectory()) {
-                listRecursive(list, f);
-            } else {
-                list.add(f);
-            }
-        }
-    }
-
     /**
      * {@inheritDoc}
+     * <p>
+     * The directories are listed while iterating, so that only the listings
+     * of the directories on the current path are kept in memory.
      */
     public Iterator getAllIdentifiers() {
-        ArrayList files = new ArrayList();
-        listRecursive(files, directory);
-        ArrayList identifiers = new ArrayList();
-        for (int i = 0; i < files.size(); i++) {
-            File f = (File) files.get(i);
-            String name = f.getName();
-            if (!name.startsWith(TMP)) {
-                DataIdentifier id = new DataIdentifier(name);
-                identifiers.add(id);
-            }
-        }
-        return identifiers.iterator();
+        return new IdentifierIterator(directory);
     }
 
     /**
@@ -394,10 +592,93 @@ public class FileDataStore implements DataStore {
         this.minRecordLength = minRecordLength;
     }
 
+    /**
+     * Get the minimum size of a record that is compressed.
+     *
+     * @return the size in bytes, 0 if compression is disabled
+     */
+    public long getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    /**
+     * Set the minimum size of a record that is compressed, 0 to disable
+     * compression. Records of at least this size are compressed if their
+     * first 64 KB compress to 80% or less, so that records in formats that
+     * are already compressed, like JPEG or ZIP, are stored as they are.
+     * Compression reduces the disk space and the number of bytes read from
+     * disk, but the records are written twice when they are added, and
+     * range reads decompress the bytes before the range. The default is 0.
+     *
+     * @param compressThreshold the size in bytes
+     */
+    public void setCompressThreshold(long compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void close() {
     }
 
+    /**
+     * Iterates over the identifiers of the record files in a directory and
+     * its sub directories. Temporary files are skipped.
+     */
+    private static final class IdentifierIterator implements Iterator {
+
+        /**
+         * The iterators over the listings of the directories on the current
+         * path, the innermost directory first.
+         */
+        private final LinkedList stack = new LinkedList();
+
+        /**
+         * The next identifier or <code>null</code> if not yet read.
+         */
+        private DataIdentifier next;
+
+        IdentifierIterator(File directory) {
+            push(directory);
+        }
+
+        private void push(File directory) {
+            File[] list = directory.listFiles();
+            if (list != null) {
+                stack.addFirst(Arrays.asList(list).iterator());
+            }
+        }
+
+        public boolean hasNext() {
+            while (next == null && !stack.isEmpty()) {
+                Iterator it = (Iterator) stack.getFirst();
+                if (!it.hasNext()) {
+                    stack.removeFirst();
+                    continue;
+                }
+                File f = (File) it.next();
+                if (f.isDirectory()) {
+                    push(f);
+                } else if (!f.getName().startsWith(TMP)) {
+                    next = getIdentifier(f.getName());
+                }
+            }
+            return next != null;
+        }
+
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            DataIdentifier id = next;
+            next = null;
+            return id;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
 }
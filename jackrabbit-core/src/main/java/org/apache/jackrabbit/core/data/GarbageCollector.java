@@ -24,6 +24,7 @@ import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.SessionListener;
 import org.apache.jackrabbit.core.observation.SynchronousEventListener;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
 import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeState;
@@ -32,9 +33,14 @@ import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.spi.Name;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import EDU.oswego.cs.dl.util.concurrent.Callable;
+import EDU.oswego.cs.dl.util.concurrent.FutureResult;
+import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
 import EDU.oswego.cs.dl.util.concurrent.SynchronizedBoolean;
 
 import javax.jcr.Item;
@@ -60,6 +66,13 @@ import javax.jcr.observation.ObservationManager;
  * entries are detected because the modified date is changed when they are
  * added.
  * <p>
+ * If the data store implements {@link DeletableDataStore}, the mark and sweep
+ * mode can be enabled with {@link #setMarkSweep(boolean)}. In this mode the
+ * scan does not access the data store; the identifiers of the referenced
+ * records are written to a sorted temporary file instead, and only the
+ * unreferenced records are deleted. Records that are added or accessed while
+ * the scan runs are protected by their modified date as before.
+ * <p>
  * Example code to run the data store garbage collection:
  * <pre>
  * GarbageCollector gc = ((SessionImpl)session).createDataStoreGarbageCollector();
@@ -80,6 +93,16 @@ public class GarbageCollector {
 
     private long startScanTimestamp;
 
+    /**
+     * The number of node ids that are scanned in parallel at once.
+     */
+    private static final int SCAN_CHUNK_SIZE = 1000;
+
+    /**
+     * The time in milliseconds idle scan threads are kept.
+     */
+    private static final long SCAN_THREAD_KEEP_ALIVE = 1000;
+
     private final ArrayList listeners = new ArrayList();
 
     private final IterablePersistenceManager[] pmList;
@@ -91,6 +114,26 @@ public class GarbageCollector {
 
     private boolean persistenceManagerScan;
 
+    private boolean markSweep;
+
+    private int scanThreads = 1;
+
+    private int maxNodesPerSecond;
+
+    private final Object throttleLock = new Object();
+
+    private long throttleStart;
+
+    private long throttleCount;
+
+    private PooledExecutor executor;
+
+    /**
+     * The identifiers of the referenced records in the mark and sweep mode,
+     * or null.
+     */
+    private SortedIdentifierFile marked;
+
     // TODO It should be possible to stop and restart a garbage collection scan.
 
     /**
@@ -131,6 +174,47 @@ public class GarbageCollector {
         this.sleepBetweenNodes = millis;
     }
 
+    /**
+     * Set the number of threads that scan the persistence managers. Each
+     * thread reads a part of the node ids. The scan event listener is then
+     * called concurrently from these threads. The scan that uses the JCR API
+     * always runs in the calling thread. The default is 1.
+     *
+     * @param threads the number of threads
+     */
+    public void setScanThreads(int threads) {
+        this.scanThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Get the number of threads that scan the persistence managers.
+     *
+     * @return the number of threads
+     */
+    public int getScanThreads() {
+        return scanThreads;
+    }
+
+    /**
+     * Limit the number of nodes that are scanned per second, over all scan
+     * threads. Unlike {@link #setSleepBetweenNodes(int)}, the scan only waits
+     * if it is faster than this rate. The default is 0, meaning no limit.
+     *
+     * @param maxNodesPerSecond the maximum number of nodes per second
+     */
+    public void setMaxNodesPerSecond(int maxNodesPerSecond) {
+        this.maxNodesPerSecond = maxNodesPerSecond;
+    }
+
+    /**
+     * Get the maximum number of nodes that are scanned per second.
+     *
+     * @return the maximum number of nodes per second, or 0 for no limit
+     */
+    public int getMaxNodesPerSecond() {
+        return maxNodesPerSecond;
+    }
+
     /**
      * When testing the garbage collection, a delay is used instead of simulating concurrent access.
      *
@@ -167,11 +251,24 @@ public class GarbageCollector {
         if (store == null) {
             throw new RepositoryException("No DataStore configured.");
         }
+        if (markSweep && !(store instanceof DeletableDataStore)) {
+            throw new RepositoryException(
+                    "The data store does not support the mark and sweep mode.");
+        }
+        if (markSweep && marked == null) {
+            marked = new SortedIdentifierFile();
+        }
         long now = System.currentTimeMillis();
         if (startScanTimestamp == 0) {
             startScanTimestamp = now;
             store.updateModifiedDateOnAccess(startScanTimestamp);
         }
+        synchronized (throttleLock) {
+            // the scan rate applies to each scan, a previous scan or a
+            // pause between scans must not allow a burst
+            throttleStart = 0;
+            throttleCount = 0;
+        }
 
         if (pmList == null || !persistenceManagerScan) {
             for (int i = 0; i < sessionList.length; i++) {
@@ -180,6 +277,34 @@ public class GarbageCollector {
         } else {
             scanPersistenceManagers();
         }
+        scanInlinedRecords();
+    }
+
+    /**
+     * Mark the records that were moved into bundles since the repository was
+     * started. Item states that were cached before still reference them.
+     */
+    private void scanInlinedRecords()
+            throws RepositoryException, IOException {
+        if (pmList == null) {
+            return;
+        }
+        for (int i = 0; i < pmList.length; i++) {
+            if (!(pmList[i] instanceof AbstractBundlePersistenceManager)) {
+                continue;
+            }
+            Set ids = ((AbstractBundlePersistenceManager) pmList[i])
+                    .getInlinedIdentifiers();
+            for (Iterator it = ids.iterator(); it.hasNext();) {
+                DataIdentifier id = (DataIdentifier) it.next();
+                if (marked != null) {
+                    marked.add(id);
+                } else {
+                    // updates the modified date
+                    store.getRecordIfStored(id);
+                }
+            }
+        }
     }
 
     private void scanNodes(Session session)
@@ -215,41 +340,190 @@ public class GarbageCollector {
         return persistenceManagerScan;
     }
 
-    private void scanPersistenceManagers() throws ItemStateException, RepositoryException {
+    /**
+     * Enable or disable the mark and sweep mode. In this mode, the scan
+     * collects the identifiers of the referenced records without accessing
+     * the data store, and {@link #deleteUnused()} deletes the records that
+     * were not found. This avoids updating the modified date of every
+     * referenced record. The data store must implement
+     * {@link DeletableDataStore}. The default is false.
+     *
+     * @param markSweep true to enable the mark and sweep mode
+     */
+    public void setMarkSweep(boolean markSweep) {
+        this.markSweep = markSweep;
+    }
+
+    /**
+     * Check if the mark and sweep mode is enabled.
+     *
+     * @return true if the mark and sweep mode is enabled
+     */
+    public boolean getMarkSweep() {
+        return markSweep;
+    }
+
+    private void scanPersistenceManagers()
+            throws ItemStateException, RepositoryException, IOException {
         for (int i = 0; i < pmList.length; i++) {
             IterablePersistenceManager pm = pmList[i];
             Iterator it = pm.getAllNodeIds(null, 0);
-            while (it.hasNext()) {
-                NodeId id = (NodeId) it.next();
-                if (callback != null) {
-                    callback.beforeScanning(null);
+            if (scanThreads <= 1) {
+                while (it.hasNext()) {
+                    scanNode(pm, (NodeId) it.next());
                 }
-                try {
-                    NodeState state = pm.load(id);
-                    Set propertyNames = state.getPropertyNames();
-                    for (Iterator nameIt = propertyNames.iterator(); nameIt
-                            .hasNext();) {
-                        Name name = (Name) nameIt.next();
-                        PropertyId pid = new PropertyId(id, name);
-                        PropertyState ps = pm.load(pid);
-                        if (ps.getType() == PropertyType.BINARY) {
-                            InternalValue[] values = ps.getValues();
-                            for (int j = 0; j < values.length; j++) {
-                                values[j].getBLOBFileValue().getLength();
-                            }
+            } else {
+                ArrayList ids = new ArrayList();
+                while (it.hasNext()) {
+                    ids.add(it.next());
+                    if (ids.size() == SCAN_CHUNK_SIZE || !it.hasNext()) {
+                        scanNodes(pm, ids);
+                        ids.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Scan the nodes with the given ids using the scan threads.
+     *
+     * @param pm the persistence manager
+     * @param ids the node ids
+     */
+    private void scanNodes(final IterablePersistenceManager pm, List ids)
+            throws ItemStateException, RepositoryException, IOException {
+        int parts = Math.min(scanThreads, ids.size());
+        PooledExecutor executor = getExecutor();
+        FutureResult[] results = new FutureResult[parts];
+        for (int i = 0; i < parts; i++) {
+            final List part = ids.subList(
+                    i * ids.size() / parts, (i + 1) * ids.size() / parts);
+            results[i] = new FutureResult();
+            try {
+                executor.execute(results[i].setter(new Callable() {
+                    public Object call() throws Exception {
+                        for (Iterator it = part.iterator(); it.hasNext();) {
+                            scanNode(pm, (NodeId) it.next());
                         }
+                        return null;
                     }
-                } catch (NoSuchItemStateException e) {
-                    // the node may have been deleted or moved in the meantime
-                    // ignore it
+                }));
+            } catch (InterruptedException e) {
+                throw new RepositoryException("Scan interrupted", e);
+            }
+        }
+        for (int i = 0; i < parts; i++) {
+            try {
+                results[i].get();
+            } catch (InterruptedException e) {
+                throw new RepositoryException("Scan interrupted", e);
+            } catch (InvocationTargetException e) {
+                Throwable t = e.getCause();
+                if (t instanceof ItemStateException) {
+                    throw (ItemStateException) t;
+                } else if (t instanceof RepositoryException) {
+                    throw (RepositoryException) t;
+                } else if (t instanceof IOException) {
+                    throw (IOException) t;
+                } else if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                } else {
+                    throw new RepositoryException(t);
                 }
-                if (callback != null) {
-                    callback.afterScanning(null);
+            }
+        }
+    }
+
+    /**
+     * Scan the binary properties of a node.
+     *
+     * @param pm the persistence manager
+     * @param id the node id
+     */
+    private void scanNode(IterablePersistenceManager pm, NodeId id)
+            throws ItemStateException, RepositoryException, IOException {
+        throttle();
+        if (callback != null) {
+            callback.beforeScanning(null);
+        }
+        try {
+            if (pm instanceof AbstractBundlePersistenceManager) {
+                // read the bundle without creating item states
+                scanValues(((AbstractBundlePersistenceManager) pm).getBinaryValues(id));
+            } else {
+                NodeState state = pm.load(id);
+                Set propertyNames = state.getPropertyNames();
+                for (Iterator nameIt = propertyNames.iterator(); nameIt
+                        .hasNext();) {
+                    Name name = (Name) nameIt.next();
+                    PropertyId pid = new PropertyId(id, name);
+                    PropertyState ps = pm.load(pid);
+                    if (ps.getType() == PropertyType.BINARY) {
+                        scanValues(ps.getValues());
+                    }
                 }
             }
+        } catch (NoSuchItemStateException e) {
+            // the node may have been deleted or moved in the meantime
+            // ignore it
+        }
+        if (callback != null) {
+            callback.afterScanning(null);
         }
     }
 
+    /**
+     * Mark the binary values as referenced, either by adding them to the set
+     * of referenced records or by updating their modified date.
+     *
+     * @param values the binary values
+     */
+    private void scanValues(InternalValue[] values)
+            throws RepositoryException, IOException {
+        if (marked != null) {
+            mark(values);
+        } else {
+            for (int j = 0; j < values.length; j++) {
+                values[j].getBLOBFileValue().getLength();
+            }
+        }
+    }
+
+    /**
+     * Wait if more nodes were scanned than allowed by the maximum scan rate.
+     */
+    private void throttle() {
+        if (maxNodesPerSecond <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (throttleLock) {
+            long now = System.currentTimeMillis();
+            if (throttleStart == 0) {
+                throttleStart = now;
+            }
+            throttleCount++;
+            wait = throttleStart + throttleCount * 1000 / maxNodesPerSecond - now;
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+
+    private synchronized PooledExecutor getExecutor() {
+        if (executor == null) {
+            executor = new PooledExecutor(scanThreads);
+            executor.setMinimumPoolSize(scanThreads);
+            executor.setKeepAliveTime(SCAN_THREAD_KEEP_ALIVE);
+        }
+        return executor;
+    }
+
     /**
      * The repository was scanned. This method will stop the observation
      * listener.
@@ -275,9 +549,54 @@ public class GarbageCollector {
     public int deleteUnused() throws RepositoryException {
         checkScanStarted();
         checkScanStopped();
+        if (marked != null) {
+            return sweep();
+        }
         return store.deleteAllOlderThan(startScanTimestamp);
     }
 
+    /**
+     * Delete the records that are not in the sorted set of referenced
+     * records and that are older than the start of the scan.
+     *
+     * @return the number of deleted items
+     */
+    private int sweep() throws RepositoryException {
+        DeletableDataStore ds = (DeletableDataStore) store;
+        SortedIdentifierFile all = new SortedIdentifierFile();
+        SortedIdentifierFile.Reader used = null;
+        SortedIdentifierFile.Reader ids = null;
+        try {
+            for (Iterator it = store.getAllIdentifiers(); it.hasNext();) {
+                all.add((DataIdentifier) it.next());
+            }
+            used = marked.open();
+            ids = all.open();
+            int count = 0;
+            String u = used.next();
+            for (String id = ids.next(); id != null; id = ids.next()) {
+                while (u != null && u.compareTo(id) < 0) {
+                    u = used.next();
+                }
+                if (!id.equals(u)
+                        && ds.deleteRecord(new DataIdentifier(id), startScanTimestamp)) {
+                    count++;
+                }
+            }
+            return count;
+        } catch (IOException e) {
+            throw new RepositoryException("Could not read the identifiers", e);
+        } finally {
+            if (used != null) {
+                used.close();
+            }
+            if (ids != null) {
+                ids.close();
+            }
+            all.delete();
+        }
+    }
+
     private void checkScanStarted() throws RepositoryException {
         if (startScanTimestamp == 0) {
             throw new RepositoryException("scan must be called first");
@@ -308,6 +627,7 @@ public class GarbageCollector {
                 // ignore
             }
         }
+        throttle();
         if (callback != null) {
             callback.beforeScanning(n);
         }
@@ -319,7 +639,13 @@ public class GarbageCollector {
                 } else {
                     rememberNode(n.getPath());
                 }
-                if (p.isMultiple()) {
+                if (marked != null) {
+                    if (p.isMultiple()) {
+                        mark(p.internalGetValues());
+                    } else {
+                        mark(new InternalValue[] {p.internalGetValue()});
+                    }
+                } else if (p.isMultiple()) {
                     p.getLengths();
                 } else {
                     p.getLength();
@@ -334,6 +660,21 @@ public class GarbageCollector {
         }
     }
 
+    /**
+     * Add the identifiers of binary values in the data store to the set of
+     * referenced records.
+     *
+     * @param values the binary values
+     */
+    private void mark(InternalValue[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            DataIdentifier id = values[i].getBLOBFileValue().getDataIdentifier();
+            if (id != null) {
+                marked.add(id);
+            }
+        }
+    }
+
     private void rememberNode(String path) {
         // Do nothing at the moment
         // TODO It may be possible to delete some items early
@@ -378,6 +719,15 @@ public class GarbageCollector {
             for (int i = 0; i < sessionList.length; i++) {
                 sessionList[i].logout();
             }
+            if (marked != null) {
+                marked.delete();
+            }
+            synchronized (this) {
+                if (executor != null) {
+                    executor.shutdownAfterProcessingCurrentlyQueuedTasks();
+                    executor = null;
+                }
+            }
         }
     }
 
@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A set of data identifiers that is sorted in temporary files, so that the
+ * number of identifiers is not limited by the available memory. Identifiers
+ * are sorted in memory in runs of limited size, the runs are written to
+ * temporary files and merged when the set is read.
+ */
+class SortedIdentifierFile {
+
+    /**
+     * The number of identifiers that are sorted in memory.
+     */
+    private static final int RUN_SIZE = 100000;
+
+    /**
+     * The maximum number of files that are merged at once.
+     */
+    private static final int MERGE_SIZE = 32;
+
+    /**
+     * The encoding of the temporary files.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The identifiers that are not yet written to a file.
+     */
+    private final TreeSet buffer = new TreeSet();
+
+    /**
+     * The temporary files, each file contains sorted identifiers.
+     * <p/>
+     * The exact type is: <code>LinkedList&lt;File></code>
+     */
+    private final LinkedList runs = new LinkedList();
+
+    /**
+     * Adds an identifier.
+     *
+     * @param identifier the data identifier
+     * @throws IOException if a temporary file could not be written
+     */
+    synchronized void add(DataIdentifier identifier) throws IOException {
+        buffer.add(identifier.toString());
+        if (buffer.size() >= RUN_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Returns a reader over the sorted identifiers without duplicates.
+     * Identifiers that are added afterwards are only returned by readers
+     * opened later.
+     *
+     * @return the reader, which must be closed
+     * @throws IOException if the temporary files could not be merged
+     */
+    synchronized Reader open() throws IOException {
+        flush();
+        while (runs.size() > 1) {
+            List group = new ArrayList();
+            while (group.size() < MERGE_SIZE && !runs.isEmpty()) {
+                group.add(runs.removeFirst());
+            }
+            runs.addLast(merge(group));
+        }
+        return new Reader(runs.isEmpty() ? null : (File) runs.getFirst());
+    }
+
+    /**
+     * Deletes the temporary files.
+     */
+    synchronized void delete() {
+        for (Iterator it = runs.iterator(); it.hasNext();) {
+            ((File) it.next()).delete();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffered identifiers to a new temporary file.
+     */
+    private void flush() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        File file = File.createTempFile("ids", ".txt");
+        Writer writer = createWriter(file);
+        try {
+            for (Iterator it = buffer.iterator(); it.hasNext();) {
+                writer.write((String) it.next());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        buffer.clear();
+        runs.addLast(file);
+    }
+
+    /**
+     * Merges sorted files into a new file and deletes them.
+     *
+     * @param files the files
+     * @return the merged file
+     */
+    private static File merge(List files) throws IOException {
+        File file = File.createTempFile("ids", ".txt");
+        Reader[] readers = new Reader[files.size()];
+        String[] current = new String[readers.length];
+        Writer writer = createWriter(file);
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = new Reader((File) files.get(i));
+                current[i] = readers[i].next();
+            }
+            String last = null;
+            while (true) {
+                int min = -1;
+                for (int i = 0; i < readers.length; i++) {
+                    if (current[i] != null && (min < 0
+                            || current[i].compareTo(current[min]) < 0)) {
+                        min = i;
+                    }
+                }
+                if (min < 0) {
+                    break;
+                }
+                if (!current[min].equals(last)) {
+                    last = current[min];
+                    writer.write(last);
+                    writer.write('\n');
+                }
+                current[min] = readers[min].next();
+            }
+        } finally {
+            writer.close();
+            for (int i = 0; i < readers.length; i++) {
+                if (readers[i] != null) {
+                    readers[i].close();
+                }
+            }
+        }
+        for (int i = 0; i < readers.length; i++) {
+            ((File) files.get(i)).delete();
+        }
+        return file;
+    }
+
+    private static Writer createWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), ENCODING));
+    }
+
+    /**
+     * Reads the identifiers of a file in sorted order.
+     */
+    static class Reader {
+
+        private final BufferedReader reader;
+
+        Reader(File file) throws IOException {
+            if (file == null) {
+                reader = null;
+            } else {
+                reader = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(file), ENCODING));
+            }
+        }
+
+        /**
+         * Returns the next identifier.
+         *
+         * @return the identifier or <code>null</code> if there are no more
+         * @throws IOException if the file could not be read
+         */
+        String next() throws IOException {
+            return reader == null ? null : reader.readLine();
+        }
+
+        /**
+         * Closes the file.
+         */
+        void close() {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A record of a {@link WriteBehindDataStore} that is in the local directory.
+ * The record is read from the local directory, or from the backend if it was
+ * uploaded and deleted from the local directory in the meantime.
+ */
+class WriteBehindDataRecord extends AbstractDataRecord {
+
+    /**
+     * The data store.
+     */
+    private final WriteBehindDataStore store;
+
+    /**
+     * The record in the local directory.
+     */
+    private final DataRecord local;
+
+    /**
+     * The length of the record.
+     */
+    private final long length;
+
+    /**
+     * Creates a record for a record in the local directory.
+     *
+     * @param store  the data store
+     * @param local  the record in the local directory
+     * @param length the length of the record, read while the local copy
+     *               was known to exist
+     */
+    WriteBehindDataRecord(WriteBehindDataStore store, DataRecord local,
+            long length) {
+        super(local.getIdentifier());
+        this.store = store;
+        this.local = local;
+        this.length = length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getStream() throws DataStoreException {
+        try {
+            InputStream in = local.getStream();
+            try {
+                // opens the file, so that it can be read even if
+                // it is deleted after the upload
+                in.available();
+                return in;
+            } catch (IOException e) {
+                in.close();
+            }
+        } catch (IOException e) {
+            // uploaded and deleted
+        } catch (DataStoreException e) {
+            // uploaded and deleted
+        }
+        return store.getBackendRecord(getIdentifier()).getStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getStream(long offset, long length)
+            throws DataStoreException {
+        try {
+            return local.getStream(offset, length);
+        } catch (DataStoreException e) {
+            // uploaded and deleted
+            return store.getBackendRecord(getIdentifier()).getStream(offset, length);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLastModified() {
+        long lastModified = local.getLastModified();
+        if (lastModified == 0) {
+            // uploaded and deleted
+            try {
+                lastModified = store.getBackendRecord(getIdentifier()).getLastModified();
+            } catch (DataStoreException e) {
+                // ignore
+            }
+        }
+        return lastModified;
+    }
+
+}
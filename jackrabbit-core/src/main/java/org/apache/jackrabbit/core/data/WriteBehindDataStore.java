@@ -0,0 +1,643 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.jackrabbit.core.config.BeanConfig;
+import org.apache.jackrabbit.util.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A data store that adds records to a local directory first and uploads
+ * them to a backend data store in the background. New records are
+ * available as soon as they are written to the local directory, so that
+ * saving large binaries does not wait for a slow backend such as a
+ * database or a file system on a network drive.
+ * <p>
+ * Configuration:
+ * <pre>
+ * &lt;DataStore class="org.apache.jackrabbit.core.data.WriteBehindDataStore">
+ *     &lt;param name="{@link #setBackendClass(String) backendClass}" value="org.apache.jackrabbit.core.data.db.DbDataStore"/>
+ *     &lt;param name="{@link #setBackendConfig(String) backendConfig}" value="${rep.home}/datastore.properties"/>
+ *     &lt;param name="{@link #setPath(String) path}" value="${rep.home}/repository/datastore-pending"/>
+ *     &lt;param name="{@link #setUploadThreads(int) uploadThreads}" value="1"/>
+ *     &lt;param name="{@link #setRetryDelay(long) retryDelay}" value="10000"/>
+ * &lt/DataStore>
+ * </pre>
+ * <p>
+ * The local directory is a {@link FileDataStore}. A record in the local
+ * directory is pending until it is uploaded. Records that are still in the
+ * local directory when the data store is started again are uploaded again
+ * (unless the backend has them already), so no pending record is lost if
+ * the repository is stopped. A failed upload is retried after the retry
+ * delay until it succeeds.
+ * <p>
+ * An uploaded record is deleted from the local directory once the local
+ * store no longer uses it, that is when no record object of it is
+ * referenced and it is not being added again. Until then it is read from
+ * the local directory. The deletion is retried after the retry delay.
+ * <p>
+ * The garbage collection only deletes records in the backend. Pending
+ * records are new and therefore never deleted.
+ */
+public class WriteBehindDataStore implements DataStore {
+
+    /**
+     * Logger instance
+     */
+    private static Logger log = LoggerFactory.getLogger(WriteBehindDataStore.class);
+
+    /**
+     * The backend data store.
+     */
+    private DataStore backend;
+
+    /**
+     * The class name of the backend data store.
+     */
+    private String backendClass;
+
+    /**
+     * The name of the properties file with the configuration of the backend.
+     */
+    private String backendConfig;
+
+    /**
+     * The name of the local directory.
+     */
+    private String path;
+
+    /**
+     * The number of upload threads.
+     */
+    private int uploadThreads = 1;
+
+    /**
+     * The time in milliseconds to wait before a failed upload is retried.
+     */
+    private long retryDelay = 10000;
+
+    /**
+     * The local store of pending records.
+     */
+    private FileDataStore local;
+
+    /**
+     * The pending records that are not being uploaded, in upload order.
+     * <p/>
+     * The exact type is: <code>LinkedList&lt;DataIdentifier></code>
+     */
+    private final LinkedList queue = new LinkedList();
+
+    /**
+     * The identifiers of all pending records, including the records that
+     * are being uploaded. This object is also used to synchronize access to
+     * the queue.
+     * <p/>
+     * The exact type is: <code>Set&lt;DataIdentifier></code>
+     */
+    private final Set pending = new HashSet();
+
+    /**
+     * The identifiers of the uploaded records that could not yet be deleted
+     * from the local directory, because the local store still uses them.
+     * This set is synchronized on the set of pending records.
+     * <p/>
+     * The exact type is: <code>Set&lt;DataIdentifier></code>
+     */
+    private final Set uploaded = new HashSet();
+
+    /**
+     * The upload threads.
+     */
+    private Thread[] uploaders = new Thread[0];
+
+    /**
+     * Set when the data store is closed.
+     */
+    private boolean closed;
+
+    /**
+     * Initialized the data store. The backend is created if it is not set,
+     * the local directory &lt;repository home&gt;/repository/datastore-pending
+     * is used if the path is not set, and the records that are still in the
+     * local directory are queued for upload.
+     *
+     * @param homeDir the home directory of the repository
+     * @throws RepositoryException if the backend could not be created
+     */
+    public void init(String homeDir) throws RepositoryException {
+        if (backend == null) {
+            if (backendClass == null) {
+                throw new DataStoreException("The backend class is not set");
+            }
+            Properties prop = new Properties();
+            if (backendConfig != null) {
+                try {
+                    InputStream in = new FileInputStream(backendConfig);
+                    try {
+                        prop.load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    throw new DataStoreException(
+                            "Could not read the backend configuration " + backendConfig, e);
+                }
+                for (Iterator it = prop.keySet().iterator(); it.hasNext();) {
+                    String key = (String) it.next();
+                    prop.setProperty(key, Text.replace(
+                            prop.getProperty(key), "${rep.home}", homeDir));
+                }
+            }
+            backend = (DataStore) new BeanConfig(backendClass, prop).newInstance();
+        }
+        backend.init(homeDir);
+        if (path == null) {
+            path = homeDir + "/repository/datastore-pending";
+        }
+        local = new FileDataStore();
+        local.setPath(path);
+        local.init(homeDir);
+        synchronized (pending) {
+            for (Iterator it = local.getAllIdentifiers(); it.hasNext();) {
+                enqueue((DataIdentifier) it.next());
+            }
+            if (!pending.isEmpty()) {
+                log.info(pending.size() + " pending records are uploaded again");
+            }
+        }
+        uploaders = new Thread[uploadThreads];
+        for (int i = 0; i < uploaders.length; i++) {
+            uploaders[i] = new Thread(new Runnable() {
+                public void run() {
+                    uploadPending();
+                }
+            }, "WriteBehindDataStore uploader " + i);
+            uploaders[i].setDaemon(true);
+            uploaders[i].start();
+        }
+    }
+
+    /**
+     * Creates a new data record in the local directory and queues it for
+     * upload. The method returns as soon as the stream is written to the
+     * local directory.
+     *
+     * @param stream binary stream
+     * @return data record that contains the given stream
+     * @throws DataStoreException if the record could not be created
+     */
+    public DataRecord addRecord(InputStream stream) throws DataStoreException {
+        // the length is counted, the local copy might be uploaded
+        // and deleted before it could be read from the file
+        CountingInputStream in = new CountingInputStream(stream);
+        DataRecord record = local.addRecord(in);
+        synchronized (pending) {
+            enqueue(record.getIdentifier());
+        }
+        return new WriteBehindDataRecord(this, record, in.getByteCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A record that is in the local directory is read from there. If the
+     * record is already uploaded, it is also accessed in the backend, so
+     * that the garbage collector does not delete the backend copy while
+     * the local copy is still in use.
+     */
+    public DataRecord getRecordIfStored(DataIdentifier identifier)
+            throws DataStoreException {
+        DataRecord record = local.getRecordIfStored(identifier);
+        if (record != null) {
+            long length = record.getLength();
+            // the length is only valid if the local copy still exists
+            // after it was read, otherwise the backend has the record
+            if (local.getRecordIfStored(identifier) != null) {
+                boolean uploaded;
+                synchronized (pending) {
+                    uploaded = !pending.contains(identifier);
+                }
+                if (uploaded) {
+                    // updates the modified date of the backend copy
+                    backend.getRecordIfStored(identifier);
+                }
+                return new WriteBehindDataRecord(this, record, length);
+            }
+        }
+        return backend.getRecordIfStored(identifier);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public DataRecord getRecord(DataIdentifier identifier)
+            throws DataStoreException {
+        DataRecord record = getRecordIfStored(identifier);
+        if (record == null) {
+            throw new DataStoreException("Record not found: " + identifier);
+        }
+        return record;
+    }
+
+    /**
+     * Returns the record from the backend. This is used to read a record
+     * that was uploaded after it was returned as a pending record.
+     *
+     * @param identifier the data identifier
+     * @return the record
+     * @throws DataStoreException if the record is not in the backend
+     */
+    DataRecord getBackendRecord(DataIdentifier identifier)
+            throws DataStoreException {
+        return backend.getRecord(identifier);
+    }
+
+    /**
+     * Adds a record to the upload queue unless it is already pending. The
+     * caller must synchronize on the set of pending records.
+     * <p>
+     * A copy of the identifier is queued. The local store keeps identifiers
+     * it returned in its in-use list as long as they are referenced, so the
+     * queue must not reference them.
+     *
+     * @param identifier the data identifier
+     */
+    private void enqueue(DataIdentifier identifier) {
+        DataIdentifier copy = copy(identifier);
+        if (pending.add(copy)) {
+            queue.addLast(copy);
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Uploads pending records until the data store is closed. When there is
+     * nothing to upload, the uploaded records are deleted from the local
+     * directory.
+     */
+    private void uploadPending() {
+        while (true) {
+            DataIdentifier identifier = null;
+            synchronized (pending) {
+                if (queue.isEmpty() && !closed) {
+                    try {
+                        pending.wait(uploaded.isEmpty() ? 0 : retryDelay);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                if (!queue.isEmpty()) {
+                    identifier = (DataIdentifier) queue.removeFirst();
+                }
+            }
+            if (identifier == null) {
+                deleteUploaded();
+                continue;
+            }
+            try {
+                upload(identifier);
+                synchronized (pending) {
+                    pending.remove(identifier);
+                    uploaded.add(identifier);
+                    pending.notifyAll();
+                }
+            } catch (Exception e) {
+                log.warn("Upload of " + identifier + " failed, retrying in "
+                        + retryDelay + " ms", e);
+                synchronized (pending) {
+                    queue.addLast(identifier);
+                    if (!closed) {
+                        try {
+                            pending.wait(retryDelay);
+                        } catch (InterruptedException e2) {
+                            // ignore
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Uploads a pending record to the backend unless it is already there.
+     *
+     * @param identifier the data identifier
+     * @throws DataStoreException if the record could not be uploaded
+     * @throws IOException if the local copy could not be read
+     */
+    private void upload(DataIdentifier identifier)
+            throws DataStoreException, IOException {
+        DataRecord record = local.getRecordIfStored(copy(identifier));
+        if (record == null) {
+            // uploaded and deleted already
+            return;
+        }
+        if (backend.getRecordIfStored(identifier) == null) {
+            InputStream in = record.getStream();
+            try {
+                DataIdentifier id = backend.addRecord(in).getIdentifier();
+                if (!identifier.equals(id)) {
+                    throw new DataStoreException("The backend returned the identifier "
+                            + id + " for the record " + identifier);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes the uploaded records from the local directory that the local
+     * store does not use any longer. The local store refuses to delete a
+     * record while it is read or added again.
+     */
+    private void deleteUploaded() {
+        Object[] ids;
+        synchronized (pending) {
+            ids = uploaded.toArray();
+        }
+        for (int i = 0; i < ids.length; i++) {
+            DataIdentifier identifier = (DataIdentifier) ids[i];
+            if (local.deleteRecord(copy(identifier), Long.MAX_VALUE)) {
+                synchronized (pending) {
+                    uploaded.remove(identifier);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of an identifier. The local store keeps the identifiers
+     * passed to it in its in-use list, so the upload threads only pass
+     * copies that they do not reference afterwards.
+     *
+     * @param identifier the data identifier
+     * @return a new, equal identifier
+     */
+    private static DataIdentifier copy(DataIdentifier identifier) {
+        return new DataIdentifier(identifier.toString());
+    }
+
+    /**
+     * Waits until all pending records are uploaded.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if all records are uploaded
+     * @throws InterruptedException if the thread was interrupted
+     */
+    public boolean waitForUploads(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (pending) {
+            while (!pending.isEmpty()) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                pending.wait(wait);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of records that are not yet uploaded.
+     *
+     * @return the number of pending records
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void updateModifiedDateOnAccess(long before) {
+        backend.updateModifiedDateOnAccess(before);
+        local.updateModifiedDateOnAccess(before);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the records in the backend are deleted.
+     */
+    public int deleteAllOlderThan(long min) throws DataStoreException {
+        return backend.deleteAllOlderThan(min);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The identifiers of the backend and of the pending records are returned.
+     */
+    public Iterator getAllIdentifiers() throws DataStoreException {
+        Set all = new HashSet();
+        for (Iterator it = local.getAllIdentifiers(); it.hasNext();) {
+            all.add(it.next());
+        }
+        ArrayList list = new ArrayList(all);
+        for (Iterator it = backend.getAllIdentifiers(); it.hasNext();) {
+            Object id = it.next();
+            if (!all.contains(id)) {
+                list.add(id);
+            }
+        }
+        return list.iterator();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMinRecordLength() {
+        return backend.getMinRecordLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the in-use list of the backend is cleared. The local directory is
+     * not garbage collected, and its in-use list protects records that are
+     * read or added from being deleted after the upload.
+     */
+    public void clearInUse() {
+        backend.clearInUse();
+    }
+
+    /**
+     * Stops the upload threads after their current upload and closes the
+     * backend. Records that are not yet uploaded are uploaded when the data
+     * store is started again.
+     *
+     * @throws DataStoreException if the backend could not be closed
+     */
+    public void close() throws DataStoreException {
+        synchronized (pending) {
+            closed = true;
+            pending.notifyAll();
+        }
+        for (int i = 0; i < uploaders.length; i++) {
+            try {
+                uploaders[i].join();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+        if (!pending.isEmpty()) {
+            log.info(pending.size() + " records are not uploaded yet");
+        }
+        local.close();
+        backend.close();
+    }
+
+    /**
+     * Get the backend data store.
+     *
+     * @return the backend
+     */
+    public DataStore getBackend() {
+        return backend;
+    }
+
+    /**
+     * Set the backend data store. This is used if the data store is not
+     * created from the repository configuration. The backend is initialized
+     * and closed together with this data store.
+     *
+     * @param backend the backend
+     */
+    public void setBackend(DataStore backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Get the class name of the backend data store.
+     *
+     * @return the class name
+     */
+    public String getBackendClass() {
+        return backendClass;
+    }
+
+    /**
+     * Set the class name of the backend data store, for example
+     * org.apache.jackrabbit.core.data.db.DbDataStore.
+     *
+     * @param backendClass the class name
+     */
+    public void setBackendClass(String backendClass) {
+        this.backendClass = backendClass;
+    }
+
+    /**
+     * Get the name of the properties file with the backend configuration.
+     *
+     * @return the file name
+     */
+    public String getBackendConfig() {
+        return backendConfig;
+    }
+
+    /**
+     * Set the name of a properties file with the configuration of the
+     * backend. Each entry sets a parameter of the backend, like the param
+     * elements of a data store in repository.xml. The variable ${rep.home}
+     * in the values is replaced with the repository home directory.
+     *
+     * @param backendConfig the file name
+     */
+    public void setBackendConfig(String backendConfig) {
+        this.backendConfig = backendConfig;
+    }
+
+    /**
+     * Get the name of the local directory.
+     *
+     * @return the path name
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Set the name of the local directory. It should be on a fast local
+     * disk. The default is &lt;repository home&gt;/repository/datastore-pending.
+     *
+     * @param path the path name
+     */
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Get the number of upload threads.
+     *
+     * @return the number of threads
+     */
+    public int getUploadThreads() {
+        return uploadThreads;
+    }
+
+    /**
+     * Set the number of threads that upload records to the backend. The
+     * default is 1.
+     *
+     * @param uploadThreads the number of threads
+     */
+    public void setUploadThreads(int uploadThreads) {
+        this.uploadThreads = uploadThreads;
+    }
+
+    /**
+     * Get the time to wait before a failed upload is retried.
+     *
+     * @return the time in milliseconds
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * Set the time to wait before a failed upload is retried. The default
+     * is 10000 (10 seconds).
+     *
+     * @param retryDelay the time in milliseconds
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.jackrabbit.core.data.DataStoreException;
+
+/**
+ * An input stream over a chunked record of the {@link DbDataStore}. The
+ * chunks are read one at a time when they are needed, and no database
+ * connection is held between reads.
+ */
+class ChunkedInputStream extends InputStream {
+
+    /**
+     * The data store.
+     */
+    private final DbDataStore store;
+
+    /**
+     * The data identifier.
+     */
+    private final String id;
+
+    /**
+     * The offset within the record where reading starts.
+     */
+    private long offset;
+
+    /**
+     * The position of the next chunk, or -1 if there are no more chunks.
+     */
+    private long next = -1;
+
+    /**
+     * The current chunk or <code>null</code> if no chunk was read yet.
+     */
+    private byte[] chunk;
+
+    /**
+     * The position within the current chunk.
+     */
+    private int pos;
+
+    /**
+     * Creates a stream that starts at the given offset.
+     *
+     * @param store the data store
+     * @param id the data identifier
+     * @param offset the offset within the record
+     */
+    ChunkedInputStream(DbDataStore store, String id, long offset) {
+        this.store = store;
+        this.id = id;
+        this.offset = offset;
+    }
+
+    /**
+     * Makes sure the current chunk has bytes left to read.
+     *
+     * @return false if the end of the record is reached
+     */
+    private boolean fill() throws IOException {
+        try {
+            if (chunk == null) {
+                // the first chunk is the one that contains the offset
+                long start = store.findChunk(id, offset);
+                if (start < 0) {
+                    return false;
+                }
+                chunk = store.readChunk(id, start);
+                if (chunk == null) {
+                    return false;
+                }
+                pos = (int) Math.min(offset - start, chunk.length);
+                next = start + chunk.length;
+            }
+            while (pos >= chunk.length) {
+                if (next < 0) {
+                    return false;
+                }
+                byte[] c = store.readChunk(id, next);
+                if (c == null || c.length == 0) {
+                    next = -1;
+                    return false;
+                }
+                chunk = c;
+                pos = 0;
+                next += c.length;
+            }
+            return true;
+        } catch (DataStoreException e) {
+            IOException e2 = new IOException(e.getMessage());
+            e2.initCause(e);
+            throw e2;
+        }
+    }
+
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return chunk[pos++] & 255;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    public int available() {
+        return chunk == null ? 0 : chunk.length - pos;
+    }
+
+    public void close() {
+        chunk = new byte[0];
+        pos = 0;
+        next = -1;
+    }
+
+}
@@ -61,6 +61,16 @@ public class DbDataRecord extends AbstractDataRecord {
         return new DbInputStream(store, getIdentifier());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getStream(long offset, long length) throws DataStoreException {
+        checkRange(offset, length);
+        lastModified = store.touch(getIdentifier(), lastModified);
+        return store.openStream(getIdentifier(), offset,
+                Math.min(length, Math.max(0, this.length - offset)));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -16,10 +16,12 @@
  */
 package org.apache.jackrabbit.core.data.db;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.BoundedInputStream;
 import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataRecord;
-import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.data.DataStoreException;
+import org.apache.jackrabbit.core.data.DeletableDataStore;
 import org.apache.jackrabbit.core.persistence.bundle.util.ConnectionRecoveryManager;
 import org.apache.jackrabbit.core.persistence.bundle.util.TrackingInputStream;
 import org.apache.jackrabbit.core.persistence.bundle.util.ConnectionRecoveryManager.StreamWrapper;
@@ -29,17 +31,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -64,6 +72,9 @@ import javax.jcr.RepositoryException;
  *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="1024"/>
  *     &lt;param name="{@link #setMaxConnections(int) maxConnections}" value="2"/>
  *     &lt;param name="{@link #setCopyWhenReading(boolean) copyWhenReading}" value="true"/>
+ *     &lt;param name="{@link #setCacheSize(long) cacheSize}" value="0"/>
+ *     &lt;param name="{@link #setChunkSize(int) chunkSize}" value="0"/>
+ *     &lt;param name="{@link #setCachePath(String) cachePath}" value="${rep.home}/repository/datastore-cache"/>
  *     &lt;param name="{@link #setTablePrefix(String) tablePrefix}" value=""/>
  *     &lt;param name="{@link #setSchemaObjectPrefix(String) schemaObjectPrefix}" value=""/>
  *     &lt;param name="{@link #setSchemaCheckEnabled(String) schemaCheckEnabled}" value="true"/>
@@ -93,7 +104,7 @@ import javax.jcr.RepositoryException;
  * The tablePrefix can be used to specify a schema and / or catalog name:
  * &lt;param name="tablePrefix" value="ds.">
  */
-public class DbDataStore implements DataStore {
+public class DbDataStore implements DeletableDataStore {
 
     /**
      * The default value for the minimum object size.
@@ -121,6 +132,17 @@ public class DbDataStore implements DataStore {
      */
     public static final String STORE_SIZE_MAX = "max";
     
+    /**
+     * Ranges up to this number of bytes are read into memory, larger ranges
+     * are copied to a temporary file.
+     */
+    private static final int RANGE_MEMORY_LIMIT = 64 * 1024;
+
+    /**
+     * The number of bytes of a range that are read from a blob at once.
+     */
+    private static final int RANGE_READ_SIZE = 64 * 1024;
+
     /**
      * The digest algorithm used to uniquely identify records.
      */
@@ -203,6 +225,12 @@ public class DbDataStore implements DataStore {
      */
     protected String tableSQL = "DATASTORE";
     
+    /**
+     * This is the property 'chunkTable'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String chunkTableSQL = "${table}_CHUNK";
+
     /**
      * This is the property 'createTable'
      * in the [databaseType].properties file, initialized with the default value.
@@ -210,6 +238,13 @@ public class DbDataStore implements DataStore {
     protected String createTableSQL =
         "CREATE TABLE ${tablePrefix}${table}(ID VARCHAR(255) PRIMARY KEY, LENGTH BIGINT, LAST_MODIFIED BIGINT, DATA BLOB)";
 
+    /**
+     * This is the property 'createChunkTable'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String createChunkTableSQL =
+        "CREATE TABLE ${tablePrefix}${chunkTable}(ID VARCHAR(255), POS BIGINT, DATA BLOB, PRIMARY KEY(ID, POS))";
+
     /**
      * This is the property 'insertTemp'
      * in the [databaseType].properties file, initialized with the default value.
@@ -253,6 +288,55 @@ public class DbDataStore implements DataStore {
     protected String deleteOlderSQL =
         "DELETE FROM ${tablePrefix}${table} WHERE LAST_MODIFIED<?";
 
+    /**
+     * This is the property 'deleteRecord'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String deleteRecordSQL =
+        "DELETE FROM ${tablePrefix}${table} WHERE ID=? AND LAST_MODIFIED<?";
+
+    /**
+     * This is the property 'insertChunk'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String insertChunkSQL =
+        "INSERT INTO ${tablePrefix}${chunkTable} VALUES(?, ?, ?)";
+
+    /**
+     * This is the property 'updateChunks'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String updateChunksSQL =
+        "UPDATE ${tablePrefix}${chunkTable} SET ID=? WHERE ID=?";
+
+    /**
+     * This is the property 'selectChunk'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String selectChunkSQL =
+        "SELECT DATA FROM ${tablePrefix}${chunkTable} WHERE ID=? AND POS=?";
+
+    /**
+     * This is the property 'selectChunkStart'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String selectChunkStartSQL =
+        "SELECT MAX(POS) FROM ${tablePrefix}${chunkTable} WHERE ID=? AND POS<=?";
+
+    /**
+     * This is the property 'deleteChunks'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String deleteChunksSQL =
+        "DELETE FROM ${tablePrefix}${chunkTable} WHERE ID=?";
+
+    /**
+     * This is the property 'deleteOrphanChunks'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String deleteOrphanChunksSQL =
+        "DELETE FROM ${tablePrefix}${chunkTable} WHERE ID NOT IN(SELECT ID FROM ${tablePrefix}${table})";
+
     /**
      * This is the property 'selectMeta'
      * in the [databaseType].properties file, initialized with the default value.
@@ -285,6 +369,33 @@ public class DbDataStore implements DataStore {
      */
     protected boolean copyWhenReading = true;
 
+    /**
+     * The maximum size of the local cache in bytes, 0 to disable the cache.
+     */
+    protected long cacheSize;
+
+    /**
+     * The directory of the local cache.
+     */
+    protected String cachePath;
+
+    /**
+     * The size of the chunks of new records in bytes, 0 to store each record
+     * in a single row.
+     */
+    protected int chunkSize;
+
+    /**
+     * Whether the chunk table exists. Chunked records are read and garbage
+     * collected whenever the table exists, independent of the chunk size.
+     */
+    private boolean chunkTableExists;
+
+    /**
+     * The local cache of records or <code>null</code> if disabled.
+     */
+    private LocalCache cache;
+
     /**
      * All data identifiers that are currently in use are in this set until they are garbage collected.
      */
@@ -299,39 +410,16 @@ public class DbDataStore implements DataStore {
      * {@inheritDoc}
      */
     public DataRecord addRecord(InputStream stream) throws DataStoreException {
+        if (chunkSize > 0) {
+            return addChunkedRecord(stream);
+        }
         ResultSet rs = null;
         TempFileInputStream fileInput = null;
         ConnectionRecoveryManager conn = getConnection();
         String id = null, tempId = null;
         try {
             long now;
-            for (int i = 0; i < ConnectionRecoveryManager.TRIALS; i++) {
-                try {
-                    now = System.currentTimeMillis();
-                    id = UUID.randomUUID().toString();
-                    tempId = TEMP_PREFIX + id;
-                    // SELECT LENGTH, LAST_MODIFIED FROM DATASTORE WHERE ID=?
-                    PreparedStatement prep = conn.executeStmt(selectMetaSQL, new Object[]{tempId});
-                    rs = prep.getResultSet();
-                    if (rs.next()) {
-                        // re-try in the very, very unlikely event that the row already exists
-                        continue;
-                    }
-                    // INSERT INTO DATASTORE VALUES(?, 0, ?, NULL)
-                    conn.executeStmt(insertTempSQL, new Object[]{tempId, new Long(now)});
-                    break;
-                } catch (Exception e) {
-                    throw convert("Can not insert new record", e);
-                } finally {
-                    DatabaseHelper.closeSilently(rs);
-                }
-            }
-            if (id == null) {
-                String msg = "Can not create new record";
-                log.error(msg);
-                throw new DataStoreException(msg);
-            }
-            temporaryInUse.add(tempId);
+            tempId = insertTemporaryRow(conn);
             MessageDigest digest = getDigest();
             DigestInputStream dIn = new DigestInputStream(stream, digest);
             TrackingInputStream in = new TrackingInputStream(dIn);
@@ -404,6 +492,226 @@ public class DbDataStore implements DataStore {
         }
     }
 
+    /**
+     * Inserts a row with a new temporary identifier and adds the identifier
+     * to the list of temporary identifiers in use.
+     *
+     * @param conn the connection
+     * @return the temporary identifier
+     * @throws DataStoreException if the row could not be inserted
+     */
+    private String insertTemporaryRow(ConnectionRecoveryManager conn)
+            throws DataStoreException {
+        ResultSet rs = null;
+        String tempId = null;
+        for (int i = 0; i < ConnectionRecoveryManager.TRIALS; i++) {
+            try {
+                long now = System.currentTimeMillis();
+                tempId = TEMP_PREFIX + UUID.randomUUID().toString();
+                // SELECT LENGTH, LAST_MODIFIED FROM DATASTORE WHERE ID=?
+                PreparedStatement prep = conn.executeStmt(selectMetaSQL, new Object[]{tempId});
+                rs = prep.getResultSet();
+                if (rs.next()) {
+                    // re-try in the very, very unlikely event that the row already exists
+                    tempId = null;
+                    continue;
+                }
+                // INSERT INTO DATASTORE VALUES(?, 0, ?, NULL)
+                conn.executeStmt(insertTempSQL, new Object[]{tempId, new Long(now)});
+                break;
+            } catch (Exception e) {
+                throw convert("Can not insert new record", e);
+            } finally {
+                DatabaseHelper.closeSilently(rs);
+            }
+        }
+        if (tempId == null) {
+            String msg = "Can not create new record";
+            log.error(msg);
+            throw new DataStoreException(msg);
+        }
+        temporaryInUse.add(tempId);
+        return tempId;
+    }
+
+    /**
+     * Creates a new chunked data record. The stream is read in chunks of
+     * {@link #getChunkSize() chunkSize} bytes, each chunk is inserted into the
+     * chunk table with its own short statement, and the digest is computed
+     * while reading. The temporary row and the chunks are renamed to the
+     * content identifier at the end. No connection is held while the stream
+     * is read.
+     *
+     * @param stream binary stream
+     * @return data record that contains the given stream
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    private DataRecord addChunkedRecord(InputStream stream) throws DataStoreException {
+        String tempId = null;
+        ConnectionRecoveryManager conn = getConnection();
+        try {
+            tempId = insertTemporaryRow(conn);
+        } finally {
+            putBack(conn);
+        }
+        try {
+            MessageDigest digest = getDigest();
+            byte[] buffer = new byte[chunkSize];
+            long length = 0;
+            while (true) {
+                int n = 0;
+                while (n < buffer.length) {
+                    int l = stream.read(buffer, n, buffer.length - n);
+                    if (l < 0) {
+                        break;
+                    }
+                    n += l;
+                }
+                if (n == 0) {
+                    break;
+                }
+                digest.update(buffer, 0, n);
+                conn = getConnection();
+                try {
+                    // INSERT INTO DATASTORE_CHUNK VALUES(?, ?, ?)
+                    conn.executeStmt(insertChunkSQL, new Object[]{
+                            tempId, new Long(length),
+                            new StreamWrapper(new ByteArrayInputStream(buffer, 0, n), n)});
+                } finally {
+                    putBack(conn);
+                }
+                length += n;
+                if (n < buffer.length) {
+                    break;
+                }
+            }
+            DataIdentifier identifier = new DataIdentifier(digest.digest());
+            usesIdentifier(identifier);
+            long now = renameChunkedRecord(tempId, identifier, length);
+            return new DbDataRecord(this, identifier, length, now);
+        } catch (Exception e) {
+            throw convert("Can not insert new record", e);
+        } finally {
+            temporaryInUse.remove(tempId);
+        }
+    }
+
+    /**
+     * Renames the temporary row and chunks of a new chunked record to the
+     * content identifier, or deletes them if the record already exists. This
+     * method is synchronized with the garbage collection, because the chunks
+     * are renamed before the row.
+     *
+     * @param tempId the temporary identifier
+     * @param identifier the content identifier
+     * @param length the length of the record
+     * @return the modified date of the record
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    private synchronized long renameChunkedRecord(String tempId,
+            DataIdentifier identifier, long length) throws DataStoreException {
+        String id = identifier.toString();
+        ConnectionRecoveryManager conn = getConnection();
+        ResultSet rs = null;
+        try {
+            long now = System.currentTimeMillis();
+            // SELECT LENGTH, LAST_MODIFIED FROM DATASTORE WHERE ID=?
+            PreparedStatement prep = conn.executeStmt(selectMetaSQL, new Object[]{id});
+            rs = prep.getResultSet();
+            if (rs.next()) {
+                long oldLength = rs.getLong(1);
+                long lastModified = rs.getLong(2);
+                DatabaseHelper.closeSilently(rs);
+                // DELETE FROM DATASTORE_CHUNK WHERE ID=?
+                conn.executeStmt(deleteChunksSQL, new Object[]{tempId});
+                // DELETE FROM DATASTORE WHERE ID=?
+                conn.executeStmt(deleteSQL, new Object[]{tempId});
+                if (oldLength != length) {
+                    String msg =
+                        DIGEST + " collision: temp=" + tempId
+                        + " id=" + id + " length=" + length
+                        + " oldLength=" + oldLength;
+                    log.error(msg);
+                    throw new DataStoreException(msg);
+                }
+                return touch(identifier, lastModified);
+            }
+            // UPDATE DATASTORE_CHUNK SET ID=? WHERE ID=?
+            conn.executeStmt(updateChunksSQL, new Object[]{id, tempId});
+            // UPDATE DATASTORE SET ID=?, LENGTH=?, LAST_MODIFIED=?
+            // WHERE ID=?
+            // AND NOT EXISTS(SELECT ID FROM DATASTORE WHERE ID=?)
+            conn.executeStmt(updateSQL, new Object[]{
+                    id, new Long(length), new Long(now), tempId, id});
+            return now;
+        } catch (Exception e) {
+            throw convert("Can not insert new record", e);
+        } finally {
+            DatabaseHelper.closeSilently(rs);
+            putBack(conn);
+        }
+    }
+
+    /**
+     * Reads a chunk of a chunked record.
+     *
+     * @param id the data identifier
+     * @param pos the position of the chunk within the record
+     * @return the chunk or <code>null</code> if there is no such chunk
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    byte[] readChunk(String id, long pos) throws DataStoreException {
+        ConnectionRecoveryManager conn = getConnection();
+        ResultSet rs = null;
+        try {
+            // SELECT DATA FROM DATASTORE_CHUNK WHERE ID=? AND POS=?
+            PreparedStatement prep = conn.executeStmt(selectChunkSQL, new Object[]{id, new Long(pos)});
+            rs = prep.getResultSet();
+            if (!rs.next()) {
+                return null;
+            }
+            InputStream in = rs.getBinaryStream(1);
+            try {
+                return in == null ? new byte[0] : IOUtils.toByteArray(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        } catch (Exception e) {
+            throw convert("Can not read chunk " + pos + " of " + id, e);
+        } finally {
+            DatabaseHelper.closeSilently(rs);
+            putBack(conn);
+        }
+    }
+
+    /**
+     * Returns the position of the chunk that contains the given offset.
+     *
+     * @param id the data identifier
+     * @param offset the offset within the record
+     * @return the position of the chunk, or -1 if there is no such chunk
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    long findChunk(String id, long offset) throws DataStoreException {
+        ConnectionRecoveryManager conn = getConnection();
+        ResultSet rs = null;
+        try {
+            // SELECT MAX(POS) FROM DATASTORE_CHUNK WHERE ID=? AND POS<=?
+            PreparedStatement prep = conn.executeStmt(selectChunkStartSQL, new Object[]{id, new Long(offset)});
+            rs = prep.getResultSet();
+            if (!rs.next()) {
+                return -1;
+            }
+            long pos = rs.getLong(1);
+            return rs.wasNull() ? -1 : pos;
+        } catch (Exception e) {
+            throw convert("Can not read chunks of " + id, e);
+        } finally {
+            DatabaseHelper.closeSilently(rs);
+            putBack(conn);
+        }
+    }
+
     /**
      * Creates a temp file and copies the data there.
      * The input stream is closed afterwards.
@@ -439,7 +747,28 @@ public class DbDataStore implements DataStore {
             }
             // DELETE FROM DATASTORE WHERE LAST_MODIFIED<?
             PreparedStatement prep = conn.executeStmt(deleteOlderSQL, new Long[]{new Long(min)});
-            return prep.getUpdateCount();
+            int count = prep.getUpdateCount();
+            if (chunkTableExists) {
+                // DELETE FROM DATASTORE_CHUNK WHERE ID NOT IN(SELECT ID FROM DATASTORE)
+                conn.executeStmt(deleteOrphanChunksSQL, new Object[0]);
+            }
+            if (cache != null && count > 0) {
+                // deleted records must not be read from the cache
+                for (it = cache.getIdentifiers().iterator(); it.hasNext();) {
+                    String id = (String) it.next();
+                    // SELECT LENGTH, LAST_MODIFIED FROM DATASTORE WHERE ID = ?
+                    ResultSet rs = conn.executeStmt(
+                            selectMetaSQL, new Object[]{id}).getResultSet();
+                    try {
+                        if (!rs.next()) {
+                            cache.remove(new DataIdentifier(id));
+                        }
+                    } finally {
+                        DatabaseHelper.closeSilently(rs);
+                    }
+                }
+            }
+            return count;
         } catch (Exception e) {
             throw convert("Can not delete records", e);
         } finally {
@@ -447,6 +776,37 @@ public class DbDataStore implements DataStore {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized boolean deleteRecord(DataIdentifier identifier, long min)
+            throws DataStoreException {
+        if (inUse.containsKey(identifier)) {
+            return false;
+        }
+        ConnectionRecoveryManager conn = getConnection();
+        try {
+            // DELETE FROM DATASTORE WHERE ID=? AND LAST_MODIFIED<?
+            PreparedStatement prep = conn.executeStmt(deleteRecordSQL,
+                    new Object[]{identifier.toString(), new Long(min)});
+            if (prep.getUpdateCount() == 0) {
+                return false;
+            }
+            if (chunkTableExists) {
+                // DELETE FROM DATASTORE_CHUNK WHERE ID=?
+                conn.executeStmt(deleteChunksSQL, new Object[]{identifier.toString()});
+            }
+            if (cache != null) {
+                cache.remove(identifier);
+            }
+            return true;
+        } catch (Exception e) {
+            throw convert("Can not delete record " + identifier, e);
+        } finally {
+            putBack(conn);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -539,6 +899,12 @@ public class DbDataStore implements DataStore {
      *          or if the given identifier is invalid
      */    
     InputStream openStream(DbInputStream inputStream, DataIdentifier identifier) throws DataStoreException {
+        if (cache != null) {
+            InputStream stream = cache.getStream(identifier);
+            if (stream != null) {
+                return stream;
+            }
+        }
         ConnectionRecoveryManager conn = null;
         ResultSet rs = null;
         try {
@@ -551,7 +917,22 @@ public class DbDataStore implements DataStore {
             }
             InputStream stream = rs.getBinaryStream(2);
             if (stream == null) {
-                stream = new ByteArrayInputStream(new byte[0]);
+                DatabaseHelper.closeSilently(rs);
+                rs = null;
+                putBack(conn);
+                conn = null;
+                if (isChunked(identifier.toString())) {
+                    // the chunks are read one at a time
+                    stream = new ChunkedInputStream(this, identifier.toString(), 0);
+                    if (cache != null) {
+                        stream = cache.store(identifier, stream);
+                    }
+                } else {
+                    stream = new ByteArrayInputStream(new byte[0]);
+                }
+            } else if (cache != null) {
+                // copy to the local cache, later reads don't use the database
+                stream = cache.store(identifier, stream);
                 DatabaseHelper.closeSilently(rs);
                 putBack(conn);
             } else if (copyWhenReading) {
@@ -568,11 +949,125 @@ public class DbDataStore implements DataStore {
             return stream;
         } catch (Exception e) {
             DatabaseHelper.closeSilently(rs);
-            putBack(conn);
+            if (conn != null) {
+                putBack(conn);
+            }
             throw convert("Retrieving database resource ", e);
         }
     }
     
+    /**
+     * Open a stream over a range of a record. Only the requested range is
+     * read from the database, using Blob.getBytes if the driver supports it,
+     * and copied to memory or a temporary file, so that no connection is
+     * held while the stream is read.
+     *
+     * @param identifier data identifier
+     * @param offset the position of the first byte
+     * @param length the maximum number of bytes
+     * @return the stream
+     * @throws DataStoreException if the data store could not be accessed,
+     *          or if the given identifier is invalid
+     */
+    InputStream openStream(DataIdentifier identifier, long offset, long length)
+            throws DataStoreException {
+        if (cache != null) {
+            InputStream stream = cache.getStream(identifier, offset, length);
+            if (stream != null) {
+                return stream;
+            }
+        }
+        ConnectionRecoveryManager conn = null;
+        ResultSet rs = null;
+        OutputStream out = null;
+        File temp = null;
+        try {
+            conn = getConnection();
+            // SELECT ID, DATA FROM DATASTORE WHERE ID = ?
+            PreparedStatement prep = conn.executeStmt(selectDataSQL, new Object[]{identifier.toString()});
+            rs = prep.getResultSet();
+            if (!rs.next()) {
+                throw new DataStoreException("Record not found: " + identifier);
+            }
+            Blob blob = null;
+            InputStream in = null;
+            try {
+                blob = rs.getBlob(2);
+            } catch (SQLException e) {
+                // the driver doesn't support blobs, read the stream instead
+                DatabaseHelper.closeSilently(rs);
+                prep = conn.executeStmt(selectDataSQL, new Object[]{identifier.toString()});
+                rs = prep.getResultSet();
+                rs.next();
+                in = rs.getBinaryStream(2);
+            }
+            if (blob == null && in == null) {
+                DatabaseHelper.closeSilently(rs);
+                rs = null;
+                putBack(conn);
+                conn = null;
+                if (isChunked(identifier.toString())) {
+                    // only the chunks of the range are read
+                    return new BoundedInputStream(new ChunkedInputStream(
+                            this, identifier.toString(), offset), length);
+                }
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            if (length > RANGE_MEMORY_LIMIT) {
+                temp = File.createTempFile("dbRecord", null);
+                out = new BufferedOutputStream(new FileOutputStream(temp));
+            } else {
+                out = new ByteArrayOutputStream((int) length);
+            }
+            if (blob != null) {
+                long end = Math.min(blob.length(), offset + length);
+                for (long pos = offset; pos < end; pos += RANGE_READ_SIZE) {
+                    // Blob positions start at 1
+                    out.write(blob.getBytes(pos + 1, (int) Math.min(RANGE_READ_SIZE, end - pos)));
+                }
+            } else if (in != null) {
+                in = BoundedInputStream.getRange(in, offset, length);
+                try {
+                    IOUtils.copy(in, out);
+                } finally {
+                    in.close();
+                }
+            }
+            out.close();
+            if (temp != null) {
+                InputStream stream = new TempFileInputStream(temp);
+                temp = null;
+                return stream;
+            }
+            return new ByteArrayInputStream(((ByteArrayOutputStream) out).toByteArray());
+        } catch (Exception e) {
+            throw convert("Retrieving database resource ", e);
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (temp != null) {
+                temp.delete();
+            }
+            DatabaseHelper.closeSilently(rs);
+            if (conn != null) {
+                putBack(conn);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a record without data in the data column is a chunked
+     * record. Chunked records are recognized by their chunks and not by the
+     * configured chunk size, so that they can still be read if chunking is
+     * disabled later on. An empty record has no chunks.
+     *
+     * @param id the data identifier
+     * @return true if the record has chunks
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    private boolean isChunked(String id) throws DataStoreException {
+        return chunkTableExists && findChunk(id, 0) >= 0;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -592,7 +1087,27 @@ public class DbDataStore implements DataStore {
                 // LENGTH BIGINT, LAST_MODIFIED BIGINT, DATA BLOB)
                 conn.executeStmt(createTableSQL, null);
             }
+            // the chunk table is used if it exists, even if chunking is
+            // disabled now, so that existing chunked records can be read
+            // and garbage collected
+            rs = meta.getTables(null, null, schemaObjectPrefix + chunkTableSQL, null);
+            chunkTableExists = rs.next();
+            rs.close();
+            if (!chunkTableExists && chunkSize > 0) {
+                if (isSchemaCheckEnabled()) {
+                    // CREATE TABLE DATASTORE_CHUNK(ID VARCHAR(255),
+                    // POS BIGINT, DATA BLOB, PRIMARY KEY(ID, POS))
+                    conn.executeStmt(createChunkTableSQL, null);
+                }
+                chunkTableExists = true;
+            }
             putBack(conn);
+            if (cacheSize > 0) {
+                if (cachePath == null) {
+                    cachePath = homeDir + "/repository/datastore-cache";
+                }
+                cache = new LocalCache(new File(cachePath), cacheSize);
+            }
         } catch (Exception e) {
             throw convert("Can not init data store, driver=" + driver + " url=" + url + " user=" + user + 
                     " schemaObjectPrefix=" + schemaObjectPrefix + " tableSQL=" + tableSQL + " createTableSQL=" + createTableSQL, e);
@@ -643,13 +1158,22 @@ public class DbDataStore implements DataStore {
             driver = getProperty(prop, "driver", driver);
         }
         tableSQL = getProperty(prop, "table", tableSQL);
+        chunkTableSQL = getProperty(prop, "chunkTable", chunkTableSQL);
         createTableSQL = getProperty(prop, "createTable", createTableSQL);
+        createChunkTableSQL = getProperty(prop, "createChunkTable", createChunkTableSQL);
         insertTempSQL = getProperty(prop, "insertTemp", insertTempSQL);
         updateDataSQL = getProperty(prop, "updateData", updateDataSQL);
         updateLastModifiedSQL = getProperty(prop, "updateLastModified", updateLastModifiedSQL);
         updateSQL = getProperty(prop, "update", updateSQL);
         deleteSQL = getProperty(prop, "delete", deleteSQL);
         deleteOlderSQL = getProperty(prop, "deleteOlder", deleteOlderSQL);
+        deleteRecordSQL = getProperty(prop, "deleteRecord", deleteRecordSQL);
+        insertChunkSQL = getProperty(prop, "insertChunk", insertChunkSQL);
+        updateChunksSQL = getProperty(prop, "updateChunks", updateChunksSQL);
+        selectChunkSQL = getProperty(prop, "selectChunk", selectChunkSQL);
+        selectChunkStartSQL = getProperty(prop, "selectChunkStart", selectChunkStartSQL);
+        deleteChunksSQL = getProperty(prop, "deleteChunks", deleteChunksSQL);
+        deleteOrphanChunksSQL = getProperty(prop, "deleteOrphanChunks", deleteOrphanChunksSQL);
         selectMetaSQL = getProperty(prop, "selectMeta", selectMetaSQL);
         selectAllSQL = getProperty(prop, "selectAll", selectAllSQL);
         selectDataSQL = getProperty(prop, "selectData", selectDataSQL);
@@ -668,7 +1192,8 @@ public class DbDataStore implements DataStore {
 
     /**
      * Get the expanded property value. The following placeholders are supported:
-     * ${table}: the table name (the default is DATASTORE) and
+     * ${table}: the table name (the default is DATASTORE),
+     * ${chunkTable}: the name of the chunk table (the default is DATASTORE_CHUNK) and
      * ${tablePrefix}: tablePrefix plus schemaObjectPrefix as set in the configuration 
      *
      * @param prop the properties object
@@ -678,6 +1203,7 @@ public class DbDataStore implements DataStore {
      */
     protected String getProperty(Properties prop, String key, String defaultValue) {
         String sql = prop.getProperty(key, defaultValue);
+        sql = Text.replace(sql, "${chunkTable}", chunkTableSQL).trim();
         sql = Text.replace(sql, "${table}", tableSQL).trim();
         sql = Text.replace(sql, "${tablePrefix}", tablePrefix + schemaObjectPrefix).trim();
         return sql;
@@ -945,6 +1471,71 @@ public class DbDataStore implements DataStore {
         this.copyWhenReading = copyWhenReading;
     }
 
+    /**
+     * Get the maximum size of the local cache.
+     *
+     * @return the size in bytes
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Set the maximum size of the local cache in bytes. If larger than 0,
+     * records read from the database are kept in a local directory and
+     * later reads of the same record don't use a database connection. The
+     * least recently used records are deleted when the cache is full.
+     * The default is 0 (disabled).
+     *
+     * @param cacheSize the new size in bytes
+     */
+    public void setCacheSize(long cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Get the directory of the local cache.
+     *
+     * @return the directory
+     */
+    public String getCachePath() {
+        return cachePath;
+    }
+
+    /**
+     * Set the directory of the local cache. The default is
+     * ${rep.home}/repository/datastore-cache.
+     *
+     * @param cachePath the new directory
+     */
+    public void setCachePath(String cachePath) {
+        this.cachePath = cachePath;
+    }
+
+    /**
+     * Get the size of the chunks of new records.
+     *
+     * @return the size in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the size of the chunks of new records in bytes. If larger than 0,
+     * new records are stored in rows of this size in a separate chunk table
+     * (DATASTORE_CHUNK by default). A record is then written in one pass
+     * with bounded memory and one short statement per chunk, and range reads
+     * only read the chunks of the range. Records stored before are still
+     * read as before. Once chunked records exist, the chunk size must not be
+     * set to 0 again. The default is 0 (disabled).
+     *
+     * @param chunkSize the new size in bytes
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
     /**
      * Get the table prefix. 
      *
@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data.db;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.commons.io.input.AutoCloseInputStream;
+import org.apache.jackrabbit.core.data.BoundedInputStream;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size limited cache of data records in a local directory. The least
+ * recently used records are deleted when the cache grows beyond its maximum
+ * size. Records never change once they are stored, so cached files are only
+ * removed when the record is deleted from the data store.
+ * <p>
+ * The files are stored in the same directory layout as in the
+ * {@link org.apache.jackrabbit.core.data.FileDataStore}. Files that are in
+ * the directory when the cache is created are used again, the least recently
+ * modified file is deleted first.
+ */
+class LocalCache {
+
+    /**
+     * Logger instance
+     */
+    private static Logger log = LoggerFactory.getLogger(LocalCache.class);
+
+    /**
+     * The prefix of files that are written to the cache.
+     */
+    private static final String TMP = "tmp";
+
+    /**
+     * The directory of the cache.
+     */
+    private final File directory;
+
+    /**
+     * The maximum size of all cached files in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The cached files in least recently used order.
+     * <p/>
+     * The exact type is: <code>LinkedHashMap&lt;String, Entry></code> where
+     * the key is the data identifier.
+     */
+    private final LinkedHashMap files = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The size of all cached files in bytes.
+     */
+    private long size;
+
+    /**
+     * The number of cache hits and misses.
+     */
+    private long hits, misses;
+
+    /**
+     * Creates a cache in the given directory.
+     *
+     * @param directory the directory of the cache.
+     * @param maxSize   the maximum size of all cached files in bytes.
+     */
+    LocalCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        directory.mkdirs();
+        List existing = new ArrayList();
+        scan(directory, existing);
+        File[] list = (File[]) existing.toArray(new File[existing.size()]);
+        Arrays.sort(list, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long m1 = ((File) o1).lastModified();
+                long m2 = ((File) o2).lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        synchronized (this) {
+            for (int i = 0; i < list.length; i++) {
+                Entry entry = new Entry(list[i]);
+                files.put(list[i].getName(), entry);
+                size += entry.length;
+            }
+            shrink();
+        }
+        log.info("Using local cache " + directory.getAbsolutePath()
+                + " with " + files.size() + " records (" + size + " bytes)");
+    }
+
+    /**
+     * Returns a stream over the cached copy of a record.
+     *
+     * @param identifier the data identifier.
+     * @return the stream or <code>null</code> if the record is not cached.
+     */
+    InputStream getStream(DataIdentifier identifier) {
+        Entry entry;
+        synchronized (this) {
+            entry = (Entry) files.get(identifier.toString());
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        try {
+            return new AutoCloseInputStream(
+                    new BufferedInputStream(new FileInputStream(entry.file)));
+        } catch (FileNotFoundException e) {
+            // deleted by someone else
+            synchronized (this) {
+                if (files.get(identifier.toString()) == entry) {
+                    files.remove(identifier.toString());
+                    size -= entry.length;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns a stream over a range of the cached copy of a record.
+     *
+     * @param identifier the data identifier.
+     * @param offset     the position of the first byte.
+     * @param length     the maximum number of bytes.
+     * @return the stream or <code>null</code> if the record is not cached.
+     */
+    InputStream getStream(DataIdentifier identifier, long offset, long length) {
+        File file;
+        synchronized (this) {
+            Entry entry = (Entry) files.get(identifier.toString());
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            file = entry.file;
+        }
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(offset);
+            } catch (IOException e) {
+                in.close();
+                return null;
+            }
+            return new BoundedInputStream(in, length);
+        } catch (IOException e) {
+            // deleted by someone else
+            return null;
+        }
+    }
+
+    /**
+     * Copies the stream of a record to the cache and returns a stream over
+     * the local copy. The passed stream is closed. If the record is larger
+     * than the cache, the copy is deleted when the returned stream is closed.
+     *
+     * @param identifier the data identifier.
+     * @param in         the stream of the record.
+     * @return a stream over the local copy.
+     * @throws IOException if the record cannot be copied.
+     */
+    InputStream store(DataIdentifier identifier, InputStream in)
+            throws IOException {
+        File temp = File.createTempFile(TMP, null, directory);
+        long length;
+        try {
+            length = TempFileInputStream.writeToFileAndClose(in, temp);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (length > maxSize) {
+            return new TempFileInputStream(temp);
+        }
+        File file = getFile(identifier);
+        synchronized (this) {
+            if (!files.containsKey(identifier.toString())) {
+                file.getParentFile().mkdirs();
+                if (file.exists() || temp.renameTo(file)) {
+                    Entry entry = new Entry(file);
+                    files.put(identifier.toString(), entry);
+                    size += entry.length;
+                    shrink();
+                }
+            }
+            if (!temp.exists()) {
+                // the stream is opened before shrink() can delete the file
+                try {
+                    return new AutoCloseInputStream(
+                            new BufferedInputStream(new FileInputStream(file)));
+                } catch (FileNotFoundException e) {
+                    throw new IOException("Cached record was deleted: " + identifier);
+                }
+            }
+        }
+        // already cached or the rename failed
+        return new TempFileInputStream(temp);
+    }
+
+    /**
+     * Returns the data identifiers of the cached records. The returned list
+     * is a copy, records can be removed while iterating over it.
+     *
+     * @return the data identifiers, the exact type is:
+     *         <code>List&lt;String></code>.
+     */
+    synchronized List getIdentifiers() {
+        return new ArrayList(files.keySet());
+    }
+
+    /**
+     * Removes a record from the cache.
+     *
+     * @param identifier the data identifier.
+     */
+    synchronized void remove(DataIdentifier identifier) {
+        Entry entry = (Entry) files.remove(identifier.toString());
+        if (entry != null) {
+            size -= entry.length;
+            entry.file.delete();
+        }
+    }
+
+    /**
+     * @return the number of cached records.
+     */
+    synchronized int getRecordCount() {
+        return files.size();
+    }
+
+    /**
+     * @return the size of all cached records in bytes.
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Deletes the least recently used files until the cache is not larger
+     * than its maximum size.
+     */
+    private void shrink() {
+        for (Iterator it = files.values().iterator();
+                size > maxSize && it.hasNext(); ) {
+            Entry entry = (Entry) it.next();
+            // an open file might not be deleted on some platforms
+            // it is then used again by store()
+            entry.file.delete();
+            size -= entry.length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the file of a record in the cache.
+     *
+     * @param identifier the data identifier.
+     * @return the file.
+     */
+    private File getFile(DataIdentifier identifier) {
+        String id = identifier.toString();
+        File file = directory;
+        file = new File(file, id.substring(0, 2));
+        file = new File(file, id.substring(2, 4));
+        file = new File(file, id.substring(4, 6));
+        return new File(file, id);
+    }
+
+    /**
+     * Adds the cached files in a directory and its sub directories to the
+     * list and deletes incomplete files.
+     *
+     * @param dir   the directory.
+     * @param found the list of files.
+     */
+    private static void scan(File dir, List found) {
+        File[] list = dir.listFiles();
+        if (list == null) {
+            return;
+        }
+        for (int i = 0; i < list.length; i++) {
+            if (list[i].isDirectory()) {
+                scan(list[i], found);
+            } else if (list[i].getName().startsWith(TMP)) {
+                list[i].delete();
+            } else {
+                found.add(list[i]);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized String toString() {
+        return "records=" + files.size() + ", size=" + size
+                + ", hits=" + hits + ", misses=" + misses;
+    }
+
+    /**
+     * A cached file with the length it had when it was added to the cache.
+     */
+    private static final class Entry {
+
+        private final File file;
+
+        private final long length;
+
+        Entry(File file) {
+            this.file = file;
+            this.length = file.length();
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.apache.jackrabbit.core.state.NodeReferencesId;
 import org.apache.jackrabbit.core.state.PropertyState;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.core.NodeIdIterator;
 import org.apache.jackrabbit.core.PropertyId;
 import org.apache.jackrabbit.core.NamespaceRegistryImpl;
 import org.apache.jackrabbit.core.value.InternalValue;
@@ -44,12 +45,14 @@ import org.apache.jackrabbit.core.persistence.bundle.util.BundleBinding;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
 import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
 
 /**
  * The <code>AbstractBundlePersistenceManager</code> acts as base for all
@@ -97,6 +100,9 @@ public abstract class AbstractBundlePersistenceManager implements
     /** the name of the namespace-index resource */
     protected static final String RES_NS_INDEX = "/namespaces.properties";
 
+    /** the number of node ids read at once by {@link #inlineSmallBinaries()} */
+    private static final int INLINE_BATCH_SIZE = 1000;
+
     /** the index for namespaces */
     private StringIndex nsIndex;
 
@@ -109,6 +115,12 @@ public abstract class AbstractBundlePersistenceManager implements
     /** the cache of non-existent bundles */
     private LRUNodeIdCache missing;
 
+    /**
+     * the identifiers of the data store records that were moved into bundles
+     * since the persistence manager was initialized
+     */
+    private final Set inlined = new HashSet();
+
     /** the persistence manager context */
     protected PMContext context;
 
@@ -328,6 +340,23 @@ public abstract class AbstractBundlePersistenceManager implements
     protected abstract NodePropBundle loadBundle(NodeId id)
             throws ItemStateException;
 
+    /**
+     * Loads a bundle that is only read and not added to the cache, for
+     * example by the data store garbage collector. This method is called
+     * without holding the monitor of this persistence manager. The default
+     * implementation calls {@link #loadBundle(NodeId)}; implementations that
+     * can read bundles concurrently should override this method.
+     *
+     * @param id the node id of the bundle
+     * @return the loaded bundle or <code>null</code> if the bundle does not
+     *         exist.
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    protected NodePropBundle loadBundleReadOnly(NodeId id)
+            throws ItemStateException {
+        return loadBundle(id);
+    }
+
     /**
      * Checks if a bundle exists in the underlying system.
      *
@@ -413,6 +442,165 @@ public abstract class AbstractBundlePersistenceManager implements
         missing.clear();
     }
 
+    /**
+     * Returns the values of the binary properties of a node. The values are
+     * read from the bundle without creating item states, and a bundle that is
+     * not cached is not added to the cache. This is used by the data store
+     * garbage collector to scan all nodes. The monitor of this persistence
+     * manager is not held while a bundle is loaded, so that several threads
+     * can scan at the same time, see {@link #loadBundleReadOnly(NodeId)}.
+     *
+     * @param id the node id
+     * @return the binary values, possibly an empty array
+     * @throws NoSuchItemStateException if the node does not exist
+     * @throws ItemStateException if an error occurs
+     */
+    public InternalValue[] getBinaryValues(NodeId id)
+            throws NoSuchItemStateException, ItemStateException {
+        synchronized (this) {
+            // a cached bundle may be modified concurrently
+            NodePropBundle bundle = bundles.get(id);
+            if (bundle != null) {
+                return getBinaryValues(bundle);
+            }
+        }
+        NodePropBundle bundle = loadBundleReadOnly(id);
+        if (bundle == null) {
+            throw new NoSuchItemStateException(id.toString());
+        }
+        return getBinaryValues(bundle);
+    }
+
+    /**
+     * Returns the values of the binary properties in the given bundle.
+     *
+     * @param bundle the bundle
+     * @return the binary values, possibly an empty array
+     */
+    private static InternalValue[] getBinaryValues(NodePropBundle bundle) {
+        ArrayList list = new ArrayList();
+        for (Iterator it = bundle.getPropertyEntries().iterator(); it.hasNext();) {
+            NodePropBundle.PropertyEntry entry = (NodePropBundle.PropertyEntry) it.next();
+            if (entry.getType() == PropertyType.BINARY) {
+                InternalValue[] values = entry.getValues();
+                for (int i = 0; i < values.length; i++) {
+                    list.add(values[i]);
+                }
+            }
+        }
+        return (InternalValue[]) list.toArray(new InternalValue[list.size()]);
+    }
+
+    /**
+     * Moves the binary values that are stored in the data store into the
+     * bundles if they are smaller than the minimum record length of the data
+     * store. Binary values of new bundles are placed according to the minimum
+     * record length, this method migrates the existing bundles after the
+     * minimum record length was increased, so that small binaries are read
+     * together with their bundle.
+     * <p/>
+     * Item states that are cached by the repository still reference the
+     * records in the data store until the repository is restarted. The
+     * garbage collector therefore keeps the records returned by
+     * {@link #getInlinedIdentifiers()}, they are deleted by the first garbage
+     * collection after a restart if no other value references them.
+     * <p/>
+     * All bundles are read in batches. The method can be used while the
+     * repository is running: the persistence manager is only locked while
+     * a batch of node ids is read and while a single bundle is rewritten,
+     * so that other sessions can read and store items in between.
+     *
+     * @return the number of bundles that were changed
+     * @throws ItemStateException if a bundle could not be read or written
+     * @throws RepositoryException if the node ids could not be read
+     */
+    public int inlineSmallBinaries()
+            throws ItemStateException, RepositoryException {
+        int count = 0;
+        NodeId after = null;
+        while (true) {
+            ArrayList ids = new ArrayList();
+            synchronized (this) {
+                NodeIdIterator it = getAllNodeIds(after, INLINE_BATCH_SIZE);
+                while (it.hasNext()) {
+                    ids.add(it.nextNodeId());
+                }
+            }
+            if (ids.isEmpty()) {
+                return count;
+            }
+            for (Iterator it = ids.iterator(); it.hasNext();) {
+                NodeId id = (NodeId) it.next();
+                if (inlineSmallBinaries(id)) {
+                    count++;
+                }
+                after = id;
+            }
+        }
+    }
+
+    /**
+     * Returns the identifiers of the data store records that were moved into
+     * bundles by {@link #inlineSmallBinaries()} since the repository was
+     * started. Item states cached before still reference these records.
+     *
+     * @return the identifiers of the inlined records
+     */
+    public synchronized Set getInlinedIdentifiers() {
+        return new HashSet(inlined);
+    }
+
+    /**
+     * Rewrites a single bundle if it contains binary values that are in the
+     * data store but should be inline. The bundle is re-read while the
+     * persistence manager is locked, so that no concurrent change is lost.
+     *
+     * @param id the node id
+     * @return true if the bundle was changed
+     * @throws ItemStateException if the bundle could not be read or written
+     */
+    private synchronized boolean inlineSmallBinaries(NodeId id)
+            throws ItemStateException {
+        NodePropBundle bundle = loadBundle(id);
+        if (bundle == null) {
+            return false;
+        }
+        Set ids = getInlineInDataStore(bundle);
+        if (ids.isEmpty()) {
+            return false;
+        }
+        // the binding writes the small values into the bundle
+        bundle.markOld();
+        storeBundle(bundle);
+        evictBundle(id);
+        inlined.addAll(ids);
+        return true;
+    }
+
+    /**
+     * Returns the identifiers of the binary values of a bundle that are in
+     * the data store but should be inline.
+     *
+     * @param bundle the bundle
+     * @return the data identifiers of such values
+     */
+    private Set getInlineInDataStore(NodePropBundle bundle) {
+        Set ids = new HashSet();
+        BundleBinding binding = getBinding();
+        for (Iterator it = bundle.getPropertyEntries().iterator(); it.hasNext();) {
+            NodePropBundle.PropertyEntry entry = (NodePropBundle.PropertyEntry) it.next();
+            if (entry.getType() == PropertyType.BINARY) {
+                InternalValue[] values = entry.getValues();
+                for (int i = 0; i < values.length; i++) {
+                    if (binding.isInlineInDataStore(values[i])) {
+                        ids.add(values[i].getBLOBFileValue().getDataIdentifier());
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
     /**
      * {@inheritDoc}
      *
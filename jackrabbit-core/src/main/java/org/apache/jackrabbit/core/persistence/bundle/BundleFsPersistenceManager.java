@@ -40,6 +40,7 @@ import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeReferences;
 import org.apache.jackrabbit.uuid.UUID;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -259,6 +260,49 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
         }
     }
 
+    /**
+     * Reads the bundle file without holding the monitor of this persistence
+     * manager. Only the deserialization of the bundle is synchronized, as it
+     * uses the name index.
+     */
+    protected NodePropBundle loadBundleReadOnly(NodeId id)
+            throws ItemStateException {
+        String path = buildNodeFilePath(null, id).toString();
+        byte[] bytes;
+        try {
+            InputStream in = null;
+            try {
+                in = itemFs.getInputStream(path);
+                bytes = IOUtils.toByteArray(in);
+            } catch (Exception e) {
+                if (!itemFs.exists(path)) {
+                    // does not exist or was deleted in the meantime
+                    return null;
+                }
+                throw e;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        } catch (Exception e) {
+            String msg = "failed to read bundle: " + id + ": " + e;
+            log.error(msg);
+            throw new ItemStateException(msg, e);
+        }
+        synchronized (this) {
+            try {
+                DataInputStream din = new DataInputStream(
+                        new ByteArrayInputStream(bytes));
+                NodePropBundle bundle = binding.readBundle(din, id);
+                bundle.setSize(bytes.length);
+                return bundle;
+            } catch (Exception e) {
+                String msg = "failed to read bundle: " + id + ": " + e;
+                log.error(msg);
+                throw new ItemStateException(msg, e);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -576,6 +576,29 @@ public class BundleBinding extends ItemStateBinding {
     }
 
 
+    /**
+     * Checks whether a binary value is stored in the data store although it
+     * is small enough to be stored in the bundle, see
+     * {@link InternalValue#isInline(long, DataStore)}. Such values exist if
+     * the minimum record length of the data store was increased. They are
+     * stored in the bundle when the bundle is written the next time.
+     *
+     * @param value a binary value
+     * @return true if the value is in the data store but should be inline
+     */
+    public boolean isInlineInDataStore(InternalValue value) {
+        if (!InternalValue.USE_DATA_STORE || dataStore == null) {
+            return false;
+        }
+        BLOBFileValue blob = value.getBLOBFileValue();
+        if (blob.getDataIdentifier() == null) {
+            return false;
+        }
+        // the length is -1 if the record could not be read
+        long length = blob.getLength();
+        return length >= 0 && InternalValue.isInline(length, dataStore);
+    }
+
     /**
      * Serializes a <code>PropertyState</code> to the data output stream
      *
@@ -601,8 +624,7 @@ public class BundleBinding extends ItemStateBinding {
                     BLOBFileValue blobVal = val.getBLOBFileValue();
                     long size = blobVal.getLength();
                     if (InternalValue.USE_DATA_STORE && dataStore != null) {
-                        int maxMemorySize = dataStore.getMinRecordLength() - 1;
-                        if (size < maxMemorySize) {
+                        if (InternalValue.isInline(size, dataStore)) {
                             writeSmallBinary(out, blobVal, state, i);
                         } else {
                             out.writeInt(BINARY_IN_DATA_STORE);
@@ -39,6 +39,22 @@ public interface ExecutableQuery {
      */
     QueryResult execute(long offset, long limit) throws RepositoryException;
 
+    /**
+     * Returns the number of nodes that match this query and are readable by
+     * the session executing the query. Offset and limit are not taken into
+     * account. Unlike {@link #execute(long, long)} this method does not
+     * create a query result.
+     *
+     * @param exact if <code>true</code> access rights are checked on every
+     *              match and the exact number is returned. If
+     *              <code>false</code> access rights are only checked on a
+     *              sample of the matches and the returned number is an
+     *              estimate.
+     * @return the number of matching nodes.
+     * @throws RepositoryException if an error occurs
+     */
+    long getTotalSize(boolean exact) throws RepositoryException;
+
     /**
      * Binds the given <code>value</code> to the variable named
      * <code>varName</code>.
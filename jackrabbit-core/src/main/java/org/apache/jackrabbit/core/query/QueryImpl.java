@@ -186,6 +186,31 @@ public class QueryImpl extends AbstractQueryImpl {
         return result;
     }
 
+    /**
+     * Returns the number of nodes that match this query and are readable by
+     * the session that created this query. The offset and limit set on this
+     * query are ignored. This method is considerably cheaper than executing
+     * the query and iterating over the result, because no result nodes are
+     * created.
+     *
+     * @param exact if <code>true</code> the exact number is calculated,
+     *              otherwise the number of readable nodes is estimated based
+     *              on a sample of the matches.
+     * @return the number of matching nodes.
+     * @throws RepositoryException if an error occurs.
+     */
+    public long getTotalSize(boolean exact) throws RepositoryException {
+        checkInitialized();
+        long time = System.currentTimeMillis();
+        long size = query.getTotalSize(exact);
+        if (log.isDebugEnabled()) {
+            time = System.currentTimeMillis() - time;
+            log.debug("counted " + size + " hits in " + time + " ms. ("
+                    + statement + ")");
+        }
+        return size;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -57,8 +57,12 @@ abstract class AbstractIndex {
     /** PrintStream that pipes all calls to println(String) into log.info() */
     private static final LoggingPrintStream STREAM_LOGGER = new LoggingPrintStream();
 
-    /** Executor with a pool size equal to the number of available processors */
-    private static final DynamicPooledExecutor EXECUTOR = new DynamicPooledExecutor();
+    /**
+     * Executor with a pool size equal to the number of available processors.
+     * It is also used by {@link JackrabbitIndexSearcher} to score index
+     * segments in parallel.
+     */
+    static final DynamicPooledExecutor EXECUTOR = new DynamicPooledExecutor();
 
     /** The currently set IndexWriter or <code>null</code> if none is set */
     private IndexWriter indexWriter;
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.BitSet;
+import java.util.LinkedList;
+
+/**
+ * <code>BitSetPool</code> keeps a bounded amount of <code>BitSet</code>s for
+ * reuse by the scorers of hierarchical queries. Without a pool every
+ * execution of such a query allocates bit sets sized to the number of
+ * documents in the index, which results in a lot of garbage under concurrent
+ * query load on large indexes.
+ * <p/>
+ * Scorers should not use this class directly but obtain bit sets through
+ * {@link PerQueryCache#getBitSet()}, which returns them to this pool when
+ * the query is finished.
+ */
+class BitSetPool {
+
+    /**
+     * The maximum number of bit sets kept in the pool.
+     */
+    private static final int MAX_POOL_SIZE = 64;
+
+    /**
+     * The maximum number of bytes the pooled bit sets may occupy in total.
+     * Bit sets grow with the largest document number set, hence the number
+     * of pooled bit sets alone does not bound the memory kept by the pool.
+     */
+    private static final long MAX_POOL_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * The pooled bit sets. All bit sets in the pool are cleared.
+     */
+    private static final LinkedList POOL = new LinkedList();
+
+    /**
+     * The number of bytes occupied by the pooled bit sets.
+     */
+    private static long poolBytes;
+
+    /**
+     * Do not instantiate.
+     */
+    private BitSetPool() {
+    }
+
+    /**
+     * Returns a cleared bit set from the pool or a new bit set if the pool
+     * is empty.
+     *
+     * @return a cleared bit set.
+     */
+    static BitSet acquire() {
+        synchronized (POOL) {
+            if (!POOL.isEmpty()) {
+                BitSet bits = (BitSet) POOL.removeFirst();
+                poolBytes -= sizeOf(bits);
+                return bits;
+            }
+        }
+        return new BitSet();
+    }
+
+    /**
+     * Clears the given bit set and returns it to the pool. The caller must
+     * not use <code>bits</code> anymore after this method returns. The bit
+     * set is discarded if the pool is full or if keeping it would exceed
+     * the memory limit of the pool.
+     *
+     * @param bits the bit set to return to the pool.
+     */
+    static void release(BitSet bits) {
+        // only touches the words that are in use,
+        // which is cheap for sparse bit sets
+        bits.clear();
+        long size = sizeOf(bits);
+        synchronized (POOL) {
+            if (POOL.size() < MAX_POOL_SIZE
+                    && poolBytes + size <= MAX_POOL_BYTES) {
+                POOL.addFirst(bits);
+                poolBytes += size;
+            }
+        }
+    }
+
+    /**
+     * @param bits a bit set.
+     * @return the approximate number of bytes occupied by <code>bits</code>.
+     */
+    private static long sizeOf(BitSet bits) {
+        // BitSet.size() returns the number of bits actually allocated
+        return bits.size() / 8;
+    }
+}
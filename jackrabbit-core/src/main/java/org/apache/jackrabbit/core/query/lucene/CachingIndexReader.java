@@ -31,7 +31,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -62,11 +64,54 @@ class CachingIndexReader extends FilterIndexReader {
     private final BitSet shareableNodes;
 
     /**
-     * Cache of nodes parent relation. If an entry in the array is not null,
-     * that means the node with the document number = array-index has the node
-     * with <code>DocId</code> as parent.
+     * Value in {@link #parents} for a document which is not yet cached.
      */
-    private final DocId[] parents;
+    private static final int UNKNOWN = 0;
+
+    /**
+     * Value in {@link #parents} for a document without a parent (the root
+     * node).
+     */
+    private static final int ROOT = -1;
+
+    /**
+     * Return value of {@link #getParentDoc(int, BitSet)} if the parent is not
+     * a document in this index.
+     */
+    static final int FOREIGN_PARENT = -2;
+
+    /**
+     * Cache of nodes parent relation. The entry at array-index n describes
+     * the parent of the node with document number n:
+     * <ul>
+     * <li>{@link #UNKNOWN}: parent is not yet cached</li>
+     * <li>{@link #ROOT}: node n is the root node</li>
+     * <li>value &gt; 0: parent is the document <code>value - 1</code> in this
+     * index</li>
+     * <li>value &lt; -1: parent is the <code>DocId</code> at index
+     * <code>-value - 2</code> in {@link #foreignParents}</li>
+     * </ul>
+     * Compared to an array of <code>DocId</code>s this only needs four bytes
+     * per document and no object per document.
+     */
+    private final int[] parents;
+
+    /**
+     * Parents which are not documents in this index (they are either in
+     * another index or the node is shareable and has multiple parents).
+     * <p/>
+     * The exact type is: <code>List&lt;DocId></code>
+     */
+    private final List foreignParents = new ArrayList();
+
+    /**
+     * Maps the UUID of a foreign parent to its index in
+     * {@link #foreignParents}. This ensures all children of a foreign parent
+     * share a single <code>DocId</code>.
+     * <p/>
+     * The exact type is: <code>Map&lt;UUID, Integer></code>
+     */
+    private final Map foreignParentIndexes = new HashMap();
 
     /**
      * Initializes the {@link #parents} cache.
@@ -110,7 +155,7 @@ class CachingIndexReader extends FilterIndexReader {
             throws IOException {
         super(delegatee);
         this.cache = cache;
-        this.parents = new DocId[delegatee.maxDoc()];
+        this.parents = new int[delegatee.maxDoc()];
         this.shareableNodes = new BitSet();
         TermDocs tDocs = delegatee.termDocs(
                 new Term(FieldNames.SHAREABLE_NODE, ""));
@@ -142,31 +187,86 @@ class CachingIndexReader extends FilterIndexReader {
      * @throws IOException if an error occurs while reading from the index.
      */
     DocId getParent(int n, BitSet deleted) throws IOException {
-        DocId parent;
+        int value = getParentValue(n, deleted);
+        if (value > 0) {
+            return DocId.create(value - 1);
+        } else if (value == ROOT) {
+            return DocId.NULL;
+        } else {
+            return getForeignParent(value);
+        }
+    }
+
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is a document in this index. This method does not create any
+     * objects if the parent is already cached.
+     *
+     * @param n the document number.
+     * @param deleted the documents that should be regarded as deleted.
+     * @return the document number of <code>n</code>'s parent, <code>-1</code>
+     *         if <code>n</code> does not have a parent or
+     *         {@link #FOREIGN_PARENT} if the parent is not a document in this
+     *         index. In the latter case the parent must be obtained with
+     *         {@link #getParent(int, BitSet)}.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    int getParentDoc(int n, BitSet deleted) throws IOException {
+        int value = getParentValue(n, deleted);
+        if (value > 0) {
+            return value - 1;
+        } else if (value == ROOT) {
+            return -1;
+        } else {
+            return FOREIGN_PARENT;
+        }
+    }
+
+    /**
+     * Returns the tick value when this reader was created.
+     *
+     * @return the creation tick for this reader.
+     */
+    public long getCreationTick() {
+        return creationTick;
+    }
+
+    /**
+     * Returns the encoded parent of <code>n</code> as described in
+     * {@link #parents}. The parent is read from the index if it is not yet
+     * cached or if the cached parent is not valid anymore.
+     *
+     * @param n the document number.
+     * @param deleted the documents that should be regarded as deleted.
+     * @return the encoded parent of <code>n</code>, never {@link #UNKNOWN}.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private int getParentValue(int n, BitSet deleted) throws IOException {
+        int value = parents[n];
         boolean existing = false;
-        parent = parents[n];
 
-        if (parent != null) {
+        if (value != UNKNOWN) {
             existing = true;
 
             // check if valid and reset if necessary
-            if (!parent.isValid(deleted)) {
+            if (value > 0 && deleted.get(value - 1)) {
                 if (log.isDebugEnabled()) {
-                    log.debug(parent + " not valid anymore.");
+                    log.debug("parent " + (value - 1) + " of " + n
+                            + " not valid anymore.");
                 }
-                parent = null;
+                value = UNKNOWN;
             }
         }
 
-        if (parent == null) {
+        if (value == UNKNOWN) {
             Document doc = document(n, FieldSelectors.UUID_AND_PARENT);
             String[] parentUUIDs = doc.getValues(FieldNames.PARENT);
             if (parentUUIDs.length == 0 || parentUUIDs[0].length() == 0) {
                 // root node
-                parent = DocId.NULL;
+                value = ROOT;
             } else {
                 if (shareableNodes.get(n)) {
-                    parent = DocId.create(parentUUIDs);
+                    value = addForeignParent(DocId.create(parentUUIDs));
                 } else {
                     if (!existing) {
                         Term id = new Term(FieldNames.UUID, parentUUIDs[0]);
@@ -174,7 +274,7 @@ class CachingIndexReader extends FilterIndexReader {
                         try {
                             while (docs.next()) {
                                 if (!deleted.get(docs.doc())) {
-                                    parent = DocId.create(docs.doc());
+                                    value = docs.doc() + 1;
                                     break;
                                 }
                             }
@@ -182,27 +282,65 @@ class CachingIndexReader extends FilterIndexReader {
                             docs.close();
                         }
                     }
-                    // if still null, then parent is not in this index, or existing
-                    // DocId was invalid. thus, only allowed to create DocId from uuid
-                    if (parent == null) {
-                        parent = DocId.create(parentUUIDs[0]);
+                    // if still unknown, then parent is not in this index, or
+                    // existing parent was invalid. thus, only allowed to
+                    // reference parent by uuid
+                    if (value == UNKNOWN) {
+                        value = getForeignParentValue(
+                                UUID.fromString(parentUUIDs[0]));
                     }
                 }
             }
 
             // finally put to cache
-            parents[n] = parent;
+            parents[n] = value;
         }
-        return parent;
+        return value;
     }
 
     /**
-     * Returns the tick value when this reader was created.
+     * Returns the foreign parent for the given encoded <code>value</code>.
      *
-     * @return the creation tick for this reader.
+     * @param value an encoded foreign parent as described in {@link #parents}.
+     * @return the foreign parent.
      */
-    public long getCreationTick() {
-        return creationTick;
+    private DocId getForeignParent(int value) {
+        synchronized (foreignParents) {
+            return (DocId) foreignParents.get(-value - 2);
+        }
+    }
+
+    /**
+     * Returns the encoded value for a foreign parent with the given
+     * <code>uuid</code>. The parent is added to {@link #foreignParents} if
+     * necessary.
+     *
+     * @param uuid the uuid of the foreign parent.
+     * @return the encoded foreign parent as described in {@link #parents}.
+     */
+    private int getForeignParentValue(UUID uuid) {
+        synchronized (foreignParents) {
+            Integer idx = (Integer) foreignParentIndexes.get(uuid);
+            if (idx == null) {
+                idx = new Integer(foreignParents.size());
+                foreignParents.add(DocId.create(uuid));
+                foreignParentIndexes.put(uuid, idx);
+            }
+            return -idx.intValue() - 2;
+        }
+    }
+
+    /**
+     * Adds a foreign parent to {@link #foreignParents}.
+     *
+     * @param parent the foreign parent.
+     * @return the encoded foreign parent as described in {@link #parents}.
+     */
+    private int addForeignParent(DocId parent) {
+        synchronized (foreignParents) {
+            foreignParents.add(parent);
+            return -(foreignParents.size() - 1) - 2;
+        }
     }
 
     //--------------------< FilterIndexReader overwrites >----------------------
@@ -429,22 +567,23 @@ class CachingIndexReader extends FilterIndexReader {
                 return;
             }
 
-            double foreignParents = 0;
+            double numForeignParents = 0;
             Iterator it = docs.values().iterator();
             while (it.hasNext()) {
                 NodeInfo info = (NodeInfo) it.next();
                 NodeInfo parent = (NodeInfo) docs.get(info.parent);
                 if (parent != null) {
-                    parents[info.docId] = DocId.create(parent.docId);
+                    parents[info.docId] = parent.docId + 1;
                 } else if (info.parent != null) {
-                    foreignParents++;
-                    parents[info.docId] = DocId.create(info.parent);
+                    numForeignParents++;
+                    parents[info.docId] = getForeignParentValue(info.parent);
                 } else if (shareableNodes.get(info.docId)) {
                     Document doc = reader.document(info.docId, FieldSelectors.UUID_AND_PARENT);
-                    parents[info.docId] = DocId.create(doc.getValues(FieldNames.PARENT));
+                    parents[info.docId] = addForeignParent(
+                            DocId.create(doc.getValues(FieldNames.PARENT)));
                 } else {
                     // no parent -> root node
-                    parents[info.docId] = DocId.NULL;
+                    parents[info.docId] = ROOT;
                 }
             }
             if (log.isDebugEnabled()) {
@@ -452,13 +591,13 @@ class CachingIndexReader extends FilterIndexReader {
                 nf.setMaximumFractionDigits(1);
                 time = System.currentTimeMillis() - time;
                 if (parents.length > 0) {
-                    foreignParents /= parents.length;
+                    numForeignParents /= parents.length;
                 }
-                log.debug("initialized {} DocIds in {} ms, {} foreign parents",
+                log.debug("initialized {} parents in {} ms, {} foreign parents",
                         new Object[]{
                             new Integer(parents.length),
                             new Long(time),
-                            nf.format(foreignParents)
+                            nf.format(numForeignParents)
                         });
             }
         }
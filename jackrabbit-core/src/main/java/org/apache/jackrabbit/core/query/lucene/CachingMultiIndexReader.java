@@ -34,6 +34,11 @@ public final class CachingMultiIndexReader
         extends MultiReader
         implements HierarchyResolver, MultiIndexReader {
 
+    /**
+     * The generation of the next reader instance.
+     */
+    private static long nextGeneration;
+
     /**
      * The sub readers.
      */
@@ -60,6 +65,12 @@ public final class CachingMultiIndexReader
      */
     private int refCount = 1;
 
+    /**
+     * The generation of this reader. Every reader instance has a distinct
+     * generation.
+     */
+    private final long generation = createGeneration();
+
     /**
      * Creates a new <code>CachingMultiIndexReader</code> based on sub readers.
      *
@@ -86,8 +97,41 @@ public final class CachingMultiIndexReader
      * {@inheritDoc}
      */
     public int[] getParents(int n, int[] docNumbers) throws IOException {
-        DocId id = getParentDocId(n);
-        return id.getDocumentNumbers(this, docNumbers);
+        int parent = getParentDoc(n);
+        if (parent >= 0) {
+            if (docNumbers.length != 1) {
+                docNumbers = new int[1];
+            }
+            docNumbers[0] = parent;
+            return docNumbers;
+        } else if (parent == -1) {
+            return DocId.EMPTY;
+        } else {
+            DocId id = getParentDocId(n);
+            return id.getDocumentNumbers(this, docNumbers);
+        }
+    }
+
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is in the same index segment as <code>n</code>. This is the
+     * common case and does not create any objects.
+     *
+     * @param n the document number.
+     * @return the document number of <code>n</code>'s parent, <code>-1</code>
+     *         if <code>n</code> does not have a parent or
+     *         {@link CachingIndexReader#FOREIGN_PARENT} if the parent is in
+     *         another index segment. In the latter case the parent must be
+     *         obtained with {@link #getParentDocId(int)}.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public int getParentDoc(int n) throws IOException {
+        int i = readerIndex(n);
+        int parent = subReaders[i].getParentDoc(n - starts[i]);
+        if (parent >= 0) {
+            parent += starts[i];
+        }
+        return parent;
     }
 
     /**
@@ -166,6 +210,18 @@ public final class CachingMultiIndexReader
         }
     }
 
+    /**
+     * Returns the generation of this reader. A new reader instance, with a
+     * new generation, is created by the {@link MultiIndex} whenever the
+     * index changes. Two readers with the same generation therefore see the
+     * same index content and document numbers.
+     *
+     * @return the generation of this reader.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
     //-------------------------< MultiIndexReader >-----------------------------
 
     /**
@@ -211,6 +267,13 @@ public final class CachingMultiIndexReader
         return -1;
     }
 
+    /**
+     * @return a new distinct reader generation.
+     */
+    private static synchronized long createGeneration() {
+        return nextGeneration++;
+    }
+
     /**
      * Returns the reader index for document <code>n</code>.
      * Implementation copied from lucene MultiReader class.
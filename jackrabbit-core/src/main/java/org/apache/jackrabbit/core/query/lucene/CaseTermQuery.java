@@ -53,6 +53,24 @@ abstract class CaseTermQuery extends MultiTermQuery implements TransformConstant
         return new CaseTermEnum(reader);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof CaseTermQuery) {
+            CaseTermQuery other = (CaseTermQuery) obj;
+            return transform == other.transform && super.equals(obj);
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return 31 * super.hashCode() + transform;
+    }
+
     static final class Upper extends CaseTermQuery {
 
         Upper(Term term) {
@@ -44,12 +44,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.HashSet;
 import java.util.ArrayList;
 
 /**
@@ -101,16 +101,6 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
      */
     private final NamespaceMappings nsMappings;
 
-    /**
-     * The scorer of the context query
-     */
-    private Scorer contextScorer;
-
-    /**
-     * The scorer of the name test query
-     */
-    private Scorer nameTestScorer;
-
     /**
      * Creates a new <code>ChildAxisQuery</code> based on a <code>context</code>
      * query.
@@ -253,6 +243,30 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
         return sb.toString();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof ChildAxisQuery) {
+            ChildAxisQuery other = (ChildAxisQuery) obj;
+            return contextQuery.equals(other.contextQuery)
+                    && (nameTest == null ? other.nameTest == null : nameTest.equals(other.nameTest))
+                    && position == other.position
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = contextQuery.hashCode();
+        h = 31 * h + (nameTest == null ? 0 : nameTest.hashCode());
+        h = 31 * h + position;
+        return h ^ Float.floatToIntBits(getBoost());
+    }
+
     //-------------------< JackrabbitQuery >------------------------------------
 
     /**
@@ -329,12 +343,14 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
          * @throws IOException if an error occurs while reading from the index.
          */
         public Scorer scorer(IndexReader reader) throws IOException {
-            contextScorer = contextQuery.weight(searcher).scorer(reader);
+            Scorer contextScorer = contextQuery.weight(searcher).scorer(reader);
+            Scorer nameTestScorer = null;
             if (nameTest != null) {
                 nameTestScorer = new NameQuery(nameTest, version, nsMappings).weight(searcher).scorer(reader);
             }
             return new ChildAxisScorer(searcher.getSimilarity(),
-                    reader, (HierarchyResolver) reader);
+                    reader, (HierarchyResolver) reader,
+                    contextScorer, nameTestScorer);
         }
 
         /**
@@ -362,6 +378,16 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
          */
         private final HierarchyResolver hResolver;
 
+        /**
+         * The scorer of the context query
+         */
+        private final Scorer contextScorer;
+
+        /**
+         * The scorer of the name test query
+         */
+        private final Scorer nameTestScorer;
+
         /**
          * The next document id to return
          */
@@ -378,13 +404,20 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
          * @param similarity the <code>Similarity</code> instance to use.
          * @param reader     for index access.
          * @param hResolver  the hierarchy resolver of <code>reader</code>.
+         * @param contextScorer  the scorer of the context query.
+         * @param nameTestScorer the scorer of the name test query or
+         *                       <code>null</code> if there is no name test.
          */
         protected ChildAxisScorer(Similarity similarity,
                                   IndexReader reader,
-                                  HierarchyResolver hResolver) {
+                                  HierarchyResolver hResolver,
+                                  Scorer contextScorer,
+                                  Scorer nameTestScorer) {
             super(similarity);
             this.reader = reader;
             this.hResolver = hResolver;
+            this.contextScorer = contextScorer;
+            this.nameTestScorer = nameTestScorer;
         }
 
         /**
@@ -461,7 +494,7 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
                                 if (docIds.size() > CONTEXT_SIZE_THRESHOLD) {
                                     // switch
                                     calc[0] = new HierarchyResolvingChildrenCalculator(
-                                            reader, hResolver);
+                                            reader, hResolver, nameTestScorer);
                                     for (Iterator it = docIds.iterator(); it.hasNext(); ) {
                                         calc[0].collectContextHit(((Integer) it.next()).intValue());
                                     }
@@ -665,8 +698,7 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
 
     /**
      * An implementation of a children calculator that uses the hierarchy
-     * resolver. This implementation requires that
-     * {@link ChildAxisQuery#nameTestScorer} is non null.
+     * resolver. This implementation requires a scorer of the name test.
      */
     private final class HierarchyResolvingChildrenCalculator
             extends ChildrenCalculator {
@@ -674,24 +706,32 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
         /**
          * The document numbers of the context hits.
          */
-        private final Set docIds = new HashSet();
+        private final BitSet docIds = PerQueryCache.getInstance().getBitSet();
+
+        /**
+         * The scorer of the name test query.
+         */
+        private final Scorer nameTestScorer;
 
         /**
          * Creates a new hierarchy resolving children calculator.
          *
          * @param reader the current index reader.
          * @param hResolver the current hierarchy resolver.
+         * @param nameTestScorer the scorer of the name test query.
          */
         public HierarchyResolvingChildrenCalculator(IndexReader reader,
-                                                    HierarchyResolver hResolver) {
+                                                    HierarchyResolver hResolver,
+                                                    Scorer nameTestScorer) {
             super(reader, hResolver);
+            this.nameTestScorer = nameTestScorer;
         }
 
         /**
          * {@inheritDoc}
          */
         protected void collectContextHit(int doc) {
-            docIds.add(new Integer(doc));
+            docIds.set(doc);
         }
 
         /**
@@ -706,12 +746,12 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
                 docs = hResolver.getParents(h, docs);
                 if (docs.length == 1) {
                     // optimize single value
-                    if (docIds.contains(new Integer(docs[0]))) {
+                    if (docIds.get(docs[0])) {
                         childrenHits.set(h);
                     }
                 } else {
                     for (int i = 0; i < docs.length; i++) {
-                        if (docIds.contains(new Integer(docs[i]))) {
+                        if (docIds.get(docs[i])) {
                             childrenHits.set(h);
                         }
                     }
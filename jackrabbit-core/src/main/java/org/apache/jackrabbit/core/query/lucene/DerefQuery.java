@@ -67,16 +67,6 @@ class DerefQuery extends Query {
      */
     private final NamespaceMappings nsMappings;
 
-    /**
-     * The scorer of the context query
-     */
-    private Scorer contextScorer;
-
-    /**
-     * The scorer of the name test query
-     */
-    private Scorer nameTestScorer;
-
     /**
      * Creates a new <code>DerefQuery</code> based on a <code>context</code>
      * query.
@@ -117,6 +107,30 @@ class DerefQuery extends Query {
         return "DerefQuery";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof DerefQuery) {
+            DerefQuery other = (DerefQuery) obj;
+            return contextQuery.equals(other.contextQuery)
+                    && refProperty.equals(other.refProperty)
+                    && (nameTest == null ? other.nameTest == null : nameTest.equals(other.nameTest))
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = contextQuery.hashCode();
+        h = 31 * h + refProperty.hashCode();
+        h = 31 * h + (nameTest == null ? 0 : nameTest.hashCode());
+        return h ^ Float.floatToIntBits(getBoost());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -195,11 +209,13 @@ class DerefQuery extends Query {
          * @throws IOException if an error occurs while reading from the index.
          */
         public Scorer scorer(IndexReader reader) throws IOException {
-            contextScorer = contextQuery.weight(searcher).scorer(reader);
+            Scorer contextScorer = contextQuery.weight(searcher).scorer(reader);
+            Scorer nameTestScorer = null;
             if (nameTest != null) {
                 nameTestScorer = new NameQuery(nameTest, version, nsMappings).weight(searcher).scorer(reader);
             }
-            return new DerefScorer(searcher.getSimilarity(), reader);
+            return new DerefScorer(searcher.getSimilarity(), reader,
+                    contextScorer, nameTestScorer);
         }
 
         /**
@@ -222,6 +238,16 @@ class DerefQuery extends Query {
          */
         private final IndexReader reader;
 
+        /**
+         * The scorer of the context query
+         */
+        private final Scorer contextScorer;
+
+        /**
+         * The scorer of the name test query
+         */
+        private final Scorer nameTestScorer;
+
         /**
          * BitSet storing the id's of selected documents
          */
@@ -242,11 +268,17 @@ class DerefQuery extends Query {
          *
          * @param similarity the <code>Similarity</code> instance to use.
          * @param reader     for index access.
+         * @param contextScorer  the scorer of the context query.
+         * @param nameTestScorer the scorer of the name test query or
+         *                       <code>null</code> if there is no name test.
          */
-        protected DerefScorer(Similarity similarity, IndexReader reader) {
+        protected DerefScorer(Similarity similarity, IndexReader reader,
+                              Scorer contextScorer, Scorer nameTestScorer) {
             super(similarity);
             this.reader = reader;
-            this.hits = new BitSet(reader.maxDoc());
+            this.contextScorer = contextScorer;
+            this.nameTestScorer = nameTestScorer;
+            this.hits = PerQueryCache.getInstance().getBitSet();
         }
 
         /**
@@ -301,7 +333,7 @@ class DerefQuery extends Query {
                 });
 
                 // collect nameTest hits
-                final BitSet nameTestHits = new BitSet();
+                final BitSet nameTestHits = PerQueryCache.getInstance().getBitSet();
                 if (nameTestScorer != null) {
                     nameTestScorer.score(new HitCollector() {
                         public void collect(int doc, float score) {
@@ -56,11 +56,6 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
      */
     private final Query contextQuery;
 
-    /**
-     * The scorer of the context query
-     */
-    private Scorer contextScorer;
-
     /**
      * The sub query to filter
      */
@@ -72,11 +67,6 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
      */
     private final int minLevels;
 
-    /**
-     * The scorer of the sub query to filter
-     */
-    private Scorer subScorer;
-
     /**
      * Creates a new <code>DescendantSelfAxisQuery</code> based on a
      * <code>context</code> and matches all descendants of the context nodes.
@@ -191,6 +181,30 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
         return sb.toString();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof DescendantSelfAxisQuery) {
+            DescendantSelfAxisQuery other = (DescendantSelfAxisQuery) obj;
+            return contextQuery.equals(other.contextQuery)
+                    && subQuery.equals(other.subQuery)
+                    && minLevels == other.minLevels
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = contextQuery.hashCode();
+        h = 31 * h + subQuery.hashCode();
+        h = 31 * h + minLevels;
+        return h ^ Float.floatToIntBits(getBoost());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -380,10 +394,11 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
          * @throws IOException if an error occurs while reading from the index.
          */
         public Scorer scorer(IndexReader reader) throws IOException {
-            contextScorer = contextQuery.weight(searcher).scorer(reader);
-            subScorer = subQuery.weight(searcher).scorer(reader);
+            Scorer contextScorer = contextQuery.weight(searcher).scorer(reader);
+            Scorer subScorer = subQuery.weight(searcher).scorer(reader);
             HierarchyResolver resolver = (HierarchyResolver) reader;
-            return new DescendantSelfAxisScorer(searcher.getSimilarity(), reader, resolver);
+            return new DescendantSelfAxisScorer(searcher.getSimilarity(),
+                    resolver, contextScorer, subScorer);
         }
 
         /**
@@ -406,6 +421,16 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
          */
         private final HierarchyResolver hResolver;
 
+        /**
+         * The scorer of the context query
+         */
+        private final Scorer contextScorer;
+
+        /**
+         * The scorer of the sub query to filter
+         */
+        private final Scorer subScorer;
+
         /**
          * BitSet storing the id's of selected documents
          */
@@ -434,17 +459,20 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
         /**
          * Creates a new <code>DescendantSelfAxisScorer</code>.
          *
-         * @param similarity the <code>Similarity</code> instance to use.
-         * @param reader     for index access.
-         * @param hResolver  the hierarchy resolver of <code>reader</code>.
+         * @param similarity    the <code>Similarity</code> instance to use.
+         * @param hResolver     the hierarchy resolver of the index.
+         * @param contextScorer the scorer of the context query.
+         * @param subScorer     the scorer of the sub query.
          */
         protected DescendantSelfAxisScorer(Similarity similarity,
-                                           IndexReader reader,
-                                           HierarchyResolver hResolver) {
+                                           HierarchyResolver hResolver,
+                                           Scorer contextScorer,
+                                           Scorer subScorer) {
             super(similarity);
             this.hResolver = hResolver;
-            // todo reuse BitSets?
-            this.contextHits = new BitSet(reader.maxDoc());
+            this.contextScorer = contextScorer;
+            this.subScorer = subScorer;
+            this.contextHits = PerQueryCache.getInstance().getBitSet();
         }
 
         /**
@@ -0,0 +1,443 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.util.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>ExtractedTextCache</code> keeps the text extracted from binaries in
+ * the data store in a directory on disk. A binary in the data store never
+ * changes its content, therefore text extracted once can be re-used when the
+ * same binary is indexed again, e.g. on re-index, node move or when an
+ * aggregate is updated.
+ * <p/>
+ * An entry is identified by the {@link DataIdentifier} of the binary, its
+ * mime type and encoding and the version of the text extractors. The latter
+ * makes sure that text is extracted again when the text extractors are
+ * re-configured or upgraded.
+ * <p/>
+ * The size of the cache directory is limited. When new text grows the cache
+ * beyond its maximum size, the least recently used files are deleted until
+ * the cache is at most 90% full. Reading a cached text marks its file as
+ * used. Text of binaries that were removed from the data store is never
+ * read again and is eventually deleted that way.
+ */
+public class ExtractedTextCache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ExtractedTextCache.class);
+
+    /**
+     * The encoding of the cache files.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * The extension of the cache files.
+     */
+    private static final String EXTENSION = ".txt";
+
+    /**
+     * The prefix of the temporary files.
+     */
+    private static final String TMP = "text";
+
+    /**
+     * The cache directory.
+     */
+    private final File directory;
+
+    /**
+     * The version of the text extractors.
+     */
+    private final String extractorVersion;
+
+    /**
+     * The maximum size of the cache files in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * The size of the cache files in bytes.
+     */
+    private long size;
+
+    /**
+     * Creates a new text cache.
+     *
+     * @param directory        the cache directory.
+     * @param extractorVersion the version of the text extractors.
+     * @param maxSize          the maximum size of the cache files in bytes.
+     * @throws IOException if the cache directory cannot be created.
+     */
+    public ExtractedTextCache(File directory,
+                              String extractorVersion,
+                              long maxSize)
+            throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create text cache directory: "
+                    + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        this.extractorVersion = extractorVersion;
+        this.maxSize = maxSize;
+        List files = new ArrayList();
+        scan(directory, files);
+        synchronized (this) {
+            for (Iterator it = files.iterator(); it.hasNext();) {
+                size += ((File) it.next()).length();
+            }
+            if (size > maxSize) {
+                shrink(files);
+            }
+        }
+    }
+
+    /**
+     * @return the size of the cache files in bytes.
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the cached text for the given binary.
+     *
+     * @param id       the data identifier of the binary.
+     * @param type     the mime type of the binary.
+     * @param encoding the encoding of the binary or <code>null</code>.
+     * @return a reader on the cached text or <code>null</code> if there is no
+     *         text in this cache for the given binary.
+     */
+    public Reader getText(DataIdentifier id, String type, String encoding) {
+        File file = getFile(id, type, encoding);
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), ENCODING));
+            // the least recently used files are deleted first
+            file.setLastModified(System.currentTimeMillis());
+            return reader;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            // will never happen, UTF-8 is always supported
+            return null;
+        }
+    }
+
+    /**
+     * Wraps the <code>reader</code> of a text extractor. The text returned by
+     * the wrapping reader is put into this cache once the wrapping reader is
+     * read until the end.
+     *
+     * @param id       the data identifier of the binary.
+     * @param type     the mime type of the binary.
+     * @param encoding the encoding of the binary or <code>null</code>.
+     * @param reader   the reader of the text extractor.
+     * @return the wrapping reader.
+     */
+    public Reader cacheText(DataIdentifier id,
+                            String type,
+                            String encoding,
+                            Reader reader) {
+        return new CachingReader(this, reader, getFile(id, type, encoding));
+    }
+
+    /**
+     * Adds the size of a file that was moved into the cache and deletes the
+     * least recently used files if the cache is too large.
+     *
+     * @param length the size of the new file in bytes.
+     */
+    private void added(long length) {
+        synchronized (this) {
+            size += length;
+            if (size <= maxSize) {
+                return;
+            }
+        }
+        List files = new ArrayList();
+        scan(directory, files);
+        synchronized (this) {
+            // the directory may be shared, start over with the actual size
+            size = 0;
+            for (Iterator it = files.iterator(); it.hasNext();) {
+                size += ((File) it.next()).length();
+            }
+            shrink(files);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the cache is at most 90%
+     * full. The caller must hold the lock on this cache.
+     *
+     * @param files the cache files.
+     */
+    private void shrink(List files) {
+        File[] list = (File[]) files.toArray(new File[files.size()]);
+        Arrays.sort(list, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long m1 = ((File) o1).lastModified();
+                long m2 = ((File) o2).lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        long limit = maxSize - maxSize / 10;
+        int count = 0;
+        for (int i = 0; i < list.length && size > limit; i++) {
+            long length = list[i].length();
+            if (list[i].delete()) {
+                size -= length;
+                count++;
+            }
+        }
+        log.debug("Deleted {} files from the text cache", new Integer(count));
+    }
+
+    /**
+     * Adds the cache files in a directory and its sub directories to the
+     * list. Temporary files are left alone, they might still be written.
+     *
+     * @param dir   the directory.
+     * @param found the list of files.
+     */
+    private static void scan(File dir, List found) {
+        File[] list = dir.listFiles();
+        if (list == null) {
+            return;
+        }
+        for (int i = 0; i < list.length; i++) {
+            if (list[i].isDirectory()) {
+                scan(list[i], found);
+            } else if (list[i].getName().endsWith(EXTENSION)) {
+                found.add(list[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the cache file for the given binary.
+     *
+     * @param id       the data identifier of the binary.
+     * @param type     the mime type of the binary.
+     * @param encoding the encoding of the binary or <code>null</code>.
+     * @return the cache file.
+     */
+    private File getFile(DataIdentifier id, String type, String encoding) {
+        String key = Text.md5(id + "\n" + type + "\n" + encoding + "\n"
+                + extractorVersion);
+        File parent = new File(directory, key.substring(0, 2));
+        return new File(parent, key + EXTENSION);
+    }
+
+    /**
+     * A reader that writes the text it returns to a temporary file and moves
+     * the file into the cache when the end of the text is reached.
+     */
+    static final class CachingReader extends FilterReader {
+
+        /**
+         * The cache.
+         */
+        private final ExtractedTextCache cache;
+
+        /**
+         * The cache file.
+         */
+        private final File file;
+
+        /**
+         * The temporary file or <code>null</code> if nothing has been read yet
+         * or the text is not cached.
+         */
+        private File tmp;
+
+        /**
+         * Writer on {@link #tmp}.
+         */
+        private Writer writer;
+
+        /**
+         * Set to <code>true</code> when the text is not cached.
+         */
+        private boolean discarded;
+
+        /**
+         * The number of characters written to {@link #writer}.
+         */
+        private long length;
+
+        /**
+         * Creates a new caching reader.
+         *
+         * @param cache the cache.
+         * @param in    the reader of the text extractor.
+         * @param file  the cache file.
+         */
+        CachingReader(ExtractedTextCache cache, Reader in, File file) {
+            super(in);
+            this.cache = cache;
+            this.file = file;
+        }
+
+        /**
+         * @return <code>true</code> if the text extractor of the underlying
+         *         reader has finished its work.
+         * @see TextExtractorReader#isExtractorFinished()
+         */
+        boolean isExtractorFinished() {
+            if (in instanceof TextExtractorReader) {
+                return ((TextExtractorReader) in).isExtractorFinished();
+            }
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read() throws IOException {
+            char[] c = new char[1];
+            if (read(c, 0, 1) == -1) {
+                return -1;
+            }
+            return c[0];
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int num = super.read(cbuf, off, len);
+            if (num == -1) {
+                commit();
+            } else if (num > 0 && !discarded) {
+                try {
+                    if (writer == null) {
+                        tmp = File.createTempFile(TMP, ".tmp",
+                                file.getParentFile().getParentFile());
+                        writer = new BufferedWriter(new OutputStreamWriter(
+                                new FileOutputStream(tmp), ENCODING));
+                    }
+                    writer.write(cbuf, off, num);
+                    length += num;
+                } catch (IOException e) {
+                    log.warn("Unable to write to text cache: " + e);
+                    discard();
+                }
+            }
+            return num;
+        }
+
+        /**
+         * Skipped text cannot be cached.
+         *
+         * @param n the number of characters to skip.
+         * @return the number of characters actually skipped.
+         * @throws IOException if an error occurs while skipping.
+         */
+        public long skip(long n) throws IOException {
+            discard();
+            return super.skip(n);
+        }
+
+        /**
+         * @return always <code>false</code>.
+         */
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         * Discards the text when the reader was not read until the end.
+         */
+        public void close() throws IOException {
+            discard();
+            super.close();
+        }
+
+        /**
+         * Moves the temporary file into the cache. Empty text is not cached
+         * because it is also returned when the text extractor fails.
+         */
+        private void commit() {
+            if (discarded || writer == null || length == 0) {
+                discard();
+                return;
+            }
+            try {
+                writer.close();
+                writer = null;
+                File parent = file.getParentFile();
+                if (!parent.exists()) {
+                    parent.mkdirs();
+                }
+                if (tmp.renameTo(file)) {
+                    tmp = null;
+                    cache.added(file.length());
+                } else {
+                    // another thread put the same text into the cache
+                    log.debug("Unable to move text to cache file: {}", file);
+                }
+            } catch (IOException e) {
+                log.warn("Unable to write to text cache: " + e);
+            }
+            discard();
+        }
+
+        /**
+         * Stops caching and removes the temporary file.
+         */
+        private void discard() {
+            discarded = true;
+            if (writer != null) {
+                IOUtils.closeQuietly(writer);
+                writer = null;
+            }
+            if (tmp != null) {
+                tmp.delete();
+                tmp = null;
+            }
+        }
+    }
+}
@@ -82,6 +82,30 @@ public class FieldNames {
      */
     public static final String PROPERTIES = "_:PROPERTIES".intern();
 
+    /**
+     * Name of the field that contains the lower-cased values of string
+     * properties that are configured to be indexed lower-cased. Terms are
+     * prefixed with the property name like in {@link #PROPERTIES}.
+     */
+    public static final String LOWER_CASE_PROPERTIES = "_:LOWER_CASE_PROPERTIES".intern();
+
+    /**
+     * Name of the field that contains the values of properties that are
+     * configured to be stored in the index. The values are prefixed with the
+     * property name like in {@link #PROPERTIES}, see {@link StoredValues}.
+     * The field is only stored, not indexed.
+     */
+    public static final String STORED_PROPERTIES = "_:STORED_PROPERTIES".intern();
+
+    /**
+     * Name of the field that contains the values of long, double and date
+     * properties in multiple precisions. The terms are created with
+     * {@link TrieField} and are not tokenized and not stored, only indexed.
+     * Every document of an index with format version
+     * {@link IndexFormatVersion#V4} contains this field.
+     */
+    public static final String TRIE_PROPERTIES = "_:TRIE_PROPERTIES".intern();
+
     /**
      * Name of the field that contains the names of all properties that are set
      * on an indexed node.
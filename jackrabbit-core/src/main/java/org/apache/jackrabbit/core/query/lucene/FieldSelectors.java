@@ -63,4 +63,20 @@ public class FieldSelectors {
             }
         }
     };
+
+    public static final FieldSelector STORED_PROPERTIES = new FieldSelector() {
+        /**
+         * Only accepts {@link FieldNames#STORED_PROPERTIES}.
+         *
+         * @param fieldName the field name to check.
+         * @return result.
+         */
+        public FieldSelectorResult accept(String fieldName) {
+            if (FieldNames.STORED_PROPERTIES == fieldName) {
+                return FieldSelectorResult.LOAD;
+            } else {
+                return FieldSelectorResult.NO_LOAD;
+            }
+        }
+    };
 }
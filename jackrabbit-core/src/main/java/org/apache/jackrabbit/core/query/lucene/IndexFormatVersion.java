@@ -34,6 +34,11 @@ import org.apache.lucene.index.IndexReader;
  * fields <code>PROPERTY_LENGTHS</code>, <code>LOCAL_NAME</code> and
  * <code>NAMESPACE_URI</code>. Furthermore a Payload is added to
  * <code>PROPERTIES</code> fields to indicate the property type.</li>
+ * <li><b>Version 4</b> adds the <code>TRIE_PROPERTIES</code> field, which
+ * contains the values of long, double and date properties in multiple
+ * precisions. Range queries on such properties only need to look at a small
+ * number of terms. Indexes of version 3 are migrated by
+ * {@link IndexMigration}.</li>
  * </ul>
  * Please note that existing indexes are not automatically upgraded to a newer
  * version! If you want to take advantage of a certain 'feature' in an index
@@ -56,6 +61,11 @@ public class IndexFormatVersion {
      */
     public static final IndexFormatVersion V3 = new IndexFormatVersion(3);
 
+    /**
+     * V4 is the index format with trie encoded long, double and date values.
+     */
+    public static final IndexFormatVersion V4 = new IndexFormatVersion(4);
+
     /**
      * The used version of the index format
      */
@@ -104,7 +114,9 @@ public class IndexFormatVersion {
     public static IndexFormatVersion getVersion(IndexReader indexReader) {
         Collection fields = indexReader.getFieldNames(
                 IndexReader.FieldOption.ALL);
-        if (fields.contains(FieldNames.LOCAL_NAME) || indexReader.numDocs() == 0) {
+        if (fields.contains(FieldNames.TRIE_PROPERTIES) || indexReader.numDocs() == 0) {
+            return IndexFormatVersion.V4;
+        } else if (fields.contains(FieldNames.LOCAL_NAME)) {
             return IndexFormatVersion.V3;
         } else if (fields.contains(FieldNames.PROPERTIES_SET)) {
             return IndexFormatVersion.V2;
@@ -19,8 +19,7 @@ package org.apache.jackrabbit.core.query.lucene;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.IndexReader;
 import org.apache.commons.collections.Buffer;
-import org.apache.commons.collections.BufferUtils;
-import org.apache.commons.collections.buffer.UnboundedFifoBuffer;
+import org.apache.commons.collections.buffer.PriorityBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,20 +33,22 @@ import EDU.oswego.cs.dl.util.concurrent.Sync;
 import EDU.oswego.cs.dl.util.concurrent.Mutex;
 
 /**
- * Merges indexes in a separate daemon thread.
+ * Merges indexes in separate daemon threads. Up to
+ * {@link #setMaxConcurrentMerges(int) maxConcurrentMerges} merges run at the
+ * same time, each on a disjoint set of indexes. Pending merges are started in
+ * ascending order of the number of documents they merge, and large merges
+ * never occupy all merge threads, so that small merges are not delayed by a
+ * long running large merge. The rate at which all running merges write to
+ * disk together can be limited with
+ * {@link #setMaxMergeRate(int) maxMergeRate}.
  */
-class IndexMerger extends Thread implements IndexListener {
+class IndexMerger {
 
     /**
      * Logger instance for this class.
      */
     private static final Logger log = LoggerFactory.getLogger(IndexMerger.class);
 
-    /**
-     * Marker task to signal the background thread to quit.
-     */
-    private static final Merge QUIT = new Merge(new Index[0]);
-
     /**
      * minMergeDocs config parameter.
      */
@@ -64,15 +65,54 @@ class IndexMerger extends Thread implements IndexListener {
     private int mergeFactor = SearchIndex.DEFAULT_MERGE_FACTOR;
 
     /**
-     * Queue of merge Tasks
+     * maxConcurrentMerges config parameter
+     */
+    private int maxConcurrentMerges = SearchIndex.DEFAULT_MAX_CONCURRENT_MERGES;
+
+    /**
+     * maxMergeRate config parameter, in megabytes per second
+     */
+    private int maxMergeRate = 0;
+
+    /**
+     * Queue of merge Tasks, the merge with the least number of documents
+     * first. Guarded by {@link #lock}.
+     */
+    private final Buffer mergeTasks = new PriorityBuffer();
+
+    /**
+     * The number of merge tasks that are queued or running. Guarded by
+     * {@link #lock}.
+     */
+    private int pendingMerges = 0;
+
+    /**
+     * The number of running large merges. Guarded by {@link #lock}.
+     */
+    private int runningLargeMerges = 0;
+
+    /**
+     * Set to <code>true</code> when this index merger is disposed. Guarded by
+     * {@link #lock}.
+     */
+    private boolean disposed = false;
+
+    /**
+     * Sequence number for merge tasks with the same number of documents.
+     * Guarded by {@link #lock}.
+     */
+    private long mergeSequence = 0;
+
+    /**
+     * The merge threads.
      */
-    private final Buffer mergeTasks = BufferUtils.blockingBuffer(new UnboundedFifoBuffer());
+    private Thread[] workers = new Thread[0];
 
     /**
-     * List of id <code>Term</code> that identify documents that were deleted
-     * while a merge was running.
+     * The throttle for the merge writes or <code>null</code> if the merge
+     * rate is not limited.
      */
-    private final List deletedDocuments = Collections.synchronizedList(new ArrayList());
+    private ThrottledDirectory.Throttle throttle;
 
     /**
      * List of <code>IndexBucket</code>s in ascending document limit.
@@ -85,7 +125,7 @@ class IndexMerger extends Thread implements IndexListener {
     private final MultiIndex multiIndex;
 
     /**
-     * Monitor object to synchronize merge calculation.
+     * Monitor object to synchronize merge calculation and the merge queue.
      */
     private final Object lock = new Object();
 
@@ -94,11 +134,6 @@ class IndexMerger extends Thread implements IndexListener {
      */
     private final Sync indexReplacement = new Mutex();
 
-    /**
-     * When released, indicates that this index merger is idle.
-     */
-    private final Sync mergerIdle = new Mutex();
-
     /**
      * Creates an <code>IndexMerger</code>.
      *
@@ -106,13 +141,24 @@ class IndexMerger extends Thread implements IndexListener {
      */
     IndexMerger(MultiIndex multiIndex) {
         this.multiIndex = multiIndex;
-        setName("IndexMerger");
-        setDaemon(true);
-        try {
-            mergerIdle.acquire();
-        } catch (InterruptedException e) {
-            // will never happen, lock is free upon construction
-            throw new InternalError("Unable to acquire mutex after construction");
+    }
+
+    /**
+     * Starts the merge threads.
+     */
+    void start() {
+        if (maxMergeRate > 0) {
+            throttle = new ThrottledDirectory.Throttle(maxMergeRate);
+        }
+        workers = new Thread[Math.max(1, maxConcurrentMerges)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    IndexMerger.this.run();
+                }
+            }, "IndexMerger-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
         }
     }
 
@@ -177,37 +223,33 @@ class IndexMerger extends Thread implements IndexListener {
                 for (Iterator it = bucket.iterator(); it.hasNext() && mergeDocs <= targetMergeDocs;) {
                     indexesToMerge.add(it.next());
                 }
-                if (indexesToMerge.size() > 2) {
+                if (indexesToMerge.size() > 2 && !disposed) {
                     // found merge
                     Index[] idxs = (Index[]) indexesToMerge.toArray(new Index[indexesToMerge.size()]);
                     bucket.removeAll(indexesToMerge);
                     if (log.isDebugEnabled()) {
                         log.debug("requesting merge for " + indexesToMerge);
                     }
-                    mergeTasks.add(new Merge(idxs));
+                    mergeTasks.add(new Merge(idxs, mergeSequence++));
+                    pendingMerges++;
+                    lock.notifyAll();
                     log.debug("merge queue now contains " + mergeTasks.size() + " tasks.");
                 }
             }
         }
     }
 
-    /**
-     * @inheritDoc
-     */
-    public void documentDeleted(Term id) {
-        log.debug("document deleted: " + id.text());
-        deletedDocuments.add(id);
-    }
-
     /**
      * When the calling thread returns this index merger will be idle, that is
      * there will be no merge tasks pending anymore. The method returns immediately
      * if there are currently no tasks pending at all.
      */
     void waitUntilIdle() throws InterruptedException {
-        mergerIdle.acquire();
-        // and immediately release again
-        mergerIdle.release();
+        synchronized (lock) {
+            while (pendingMerges > 0 && !disposed) {
+                lock.wait();
+            }
+        }
     }
 
     /**
@@ -217,128 +259,189 @@ class IndexMerger extends Thread implements IndexListener {
     void dispose() {
         log.debug("dispose IndexMerger");
         // get mutex for index replacements
+        boolean replacementLocked = false;
         try {
             indexReplacement.acquire();
+            replacementLocked = true;
         } catch (InterruptedException e) {
             log.warn("Interrupted while acquiring index replacement sync: " + e);
             // try to stop IndexMerger without the sync
         }
 
-        // clear task queue
-        mergeTasks.clear();
-
-        // send quit
-        mergeTasks.add(QUIT);
-        log.debug("quit sent");
+        try {
+            // clear task queue and send quit. once the flag is set no
+            // merge will replace indexes on the MultiIndex anymore
+            synchronized (lock) {
+                disposed = true;
+                pendingMerges -= mergeTasks.size();
+                mergeTasks.clear();
+                lock.notifyAll();
+            }
+            log.debug("quit sent");
+        } finally {
+            if (replacementLocked) {
+                indexReplacement.release();
+            }
+        }
 
         try {
-            // give the merger thread some time to quit,
-            // it is possible that the merger is busy working on a large index.
+            // give the merger threads some time to quit,
+            // it is possible that a merger is busy working on a large index.
             // if that is the case we will just ignore it and the daemon will
             // die without being able to finish the merge.
-            // at this point it is not possible anymore to replace indexes
-            // on the MultiIndex because we hold the indexReplacement Sync.
-            this.join(500);
-            if (isAlive()) {
+            long end = System.currentTimeMillis() + 500;
+            boolean busy = false;
+            for (int i = 0; i < workers.length; i++) {
+                workers[i].join(Math.max(1, end - System.currentTimeMillis()));
+                busy |= workers[i].isAlive();
+            }
+            if (busy) {
                 log.info("Unable to stop IndexMerger. Daemon is busy.");
             } else {
-                log.debug("IndexMerger thread stopped");
+                log.debug("IndexMerger threads stopped");
             }
-            log.debug("merge queue size: " + mergeTasks.size());
         } catch (InterruptedException e) {
             log.warn("Interrupted while waiting for IndexMerger thread to terminate.");
         }
     }
 
     /**
-     * Implements the index merging.
+     * Implements the index merging. Executed by every merge thread.
      */
-    public void run() {
+    private void run() {
         for (;;) {
-            boolean isIdle = false;
-            if (mergeTasks.size() == 0) {
-                mergerIdle.release();
-                isIdle = true;
-            }
-            Merge task = (Merge) mergeTasks.remove();
-            if (task == QUIT) {
-                mergerIdle.release();
-                break;
-            }
-            if (isIdle) {
-                try {
-                    mergerIdle.acquire();
-                } catch (InterruptedException e) {
-                    Thread.interrupted();
-                    log.warn("Unable to acquire mergerIdle sync");
+            Merge task = null;
+            boolean large;
+            synchronized (lock) {
+                for (;;) {
+                    if (disposed) {
+                        break;
+                    }
+                    if (!mergeTasks.isEmpty()) {
+                        // the first task is the smallest one. if it is large,
+                        // all tasks are large and one thread is kept free for
+                        // small merges
+                        Merge next = (Merge) mergeTasks.get();
+                        if (!isLarge(next)
+                                || runningLargeMerges < workers.length - 1
+                                || workers.length == 1) {
+                            task = (Merge) mergeTasks.remove();
+                            break;
+                        }
+                    }
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.interrupted();
+                        log.warn("Interrupted while waiting for merge task");
+                    }
+                }
+                if (task == null) {
+                    break;
+                }
+                large = isLarge(task);
+                if (large) {
+                    runningLargeMerges++;
                 }
             }
 
-            log.debug("accepted merge request");
+            try {
+                merge(task);
+            } finally {
+                synchronized (lock) {
+                    if (large) {
+                        runningLargeMerges--;
+                    }
+                    pendingMerges--;
+                    lock.notifyAll();
+                }
+            }
+        }
+        log.info("IndexMerger terminated");
+    }
 
-            // reset deleted documents
-            deletedDocuments.clear();
+    /**
+     * Merges the indexes of <code>task</code> into a new index and replaces
+     * them on the <code>MultiIndex</code>.
+     *
+     * @param task the merge task.
+     */
+    private void merge(Merge task) {
+        log.debug("accepted merge request");
 
-            // get readers
-            String[] names = new String[task.indexes.length];
-            for (int i = 0; i < task.indexes.length; i++) {
-                names[i] = task.indexes[i].name;
-            }
+        // get readers
+        String[] names = new String[task.indexes.length];
+        for (int i = 0; i < task.indexes.length; i++) {
+            names[i] = task.indexes[i].name;
+        }
+        try {
+            log.debug("create new index");
+            PersistentIndex index = multiIndex.getOrCreateIndex(null);
+            boolean success = false;
             try {
-                log.debug("create new index");
-                PersistentIndex index = multiIndex.getOrCreateIndex(null);
-                boolean success = false;
-                try {
 
-                    log.debug("get index readers from MultiIndex");
-                    IndexReader[] readers = multiIndex.getIndexReaders(names, this);
-                    try {
-                        // do the merge
-                        long time = System.currentTimeMillis();
-                        index.addIndexes(readers);
-                        time = System.currentTimeMillis() - time;
-                        int docCount = 0;
-                        for (int i = 0; i < readers.length; i++) {
-                            docCount += readers[i].numDocs();
-                        }
-                        log.info("merged " + docCount + " documents in " + time + " ms into " + index.getName() + ".");
-                    } finally {
-                        for (int i = 0; i < readers.length; i++) {
-                            try {
-                                Util.closeOrRelease(readers[i]);
-                            } catch (IOException e) {
-                                log.warn("Unable to close IndexReader: " + e);
-                            }
+                log.debug("get index readers from MultiIndex");
+                IndexReader[] readers = multiIndex.getIndexReaders(names, task);
+                try {
+                    // do the merge
+                    long time = System.currentTimeMillis();
+                    index.addIndexes(readers, throttle);
+                    time = System.currentTimeMillis() - time;
+                    int docCount = 0;
+                    for (int i = 0; i < readers.length; i++) {
+                        docCount += readers[i].numDocs();
+                    }
+                    log.info("merged " + docCount + " documents in " + time + " ms into " + index.getName() + ".");
+                } finally {
+                    for (int i = 0; i < readers.length; i++) {
+                        try {
+                            Util.closeOrRelease(readers[i]);
+                        } catch (IOException e) {
+                            log.warn("Unable to close IndexReader: " + e);
                         }
                     }
+                }
 
-                    // inform multi index
-                    // if we cannot get the sync immediately we have to quit
-                    if (!indexReplacement.attempt(0)) {
-                        log.debug("index merging canceled");
-                        break;
-                    }
-                    try {
-                        log.debug("replace indexes");
-                        multiIndex.replaceIndexes(names, index, deletedDocuments);
-                    } finally {
-                        indexReplacement.release();
+                // inform multi index
+                // other merges may replace indexes at the same time
+                indexReplacement.acquire();
+                try {
+                    synchronized (lock) {
+                        if (disposed) {
+                            log.debug("index merging canceled");
+                            return;
+                        }
                     }
+                    log.debug("replace indexes");
+                    multiIndex.replaceIndexes(names, index, task.deletedDocuments);
+                } finally {
+                    indexReplacement.release();
+                }
 
-                    success = true;
+                success = true;
 
-                } finally {
-                    if (!success) {
-                        // delete index
-                        log.debug("deleting index " + index.getName());
-                        multiIndex.deleteIndex(index);
-                    }
+            } finally {
+                if (!success) {
+                    // delete index
+                    log.debug("deleting index " + index.getName());
+                    multiIndex.deleteIndex(index);
                 }
-            } catch (Throwable e) {
-                log.error("Error while merging indexes: ", e);
             }
+        } catch (Throwable e) {
+            log.error("Error while merging indexes: ", e);
         }
-        log.info("IndexMerger terminated");
+    }
+
+    /**
+     * Returns <code>true</code> if the given merge is a large merge. A merge
+     * is large if it merges more documents than the merge of a full bucket
+     * with indexes of at most {@link #minMergeDocs} documents.
+     *
+     * @param task a merge task.
+     * @return <code>true</code> if <code>task</code> is a large merge.
+     */
+    private boolean isLarge(Merge task) {
+        return task.numDocs > (long) minMergeDocs * mergeFactor;
     }
 
     //-----------------------< merge properties >-------------------------------
@@ -365,6 +468,23 @@ class IndexMerger extends Thread implements IndexListener {
         this.maxMergeDocs = maxMergeDocs;
     }
 
+    /**
+     * The maximum number of merges that run at the same time. Must be set
+     * before the index merger is started.
+     */
+    public void setMaxConcurrentMerges(int maxConcurrentMerges) {
+        this.maxConcurrentMerges = maxConcurrentMerges;
+    }
+
+    /**
+     * The maximum rate in megabytes per second at which all running merges
+     * write to disk together. A value of zero or less disables the limit.
+     * Must be set before the index merger is started.
+     */
+    public void setMaxMergeRate(int maxMergeRate) {
+        this.maxMergeRate = maxMergeRate;
+    }
+
     //------------------------------< internal >--------------------------------
 
     /**
@@ -424,20 +544,71 @@ class IndexMerger extends Thread implements IndexListener {
 
     /**
      * Defines a merge task, to merge a couple of indexes into a new index.
+     * Merge tasks are ordered by the number of documents they merge. A merge
+     * task is informed about documents that are deleted in its indexes while
+     * the merge is running.
      */
-    private static final class Merge {
+    private static final class Merge implements Comparable, IndexListener {
 
         private final Index[] indexes;
 
+        /**
+         * The number of documents in {@link #indexes}.
+         */
+        private final long numDocs;
+
+        /**
+         * The sequence number of this merge task.
+         */
+        private final long sequence;
+
+        /**
+         * List of id <code>Term</code> that identify documents that were
+         * deleted while this merge was running.
+         */
+        private final List deletedDocuments = Collections.synchronizedList(new ArrayList());
+
         /**
          * Merge task, to merge <code>indexes</code> into a new index with
          * <code>name</code>.
          *
          * @param indexes the indexes to merge.
+         * @param sequence the sequence number of this merge task.
          */
-        Merge(Index[] indexes) {
+        Merge(Index[] indexes, long sequence) {
             this.indexes = new Index[indexes.length];
             System.arraycopy(indexes, 0, this.indexes, 0, indexes.length);
+            long docs = 0;
+            for (int i = 0; i < indexes.length; i++) {
+                docs += indexes[i].numDocs;
+            }
+            this.numDocs = docs;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Merges are first ordered by {@link #numDocs} and then by
+         * {@link #sequence}.
+         *
+         * @param o the other <code>Merge</code>.
+         * @return a negative integer, zero, or a positive integer as this
+         *         Merge is less than, equal to, or greater than the specified
+         *         Merge.
+         */
+        public int compareTo(Object o) {
+            Merge other = (Merge) o;
+            if (numDocs != other.numDocs) {
+                return numDocs < other.numDocs ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+        /**
+         * @inheritDoc
+         */
+        public void documentDeleted(Term id) {
+            log.debug("document deleted: " + id.text());
+            deletedDocuments.add(id);
         }
     }
 
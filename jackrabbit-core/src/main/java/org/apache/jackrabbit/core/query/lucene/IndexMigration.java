@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.index.FilterIndexReader;
 import org.apache.lucene.index.IndexReader;
@@ -32,7 +33,12 @@ import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
+import javax.jcr.PropertyType;
+
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 
 /**
  * <code>IndexMigration</code> implements a utility that migrates a Jackrabbit
@@ -42,6 +48,13 @@ import java.io.IOException;
  * the character '[' as a separator. Whenever an index is opened from disk, a
  * quick check is run to find out whether a migration is required. See also
  * JCR-1363 for more details.
+ * <p/>
+ * Indexes with format version {@link IndexFormatVersion#V3} are migrated to
+ * {@link IndexFormatVersion#V4} by adding the {@link FieldNames#TRIE_PROPERTIES}
+ * terms for the long, double and date values in the index. The values and
+ * their types are read from the <code>PROPERTIES</code> terms and their
+ * payloads. Older indexes do not have the property types in the index and
+ * must be re-indexed to use the trie encoded values.
  */
 public class IndexMigration {
 
@@ -53,35 +66,50 @@ public class IndexMigration {
     /**
      * Checks if the given <code>index</code> needs to be migrated.
      *
+     * An index in format version 3 is only migrated to the trie encoded
+     * values if <code>trieMigration</code> is set. The migration copies the
+     * whole index once, existing indexes in format version 3 remain usable
+     * without it.
+     *
      * @param index the index to check and migration if needed.
      * @param directoryManager the directory manager.
+     * @param trieMigration whether to add the trie encoded values to an
+     *                      index in format version 3.
      * @throws IOException if an error occurs while migrating the index.
      */
     public static void migrate(PersistentIndex index,
-                               DirectoryManager directoryManager)
+                               DirectoryManager directoryManager,
+                               boolean trieMigration)
             throws IOException {
         Directory indexDir = index.getDirectory();
         log.debug("Checking {} ...", indexDir);
         ReadOnlyIndexReader reader = index.getReadOnlyIndexReader();
+        IndexFormatVersion version;
         try {
-            if (IndexFormatVersion.getVersion(reader).getVersion() >=
-                    IndexFormatVersion.V3.getVersion()) {
-                // index was created with Jackrabbit 1.5 or higher
+            version = IndexFormatVersion.getVersion(reader);
+            if (version.isAtLeast(IndexFormatVersion.V4)) {
+                // index already contains trie encoded values
                 // no need for migration
-                log.debug("IndexFormatVersion >= V3, no migration needed");
+                log.debug("IndexFormatVersion >= V4, no migration needed");
                 return;
             }
-            // assert: there is at least one node in the index, otherwise the
-            //         index format version would be at least V3
-            TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, ""));
-            try {
-                Term t = terms.term();
-                if (t.text().indexOf('\uFFFF') == -1) {
-                    log.debug("Index already migrated");
-                    return;
+            if (version.isAtLeast(IndexFormatVersion.V3) && !trieMigration) {
+                log.debug("IndexFormatVersion V3, trie migration disabled");
+                return;
+            }
+            if (!version.isAtLeast(IndexFormatVersion.V3)) {
+                // assert: there is at least one node in the index, otherwise the
+                //         index format version would be at least V3
+                TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, ""));
+                try {
+                    Term t = terms.term();
+                    if (t.text().indexOf('\uFFFF') == -1) {
+                        log.debug("Index already migrated");
+                        return;
+                    }
+                } finally {
+                    terms.close();
                 }
-            } finally {
-                terms.close();
             }
         } finally {
             reader.release();
@@ -89,38 +117,70 @@ public class IndexMigration {
         }
 
         // if we get here then the index must be migrated
-        log.debug("Index requires migration {}", indexDir);
-
-        String migrationName = index.getName() + "_v2.3";
-        if (directoryManager.hasDirectory(migrationName)) {
-            directoryManager.delete(migrationName);
+        if (version.isAtLeast(IndexFormatVersion.V3)) {
+            // only V3 has the property types required for the trie encoding
+            log.debug("Index requires trie encoded values {}", indexDir);
+            try {
+                migrate(index, directoryManager, "_v4", new TrieMigrationIndexReader(
+                        IndexReader.open(index.getDirectory())));
+            } catch (TrieMigrationException e) {
+                // keep the index in format version 3
+                log.warn(e.getMessage() + " Index " + index.getName()
+                        + " is not migrated. Please re-index the workspace.");
+                directoryManager.delete(index.getName() + "_v4");
+                return;
+            }
+        } else {
+            log.debug("Index requires migration {}", indexDir);
+            migrate(index, directoryManager, "_v2.3", new MigrationIndexReader(
+                    IndexReader.open(index.getDirectory())));
         }
+        log.info("Migrated " + index.getName());
+    }
 
-        Directory migrationDir = directoryManager.getDirectory(migrationName);
+    /**
+     * Replaces the content of <code>index</code> with the content of the
+     * given <code>reader</code>.
+     *
+     * @param index            the index to migrate.
+     * @param directoryManager the directory manager.
+     * @param suffix           suffix of the temporary migration directory.
+     * @param reader           a reader that migrates the index on the fly.
+     *                         The reader is closed when this method returns.
+     * @throws IOException if an error occurs while migrating the index.
+     */
+    private static void migrate(PersistentIndex index,
+                                DirectoryManager directoryManager,
+                                String suffix,
+                                IndexReader reader)
+            throws IOException {
+        String migrationName = index.getName() + suffix;
         try {
-            IndexWriter writer = new IndexWriter(migrationDir, new JackrabbitAnalyzer(),
-                    IndexWriter.MaxFieldLength.UNLIMITED);
+            if (directoryManager.hasDirectory(migrationName)) {
+                directoryManager.delete(migrationName);
+            }
+
+            Directory migrationDir = directoryManager.getDirectory(migrationName);
             try {
-                IndexReader r = new MigrationIndexReader(
-                        IndexReader.open(index.getDirectory()));
+                IndexWriter writer = new IndexWriter(migrationDir, new JackrabbitAnalyzer(),
+                        IndexWriter.MaxFieldLength.UNLIMITED);
                 try {
-                    writer.addIndexes(new IndexReader[]{r});
+                    writer.addIndexes(new IndexReader[]{reader});
                     writer.close();
                 } finally {
-                    r.close();
+                    writer.close();
                 }
             } finally {
-                writer.close();
+                migrationDir.close();
             }
         } finally {
-            migrationDir.close();
+            reader.close();
         }
         directoryManager.delete(index.getName());
         if (!directoryManager.rename(migrationName, index.getName())) {
             throw new IOException("failed to move migrated directory " +
-                    migrationDir);
+                    migrationName);
         }
-        log.info("Migrated " + index.getName());
     }
 
     //---------------------------< internal helper >----------------------------
@@ -208,4 +268,544 @@ public class IndexMigration {
             }
         }
     }
+
+    /**
+     * An index reader that adds the {@link FieldNames#TRIE_PROPERTIES} terms
+     * on the fly. The terms are created from the long, double and date values
+     * in the <code>PROPERTIES</code> field, one property name at a time.
+     */
+    static class TrieMigrationIndexReader extends FilterIndexReader {
+
+        public TrieMigrationIndexReader(IndexReader in) {
+            super(in);
+        }
+
+        public Collection getFieldNames(FieldOption fieldOption) {
+            Collection names = super.getFieldNames(fieldOption);
+            if (fieldOption == FieldOption.ALL
+                    || fieldOption == FieldOption.INDEXED
+                    || fieldOption == FieldOption.INDEXED_NO_TERMVECTOR
+                    || fieldOption == FieldOption.OMIT_TF) {
+                names = new HashSet(names);
+                names.add(FieldNames.TRIE_PROPERTIES);
+            }
+            return names;
+        }
+
+        public TermEnum terms() throws IOException {
+            return new TrieMigrationTermEnum(in.terms(), new TrieTermEnum(in));
+        }
+
+        public TermDocs termDocs() throws IOException {
+            return termPositions();
+        }
+
+        public TermPositions termPositions() throws IOException {
+            return new TrieMigrationTermPositions(in, in.termPositions());
+        }
+
+        /**
+         * Merges the terms of the index with the trie terms.
+         */
+        private static class TrieMigrationTermEnum extends TermEnum {
+
+            private final TermEnum in;
+
+            private final TrieTermEnum trie;
+
+            private boolean inValid;
+
+            private boolean trieValid;
+
+            private boolean started;
+
+            private boolean current;
+
+            private boolean currentIsTrie;
+
+            public TrieMigrationTermEnum(TermEnum in, TrieTermEnum trie) {
+                this.in = in;
+                this.trie = trie;
+            }
+
+            public boolean next() throws IOException {
+                if (!started) {
+                    started = true;
+                    inValid = in.next();
+                    trieValid = trie.next();
+                } else if (currentIsTrie) {
+                    trieValid = trie.next();
+                } else if (current) {
+                    inValid = in.next();
+                }
+                if (trieValid && (!inValid || trie.term().compareTo(in.term()) < 0)) {
+                    currentIsTrie = true;
+                } else {
+                    currentIsTrie = false;
+                }
+                current = inValid || trieValid;
+                return current;
+            }
+
+            public Term term() {
+                if (!current) {
+                    return null;
+                }
+                return currentIsTrie ? trie.term() : in.term();
+            }
+
+            public int docFreq() {
+                return currentIsTrie ? trie.docFreq() : in.docFreq();
+            }
+
+            public void close() throws IOException {
+                try {
+                    in.close();
+                } finally {
+                    trie.close();
+                }
+            }
+
+            /**
+             * @return the documents of the current trie term or <code>null</code>
+             *         if the current term is not a trie term.
+             */
+            int[] getTrieDocs() {
+                return currentIsTrie ? trie.getDocs() : null;
+            }
+
+            TermEnum unwrap() {
+                return in;
+            }
+        }
+
+        /**
+         * Returns the postings of the trie terms from memory and delegates to the
+         * index for all other terms.
+         */
+        private static class TrieMigrationTermPositions extends FilterTermPositions {
+
+            /**
+             * The documents of the current trie term or <code>null</code> if
+             * positioned on another term.
+             */
+            private int[] docs;
+
+            private int index;
+
+            /**
+             * The index reader that is migrated.
+             */
+            private final IndexReader reader;
+
+            public TrieMigrationTermPositions(IndexReader reader,
+                                              TermPositions in) {
+                super(in);
+                this.reader = reader;
+            }
+
+            public void seek(Term term) throws IOException {
+                docs = null;
+                if (term.field() == FieldNames.TRIE_PROPERTIES) {
+                    // create the trie terms of the property from its values
+                    String text = term.text();
+                    TrieTermEnum trie = new TrieTermEnum(reader,
+                            text.substring(0, text.indexOf('[') + 1));
+                    try {
+                        docs = new int[0];
+                        while (trie.next() && trie.term().compareTo(term) <= 0) {
+                            if (trie.term().equals(term)) {
+                                docs = trie.getDocs();
+                                break;
+                            }
+                        }
+                    } finally {
+                        trie.close();
+                    }
+                    index = -1;
+                } else {
+                    super.seek(term);
+                }
+            }
+
+            public void seek(TermEnum termEnum) throws IOException {
+                docs = null;
+                if (termEnum instanceof TrieMigrationTermEnum) {
+                    TrieMigrationTermEnum e = (TrieMigrationTermEnum) termEnum;
+                    docs = e.getTrieDocs();
+                    index = -1;
+                    if (docs == null) {
+                        super.seek(e.unwrap());
+                    }
+                } else {
+                    super.seek(termEnum);
+                }
+            }
+
+            public boolean next() throws IOException {
+                if (docs == null) {
+                    return super.next();
+                }
+                return ++index < docs.length;
+            }
+
+            public boolean skipTo(int target) throws IOException {
+                if (docs == null) {
+                    return super.skipTo(target);
+                }
+                while (next()) {
+                    if (docs[index] >= target) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            public int read(int[] docs, int[] freqs) throws IOException {
+                if (this.docs == null) {
+                    return super.read(docs, freqs);
+                }
+                int count = 0;
+                while (count < docs.length && next()) {
+                    docs[count] = this.docs[index];
+                    freqs[count] = 1;
+                    count++;
+                }
+                return count;
+            }
+
+            public int doc() {
+                return docs == null ? super.doc() : docs[index];
+            }
+
+            public int freq() {
+                return docs == null ? super.freq() : 1;
+            }
+
+            public int nextPosition() throws IOException {
+                return docs == null ? super.nextPosition() : 0;
+            }
+
+            public int getPayloadLength() {
+                return docs == null ? super.getPayloadLength() : 0;
+            }
+
+            public byte[] getPayload(byte[] data, int offset) throws IOException {
+                return docs == null ? super.getPayload(data, offset) : data;
+            }
+
+            public boolean isPayloadAvailable() {
+                return docs == null && super.isPayloadAvailable();
+            }
+        }
+    }
+
+    /**
+     * Creates the trie terms in the order of the terms in the index. For each
+     * property name the long, double and date values are read with their
+     * documents into memory. The trie terms of a level are then created by
+     * grouping the sorted values with a common prefix.
+     */
+    private static class TrieTermEnum extends TermEnum {
+
+        /**
+         * The property types with trie encoded values in the order of the
+         * trie terms.
+         */
+        private static final int[] TYPES = {
+                PropertyType.LONG, PropertyType.DOUBLE, PropertyType.DATE
+        };
+
+        /**
+         * The terms of the <code>PROPERTIES</code> field.
+         */
+        private final TermEnum properties;
+
+        /**
+         * The postings of the <code>PROPERTIES</code> terms.
+         */
+        private final TermPositions positions;
+
+        /**
+         * The values of the current property, one instance per type.
+         */
+        private final TrieValues[] values = new TrieValues[TYPES.length];
+
+        private final byte[] payload = new byte[1];
+
+        /**
+         * <code>true</code> while <code>properties</code> is positioned on
+         * a term.
+         */
+        private boolean hasMoreProperties;
+
+        /**
+         * The name of the current property or <code>null</code> if the
+         * values of a property have not been read yet.
+         */
+        private String propertyName;
+
+        private int typeIndex;
+
+        private int level;
+
+        private int offset;
+
+        private Term term;
+
+        private int[] docs;
+
+        public TrieTermEnum(IndexReader reader) throws IOException {
+            this(reader, "");
+        }
+
+        /**
+         * Creates the trie terms starting with the given property.
+         *
+         * @param reader the index reader.
+         * @param prefix the first property name followed by '[', or an empty
+         *               string to start with the first property.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        public TrieTermEnum(IndexReader reader, String prefix) throws IOException {
+            this.properties = reader.terms(new Term(FieldNames.PROPERTIES, prefix));
+            this.positions = reader.termPositions();
+            Term t = properties.term();
+            this.hasMoreProperties = t != null && t.field() == FieldNames.PROPERTIES;
+            for (int i = 0; i < TYPES.length; i++) {
+                values[i] = new TrieValues(TYPES[i]);
+            }
+        }
+
+        public boolean next() throws IOException {
+            while (propertyName == null || !nextTerm()) {
+                if (!readProperty()) {
+                    term = null;
+                    docs = null;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public Term term() {
+            return term;
+        }
+
+        public int docFreq() {
+            return docs == null ? 0 : docs.length;
+        }
+
+        public void close() throws IOException {
+            try {
+                properties.close();
+            } finally {
+                positions.close();
+            }
+        }
+
+        /**
+         * @return the documents of the current trie term.
+         */
+        int[] getDocs() {
+            return docs;
+        }
+
+        /**
+         * Moves to the next trie term of the current property.
+         *
+         * @return <code>false</code> if there are no more trie terms for the
+         *         current property.
+         */
+        private boolean nextTerm() {
+            while (typeIndex < TYPES.length) {
+                TrieValues v = values[typeIndex];
+                if (offset == v.size) {
+                    offset = 0;
+                    if (++level == TrieField.LEVELS) {
+                        level = 0;
+                        typeIndex++;
+                    }
+                    continue;
+                }
+                int shift = level * 64 / TrieField.LEVELS;
+                long value = v.values[offset];
+                int end = offset + 1;
+                while (end < v.size && ((v.values[end] ^ value) >>> shift) == 0) {
+                    end++;
+                }
+                int[] d = new int[end - offset];
+                System.arraycopy(v.docs, offset, d, 0, d.length);
+                if (level > 0) {
+                    // remove duplicates
+                    Arrays.sort(d);
+                    int num = 0;
+                    for (int i = 0; i < d.length; i++) {
+                        if (num == 0 || d[num - 1] != d[i]) {
+                            d[num++] = d[i];
+                        }
+                    }
+                    if (num < d.length) {
+                        int[] tmp = new int[num];
+                        System.arraycopy(d, 0, tmp, 0, num);
+                        d = tmp;
+                    }
+                }
+                docs = d;
+                term = new Term(FieldNames.TRIE_PROPERTIES, TrieField.createTerm(
+                        propertyName, v.type, value, level));
+                offset = end;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Reads the long, double and date values of the next property name
+         * in the <code>PROPERTIES</code> field.
+         *
+         * @return <code>false</code> if there are no more properties.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        private boolean readProperty() throws IOException {
+            if (!hasMoreProperties) {
+                return false;
+            }
+            for (int i = 0; i < values.length; i++) {
+                values[i].size = 0;
+            }
+            String text = properties.term().text();
+            String prefix = text.substring(0, text.indexOf('[') + 1);
+            propertyName = prefix.substring(0, prefix.length() - 1);
+            do {
+                Term t = properties.term();
+                if (t == null || t.field() != FieldNames.PROPERTIES) {
+                    hasMoreProperties = false;
+                    break;
+                } else if (!t.text().startsWith(prefix)) {
+                    break;
+                }
+                String value = t.text().substring(prefix.length());
+                positions.seek(properties);
+                while (positions.next()) {
+                    positions.nextPosition();
+                    if (!positions.isPayloadAvailable()) {
+                        continue;
+                    }
+                    positions.getPayload(payload, 0);
+                    int type = PropertyMetaData.fromByteArray(payload).getPropertyType();
+                    for (int i = 0; i < TYPES.length; i++) {
+                        if (TYPES[i] == type) {
+                            values[i].add(value, positions.doc());
+                        }
+                    }
+                }
+                hasMoreProperties = properties.next();
+            } while (hasMoreProperties);
+            typeIndex = 0;
+            level = 0;
+            offset = 0;
+            return true;
+        }
+    }
+
+    /**
+     * The sortable values of one property type with their documents, ordered
+     * by value and document number.
+     */
+    private static final class TrieValues {
+
+        private final int type;
+
+        private long[] values = new long[16];
+
+        private int[] docs = new int[16];
+
+        private int size;
+
+        /**
+         * The last encoded value passed to {@link #add(String, int)}.
+         */
+        private String lastText;
+
+        /**
+         * The sortable value of {@link #lastText}.
+         */
+        private long lastValue;
+
+        TrieValues(int type) {
+            this.type = type;
+        }
+
+        /**
+         * Adds a value.
+         *
+         * @param text the value as encoded in the <code>PROPERTIES</code>
+         *             field. Values must be added in the order of their
+         *             terms.
+         * @param doc  the document with the value.
+         * @throws TrieMigrationException if the value cannot be decoded or
+         *                                is out of order.
+         */
+        void add(String text, int doc) throws TrieMigrationException {
+            if (text != lastText) {
+                boolean valid;
+                try {
+                    lastValue = decode(text);
+                    // values that are out of order cannot be migrated
+                    valid = size == 0 || values[size - 1] < lastValue;
+                } catch (IllegalArgumentException e) {
+                    valid = false;
+                }
+                if (!valid) {
+                    throw new TrieMigrationException("Unable to migrate value "
+                            + text + " of type "
+                            + PropertyType.nameFromValue(type) + ".");
+                }
+                lastText = text;
+            }
+            if (size == values.length) {
+                long[] v = new long[size * 2];
+                System.arraycopy(values, 0, v, 0, size);
+                values = v;
+                int[] d = new int[size * 2];
+                System.arraycopy(docs, 0, d, 0, size);
+                docs = d;
+            }
+            values[size] = lastValue;
+            docs[size] = doc;
+            size++;
+        }
+
+        /**
+         * Decodes a value from the <code>PROPERTIES</code> field.
+         *
+         * @param text the encoded value.
+         * @return the sortable value.
+         * @throws IllegalArgumentException if <code>text</code> is not a
+         *                                  valid value of this type.
+         */
+        private long decode(String text) throws IllegalArgumentException {
+            switch (type) {
+                case PropertyType.LONG:
+                    return LongField.stringToLong(text);
+                case PropertyType.DOUBLE:
+                    return TrieField.doubleToSortableLong(
+                            DoubleField.stringToDouble(text));
+                default:
+                    return DateField.stringToTime(text);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a value in an index with format version 3 cannot be
+     * converted into trie terms. The index is then not migrated.
+     */
+    private static final class TrieMigrationException extends IOException {
+
+        TrieMigrationException(String message) {
+            super(message);
+        }
+    }
 }
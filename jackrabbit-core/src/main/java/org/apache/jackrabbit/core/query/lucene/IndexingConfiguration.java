@@ -121,4 +121,40 @@ public interface IndexingConfiguration {
      */
     Analyzer getPropertyAnalyzer(String fieldName);
 
+    /**
+     * Returns <code>true</code> if the values of the string property with the
+     * given name are additionally indexed lower-cased. This allows to evaluate
+     * case-insensitive comparisons on that property with a term lookup. The
+     * setting applies to the property name regardless of the node type.
+     *
+     * @param propertyName the name of a property.
+     * @return <code>true</code> if the property is indexed lower-cased.
+     */
+    boolean isLowerCaseIndexed(Name propertyName);
+
+    /**
+     * @return the names of the properties whose string values are
+     *         additionally indexed lower-cased.
+     * @see #isLowerCaseIndexed(Name)
+     */
+    Name[] getLowerCaseProperties();
+
+    /**
+     * Returns <code>true</code> if the value of the property with the given
+     * name is stored in the index. This allows to return the value in a row
+     * of a query result without loading the node. The setting applies to the
+     * property name regardless of the node type.
+     *
+     * @param propertyName the name of a property.
+     * @return <code>true</code> if the property value is stored in the index.
+     */
+    boolean isStored(Name propertyName);
+
+    /**
+     * @return <code>true</code> if the value of at least one property is
+     *         stored in the index; <code>false</code> otherwise.
+     * @see #isStored(Name)
+     */
+    boolean hasStoredProperties();
+
 }
@@ -48,6 +48,9 @@ public class IndexingConfigurationEntityResolver implements EntityResolver {
         systemIds.put(
                 "http://jackrabbit.apache.org/dtd/indexing-configuration-1.2.dtd",
                 "indexing-configuration-1.2.dtd");
+        systemIds.put(
+                "http://jackrabbit.apache.org/dtd/indexing-configuration-1.3.dtd",
+                "indexing-configuration-1.3.dtd");
         SYSTEM_IDS = Collections.unmodifiableMap(systemIds);
     }
 
@@ -61,6 +61,8 @@ import java.util.NoSuchElementException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Properties;
+import java.util.Set;
+import java.util.HashSet;
 
 /**
  * <code>IndexingConfigurationImpl</code> implements a concrete indexing
@@ -108,6 +110,16 @@ public class IndexingConfigurationImpl implements IndexingConfiguration {
      */
     private Map analyzers = new HashMap();
 
+    /**
+     * The names of the properties that are indexed lower-cased.
+     */
+    private Set lowerCaseProperties = new HashSet();
+
+    /**
+     * The names of the properties with values stored in the index.
+     */
+    private Set storedProperties = new HashSet();
+
     /**
      * {@inheritDoc}
      */
@@ -184,6 +196,24 @@ public class IndexingConfigurationImpl implements IndexingConfiguration {
                         }
                     }
                 }
+            } else if (configNode.getNodeName().equals("lower-case")) {
+                NodeList childNodes = configNode.getChildNodes();
+                for (int j = 0; j < childNodes.getLength(); j++) {
+                    Node propertyNode = childNodes.item(j);
+                    if (propertyNode.getNodeName().equals("property")) {
+                        lowerCaseProperties.add(resolver.getQName(
+                                getTextContent(propertyNode)));
+                    }
+                }
+            } else if (configNode.getNodeName().equals("stored")) {
+                NodeList childNodes = configNode.getChildNodes();
+                for (int j = 0; j < childNodes.getLength(); j++) {
+                    Node propertyNode = childNodes.item(j);
+                    if (propertyNode.getNodeName().equals("property")) {
+                        storedProperties.add(resolver.getQName(
+                                getTextContent(propertyNode)));
+                    }
+                }
             }
 
         }
@@ -307,6 +337,36 @@ public class IndexingConfigurationImpl implements IndexingConfiguration {
         }
         return null;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isLowerCaseIndexed(Name propertyName) {
+        return lowerCaseProperties.contains(propertyName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Name[] getLowerCaseProperties() {
+        return (Name[]) lowerCaseProperties.toArray(
+                new Name[lowerCaseProperties.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isStored(Name propertyName) {
+        return storedProperties.contains(propertyName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasStoredProperties() {
+        return !storedProperties.isEmpty();
+    }
+
     //---------------------------------< internal >-----------------------------
 
     /**
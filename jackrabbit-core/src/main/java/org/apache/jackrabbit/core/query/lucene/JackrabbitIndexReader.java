@@ -64,6 +64,13 @@ public final class JackrabbitIndexReader
         this.reader = (MultiIndexReader) in;
     }
 
+    /**
+     * @return the underlying index reader.
+     */
+    IndexReader getBaseReader() {
+        return in;
+    }
+
     //--------------------------< FilterIndexReader >---------------------------
 
     /**
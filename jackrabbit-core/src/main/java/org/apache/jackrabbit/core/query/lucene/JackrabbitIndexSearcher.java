@@ -16,16 +16,30 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreRangeQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.HitCollector;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.index.IndexReader;
 import org.apache.jackrabbit.core.query.lucene.constraint.EvaluationContext;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.state.ItemStateManager;
 import org.apache.jackrabbit.spi.Name;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * <code>JackrabbitIndexSearcher</code> implements an index searcher with
@@ -35,6 +49,11 @@ public class JackrabbitIndexSearcher
         extends IndexSearcher
         implements EvaluationContext {
 
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(JackrabbitIndexSearcher.class);
+
     /**
      * The session that executes the query.
      */
@@ -50,6 +69,13 @@ public class JackrabbitIndexSearcher
      */
     private final ItemStateManager ism;
 
+    /**
+     * The maximum number of threads that score the index segments of a
+     * single query. A value of one scores all segments on the calling
+     * thread.
+     */
+    private int parallelism = 1;
+
     /**
      * Creates a new jackrabbit index searcher.
      *
@@ -66,6 +92,20 @@ public class JackrabbitIndexSearcher
         this.ism = ism;
     }
 
+    /**
+     * Sets the maximum number of threads that score the index segments of a
+     * single query. Only queries that consist of term, phrase, boolean,
+     * range, wildcard and match all queries are scored in parallel. Other
+     * queries, e.g. path constraints, are always scored on the calling
+     * thread.
+     *
+     * @param parallelism the maximum number of threads per query. A value
+     *                    of one disables parallel scoring.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     /**
      * Executes the query and returns the hits that match the query.
      *
@@ -112,6 +152,30 @@ public class JackrabbitIndexSearcher
         return hits;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * If parallelism is enabled and the query can be scored per index
+     * segment, the segments are scored concurrently and the hits are passed
+     * to <code>results</code> in document order on the calling thread.
+     */
+    public void search(Weight weight, Filter filter, HitCollector results)
+            throws IOException {
+        if (parallelism > 1 && filter == null
+                && isSegmentQuery(weight.getQuery())) {
+            List segments = new ArrayList();
+            collectSegments(reader, segments);
+            if (segments.size() > 1) {
+                searchSegments(weight,
+                        (IndexReader[]) segments.toArray(
+                                new IndexReader[segments.size()]),
+                        results);
+                return;
+            }
+        }
+        super.search(weight, filter, results);
+    }
+
     //------------------------< EvaluationContext >-----------------------------
 
     /**
@@ -138,4 +202,228 @@ public class JackrabbitIndexSearcher
     public ItemStateManager getItemStateManager() {
         return ism;
     }
+
+    //-------------------------------< internal >-------------------------------
+
+    /**
+     * Scores the index segments with at most {@link #parallelism} threads
+     * and passes the hits to <code>results</code>. The hits of all segments
+     * are kept in memory until every segment is scored, which takes eight
+     * bytes per hit.
+     *
+     * @param weight   the weight of the query.
+     * @param segments the index segments in document order.
+     * @param results  the collector for the hits.
+     * @throws IOException if an error occurs while scoring a segment.
+     */
+    private void searchSegments(final Weight weight,
+                                IndexReader[] segments,
+                                HitCollector results)
+            throws IOException {
+        int[] starts = new int[segments.length];
+        int maxDoc = 0;
+        for (int i = 0; i < segments.length; i++) {
+            starts[i] = maxDoc;
+            maxDoc += segments[i].maxDoc();
+        }
+
+        // distribute segments over the commands, largest segment first
+        int numCommands = Math.min(parallelism, segments.length);
+        final List[] groups = new List[numCommands];
+        int[] groupSizes = new int[numCommands];
+        for (int i = 0; i < numCommands; i++) {
+            groups[i] = new ArrayList();
+        }
+        boolean[] assigned = new boolean[segments.length];
+        for (int n = 0; n < segments.length; n++) {
+            int largest = -1;
+            for (int i = 0; i < segments.length; i++) {
+                if (!assigned[i] && (largest == -1
+                        || segments[i].maxDoc() > segments[largest].maxDoc())) {
+                    largest = i;
+                }
+            }
+            int smallest = 0;
+            for (int i = 1; i < numCommands; i++) {
+                if (groupSizes[i] < groupSizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            assigned[largest] = true;
+            groupSizes[smallest] += segments[largest].maxDoc();
+            groups[smallest].add(new SegmentHits(segments[largest], largest));
+        }
+
+        final Thread caller = Thread.currentThread();
+        DynamicPooledExecutor.Command[] commands =
+                new DynamicPooledExecutor.Command[numCommands];
+        for (int i = 0; i < numCommands; i++) {
+            final List group = groups[i];
+            commands[i] = new DynamicPooledExecutor.Command() {
+                public Object call() throws Exception {
+                    try {
+                        for (int j = 0; j < group.size(); j++) {
+                            ((SegmentHits) group.get(j)).score(weight);
+                        }
+                    } finally {
+                        if (Thread.currentThread() != caller) {
+                            // hits are collected, release per query resources
+                            PerQueryCache.getInstance().dispose();
+                        }
+                    }
+                    return null;
+                }
+            };
+        }
+        long time = System.currentTimeMillis();
+        DynamicPooledExecutor.Result[] r = AbstractIndex.EXECUTOR.executeAndWait(commands);
+        time = System.currentTimeMillis() - time;
+        log.debug("Scored {} segments in {} ms", new Integer(segments.length),
+                new Long(time));
+
+        SegmentHits[] hits = new SegmentHits[segments.length];
+        for (int i = 0; i < r.length; i++) {
+            if (r[i].getException() != null) {
+                Throwable cause = r[i].getException().getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else {
+                    throw Util.createIOException(cause);
+                }
+            }
+            for (int j = 0; j < groups[i].size(); j++) {
+                SegmentHits sh = (SegmentHits) groups[i].get(j);
+                hits[sh.index] = sh;
+            }
+        }
+        for (int i = 0; i < hits.length; i++) {
+            hits[i].collect(starts[i], results);
+        }
+    }
+
+    /**
+     * Adds the index segments of <code>reader</code> to <code>segments</code>
+     * in document order.
+     *
+     * @param reader   an index reader.
+     * @param segments the list of segments.
+     */
+    private static void collectSegments(IndexReader reader, List segments) {
+        if (reader instanceof MultiIndexReader) {
+            IndexReader[] readers = ((MultiIndexReader) reader).getIndexReaders();
+            for (int i = 0; i < readers.length; i++) {
+                collectSegments(readers[i], segments);
+            }
+        } else {
+            segments.add(reader);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the query only consists of queries that
+     * can be scored on each index segment independently. Queries that need
+     * the hierarchy of the whole index, e.g. path constraints, cannot be
+     * scored per segment.
+     *
+     * @param query a rewritten query.
+     * @return <code>true</code> if the query can be scored per segment.
+     */
+    private static boolean isSegmentQuery(Query query) {
+        if (query instanceof BooleanQuery) {
+            BooleanClause[] clauses = ((BooleanQuery) query).getClauses();
+            for (int i = 0; i < clauses.length; i++) {
+                if (!isSegmentQuery(clauses[i].getQuery())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return query instanceof TermQuery
+                || query instanceof PhraseQuery
+                || query instanceof MatchAllDocsQuery
+                || query instanceof ConstantScoreRangeQuery
+                || query instanceof MatchAllQuery
+                || query instanceof RangeQuery
+                || query instanceof TrieRangeQuery
+                || query instanceof WildcardQuery;
+    }
+
+    /**
+     * The hits of a query on a single index segment. All hits of the segment
+     * are buffered, the memory used is not bounded by the number of results
+     * that are finally returned.
+     */
+    private static final class SegmentHits extends HitCollector {
+
+        /**
+         * The index segment.
+         */
+        private final IndexReader segment;
+
+        /**
+         * The position of the segment in the index.
+         */
+        private final int index;
+
+        /**
+         * The document numbers of the hits, relative to the segment.
+         */
+        private int[] docs = new int[16];
+
+        /**
+         * The scores of the hits.
+         */
+        private float[] scores = new float[16];
+
+        /**
+         * The number of hits.
+         */
+        private int size;
+
+        SegmentHits(IndexReader segment, int index) {
+            this.segment = segment;
+            this.index = index;
+        }
+
+        /**
+         * Scores the segment and records the hits.
+         *
+         * @param weight the weight of the query.
+         * @throws IOException if an error occurs while scoring the segment.
+         */
+        void score(Weight weight) throws IOException {
+            Scorer scorer = weight.scorer(segment);
+            if (scorer != null) {
+                scorer.score(this);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void collect(int doc, float score) {
+            if (size == docs.length) {
+                int[] d = new int[size * 2];
+                System.arraycopy(docs, 0, d, 0, size);
+                docs = d;
+                float[] s = new float[size * 2];
+                System.arraycopy(scores, 0, s, 0, size);
+                scores = s;
+            }
+            docs[size] = doc;
+            scores[size++] = score;
+        }
+
+        /**
+         * Passes the recorded hits to <code>results</code>.
+         *
+         * @param start   the number of the first document of the segment.
+         * @param results the collector for the hits.
+         */
+        void collect(int start, HitCollector results) {
+            for (int i = 0; i < size; i++) {
+                results.collect(docs[i] + start, scores[i]);
+            }
+        }
+    }
 }
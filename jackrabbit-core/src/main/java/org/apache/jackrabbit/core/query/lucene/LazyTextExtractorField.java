@@ -131,6 +131,9 @@ public class LazyTextExtractorField extends AbstractField {
         if (reader instanceof TextExtractorReader) {
             return ((TextExtractorReader) reader).isExtractorFinished();
         }
+        if (reader instanceof ExtractedTextCache.CachingReader) {
+            return ((ExtractedTextCache.CachingReader) reader).isExtractorFinished();
+        }
         return true;
     }
 
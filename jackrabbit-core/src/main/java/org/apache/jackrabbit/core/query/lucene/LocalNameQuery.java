@@ -73,4 +73,23 @@ public class LocalNameQuery extends Query {
     public String toString(String field) {
         return "local-name() = " + localName;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof LocalNameQuery) {
+            LocalNameQuery other = (LocalNameQuery) obj;
+            return localName.equals(other.localName)
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return localName.hashCode() ^ Float.floatToIntBits(getBoost());
+    }
 }
@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javax.jcr.NamespaceException;
 import javax.jcr.PropertyType;
@@ -138,6 +139,13 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
      */
     private final IndexFormatVersion indexFormatVersion;
 
+    /**
+     * The names of the properties with lower-cased values in the index.
+     * <p/>
+     * The exact type is: <code>Set&lt;Name></code>
+     */
+    private final Set lowerCaseProperties;
+
     /**
      * Exceptions thrown during tree translation
      */
@@ -158,6 +166,8 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
      * @param synonymProvider    the synonym provider or <code>null</code> if
      *                           node is configured.
      * @param indexFormatVersion the index format version for the lucene query.
+     * @param lowerCaseProperties the names of the properties with
+     *                           lower-cased values in the index.
      */
     private LuceneQueryBuilder(QueryRootNode root,
                                SessionImpl session,
@@ -167,7 +177,8 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                                Analyzer analyzer,
                                PropertyTypeRegistry propReg,
                                SynonymProvider synonymProvider,
-                               IndexFormatVersion indexFormatVersion) {
+                               IndexFormatVersion indexFormatVersion,
+                               Set lowerCaseProperties) {
         this.root = root;
         this.session = session;
         this.sharedItemMgr = sharedItemMgr;
@@ -177,6 +188,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
         this.propRegistry = propReg;
         this.synonymProvider = synonymProvider;
         this.indexFormatVersion = indexFormatVersion;
+        this.lowerCaseProperties = lowerCaseProperties;
 
         this.resolver = NamePathResolverImpl.create(nsMappings);
     }
@@ -196,6 +208,9 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
      * @param synonymProvider the synonym provider or <code>null</code> if node
      *                        is configured.
      * @param  indexFormatVersion  the index format version to be used
+     * @param lowerCaseProperties the names of the properties with
+     *                        lower-cased values in the index, see
+     *                        {@link SearchIndex#getLowerCaseProperties(boolean)}.
      * @return the lucene query tree.
      * @throws RepositoryException if an error occurs during the translation.
      */
@@ -206,13 +221,15 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                                     Analyzer analyzer,
                                     PropertyTypeRegistry propReg,
                                     SynonymProvider synonymProvider,
-                                    IndexFormatVersion indexFormatVersion)
+                                    IndexFormatVersion indexFormatVersion,
+                                    Set lowerCaseProperties)
             throws RepositoryException {
         HierarchyManager hmgr = new HierarchyManagerImpl(
                 RepositoryImpl.ROOT_NODE_ID, sharedItemMgr);
         LuceneQueryBuilder builder = new LuceneQueryBuilder(
                 root, session, sharedItemMgr, hmgr, nsMappings,
-                analyzer, propReg, synonymProvider, indexFormatVersion);
+                analyzer, propReg, synonymProvider, indexFormatVersion,
+                lowerCaseProperties);
 
         Query q = builder.createLuceneQuery();
         if (builder.exceptions.size() > 0) {
@@ -481,12 +498,15 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
         }
 
         // check for position predicate
+        // the query tree may be shared through the QueryTreeCache, hence
+        // the position is not set on the node itself
+        int index = node.getIndex();
         QueryNode[] pred = node.getPredicates();
         for (int i = 0; i < pred.length; i++) {
             if (pred[i].getType() == QueryNode.TYPE_RELATION) {
                 RelationQueryNode pos = (RelationQueryNode) pred[i];
                 if (pos.getValueType() == QueryConstants.TYPE_POSITION) {
-                    node.setIndex(pos.getPositionValue());
+                    index = pos.getPositionValue();
                 }
             }
         }
@@ -518,13 +538,13 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                     // only use descendant axis if path is not //*
                     PathQueryNode pathNode = (PathQueryNode) node.getParent();
                     if (pathNode.getPathSteps()[0] != node) {
-                        if (node.getIndex() == LocationStepQueryNode.NONE) {
+                        if (index == LocationStepQueryNode.NONE) {
                             context = new DescendantSelfAxisQuery(context, false);
                             andQuery.add(context, Occur.MUST);
                         } else {
                             context = new DescendantSelfAxisQuery(context, true);
                             andQuery.add(new ChildAxisQuery(sharedItemMgr,
-                                    context, null, node.getIndex(),
+                                    context, null, index,
                                     indexFormatVersion, nsMappings), Occur.MUST);
                         }
                     } else {
@@ -536,12 +556,12 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
             // name test
             if (nameTest != null) {
                 andQuery.add(new ChildAxisQuery(sharedItemMgr, context,
-                        nameTest.getName(), node.getIndex(), indexFormatVersion,
+                        nameTest.getName(), index, indexFormatVersion,
                         nsMappings), Occur.MUST);
             } else {
                 // select child nodes
                 andQuery.add(new ChildAxisQuery(sharedItemMgr, context, null,
-                        node.getIndex(), indexFormatVersion, nsMappings),
+                        index, indexFormatVersion, nsMappings),
                         Occur.MUST);
             }
         }
@@ -670,6 +690,15 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
 
         // support for fn:name()
         Name propName = relPath.getNameElement().getName();
+
+        // use the lower-cased values of the property if they are indexed
+        String propertiesField = FieldNames.PROPERTIES;
+        if (transform[0] == TransformConstants.TRANSFORM_LOWER_CASE
+                && lowerCaseProperties.contains(propName)) {
+            propertiesField = FieldNames.LOWER_CASE_PROPERTIES;
+            transform[0] = TransformConstants.TRANSFORM_NONE;
+        }
+
         if (propName.getNamespaceURI().equals(SearchManager.NS_FN_URI)
                 && propName.getLocalName().equals("name()")) {
             if (node.getValueType() != QueryConstants.TYPE_STRING) {
@@ -700,13 +729,15 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                 // will never match -> create dummy query
                 query = new BooleanQuery();
             }
+        } else if (isTrieRange(node, propertiesField, transform[0])) {
+            query = createTrieRangeQuery(node, field);
         } else {
             switch (node.getOperation()) {
                 case QueryConstants.OPERATION_EQ_VALUE:      // =
                 case QueryConstants.OPERATION_EQ_GENERAL:
                     BooleanQuery or = new BooleanQuery();
                     for (int i = 0; i < stringValues.length; i++) {
-                        Term t = new Term(FieldNames.PROPERTIES,
+                        Term t = new Term(propertiesField,
                                     FieldNames.createNamedValue(field, stringValues[i]));
                         Query q;
                         if (transform[0] == TransformConstants.TRANSFORM_UPPER_CASE) {
@@ -727,8 +758,8 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                 case QueryConstants.OPERATION_GE_GENERAL:
                     or = new BooleanQuery();
                     for (int i = 0; i < stringValues.length; i++) {
-                        Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, stringValues[i]));
-                        Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, "\uFFFF"));
+                        Term lower = new Term(propertiesField, FieldNames.createNamedValue(field, stringValues[i]));
+                        Term upper = new Term(propertiesField, FieldNames.createNamedValue(field, "\uFFFF"));
                         or.add(new RangeQuery(lower, upper, true, transform[0]), Occur.SHOULD);
                     }
                     query = or;
@@ -740,8 +771,8 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                 case QueryConstants.OPERATION_GT_GENERAL:
                     or = new BooleanQuery();
                     for (int i = 0; i < stringValues.length; i++) {
-                        Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, stringValues[i]));
-                        Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, "\uFFFF"));
+                        Term lower = new Term(propertiesField, FieldNames.createNamedValue(field, stringValues[i]));
+                        Term upper = new Term(propertiesField, FieldNames.createNamedValue(field, "\uFFFF"));
                         or.add(new RangeQuery(lower, upper, false, transform[0]), Occur.SHOULD);
                     }
                     query = or;
@@ -753,8 +784,8 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                 case QueryConstants.OPERATION_LE_GENERAL:      // <=
                     or = new BooleanQuery();
                     for (int i = 0; i < stringValues.length; i++) {
-                        Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, ""));
-                        Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, stringValues[i]));
+                        Term lower = new Term(propertiesField, FieldNames.createNamedValue(field, ""));
+                        Term upper = new Term(propertiesField, FieldNames.createNamedValue(field, stringValues[i]));
                         or.add(new RangeQuery(lower, upper, true, transform[0]), Occur.SHOULD);
                     }
                     query = or;
@@ -768,15 +799,15 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                     if (stringValues[0].equals("%")) {
                         query = Util.createMatchAllQuery(field, indexFormatVersion);
                     } else {
-                        query = new WildcardQuery(FieldNames.PROPERTIES, field, stringValues[0], transform[0]);
+                        query = new WildcardQuery(propertiesField, field, stringValues[0], transform[0]);
                     }
                     break;
                 case QueryConstants.OPERATION_LT_VALUE:      // <
                 case QueryConstants.OPERATION_LT_GENERAL:
                     or = new BooleanQuery();
                     for (int i = 0; i < stringValues.length; i++) {
-                        Term lower = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, ""));
-                        Term upper = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, stringValues[i]));
+                        Term lower = new Term(propertiesField, FieldNames.createNamedValue(field, ""));
+                        Term upper = new Term(propertiesField, FieldNames.createNamedValue(field, stringValues[i]));
                         or.add(new RangeQuery(lower, upper, false, transform[0]), Occur.SHOULD);
                     }
                     query = or;
@@ -790,7 +821,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                     notQuery.add(Util.createMatchAllQuery(field, indexFormatVersion), Occur.SHOULD);
                     // exclude all nodes where 'field' has the term in question
                     for (int i = 0; i < stringValues.length; i++) {
-                        Term t = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, stringValues[i]));
+                        Term t = new Term(propertiesField, FieldNames.createNamedValue(field, stringValues[i]));
                         Query q;
                         if (transform[0] == TransformConstants.TRANSFORM_UPPER_CASE) {
                             q = new CaseTermQuery.Upper(t);
@@ -816,7 +847,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                     notQuery.add(Util.createMatchAllQuery(field, indexFormatVersion), Occur.SHOULD);
                     for (int i = 0; i < stringValues.length; i++) {
                         // exclude the nodes that have the term and are single valued
-                        Term t = new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, stringValues[i]));
+                        Term t = new Term(propertiesField, FieldNames.createNamedValue(field, stringValues[i]));
                         Query svp = new NotQuery(new JackrabbitTermQuery(new Term(FieldNames.MVP, field)));
                         BooleanQuery and = new BooleanQuery();
                         Query q;
@@ -908,6 +939,109 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
 
     //---------------------------< internal >-----------------------------------
 
+    /**
+     * Returns <code>true</code> if the given relation can be evaluated with
+     * a {@link TrieRangeQuery}. That is, it compares a property with a long,
+     * double or date literal using a range operator and the index contains
+     * the trie encoded values.
+     *
+     * @param node            the relation query node.
+     * @param propertiesField the field that contains the property values.
+     * @param transform       the transformation of the property values.
+     * @return <code>true</code> if a trie range query can be used.
+     */
+    private boolean isTrieRange(RelationQueryNode node,
+                                String propertiesField,
+                                int transform) {
+        if (indexFormatVersion.getVersion() < IndexFormatVersion.V4.getVersion()
+                || propertiesField != FieldNames.PROPERTIES
+                || transform != TransformConstants.TRANSFORM_NONE) {
+            return false;
+        }
+        switch (node.getValueType()) {
+            case QueryConstants.TYPE_DATE:
+            case QueryConstants.TYPE_DOUBLE:
+            case QueryConstants.TYPE_LONG:
+                break;
+            default:
+                return false;
+        }
+        switch (node.getOperation()) {
+            case QueryConstants.OPERATION_GE_VALUE:
+            case QueryConstants.OPERATION_GE_GENERAL:
+            case QueryConstants.OPERATION_GT_VALUE:
+            case QueryConstants.OPERATION_GT_GENERAL:
+            case QueryConstants.OPERATION_LE_VALUE:
+            case QueryConstants.OPERATION_LE_GENERAL:
+            case QueryConstants.OPERATION_LT_VALUE:
+            case QueryConstants.OPERATION_LT_GENERAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Creates a {@link TrieRangeQuery} for a relation that satisfies
+     * {@link #isTrieRange(RelationQueryNode, String, int)}.
+     *
+     * @param node  the relation query node.
+     * @param field the name of the property.
+     * @return the range query.
+     */
+    private Query createTrieRangeQuery(RelationQueryNode node, String field) {
+        int type;
+        long value;
+        switch (node.getValueType()) {
+            case QueryConstants.TYPE_DATE:
+                type = PropertyType.DATE;
+                value = node.getDateValue().getTime();
+                break;
+            case QueryConstants.TYPE_DOUBLE:
+                type = PropertyType.DOUBLE;
+                value = TrieField.doubleToSortableLong(node.getDoubleValue());
+                break;
+            default:
+                type = PropertyType.LONG;
+                value = node.getLongValue();
+        }
+        long lower = Long.MIN_VALUE;
+        long upper = Long.MAX_VALUE;
+        switch (node.getOperation()) {
+            case QueryConstants.OPERATION_GE_VALUE:      // >=
+            case QueryConstants.OPERATION_GE_GENERAL:
+                lower = value;
+                break;
+            case QueryConstants.OPERATION_GT_VALUE:      // >
+            case QueryConstants.OPERATION_GT_GENERAL:
+                if (value == Long.MAX_VALUE) {
+                    // nothing is greater
+                    return new BooleanQuery();
+                }
+                lower = value + 1;
+                break;
+            case QueryConstants.OPERATION_LE_VALUE:      // <=
+            case QueryConstants.OPERATION_LE_GENERAL:
+                upper = value;
+                break;
+            default:                                     // <
+                if (value == Long.MIN_VALUE) {
+                    // nothing is less
+                    return new BooleanQuery();
+                }
+                upper = value - 1;
+        }
+        Query query = new TrieRangeQuery(field, type, lower, upper);
+        int op = node.getOperation();
+        if (op == QueryConstants.OPERATION_GE_VALUE
+                || op == QueryConstants.OPERATION_GT_VALUE
+                || op == QueryConstants.OPERATION_LE_VALUE
+                || op == QueryConstants.OPERATION_LT_VALUE) {
+            query = createSingleValueConstraint(query, field);
+        }
+        return query;
+    }
+
     /**
      * Wraps a constraint query around <code>q</code> that limits the nodes to
      * those where <code>propName</code> is the name of a single value property
@@ -24,6 +24,7 @@ import org.apache.jackrabbit.spi.commons.query.qom.FullTextSearchImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.PropertyExistenceImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.SourceImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.JoinImpl;
+import org.apache.jackrabbit.spi.commons.query.qom.LowerCaseImpl;
 
 /**
  * <code>LuceneQueryFactory</code> implements a factory that creates lucene
@@ -58,6 +59,23 @@ public interface LuceneQueryFactory {
      */
     public Query create(PropertyExistenceImpl constraint) throws RepositoryException;
 
+    /**
+     * Creates a lucene query that compares the lower-cased value of a property
+     * with a string <code>value</code>. A query can only be created if the
+     * operand of <code>lowerCase</code> is a property value and the property
+     * is indexed lower-cased, see
+     * {@link IndexingConfiguration#isLowerCaseIndexed(org.apache.jackrabbit.spi.Name)}.
+     *
+     * @param lowerCase the QOM lower case operand.
+     * @param operator  the comparison operator.
+     * @param value     the string value to compare with.
+     * @return the lucene query or <code>null</code> if no query can be created
+     *         for the given operand and operator.
+     * @throws RepositoryException if an error occurs while creating the query.
+     */
+    public Query create(LowerCaseImpl lowerCase, int operator, String value)
+            throws RepositoryException;
+
     /**
      * Creates a multi column query for the given QOM source.
      *
@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Set;
 
 import javax.jcr.nodetype.NodeTypeManager;
 import javax.jcr.nodetype.NodeType;
@@ -41,6 +42,9 @@ import org.apache.jackrabbit.spi.commons.query.qom.SourceImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.JoinImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.DefaultQOMTreeVisitor;
 import org.apache.jackrabbit.spi.commons.query.qom.JoinConditionImpl;
+import org.apache.jackrabbit.spi.commons.query.qom.LowerCaseImpl;
+import org.apache.jackrabbit.spi.commons.query.qom.PropertyValueImpl;
+import org.apache.jackrabbit.spi.commons.query.jsr283.qom.QueryObjectModelConstants;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.Name;
@@ -92,6 +96,13 @@ public class LuceneQueryFactoryImpl implements LuceneQueryFactory {
      */
     private final IndexFormatVersion version;
 
+    /**
+     * The names of the properties with lower-cased values in the index.
+     * <p/>
+     * The exact type is: <code>Set&lt;Name></code>
+     */
+    private final Set lowerCaseProperties;
+
     /**
      * Creates a new lucene query factory.
      *
@@ -102,6 +113,9 @@ public class LuceneQueryFactoryImpl implements LuceneQueryFactory {
      * @param analyzer        the analyzer of the index.
      * @param synonymProvider the synonym provider of the index.
      * @param version         the version of the index format.
+     * @param lowerCaseProperties the names of the properties with
+     *                        lower-cased values in the index, see
+     *                        {@link SearchIndex#getLowerCaseProperties(boolean)}.
      */
     public LuceneQueryFactoryImpl(SessionImpl session,
                                   SortComparatorSource scs,
@@ -109,7 +123,8 @@ public class LuceneQueryFactoryImpl implements LuceneQueryFactory {
                                   NamespaceMappings nsMappings,
                                   Analyzer analyzer,
                                   SynonymProvider synonymProvider,
-                                  IndexFormatVersion version) {
+                                  IndexFormatVersion version,
+                                  Set lowerCaseProperties) {
         this.session = session;
         this.scs = scs;
         this.hmgr = hmgr;
@@ -117,6 +132,7 @@ public class LuceneQueryFactoryImpl implements LuceneQueryFactory {
         this.analyzer = analyzer;
         this.synonymProvider = synonymProvider;
         this.version = version;
+        this.lowerCaseProperties = lowerCaseProperties;
         this.npResolver = NamePathResolverImpl.create(nsMappings);
     }
 
@@ -220,6 +236,45 @@ public class LuceneQueryFactoryImpl implements LuceneQueryFactory {
         return Util.createMatchAllQuery(propName, version);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Query create(LowerCaseImpl lowerCase, int operator, String value)
+            throws RepositoryException {
+        if (!(lowerCase.getOperand() instanceof PropertyValueImpl)) {
+            return null;
+        }
+        Name propName = ((PropertyValueImpl) lowerCase.getOperand()).getPropertyQName();
+        if (!lowerCaseProperties.contains(propName)) {
+            return null;
+        }
+        String field = npResolver.getJCRName(propName);
+        String lowerCaseField = FieldNames.LOWER_CASE_PROPERTIES;
+        Term term = new Term(lowerCaseField,
+                FieldNames.createNamedValue(field, value));
+        Term lowest = new Term(lowerCaseField,
+                FieldNames.createNamedValue(field, ""));
+        Term highest = new Term(lowerCaseField,
+                FieldNames.createNamedValue(field, "\uFFFF"));
+        switch (operator) {
+            case QueryObjectModelConstants.OPERATOR_EQUAL_TO:
+                return new JackrabbitTermQuery(term);
+            case QueryObjectModelConstants.OPERATOR_GREATER_THAN:
+                return new RangeQuery(term, highest, false);
+            case QueryObjectModelConstants.OPERATOR_GREATER_THAN_OR_EQUAL_TO:
+                return new RangeQuery(term, highest, true);
+            case QueryObjectModelConstants.OPERATOR_LESS_THAN:
+                return new RangeQuery(lowest, term, false);
+            case QueryObjectModelConstants.OPERATOR_LESS_THAN_OR_EQUAL_TO:
+                return new RangeQuery(lowest, term, true);
+            case QueryObjectModelConstants.OPERATOR_LIKE:
+                return new WildcardQuery(lowerCaseField, field, value);
+            default:
+                // not equal is evaluated on the property values
+                return null;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -64,6 +64,25 @@ class MatchAllQuery extends Query {
         return "%";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof MatchAllQuery) {
+            MatchAllQuery other = (MatchAllQuery) obj;
+            return field.equals(other.field)
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return field.hashCode() ^ Float.floatToIntBits(getBoost());
+    }
+
     /**
      * Does nothing but simply returns. There are no terms to extract.
      */
@@ -151,7 +151,7 @@ class MatchAllScorer extends Scorer {
         }
 
         // otherwise calculate new
-        docFilter = new BitSet(reader.maxDoc());
+        docFilter = cache.getBitSet();
         // we match all terms
         String namedValue = FieldNames.createNamedValue(field, "");
         TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, namedValue));
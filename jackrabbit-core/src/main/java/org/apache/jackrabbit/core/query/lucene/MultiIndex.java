@@ -245,6 +245,8 @@ public class MultiIndex {
         merger.setMaxMergeDocs(handler.getMaxMergeDocs());
         merger.setMergeFactor(handler.getMergeFactor());
         merger.setMinMergeDocs(handler.getMinMergeDocs());
+        merger.setMaxConcurrentMerges(handler.getMaxConcurrentMerges());
+        merger.setMaxMergeRate(handler.getMaxMergeRate());
 
         IndexingQueueStore store = new IndexingQueueStore(indexDir);
 
@@ -265,7 +267,8 @@ public class MultiIndex {
             }
             PersistentIndex index = new PersistentIndex(name,
                     handler.getTextAnalyzer(), handler.getSimilarity(),
-                    cache, indexingQueue, directoryManager);
+                    cache, indexingQueue, directoryManager,
+                    handler.getTrieMigration());
             index.setMaxFieldLength(handler.getMaxFieldLength());
             index.setUseCompoundFile(handler.getUseCompoundFile());
             index.setTermInfosIndexDivisor(handler.getTermInfosIndexDivisor());
@@ -279,11 +282,27 @@ public class MultiIndex {
         // set index format version and at the same time
         // initialize hierarchy cache if requested.
         CachingMultiIndexReader reader = getIndexReader(handler.isInitializeHierarchyCache());
+        IndexFormatVersion v;
         try {
-            version = IndexFormatVersion.getVersion(reader);
+            v = IndexFormatVersion.getVersion(reader);
         } finally {
             reader.release();
         }
+        // the field names of the segments are merged in the reader above,
+        // the index is only as recent as its oldest segment
+        for (Iterator it = indexes.iterator(); it.hasNext(); ) {
+            PersistentIndex index = (PersistentIndex) it.next();
+            ReadOnlyIndexReader r = index.getReadOnlyIndexReader();
+            try {
+                IndexFormatVersion segment = IndexFormatVersion.getVersion(r);
+                if (!segment.isAtLeast(v)) {
+                    v = segment;
+                }
+            } finally {
+                r.release();
+            }
+        }
+        version = v;
 
         indexingQueue.initialize(this);
 
@@ -582,7 +601,8 @@ public class MultiIndex {
         try {
             index = new PersistentIndex(indexName,
                     handler.getTextAnalyzer(), handler.getSimilarity(),
-                    cache, indexingQueue, directoryManager);
+                    cache, indexingQueue, directoryManager,
+                    handler.getTrieMigration());
         } catch (IOException e) {
             // do some clean up
             if (!directoryManager.delete(indexName)) {
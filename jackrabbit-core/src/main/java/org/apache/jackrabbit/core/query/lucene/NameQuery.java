@@ -105,4 +105,23 @@ public class NameQuery extends Query {
     public String toString(String field) {
         return "name() = " + nodeName.toString();
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof NameQuery) {
+            NameQuery other = (NameQuery) obj;
+            return nodeName.equals(other.nodeName)
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return nodeName.hashCode() ^ Float.floatToIntBits(getBoost());
+    }
 }
@@ -120,6 +120,30 @@ public class NameRangeQuery extends Query {
         return buffer.toString();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof NameRangeQuery) {
+            NameRangeQuery other = (NameRangeQuery) obj;
+            return (lowerName == null ? other.lowerName == null : lowerName.equals(other.lowerName))
+                    && (upperName == null ? other.upperName == null : upperName.equals(other.upperName))
+                    && inclusive == other.inclusive
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = (lowerName == null ? 0 : lowerName.hashCode());
+        h = 31 * h + (upperName == null ? 0 : upperName.hashCode());
+        h = 31 * h + (inclusive ? 1 : 0);
+        return h ^ Float.floatToIntBits(getBoost());
+    }
+
     //----------------------------< internal >----------------------------------
 
     /**
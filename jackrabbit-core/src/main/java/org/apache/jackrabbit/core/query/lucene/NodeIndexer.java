@@ -18,6 +18,9 @@ package org.apache.jackrabbit.core.query.lucene;
 
 import org.apache.jackrabbit.core.PropertyId;
 import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.nodetype.NodeTypeConflictException;
+import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
 import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.ItemStateManager;
 import org.apache.jackrabbit.core.state.NoSuchItemStateException;
@@ -34,6 +37,8 @@ import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.uuid.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.lucene.analysis.Token;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Fieldable;
@@ -41,6 +46,8 @@ import org.apache.lucene.document.Fieldable;
 import javax.jcr.NamespaceException;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.ConstraintViolationException;
+import javax.jcr.nodetype.NoSuchNodeTypeException;
 
 import java.io.InputStream;
 import java.io.Reader;
@@ -92,11 +99,22 @@ public class NodeIndexer {
      */
     protected final TextExtractor extractor;
 
+    /**
+     * The cache for text extracted from binaries in the data store or
+     * <code>null</code> if text is always extracted.
+     */
+    protected ExtractedTextCache textCache;
+
     /**
      * The indexing configuration or <code>null</code> if none is available.
      */
     protected IndexingConfiguration indexingConfig;
 
+    /**
+     * The node type registry or <code>null</code> if none is available.
+     */
+    protected NodeTypeRegistry ntReg;
+
     /**
      * If set to <code>true</code> the fulltext field is stored and and a term
      * vector is created with offset information.
@@ -169,6 +187,26 @@ public class NodeIndexer {
         this.indexingConfig = config;
     }
 
+    /**
+     * Sets the node type registry for this node indexer. It is used to look
+     * up the property definitions of stored property values.
+     *
+     * @param ntReg the node type registry.
+     */
+    public void setNodeTypeRegistry(NodeTypeRegistry ntReg) {
+        this.ntReg = ntReg;
+    }
+
+    /**
+     * Sets the cache for text extracted from binaries in the data store.
+     *
+     * @param cache the text cache or <code>null</code> if text should always
+     *              be extracted.
+     */
+    public void setExtractedTextCache(ExtractedTextCache cache) {
+        this.textCache = cache;
+    }
+
     /**
      * Creates a lucene Document.
      *
@@ -187,6 +225,11 @@ public class NodeIndexer {
         doc.add(new Field(
                 FieldNames.UUID, node.getNodeId().getUUID().toString(),
                 Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        // as of version 4 every document has a trie properties field,
+        // which is used to detect the index format version
+        if (indexFormatVersion.getVersion() >= IndexFormatVersion.V4.getVersion()) {
+            doc.add(createTrieField(new String[0]));
+        }
         try {
             // parent UUID
             if (node.getParentId() == null) {
@@ -214,6 +257,12 @@ public class NodeIndexer {
             // unknown uri<->prefix mappings
         }
 
+        if (hasStoredProperties()) {
+            // marks the document as indexed with stored property values
+            doc.add(new Field(FieldNames.STORED_PROPERTIES, "",
+                    Field.Store.YES, Field.Index.NO, Field.TermVector.NO));
+        }
+
         Set props = node.getPropertyNames();
         for (Iterator it = props.iterator(); it.hasNext();) {
             Name propName = (Name) it.next();
@@ -236,6 +285,9 @@ public class NodeIndexer {
                     // real multi-valued
                     addMVPName(doc, propState.getName());
                 }
+                if (isStored(propState.getName())) {
+                    addStoredValue(doc, propState);
+                }
             } catch (NoSuchItemStateException e) {
                 throwRepositoryException(e);
             } catch (ItemStateException e) {
@@ -340,6 +392,9 @@ public class NodeIndexer {
                                 true, isIncludedInNodeIndex(name),
                                 getPropertyBoost(name), useInExcerpt(name));
                     }
+                    if (isLowerCaseIndexed(name)) {
+                        addLowerCaseValue(doc, fieldName, value.getString());
+                    }
                 }
                 break;
             case PropertyType.NAME:
@@ -382,7 +437,8 @@ public class NodeIndexer {
      * <p/>
      * This implementation checks if this {@link #node} is of type nt:resource
      * and if that is the case, tries to extract text from the binary property
-     * using the {@link #extractor}.
+     * using the {@link #extractor}. If the binary is in the data store, the
+     * text is taken from the {@link #textCache} if present there.
      *
      * @param doc           The document to which to add the field
      * @param fieldName     The name of the field to add
@@ -410,9 +466,22 @@ public class NodeIndexer {
                     encoding = encodingValue.getString();
                 }
 
-                InputStream stream =
-                        ((BLOBFileValue) internalValue).getStream();
-                Reader reader = extractor.extractText(stream, type, encoding);
+                BLOBFileValue blob = (BLOBFileValue) internalValue;
+                DataIdentifier id = null;
+                if (textCache != null) {
+                    id = blob.getDataIdentifier();
+                }
+                Reader reader = null;
+                if (id != null) {
+                    reader = textCache.getText(id, type, encoding);
+                }
+                if (reader == null) {
+                    InputStream stream = blob.getStream();
+                    reader = extractor.extractText(stream, type, encoding);
+                    if (id != null) {
+                        reader = textCache.cacheText(id, type, encoding, reader);
+                    }
+                }
                 doc.add(createFulltextField(reader));
             }
         } catch (Throwable t) {
@@ -487,6 +556,72 @@ public class NodeIndexer {
         }
     }
 
+    /**
+     * Adds the lower-cased string value to the document as the named field in
+     * {@link FieldNames#LOWER_CASE_PROPERTIES}.
+     *
+     * @param doc         The document to which to add the field
+     * @param fieldName   The name of the field to add
+     * @param stringValue The string value to lower-case.
+     */
+    protected void addLowerCaseValue(Document doc,
+                                     String fieldName,
+                                     String stringValue) {
+        // lower-case the same way as the query object model, see
+        // LowerCaseOperand
+        doc.add(new Field(FieldNames.LOWER_CASE_PROPERTIES,
+                FieldNames.createNamedValue(fieldName, stringValue.toLowerCase()),
+                Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS,
+                Field.TermVector.NO));
+    }
+
+    /**
+     * Adds the value of the property to the document as a named value in
+     * {@link FieldNames#STORED_PROPERTIES}. See {@link StoredValues}.
+     *
+     * @param doc       The document to which to add the field
+     * @param propState the state of the property.
+     */
+    protected void addStoredValue(Document doc, PropertyState propState) {
+        try {
+            String fieldName = resolver.getJCRName(propState.getName());
+            String value = StoredValues.encode(
+                    propState, getRequiredType(propState));
+            doc.add(new Field(FieldNames.STORED_PROPERTIES,
+                    FieldNames.createNamedValue(fieldName, value),
+                    Field.Store.YES, Field.Index.NO, Field.TermVector.NO));
+        } catch (NamespaceException e) {
+            // will never happen, prefixes are created dynamically
+        }
+    }
+
+    /**
+     * Returns the required type of the definition that applies to the
+     * property.
+     *
+     * @param propState the state of the property.
+     * @return the required type or <code>-1</code> if the definition cannot
+     *         be determined.
+     */
+    private int getRequiredType(PropertyState propState) {
+        if (ntReg == null) {
+            return -1;
+        }
+        try {
+            return ntReg.getEffectiveNodeType(node.getNodeTypeName(),
+                    node.getMixinTypeNames()).getApplicablePropertyDef(
+                            propState.getName(), propState.getType(),
+                            propState.isMultiValued()).getRequiredType();
+        } catch (NoSuchNodeTypeException e) {
+            log.debug("Unable to determine definition of " + propState.getId(), e);
+        } catch (NodeTypeConflictException e) {
+            log.debug("Unable to determine definition of " + propState.getId(), e);
+        } catch (ConstraintViolationException e) {
+            log.debug("Unable to determine definition of " + propState.getId(), e);
+        }
+        return -1;
+    }
+
     /**
      * Adds the calendar value to the document as the named field. The calendar
      * value is converted to an indexable string value using the
@@ -509,6 +644,7 @@ public class NodeIndexer {
             log.warn("'{}' is outside of supported date value range.",
                     new Date(value.getTimeInMillis()));
         }
+        addTrieValue(doc, fieldName, PropertyType.DATE, millis);
     }
 
     /**
@@ -524,6 +660,8 @@ public class NodeIndexer {
         double doubleVal = ((Double) internalValue).doubleValue();
         doc.add(createFieldWithoutNorms(fieldName, DoubleField.doubleToString(doubleVal),
                 PropertyType.DOUBLE));
+        addTrieValue(doc, fieldName, PropertyType.DOUBLE,
+                TrieField.doubleToSortableLong(doubleVal));
     }
 
     /**
@@ -539,6 +677,50 @@ public class NodeIndexer {
         long longVal = ((Long) internalValue).longValue();
         doc.add(createFieldWithoutNorms(fieldName, LongField.longToString(longVal),
                 PropertyType.LONG));
+        addTrieValue(doc, fieldName, PropertyType.LONG, longVal);
+    }
+
+    /**
+     * Adds the trie encoded terms of a long, double or date value to the
+     * document if the index format version supports it. See {@link TrieField}.
+     *
+     * @param doc       The document to which to add the field
+     * @param fieldName The name of the field to add
+     * @param type      The property type of the value.
+     * @param value     The sortable value.
+     */
+    protected void addTrieValue(Document doc, String fieldName,
+                                int type, long value) {
+        if (indexFormatVersion.getVersion() >= IndexFormatVersion.V4.getVersion()) {
+            doc.add(createTrieField(TrieField.createTerms(fieldName, type, value)));
+        }
+    }
+
+    /**
+     * Creates a {@link FieldNames#TRIE_PROPERTIES} field with the given
+     * terms. Neither norms nor term frequencies are stored for the field.
+     *
+     * @param terms the terms of the field, may be empty.
+     * @return the field.
+     */
+    protected Field createTrieField(final String[] terms) {
+        Field field = new Field(FieldNames.TRIE_PROPERTIES, new TokenStream() {
+            private int index = 0;
+            public Token next(Token reusableToken) {
+                if (index == terms.length) {
+                    return null;
+                }
+                String term = terms[index++];
+                reusableToken.clear();
+                reusableToken.setTermBuffer(term);
+                reusableToken.setStartOffset(0);
+                reusableToken.setEndOffset(term.length());
+                return reusableToken;
+            }
+        });
+        field.setOmitNorms(true);
+        field.setOmitTf(true);
+        return field;
     }
 
     /**
@@ -785,6 +967,50 @@ public class NodeIndexer {
         }
     }
 
+    /**
+     * Returns <code>true</code> if the string property with the given name
+     * should also be indexed lower-cased.
+     *
+     * @param propertyName name of a property.
+     * @return <code>true</code> if the property should be indexed
+     *         lower-cased; <code>false</code> otherwise.
+     */
+    protected boolean isLowerCaseIndexed(Name propertyName) {
+        if (indexingConfig == null) {
+            return false;
+        } else {
+            return indexingConfig.isLowerCaseIndexed(propertyName);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the value of the property with the given
+     * name should be stored in the index.
+     *
+     * @param propertyName name of a property.
+     * @return <code>true</code> if the value should be stored;
+     *         <code>false</code> otherwise.
+     */
+    protected boolean isStored(Name propertyName) {
+        if (indexingConfig == null) {
+            return false;
+        } else {
+            return indexingConfig.isStored(propertyName);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the value of at least one property is
+     *         stored in the index; <code>false</code> otherwise.
+     */
+    protected boolean hasStoredProperties() {
+        if (indexingConfig == null) {
+            return false;
+        } else {
+            return indexingConfig.hasStoredProperties();
+        }
+    }
+
     /**
      * Returns <code>true</code> if the property with the given name should also
      * be added to the node scope index.
@@ -40,11 +40,6 @@ class NotQuery extends Query {
      */
     private final Query context;
 
-    /**
-     * The context scorer to invert.
-     */
-    private Scorer contextScorer;
-
     /**
      * Creates a new <code>NotQuery</code>.
      * @param context the context query.
@@ -67,6 +62,25 @@ class NotQuery extends Query {
         return "NotQuery";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof NotQuery) {
+            NotQuery other = (NotQuery) obj;
+            return context.equals(other.context)
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return context.hashCode() ^ Float.floatToIntBits(getBoost());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -135,8 +149,8 @@ class NotQuery extends Query {
          * @inheritDoc
          */
         public Scorer scorer(IndexReader reader) throws IOException {
-            contextScorer = context.weight(searcher).scorer(reader);
-            return new NotQueryScorer(reader);
+            return new NotQueryScorer(reader,
+                    context.weight(searcher).scorer(reader));
         }
 
         /**
@@ -158,6 +172,11 @@ class NotQuery extends Query {
          */
         private final IndexReader reader;
 
+        /**
+         * The context scorer to invert.
+         */
+        private final Scorer contextScorer;
+
         /**
          * Current document number.
          */
@@ -171,10 +190,12 @@ class NotQuery extends Query {
         /**
          * Creates a new scorer
          * @param reader
+         * @param contextScorer the context scorer to invert.
          */
-        NotQueryScorer(IndexReader reader) {
+        NotQueryScorer(IndexReader reader, Scorer contextScorer) {
             super(Similarity.getDefault());
             this.reader = reader;
+            this.contextScorer = contextScorer;
         }
 
         /**
@@ -65,11 +65,6 @@ class ParentAxisQuery extends Query {
      */
     private final NamespaceMappings nsMappings;
 
-    /**
-     * The scorer of the context query
-     */
-    private Scorer contextScorer;
-
     /**
      * Creates a new <code>ParentAxisQuery</code> based on a
      * <code>context</code> query.
@@ -127,6 +122,28 @@ class ParentAxisQuery extends Query {
         return "ParentAxisQuery";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof ParentAxisQuery) {
+            ParentAxisQuery other = (ParentAxisQuery) obj;
+            return contextQuery.equals(other.contextQuery)
+                    && (nameTest == null ? other.nameTest == null : nameTest.equals(other.nameTest))
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = contextQuery.hashCode();
+        h = 31 * h + (nameTest == null ? 0 : nameTest.hashCode());
+        return h ^ Float.floatToIntBits(getBoost());
+    }
+
     //-----------------------< ParentAxisWeight >-------------------------------
 
     /**
@@ -186,10 +203,10 @@ class ParentAxisQuery extends Query {
          * @throws IOException if an error occurs while reading from the index.
          */
         public Scorer scorer(IndexReader reader) throws IOException {
-            contextScorer = contextQuery.weight(searcher).scorer(reader);
+            Scorer contextScorer = contextQuery.weight(searcher).scorer(reader);
             HierarchyResolver resolver = (HierarchyResolver) reader;
             return new ParentAxisScorer(searcher.getSimilarity(),
-                    reader, searcher, resolver);
+                    reader, searcher, resolver, contextScorer);
         }
 
         /**
@@ -222,6 +239,11 @@ class ParentAxisQuery extends Query {
          */
         private final Searcher searcher;
 
+        /**
+         * The scorer of the context query
+         */
+        private final Scorer contextScorer;
+
         /**
          * BitSet storing the id's of selected documents
          */
@@ -249,15 +271,18 @@ class ParentAxisQuery extends Query {
          * @param reader     for index access.
          * @param searcher   the index searcher.
          * @param resolver   the hierarchy resolver.
+         * @param contextScorer the scorer of the context query.
          */
         protected ParentAxisScorer(Similarity similarity,
                                    IndexReader reader,
                                    Searcher searcher,
-                                   HierarchyResolver resolver) {
+                                   HierarchyResolver resolver,
+                                   Scorer contextScorer) {
             super(similarity);
             this.reader = reader;
             this.searcher = searcher;
             this.hResolver = resolver;
+            this.contextScorer = contextScorer;
         }
 
         /**
@@ -308,7 +333,7 @@ class ParentAxisQuery extends Query {
 
         private void calculateParent() throws IOException {
             if (hits == null) {
-                hits = new BitSet(reader.maxDoc());
+                hits = PerQueryCache.getInstance().getBitSet();
 
                 final IOException[] ex = new IOException[1];
                 contextScorer.score(new HitCollector() {
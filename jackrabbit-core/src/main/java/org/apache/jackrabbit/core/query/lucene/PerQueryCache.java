@@ -16,7 +16,11 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -24,6 +28,12 @@ import java.util.Map;
  * the purpose of caching results while a query is executed. When the query
  * finished the cache can be disposed by calling:
  * <code>PerQueryCache.getInstance().dispose()</code>.
+ * <p/>
+ * Query hits that are evaluated lazily keep using the bit sets of their
+ * cache after the query was executed. Such a query creates its own cache
+ * and makes it the current one with {@link #enter(PerQueryCache)} whenever
+ * it scores documents. The cache is disposed when the hits are closed, which
+ * does not affect the caches of other queries on the same thread.
  */
 class PerQueryCache {
 
@@ -33,9 +43,18 @@ class PerQueryCache {
     private final Map map = new HashMap();
 
     /**
-     * Private constructor.
+     * The bit sets obtained from the {@link BitSetPool} while the query is
+     * executed.
+     * <p/>
+     * The exact type is: <code>List&lt;BitSet></code>
      */
-    private PerQueryCache() {
+    private final List bitSets = new ArrayList();
+
+    /**
+     * Creates a new cache. The cache is only returned by
+     * {@link #getInstance()} while it is the current cache of a thread.
+     */
+    PerQueryCache() {
     }
 
     /**
@@ -55,6 +74,30 @@ class PerQueryCache {
         return cache;
     }
 
+    /**
+     * Makes <code>cache</code> the current cache of this thread.
+     *
+     * @param cache the cache of a query.
+     * @return the previous cache of this thread or <code>null</code> if
+     *         there was none. The previous cache must be restored with
+     *         {@link #leave(PerQueryCache)}.
+     */
+    static PerQueryCache enter(PerQueryCache cache) {
+        PerQueryCache previous = (PerQueryCache) CACHE.get();
+        CACHE.set(cache);
+        return previous;
+    }
+
+    /**
+     * Restores the cache that was current before {@link #enter(PerQueryCache)}
+     * was called.
+     *
+     * @param previous the cache returned by {@link #enter(PerQueryCache)}.
+     */
+    static void leave(PerQueryCache previous) {
+        CACHE.set(previous);
+    }
+
     /**
      * Returns the value from the cache with the given <code>type</code> and
      * <code>key</code>.
@@ -83,10 +126,32 @@ class PerQueryCache {
     }
 
     /**
-     * Disposes the <code>PerQueryCache</code> for the current thread.
+     * Returns an empty <code>BitSet</code> from the {@link BitSetPool}. The
+     * bit set is returned to the pool when this cache is disposed, that is
+     * the bit set must not be used after the query finished.
+     *
+     * @return an empty bit set.
+     */
+    BitSet getBitSet() {
+        BitSet bits = BitSetPool.acquire();
+        bitSets.add(bits);
+        return bits;
+    }
+
+    /**
+     * Disposes this <code>PerQueryCache</code> and returns its bit sets to
+     * the pool. If this is the current cache of the thread, the thread will
+     * use a new cache from now on.
      */
     void dispose() {
-        CACHE.set(null);
+        if (CACHE.get() == this) {
+            CACHE.set(null);
+        }
+        map.clear();
+        for (Iterator it = bitSets.iterator(); it.hasNext(); ) {
+            BitSetPool.release((BitSet) it.next());
+        }
+        bitSets.clear();
     }
 
     /**
@@ -42,6 +42,12 @@ class PersistentIndex extends AbstractIndex {
      */
     private IndexListener listener;
 
+    /**
+     * If non <code>null</code>, writes to the directory of this index are
+     * throttled. Only set while indexes are merged into this index.
+     */
+    private volatile ThrottledDirectory.Throttle throttle;
+
     /**
      * Creates a new <code>PersistentIndex</code>.
      *
@@ -51,19 +57,22 @@ class PersistentIndex extends AbstractIndex {
      * @param cache the document number cache
      * @param indexingQueue the indexing queue.
      * @param directoryManager the directory manager.
+     * @param trieMigration whether an existing index in format version 3
+     *  is rewritten once to add the trie encoded values.
      * @throws IOException if an error occurs while opening / creating the
      *  index.
      */
     PersistentIndex(String name, Analyzer analyzer,
                     Similarity similarity, DocNumberCache cache,
                     IndexingQueue indexingQueue,
-                    DirectoryManager directoryManager)
+                    DirectoryManager directoryManager,
+                    boolean trieMigration)
             throws IOException {
         super(analyzer, similarity, directoryManager.getDirectory(name),
                 cache, indexingQueue);
         this.name = name;
         if (isExisting()) {
-            IndexMigration.migrate(this, directoryManager);
+            IndexMigration.migrate(this, directoryManager, trieMigration);
         }
     }
 
@@ -92,6 +101,54 @@ class PersistentIndex extends AbstractIndex {
         getIndexWriter().optimize();
     }
 
+    /**
+     * Merges the provided indexes into this index and limits the rate at
+     * which the merge writes to the directory of this index. After this
+     * completes, the index is optimized.
+     * <p/>
+     * The provided IndexReaders are not closed.
+     *
+     * @param readers  the readers of indexes to add.
+     * @param throttle the throttle for the writes or <code>null</code> if
+     *                 the writes should not be throttled.
+     * @throws IOException if an error occurs while adding indexes.
+     */
+    void addIndexes(IndexReader[] readers, ThrottledDirectory.Throttle throttle)
+            throws IOException {
+        if (throttle == null) {
+            addIndexes(readers);
+            return;
+        }
+        synchronized (this) {
+            // make sure a new writer is created on the throttled directory
+            releaseWriterAndReaders();
+            this.throttle = throttle;
+        }
+        try {
+            addIndexes(readers);
+        } finally {
+            synchronized (this) {
+                releaseWriterAndReaders();
+                this.throttle = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the directory of this index. While indexes are merged with a
+     * throttle, the directory is wrapped with a {@link ThrottledDirectory}.
+     *
+     * @return the directory of this index.
+     */
+    Directory getDirectory() {
+        Directory directory = super.getDirectory();
+        ThrottledDirectory.Throttle t = throttle;
+        if (t != null) {
+            directory = new ThrottledDirectory(directory, t);
+        }
+        return directory;
+    }
+
     /**
      * Copies <code>index</code> into this persistent index. This method should
      * only be called when <code>this</code> index is empty otherwise the
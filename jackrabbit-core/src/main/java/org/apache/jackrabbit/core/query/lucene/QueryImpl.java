@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -67,6 +68,22 @@ public class QueryImpl extends AbstractQueryImpl {
      */
     protected final QueryRootNode root;
 
+    /**
+     * The query statement or <code>null</code> if unknown.
+     */
+    private String statement;
+
+    /**
+     * The syntax of the query statement.
+     */
+    private String language;
+
+    /**
+     * The time in milliseconds it took to parse the statement. Reported with
+     * the statistics of the first execution only.
+     */
+    private long parseTime;
+
     /**
      * Creates a new query instance from a query string.
      *
@@ -93,6 +110,25 @@ public class QueryImpl extends AbstractQueryImpl {
         this.root = QueryParser.parse(statement, language, session, factory);
     }
 
+    /**
+     * Creates a new query instance from a query tree. The query tree may be
+     * shared with other query instances and is not modified.
+     *
+     * @param session the session of the user executing this query.
+     * @param itemMgr the item manager of the session executing this query.
+     * @param index   the search index.
+     * @param propReg the property type registry.
+     * @param root    the root node of the query tree.
+     */
+    public QueryImpl(SessionImpl session,
+                     ItemManager itemMgr,
+                     SearchIndex index,
+                     PropertyTypeRegistry propReg,
+                     QueryRootNode root) {
+        super(session, itemMgr, index, propReg);
+        this.root = root;
+    }
+
     /**
      * Executes this query and returns a <code>{@link QueryResult}</code>.
      *
@@ -106,12 +142,20 @@ public class QueryImpl extends AbstractQueryImpl {
             log.debug("Executing query: \n" + root.dump());
         }
 
+        QueryStatistics statistics = index.getQueryStatistics();
+        QueryStat stat = null;
+        if (statistics != null && statement != null) {
+            stat = new QueryStat(statement, language);
+            stat.setParseTime(parseTime);
+            parseTime = 0;
+        }
+
         // build lucene query
-        Query query = LuceneQueryBuilder.createQuery(root, session,
-                index.getContext().getItemStateManager(),
-                index.getNamespaceMappings(), index.getTextAnalyzer(),
-                propReg, index.getSynonymProvider(),
-                index.getIndexFormatVersion());
+        long time = System.currentTimeMillis();
+        Query query = createLuceneQuery();
+        if (stat != null) {
+            stat.setBuildTime(System.currentTimeMillis() - time);
+        }
 
         OrderQueryNode orderNode = root.getOrderNode();
 
@@ -128,11 +172,64 @@ public class QueryImpl extends AbstractQueryImpl {
             ascSpecs[i] = orderSpecs[i].isAscending();
         }
 
-        return new SingleColumnQueryResult(index, itemMgr,
-                session, session.getAccessManager(),
-                this, query, new SpellSuggestion(index.getSpellChecker(), root),
-                getSelectProperties(), orderProperties, ascSpecs,
-                getRespectDocumentOrder(), offset, limit);
+        QueryStat.setCurrent(stat);
+        try {
+            QueryResult result = new SingleColumnQueryResult(index, itemMgr,
+                    session, session.getAccessManager(),
+                    this, query, new SpellSuggestion(index.getSpellChecker(), root),
+                    getSelectProperties(), orderProperties, ascSpecs,
+                    getRespectDocumentOrder(), offset, limit);
+            if (stat != null) {
+                statistics.record(stat);
+            }
+            return result;
+        } finally {
+            QueryStat.setCurrent(null);
+        }
+    }
+
+    /**
+     * Sets the statement this query was created from. The statement is used
+     * to collect query statistics.
+     *
+     * @param statement the query statement.
+     * @param language  the syntax of the query statement.
+     * @param parseTime the time in milliseconds it took to parse the
+     *                  statement.
+     */
+    void setStatement(String statement, String language, long parseTime) {
+        this.statement = statement;
+        this.language = language;
+        this.parseTime = parseTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTotalSize(boolean exact) throws RepositoryException {
+        if (log.isDebugEnabled()) {
+            log.debug("Counting hits for query: \n" + root.dump());
+        }
+        try {
+            return index.countHits(session, this, createLuceneQuery(),
+                    exact ? Integer.MAX_VALUE : index.getAccessCheckSampleSize());
+        } catch (IOException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the lucene query for the query tree of this query.
+     *
+     * @return the lucene query.
+     * @throws RepositoryException if an error occurs.
+     */
+    protected Query createLuceneQuery() throws RepositoryException {
+        return LuceneQueryBuilder.createQuery(root, session,
+                index.getContext().getItemStateManager(),
+                index.getNamespaceMappings(), index.getTextAnalyzer(),
+                propReg, index.getSynonymProvider(),
+                index.getIndexFormatVersion(), index.getLowerCaseProperties(needsSystemTree()));
     }
 
     /**
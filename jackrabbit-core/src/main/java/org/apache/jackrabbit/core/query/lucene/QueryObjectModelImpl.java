@@ -32,6 +32,8 @@ import org.apache.jackrabbit.core.ItemManager;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
 
+import java.io.IOException;
+
 import javax.jcr.RepositoryException;
 import javax.jcr.UnsupportedRepositoryOperationException;
 import javax.jcr.query.QueryResult;
@@ -90,20 +92,7 @@ public class QueryObjectModelImpl extends AbstractQueryImpl {
     public QueryResult execute(long offset, long limit)
             throws RepositoryException {
 
-        LuceneQueryFactory factory = new LuceneQueryFactoryImpl(session,
-                index.getSortComparatorSource(),
-                index.getContext().getHierarchyManager(),
-                index.getNamespaceMappings(), index.getTextAnalyzer(),
-                index.getSynonymProvider(), index.getIndexFormatVersion());
-
-        MultiColumnQuery query = factory.create(qomTree.getSource());
-
-        if (qomTree.getConstraint() != null) {
-            Constraint c = ConstraintBuilder.create(qomTree.getConstraint(),
-                    getBindVariableValues(), qomTree.getSource().getSelectors(),
-                    factory, session.getValueFactory());
-            query = new FilterMultiColumnQuery(query, c);
-        }
+        MultiColumnQuery query = createMultiColumnQuery();
 
 
         ColumnImpl[] columns = qomTree.getColumns();
@@ -132,8 +121,47 @@ public class QueryObjectModelImpl extends AbstractQueryImpl {
                 getRespectDocumentOrder(), offset, limit);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getTotalSize(boolean exact) throws RepositoryException {
+        try {
+            return index.countHits(session, createMultiColumnQuery(),
+                    exact ? Integer.MAX_VALUE : index.getAccessCheckSampleSize());
+        } catch (IOException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        }
+    }
+
     //--------------------------< internal >------------------------------------
 
+    /**
+     * Creates the multi column query for the source and constraint of the
+     * query object model tree.
+     *
+     * @return the multi column query.
+     * @throws RepositoryException if an error occurs.
+     */
+    private MultiColumnQuery createMultiColumnQuery()
+            throws RepositoryException {
+        LuceneQueryFactory factory = new LuceneQueryFactoryImpl(session,
+                index.getSortComparatorSource(),
+                index.getContext().getHierarchyManager(),
+                index.getNamespaceMappings(), index.getTextAnalyzer(),
+                index.getSynonymProvider(), index.getIndexFormatVersion(),
+                index.getLowerCaseProperties(needsSystemTree()));
+
+        MultiColumnQuery query = factory.create(qomTree.getSource());
+
+        if (qomTree.getConstraint() != null) {
+            Constraint c = ConstraintBuilder.create(qomTree.getConstraint(),
+                    getBindVariableValues(), qomTree.getSource().getSelectors(),
+                    factory, session.getValueFactory());
+            query = new FilterMultiColumnQuery(query, c);
+        }
+        return query;
+    }
+
     /**
      * Extracts all {@link BindVariableValueImpl} from the {@link #qomTree}
      * and adds it to the set of known variable names.
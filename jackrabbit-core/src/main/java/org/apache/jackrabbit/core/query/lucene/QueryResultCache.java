@@ -0,0 +1,459 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implements a cache of query hits with a fixed size and a LRU strategy. The
+ * cache is shared by all sessions of a workspace and holds the hits of a
+ * lucene query as they were read from the index, that is, before access
+ * rights are checked. Access rights are checked on the cached hits for each
+ * session when the hits are turned into a query result.
+ * <p/>
+ * Every cached entry remembers the generations of the
+ * {@link CachingMultiIndexReader}s the hits were read from. An entry is only
+ * returned as long as the index readers of the same generations are in use.
+ * As soon as the {@link MultiIndex} commits changes and creates a new index
+ * reader, the entries read from the previous generation are discarded. This
+ * happens when the new generation is first seen by the cache, so that stale
+ * entries do not keep their score nodes in memory until they are evicted.
+ * <p/>
+ * The lucene queries that are used as keys must not keep a reference to the
+ * index readers or scorers they were executed on. The jackrabbit query
+ * classes keep such state in their scorers only.
+ * <p/>
+ * Only hits that were calculated on the index alone are cached. Hits of a
+ * {@link JackrabbitQuery} that were calculated using the session, are never
+ * cached. Hits are only put into the cache when they were read completely
+ * and they contain no more than {@link #MAX_HITS} score nodes.
+ */
+class QueryResultCache {
+
+    /**
+     * Logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(QueryResultCache.class);
+
+    /**
+     * Log cache statistics at most every 10 seconds.
+     */
+    private static final long LOG_INTERVAL = 1000 * 10;
+
+    /**
+     * The maximum number of score nodes of a cached entry.
+     */
+    static final int MAX_HITS = 10000;
+
+    /**
+     * LRU Map where key=Key value=Entry
+     */
+    private final LRUMap entries;
+
+    /**
+     * The latest generation seen for each index reader position, that is,
+     * the workspace index and the system index.
+     */
+    private long[] latest = new long[0];
+
+    /**
+     * Timestamp of the last cache statistics log.
+     */
+    private long lastLog;
+
+    /**
+     * Cache misses.
+     */
+    private long misses;
+
+    /**
+     * Cache accesses;
+     */
+    private long accesses;
+
+    /**
+     * The total number of cache hits.
+     */
+    private long hitCount;
+
+    /**
+     * Creates a new <code>QueryResultCache</code> with a limiting
+     * <code>size</code>.
+     *
+     * @param size the cache limit.
+     */
+    QueryResultCache(int size) {
+        entries = new LRUMap(size);
+    }
+
+    /**
+     * Returns the generations of the index readers underlying the given
+     * <code>reader</code>.
+     *
+     * @param reader an index reader returned by
+     *               {@link SearchIndex#getIndexReader(boolean)}.
+     * @return the generations or <code>null</code> if the reader is not
+     *         based on {@link CachingMultiIndexReader}s.
+     */
+    static long[] getGenerations(IndexReader reader) {
+        if (!(reader instanceof JackrabbitIndexReader)) {
+            return null;
+        }
+        IndexReader base = ((JackrabbitIndexReader) reader).getBaseReader();
+        IndexReader[] readers;
+        if (base instanceof SearchIndex.CombinedIndexReader) {
+            readers = ((SearchIndex.CombinedIndexReader) base).getIndexReaders();
+        } else {
+            readers = new IndexReader[]{base};
+        }
+        long[] generations = new long[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            if (!(readers[i] instanceof CachingMultiIndexReader)) {
+                return null;
+            }
+            generations[i] = ((CachingMultiIndexReader) readers[i]).getGeneration();
+        }
+        return generations;
+    }
+
+    /**
+     * Returns the cached hits for the given key.
+     *
+     * @param key         the key of the hits.
+     * @param generations the generations of the current index readers.
+     * @return the cached hits or <code>null</code> if there are no hits for
+     *         the key or if they were read from other index readers.
+     */
+    QueryHits getHits(Key key, long[] generations) {
+        Entry entry;
+        synchronized (entries) {
+            update(generations);
+            entry = (Entry) entries.get(key);
+            if (entry != null && !Arrays.equals(entry.generations, generations)) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry != null) {
+                hitCount++;
+            }
+        }
+        if (log.isInfoEnabled()) {
+            logStatistics(entry == null);
+        }
+        if (entry == null) {
+            return null;
+        }
+        return new DefaultQueryHits(entry.scoreNodes);
+    }
+
+    /**
+     * @return the total number of cache hits.
+     */
+    long getHitCount() {
+        synchronized (entries) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Returns hits that record the score nodes read from <code>hits</code>
+     * and put them into this cache once all score nodes were read.
+     *
+     * @param key         the key of the hits.
+     * @param generations the generations of the index readers the hits are
+     *                    read from.
+     * @param hits        the hits to record.
+     * @return the recording hits.
+     */
+    QueryHits record(Key key, long[] generations, QueryHits hits) {
+        return new RecordingQueryHits(key, generations, hits);
+    }
+
+    /**
+     * Updates the latest generations and removes the entries that were read
+     * from older index readers if a new generation is seen. The caller must
+     * hold the lock on {@link #entries}.
+     *
+     * @param generations the generations of the current index readers.
+     */
+    private void update(long[] generations) {
+        if (isStale(generations) || !isNewer(generations)) {
+            // same generation or an older reader that is still in use
+            return;
+        }
+        if (generations.length > latest.length) {
+            long[] tmp = new long[generations.length];
+            System.arraycopy(latest, 0, tmp, 0, latest.length);
+            latest = tmp;
+        }
+        for (int i = 0; i < generations.length; i++) {
+            latest[i] = Math.max(latest[i], generations[i]);
+        }
+        for (Iterator it = entries.values().iterator(); it.hasNext();) {
+            if (isStale(((Entry) it.next()).generations)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @param generations the generations of index readers.
+     * @return <code>true</code> if any of the readers is older than the
+     *         latest generation seen at its position.
+     */
+    private boolean isStale(long[] generations) {
+        for (int i = 0; i < generations.length && i < latest.length; i++) {
+            if (generations[i] < latest[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param generations the generations of index readers.
+     * @return <code>true</code> if any of the readers is newer than the
+     *         latest generation seen at its position.
+     */
+    private boolean isNewer(long[] generations) {
+        for (int i = 0; i < generations.length; i++) {
+            if (i >= latest.length || generations[i] > latest[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Logs the cache statistics at most after 1000 accesses and every 10
+     * seconds.
+     *
+     * @param miss whether the current access is a cache miss.
+     */
+    private synchronized void logStatistics(boolean miss) {
+        accesses++;
+        if (miss) {
+            misses++;
+        }
+        if (accesses > 1000 && System.currentTimeMillis() - lastLog > LOG_INTERVAL) {
+            long ratio = 100;
+            if (misses != 0) {
+                ratio -= misses * 100L / accesses;
+            }
+            StringBuffer statistics = new StringBuffer();
+            synchronized (entries) {
+                statistics.append("size=").append(entries.size());
+                statistics.append("/").append(entries.maxSize());
+            }
+            statistics.append(", #accesses=").append(accesses);
+            statistics.append(", #hits=").append((accesses - misses));
+            statistics.append(", #misses=").append(misses);
+            statistics.append(", cacheRatio=").append(ratio).append("%");
+            log.info(statistics.toString());
+            accesses = 0;
+            misses = 0;
+            lastLog = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The key of a cache entry: a lucene query, its sort order and whether
+     * the query also searches the index of the system tree.
+     */
+    static final class Key {
+
+        /**
+         * The lucene query.
+         */
+        private final Query query;
+
+        /**
+         * The names of the properties for sort order.
+         */
+        private final Path[] orderProps;
+
+        /**
+         * The order specs for the sort order properties.
+         */
+        private final boolean[] orderSpecs;
+
+        /**
+         * Whether the query also searches the index of the system tree.
+         */
+        private final boolean needsSystemTree;
+
+        /**
+         * Creates a new key.
+         *
+         * @param query           the lucene query.
+         * @param orderProps      the names of the properties for sort order.
+         * @param orderSpecs      the order specs for the sort order
+         *                        properties.
+         * @param needsSystemTree whether the query also searches the index
+         *                        of the system tree.
+         */
+        Key(Query query,
+            Path[] orderProps,
+            boolean[] orderSpecs,
+            boolean needsSystemTree) {
+            this.query = query;
+            this.orderProps = orderProps;
+            this.orderSpecs = orderSpecs;
+            this.needsSystemTree = needsSystemTree;
+        }
+
+        /**
+         * @return the lucene query.
+         */
+        Query getQuery() {
+            return query;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return needsSystemTree == other.needsSystemTree
+                        && query.equals(other.query)
+                        && Arrays.equals(orderProps, other.orderProps)
+                        && Arrays.equals(orderSpecs, other.orderSpecs);
+            }
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int hashCode() {
+            int h = query.hashCode();
+            if (needsSystemTree) {
+                h++;
+            }
+            for (int i = 0; i < orderProps.length; i++) {
+                h = 31 * h + orderProps[i].hashCode();
+            }
+            return h;
+        }
+    }
+
+    /**
+     * A cached list of score nodes and the generations of the index readers
+     * they were read from.
+     */
+    private static final class Entry {
+
+        /**
+         * The generations of the index readers.
+         */
+        final long[] generations;
+
+        /**
+         * The unmodifiable list of {@link ScoreNode}s.
+         */
+        final List scoreNodes;
+
+        Entry(long[] generations, List scoreNodes) {
+            this.generations = generations;
+            this.scoreNodes = Collections.unmodifiableList(scoreNodes);
+        }
+    }
+
+    /**
+     * Query hits that record the score nodes read from the underlying hits.
+     */
+    private final class RecordingQueryHits extends AbstractQueryHits {
+
+        /**
+         * The key of the hits.
+         */
+        private final Key key;
+
+        /**
+         * The generations of the index readers.
+         */
+        private final long[] generations;
+
+        /**
+         * The underlying hits.
+         */
+        private final QueryHits hits;
+
+        /**
+         * The score nodes read so far or <code>null</code> if the hits are
+         * not cached.
+         */
+        private List scoreNodes = new ArrayList();
+
+        RecordingQueryHits(Key key, long[] generations, QueryHits hits) {
+            this.key = key;
+            this.generations = generations;
+            this.hits = hits;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ScoreNode nextScoreNode() throws IOException {
+            ScoreNode sn = hits.nextScoreNode();
+            if (scoreNodes != null) {
+                if (sn == null) {
+                    Entry entry = new Entry(generations, scoreNodes);
+                    synchronized (entries) {
+                        update(generations);
+                        if (!isStale(generations)) {
+                            entries.put(key, entry);
+                        }
+                    }
+                    scoreNodes = null;
+                } else if (scoreNodes.size() < MAX_HITS) {
+                    scoreNodes.add(sn);
+                } else {
+                    scoreNodes = null;
+                }
+            }
+            return sn;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int getSize() {
+            return hits.getSize();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() throws IOException {
+            hits.close();
+        }
+    }
+}
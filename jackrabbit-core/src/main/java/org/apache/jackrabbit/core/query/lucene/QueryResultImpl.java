@@ -21,6 +21,7 @@ import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.security.AccessManager;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
+import org.apache.lucene.index.IndexReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,7 +33,9 @@ import javax.jcr.query.QueryResult;
 import javax.jcr.query.RowIterator;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
@@ -98,6 +101,21 @@ public abstract class QueryResultImpl implements QueryResult {
      */
     private final List resultNodes = new ArrayList();
 
+    /**
+     * The property values stored in the index for the nodes in
+     * {@link #resultNodes}. The values are read while the index reader of
+     * the query is still open. See {@link IndexingConfiguration#isStored(Name)}.
+     * <p/>
+     * The exact type is: <code>Map&lt;NodeId, StoredValues></code>
+     */
+    private final Map storedValues = new HashMap();
+
+    /**
+     * If <code>true</code> the query selects properties that are stored in
+     * the index and {@link #storedValues} are read for the result nodes.
+     */
+    private final boolean selectsStoredValues;
+
     /**
      * This is the raw number of results that matched the query. This number
      * also includes matches which will not be returned due to access
@@ -186,6 +204,12 @@ public abstract class QueryResultImpl implements QueryResult {
         this.docOrder = orderProps.length == 0 && documentOrder;
         this.offset = offset;
         this.limit = limit;
+        IndexingConfiguration config = index.getIndexingConfig();
+        boolean stored = false;
+        for (int i = 0; config != null && i < selectProps.length; i++) {
+            stored |= config.isStored(selectProps[i]);
+        }
+        this.selectsStoredValues = stored;
     }
 
     /**
@@ -223,10 +247,12 @@ public abstract class QueryResultImpl implements QueryResult {
                 throw new RepositoryException(e);
             }
         }
+        // values stored in the index do not reflect transient changes
+        Map stored = session.hasPendingChanges() ? null : storedValues;
         return new RowIteratorImpl(getScoreNodes(), selectProps,
                 selectorNames, itemMgr,
                 index.getContext().getHierarchyManager(), session,
-                excerptProvider, spellSuggestion);
+                excerptProvider, spellSuggestion, stored, accessMgr);
     }
 
     /**
@@ -291,28 +317,42 @@ public abstract class QueryResultImpl implements QueryResult {
             return;
         }
 
+        // statistics are only collected for the initial execution
+        QueryStat stat = QueryStat.getCurrent();
+
         // execute it
         MultiColumnQueryHits result = null;
         try {
             long time = System.currentTimeMillis();
             result = executeQuery(maxResultSize);
-            log.debug("query executed in {} ms",
-                    new Long(System.currentTimeMillis() - time));
+            time = System.currentTimeMillis() - time;
+            log.debug("query executed in {} ms", new Long(time));
+            if (stat != null) {
+                stat.setSearchTime(time);
+            }
             // set selector names
             selectorNames = result.getSelectorNames();
 
+            time = System.currentTimeMillis();
+            int granted = 0;
             if (resultNodes.isEmpty() && offset > 0) {
                 // collect result offset into dummy list
-                collectScoreNodes(result, new ArrayList(), offset);
+                List skipped = new ArrayList();
+                collectScoreNodes(result, skipped, offset);
+                granted = skipped.size();
             } else {
                 int start = resultNodes.size() + invalid + (int) offset;
                 result.skip(start);
             }
 
-            time = System.currentTimeMillis();
             collectScoreNodes(result, resultNodes, maxResultSize);
-            log.debug("retrieved ScoreNodes in {} ms",
-                    new Long(System.currentTimeMillis() - time));
+            time = System.currentTimeMillis() - time;
+            log.debug("retrieved ScoreNodes in {} ms", new Long(time));
+            if (stat != null) {
+                stat.setAccessCheckTime(time);
+                granted += resultNodes.size();
+                stat.setHits(granted + invalid, granted);
+            }
 
             // update numResults
             numResults = result.getSize();
@@ -354,12 +394,34 @@ public abstract class QueryResultImpl implements QueryResult {
             // check access
             if (isAccessGranted(sn)) {
                 collector.add(sn);
+                if (selectsStoredValues && collector == resultNodes) {
+                    readStoredValues(hits, sn[0]);
+                }
             } else {
                 invalid++;
             }
         }
     }
 
+    /**
+     * Reads the property values stored in the index for a result node from
+     * the index reader the query is executed on.
+     *
+     * @param hits the raw hits.
+     * @param sn   a result node.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private void readStoredValues(MultiColumnQueryHits hits, ScoreNode sn)
+            throws IOException {
+        if (sn != null && hits instanceof ReaderQueryHits) {
+            IndexReader reader = ((ReaderQueryHits) hits).getIndexReader();
+            StoredValues values = index.getStoredValues(reader, sn.getDoc(reader));
+            if (values != null) {
+                storedValues.put(sn.getNodeId(), values);
+            }
+        }
+    }
+
     /**
      * Checks if access is granted to all <code>nodes</code>.
      *
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * <code>QueryStat</code> holds the statistics of a single query execution.
+ * The times of the phases are in milliseconds:
+ * <ul>
+ * <li>parse: parsing the statement into a query tree. Zero if the query
+ * tree was taken from the cache or if the query was executed before.</li>
+ * <li>build: creating the lucene query from the query tree.</li>
+ * <li>search: executing the lucene query on the index, including the sort
+ * of the hits if the query has an order by clause.</li>
+ * <li>access check: reading the hits and checking the access rights of the
+ * session.</li>
+ * </ul>
+ * While a query is executed the statistics are associated with the current
+ * thread and available with {@link #getCurrent()}.
+ */
+public final class QueryStat {
+
+    /**
+     * The statistics of the query executed by the current thread.
+     */
+    private static final ThreadLocal CURRENT = new ThreadLocal();
+
+    /**
+     * The query statement.
+     */
+    private final String statement;
+
+    /**
+     * The syntax of the query statement.
+     */
+    private final String language;
+
+    /**
+     * The time when the execution started.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * The times of the phases in milliseconds.
+     */
+    private long parseTime, buildTime, searchTime, accessCheckTime;
+
+    /**
+     * The number of hits read before access rights were checked.
+     */
+    private int rawHits;
+
+    /**
+     * The number of hits the session has access to.
+     */
+    private int grantedHits;
+
+    /**
+     * The number of index readers the query was executed on.
+     */
+    private int indexReaders;
+
+    /**
+     * Creates new statistics for a query execution.
+     *
+     * @param statement the query statement.
+     * @param language  the syntax of the query statement.
+     */
+    QueryStat(String statement, String language) {
+        this.statement = statement;
+        this.language = language;
+    }
+
+    /**
+     * @return the statistics of the query executed by the current thread or
+     *         <code>null</code> if none is executed or statistics are
+     *         disabled.
+     */
+    static QueryStat getCurrent() {
+        return (QueryStat) CURRENT.get();
+    }
+
+    /**
+     * Associates <code>stat</code> with the current thread.
+     *
+     * @param stat the statistics or <code>null</code> to remove the
+     *             association.
+     */
+    static void setCurrent(QueryStat stat) {
+        CURRENT.set(stat);
+    }
+
+    /**
+     * @return the query statement.
+     */
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return the syntax of the query statement.
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * @return the time when the execution started.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the time to parse the statement.
+     */
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    void setParseTime(long parseTime) {
+        this.parseTime = parseTime;
+    }
+
+    /**
+     * @return the time to create the lucene query.
+     */
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    void setBuildTime(long buildTime) {
+        this.buildTime = buildTime;
+    }
+
+    /**
+     * @return the time to execute the lucene query.
+     */
+    public long getSearchTime() {
+        return searchTime;
+    }
+
+    void setSearchTime(long searchTime) {
+        this.searchTime = searchTime;
+    }
+
+    /**
+     * @return the time to read the hits and check access rights.
+     */
+    public long getAccessCheckTime() {
+        return accessCheckTime;
+    }
+
+    void setAccessCheckTime(long accessCheckTime) {
+        this.accessCheckTime = accessCheckTime;
+    }
+
+    /**
+     * @return the total time of all phases.
+     */
+    public long getTotalTime() {
+        return parseTime + buildTime + searchTime + accessCheckTime;
+    }
+
+    /**
+     * @return the number of hits read before access rights were checked.
+     */
+    public int getRawHits() {
+        return rawHits;
+    }
+
+    /**
+     * @return the number of hits the session has access to.
+     */
+    public int getGrantedHits() {
+        return grantedHits;
+    }
+
+    void setHits(int rawHits, int grantedHits) {
+        this.rawHits = rawHits;
+        this.grantedHits = grantedHits;
+    }
+
+    /**
+     * @return the number of index readers the query was executed on.
+     */
+    public int getIndexReaders() {
+        return indexReaders;
+    }
+
+    void setIndexReaders(int indexReaders) {
+        this.indexReaders = indexReaders;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append(getTotalTime()).append(" ms (parse=").append(parseTime);
+        sb.append(", build=").append(buildTime);
+        sb.append(", search=").append(searchTime);
+        sb.append(", accessCheck=").append(accessCheckTime);
+        sb.append(", hits=").append(rawHits);
+        sb.append(", granted=").append(grantedHits);
+        sb.append(", indexReaders=").append(indexReaders);
+        sb.append(") ").append(language).append(": ").append(statement);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>QueryStatistics</code> collects the {@link QueryStat}s of the queries
+ * executed on a search index. The statistics are aggregated per statement for
+ * a limited number of statements, the least recently executed statement is
+ * dropped first. Queries that take longer than the slow query threshold are
+ * logged with level INFO and the most recent of them are kept.
+ * <p/>
+ * The statistics are available programmatically through
+ * {@link SearchIndex#getQueryStatistics()} and can be registered as a JMX
+ * MBean. JMX is not part of Java 1.4, so the JMX classes are only accessed
+ * through reflection and registration is skipped if they are not available.
+ */
+public class QueryStatistics implements QueryStatisticsMBean {
+
+    /**
+     * Logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(QueryStatistics.class);
+
+    /**
+     * The number of statements returned by {@link #getTopQueries()}.
+     */
+    private static final int TOP_QUERIES = 10;
+
+    /**
+     * The number of slow queries that are kept.
+     */
+    private static final int SLOW_QUERIES = 10;
+
+    /**
+     * The name of the JMX MBean server interface.
+     */
+    private static final String MBEAN_SERVER = "javax.management.MBeanServer";
+
+    /**
+     * Orders statements by descending total time.
+     */
+    private static final Comparator TOTAL_TIME_DESC = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            long t1 = ((Statement) o1).getTotalTime();
+            long t2 = ((Statement) o2).getTotalTime();
+            return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+        }
+    };
+
+    /**
+     * LRU Map where key=language + statement value=Statement
+     */
+    private final LRUMap statements;
+
+    /**
+     * The most recent slow queries.
+     * <p/>
+     * The exact type is: <code>List&lt;QueryStat></code>
+     */
+    private final LinkedList slowQueries = new LinkedList();
+
+    /**
+     * The time in milliseconds after which a query is considered slow.
+     */
+    private long slowQueryThreshold;
+
+    /**
+     * The number of queries, their total time and the number of slow queries.
+     */
+    private long queryCount, totalQueryTime, slowQueryCount;
+
+    /**
+     * The name of the MBean, a <code>javax.management.ObjectName</code>, or
+     * <code>null</code> if not registered.
+     */
+    private Object objectName;
+
+    /**
+     * The server where the MBean is registered, a
+     * <code>javax.management.MBeanServer</code>.
+     */
+    private Object server;
+
+    /**
+     * Creates new query statistics.
+     *
+     * @param size               the maximum number of statements to keep
+     *                           aggregated statistics for.
+     * @param slowQueryThreshold the time in milliseconds after which a query
+     *                           is logged as slow, zero disables the log.
+     */
+    public QueryStatistics(int size, long slowQueryThreshold) {
+        this.statements = new LRUMap(size);
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    /**
+     * Adds the statistics of a query execution.
+     *
+     * @param stat the statistics of a query execution.
+     */
+    public synchronized void record(QueryStat stat) {
+        long time = stat.getTotalTime();
+        queryCount++;
+        totalQueryTime += time;
+
+        String key = stat.getLanguage() + '\uFFFF' + stat.getStatement();
+        Statement s = (Statement) statements.get(key);
+        if (s == null) {
+            s = new Statement(stat.getStatement(), stat.getLanguage());
+            statements.put(key, s);
+        }
+        s.add(stat);
+
+        if (slowQueryThreshold > 0 && time >= slowQueryThreshold) {
+            slowQueryCount++;
+            slowQueries.addFirst(stat);
+            if (slowQueries.size() > SLOW_QUERIES) {
+                slowQueries.removeLast();
+            }
+            log.info("Slow query: {}", stat);
+        }
+    }
+
+    /**
+     * Returns the statements with the highest total execution time.
+     *
+     * @param n the maximum number of statements to return.
+     * @return the statements ordered by descending total time.
+     */
+    public synchronized Statement[] getTopStatements(int n) {
+        Statement[] all = (Statement[]) statements.values().toArray(
+                new Statement[statements.size()]);
+        Arrays.sort(all, TOTAL_TIME_DESC);
+        Statement[] top = new Statement[Math.min(n, all.length)];
+        System.arraycopy(all, 0, top, 0, top.length);
+        return top;
+    }
+
+    /**
+     * @return the most recent slow queries, the most recent first.
+     */
+    public synchronized QueryStat[] getSlowQueryStats() {
+        return (QueryStat[]) slowQueries.toArray(new QueryStat[slowQueries.size()]);
+    }
+
+    /**
+     * Registers these statistics as a MBean with the platform MBean server.
+     * Failures are logged but not thrown.
+     *
+     * @param name the name of the MBean.
+     */
+    public synchronized void register(String name) {
+        try {
+            Class nameClass = Class.forName("javax.management.ObjectName");
+            Object on = nameClass.getConstructor(
+                    new Class[]{String.class}).newInstance(new Object[]{name});
+            Object mbs = getMBeanServer();
+            invoke(Class.forName(MBEAN_SERVER), mbs, "registerMBean",
+                    new Class[]{Object.class, nameClass}, new Object[]{this, on});
+            server = mbs;
+            objectName = on;
+        } catch (ClassNotFoundException e) {
+            log.warn("JMX is not available, query statistics MBean "
+                    + name + " is not registered");
+        } catch (Exception e) {
+            log.warn("Unable to register query statistics MBean " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters the MBean if it was registered.
+     */
+    public synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                invoke(Class.forName(MBEAN_SERVER), server, "unregisterMBean",
+                        new Class[]{objectName.getClass()},
+                        new Object[]{objectName});
+            } catch (Exception e) {
+                log.warn("Unable to unregister query statistics MBean "
+                        + objectName, e);
+            }
+            objectName = null;
+            server = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if these statistics are registered as a
+     *         MBean.
+     */
+    synchronized boolean isRegistered() {
+        if (objectName == null) {
+            return false;
+        }
+        try {
+            return ((Boolean) invoke(Class.forName(MBEAN_SERVER), server, "isRegistered",
+                    new Class[]{objectName.getClass()},
+                    new Object[]{objectName})).booleanValue();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Quotes a value of an MBean object name like
+     * <code>javax.management.ObjectName.quote(String)</code>.
+     *
+     * @param value the value.
+     * @return the quoted value.
+     */
+    public static String quote(String value) {
+        StringBuffer sb = new StringBuffer("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\\':
+                case '"':
+                case '*':
+                case '?':
+                    sb.append('\\').append(c);
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    //---------------------------< QueryStatisticsMBean >-----------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getTotalQueryTime() {
+        return totalQueryTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getSlowQueryCount() {
+        return slowQueryCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void setSlowQueryThreshold(long threshold) {
+        this.slowQueryThreshold = threshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getTopQueries() {
+        Statement[] top = getTopStatements(TOP_QUERIES);
+        String[] lines = new String[top.length];
+        for (int i = 0; i < top.length; i++) {
+            lines[i] = top[i].toString();
+        }
+        return lines;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getSlowQueries() {
+        QueryStat[] stats = getSlowQueryStats();
+        String[] lines = new String[stats.length];
+        for (int i = 0; i < stats.length; i++) {
+            lines[i] = stats[i].toString();
+        }
+        return lines;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void reset() {
+        statements.clear();
+        slowQueries.clear();
+        queryCount = 0;
+        totalQueryTime = 0;
+        slowQueryCount = 0;
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Returns the platform MBean server if available, otherwise the first
+     * MBean server found or a new one.
+     *
+     * @return a MBean server, a <code>javax.management.MBeanServer</code>.
+     * @throws Exception if JMX is not available.
+     */
+    private static Object getMBeanServer() throws Exception {
+        try {
+            // java.lang.management is not available on Java 1.4
+            Class factory = Class.forName("java.lang.management.ManagementFactory");
+            return invoke(factory, null, "getPlatformMBeanServer",
+                    new Class[0], new Object[0]);
+        } catch (ClassNotFoundException e) {
+            Class factory = Class.forName("javax.management.MBeanServerFactory");
+            List servers = (List) invoke(factory, null, "findMBeanServer",
+                    new Class[]{String.class}, new Object[]{null});
+            if (servers.isEmpty()) {
+                return invoke(factory, null, "createMBeanServer",
+                        new Class[0], new Object[0]);
+            } else {
+                return servers.get(0);
+            }
+        }
+    }
+
+    /**
+     * Invokes a public method through reflection.
+     *
+     * @param type   the class or interface that declares the method.
+     * @param target the object or <code>null</code> for a static method.
+     * @param name   the name of the method.
+     * @param types  the parameter types.
+     * @param args   the arguments.
+     * @return the return value of the method.
+     * @throws Exception if the method cannot be invoked or throws an
+     *                   exception.
+     */
+    private static Object invoke(Class type, Object target, String name,
+                                 Class[] types, Object[] args)
+            throws Exception {
+        Method m = type.getMethod(name, types);
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getTargetException();
+            if (t instanceof Exception) {
+                throw (Exception) t;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The aggregated statistics of a statement.
+     */
+    public static final class Statement {
+
+        /**
+         * The query statement.
+         */
+        private final String statement;
+
+        /**
+         * The syntax of the query statement.
+         */
+        private final String language;
+
+        /**
+         * The number of executions, their total and maximum time.
+         */
+        private long count, totalTime, maxTime;
+
+        /**
+         * The statistics of the last execution.
+         */
+        private QueryStat last;
+
+        Statement(String statement, String language) {
+            this.statement = statement;
+            this.language = language;
+        }
+
+        /**
+         * Adds the statistics of an execution of this statement.
+         *
+         * @param stat the statistics of the execution.
+         */
+        private void add(QueryStat stat) {
+            long time = stat.getTotalTime();
+            count++;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+            last = stat;
+        }
+
+        /**
+         * @return the query statement.
+         */
+        public String getStatement() {
+            return statement;
+        }
+
+        /**
+         * @return the syntax of the query statement.
+         */
+        public String getLanguage() {
+            return language;
+        }
+
+        /**
+         * @return the number of executions.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the total time of all executions in milliseconds.
+         */
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * @return the longest execution time in milliseconds.
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        /**
+         * @return the statistics of the last execution.
+         */
+        public QueryStat getLastExecution() {
+            return last;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String toString() {
+            StringBuffer sb = new StringBuffer();
+            sb.append("count=").append(count);
+            sb.append(", total=").append(totalTime).append(" ms");
+            sb.append(", max=").append(maxTime).append(" ms");
+            sb.append(", last=").append(last);
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * <code>QueryStatisticsMBean</code> is the management interface of
+ * {@link QueryStatistics}.
+ */
+public interface QueryStatisticsMBean {
+
+    /**
+     * @return the number of executed queries.
+     */
+    long getQueryCount();
+
+    /**
+     * @return the total execution time of all queries in milliseconds.
+     */
+    long getTotalQueryTime();
+
+    /**
+     * @return the number of queries that took longer than the slow query
+     *         threshold.
+     */
+    long getSlowQueryCount();
+
+    /**
+     * @return the time in milliseconds after which a query is logged as
+     *         slow. Zero if slow queries are not logged.
+     */
+    long getSlowQueryThreshold();
+
+    /**
+     * Sets the time in milliseconds after which a query is logged as slow.
+     *
+     * @param threshold the threshold or zero to disable the slow query log.
+     */
+    void setSlowQueryThreshold(long threshold);
+
+    /**
+     * @return the statements with the highest total execution time, one
+     *         line per statement.
+     */
+    String[] getTopQueries();
+
+    /**
+     * @return the most recent slow queries, one line per query.
+     */
+    String[] getSlowQueries();
+
+    /**
+     * Clears all statistics.
+     */
+    void reset();
+}
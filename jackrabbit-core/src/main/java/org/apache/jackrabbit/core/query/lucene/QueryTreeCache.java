@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.query.InvalidQueryException;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
+import org.apache.jackrabbit.spi.commons.conversion.NameResolver;
+import org.apache.jackrabbit.spi.commons.query.QueryNodeFactory;
+import org.apache.jackrabbit.spi.commons.query.QueryParser;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implements a cache of parsed query trees with a fixed size and a LRU
+ * strategy. The cache is shared by all sessions of a workspace and returns
+ * the same <code>QueryRootNode</code> instance for a statement as long as
+ * the JCR names in the statement resolve to the same qualified names. That
+ * is, the query tree is only re-used if the namespace mappings of the
+ * session, which were used to parse the statement, are still the same.
+ * <p/>
+ * The query trees returned by this cache must be treated read-only.
+ */
+class QueryTreeCache {
+
+    /**
+     * Logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(QueryTreeCache.class);
+
+    /**
+     * Log cache statistics at most every 10 seconds.
+     */
+    private static final long LOG_INTERVAL = 1000 * 10;
+
+    /**
+     * LRU Map where key=language + statement value=Entry
+     */
+    private final LRUMap trees;
+
+    /**
+     * Timestamp of the last cache statistics log.
+     */
+    private long lastLog;
+
+    /**
+     * Cache misses.
+     */
+    private long misses;
+
+    /**
+     * Cache accesses;
+     */
+    private long accesses;
+
+    /**
+     * Creates a new <code>QueryTreeCache</code> with a limiting
+     * <code>size</code>.
+     *
+     * @param size the cache limit.
+     */
+    QueryTreeCache(int size) {
+        trees = new LRUMap(size);
+    }
+
+    /**
+     * Returns the query tree for the given <code>statement</code>. The
+     * statement is parsed if the cache does not contain a tree for it or if
+     * the names in the statement resolve to different qualified names with
+     * the given <code>resolver</code>.
+     *
+     * @param statement the query statement.
+     * @param language  the syntax of the query statement.
+     * @param resolver  the name resolver of the session.
+     * @param factory   the query node factory.
+     * @return the query tree.
+     * @throws InvalidQueryException if the query statement is invalid
+     *                               according to the specified
+     *                               <code>language</code>.
+     */
+    QueryRootNode getQueryTree(String statement,
+                               String language,
+                               NameResolver resolver,
+                               QueryNodeFactory factory)
+            throws InvalidQueryException {
+        String key = language + '\uFFFF' + statement;
+        Entry entry;
+        synchronized (trees) {
+            entry = (Entry) trees.get(key);
+        }
+        if (entry != null && !entry.isValid(resolver)) {
+            entry = null;
+        }
+        if (log.isInfoEnabled()) {
+            logStatistics(entry == null);
+        }
+        if (entry == null) {
+            RecordingNameResolver recorder = new RecordingNameResolver(resolver);
+            QueryRootNode root = QueryParser.parse(
+                    statement, language, recorder, factory);
+            entry = new Entry(root, recorder.names);
+            synchronized (trees) {
+                trees.put(key, entry);
+            }
+        }
+        return entry.root;
+    }
+
+    /**
+     * Logs the cache statistics at most after 1000 accesses and every 10
+     * seconds.
+     *
+     * @param miss whether the current access is a cache miss.
+     */
+    private synchronized void logStatistics(boolean miss) {
+        accesses++;
+        if (miss) {
+            misses++;
+        }
+        if (accesses > 1000 && System.currentTimeMillis() - lastLog > LOG_INTERVAL) {
+            long ratio = 100;
+            if (misses != 0) {
+                ratio -= misses * 100L / accesses;
+            }
+            StringBuffer statistics = new StringBuffer();
+            synchronized (trees) {
+                statistics.append("size=").append(trees.size());
+                statistics.append("/").append(trees.maxSize());
+            }
+            statistics.append(", #accesses=").append(accesses);
+            statistics.append(", #hits=").append((accesses - misses));
+            statistics.append(", #misses=").append(misses);
+            statistics.append(", cacheRatio=").append(ratio).append("%");
+            log.info(statistics.toString());
+            accesses = 0;
+            misses = 0;
+            lastLog = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A parsed query tree and the names that were resolved while the
+     * statement was parsed.
+     */
+    private static final class Entry {
+
+        /**
+         * The query tree.
+         */
+        final QueryRootNode root;
+
+        /**
+         * The resolved names. key=JCR name, value=qualified
+         * <code>Name</code> or <code>null</code> if the JCR name could not
+         * be resolved.
+         */
+        final Map names;
+
+        Entry(QueryRootNode root, Map names) {
+            this.root = root;
+            this.names = names;
+        }
+
+        /**
+         * Returns <code>true</code> if all names resolve to the same
+         * qualified names with the given <code>resolver</code>.
+         *
+         * @param resolver the name resolver of a session.
+         * @return <code>true</code> if the query tree can be re-used.
+         */
+        boolean isValid(NameResolver resolver) {
+            for (Iterator it = names.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry e = (Map.Entry) it.next();
+                Name name;
+                try {
+                    name = resolver.getQName((String) e.getKey());
+                } catch (IllegalNameException ex) {
+                    name = null;
+                } catch (NamespaceException ex) {
+                    name = null;
+                }
+                if (name == null ? e.getValue() != null : !name.equals(e.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A name resolver that records the names resolved by the query parser.
+     */
+    private static final class RecordingNameResolver implements NameResolver {
+
+        /**
+         * The underlying name resolver.
+         */
+        private final NameResolver resolver;
+
+        /**
+         * The resolved names.
+         */
+        private final Map names = new HashMap();
+
+        RecordingNameResolver(NameResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Name getQName(String name)
+                throws IllegalNameException, NamespaceException {
+            Name qName = null;
+            try {
+                qName = resolver.getQName(name);
+                return qName;
+            } finally {
+                names.put(name, qName);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getJCRName(Name name) throws NamespaceException {
+            return resolver.getJCRName(name);
+        }
+    }
+}
@@ -166,6 +166,32 @@ public class RangeQuery extends Query implements Transformable {
         return buffer.toString();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof RangeQuery) {
+            RangeQuery other = (RangeQuery) obj;
+            return (lowerTerm == null ? other.lowerTerm == null : lowerTerm.equals(other.lowerTerm))
+                    && (upperTerm == null ? other.upperTerm == null : upperTerm.equals(other.upperTerm))
+                    && inclusive == other.inclusive
+                    && transform == other.transform
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = (lowerTerm == null ? 0 : lowerTerm.hashCode());
+        h = 31 * h + (upperTerm == null ? 0 : upperTerm.hashCode());
+        h = 31 * h + (inclusive ? 1 : 0);
+        h = 31 * h + transform;
+        return h ^ Float.floatToIntBits(getBoost());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -311,7 +337,7 @@ public class RangeQuery extends Query implements Transformable {
 
             BitSet result = (BitSet) resultMap.get(cacheKey);
             if (result == null) {
-                result = new BitSet(reader.maxDoc());
+                result = cache.getBitSet();
             } else {
                 hitsCalculated = true;
             }
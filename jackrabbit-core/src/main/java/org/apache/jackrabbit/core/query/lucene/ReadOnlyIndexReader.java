@@ -120,6 +120,21 @@ class ReadOnlyIndexReader extends RefCountingIndexReader {
         return getBase().getParent(n, deleted);
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is a document in this index.
+     *
+     * @param n the document number.
+     * @return the document number of <code>n</code>'s parent, <code>-1</code>
+     *         if <code>n</code> does not have a parent or
+     *         {@link CachingIndexReader#FOREIGN_PARENT} if the parent is not a
+     *         document in this index.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public int getParentDoc(int n) throws IOException {
+        return getBase().getParentDoc(n, deleted);
+    }
+
     /**
      * Returns the {@link SharedIndexReader} this reader is based on.
      *
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+
+/**
+ * <code>ReaderQueryHits</code> wraps the query hits of a search index
+ * together with the index reader the query was executed on. The document
+ * numbers of the returned {@link ScoreNode}s are valid for this reader until
+ * the hits are closed, which releases the reader.
+ * <p/>
+ * The hits own the {@link PerQueryCache} the query was executed with. The
+ * cache is the current cache of the thread while the hits are scored and is
+ * disposed when the hits are closed.
+ */
+class ReaderQueryHits extends FilterMultiColumnQueryHits {
+
+    /**
+     * The index reader the query was executed on.
+     */
+    private final IndexReader reader;
+
+    /**
+     * The cache the query was executed with.
+     */
+    private final PerQueryCache cache;
+
+    /**
+     * Creates new query hits.
+     *
+     * @param hits   the underlying query hits.
+     * @param reader the index reader the query was executed on.
+     * @param cache  the cache the query was executed with.
+     */
+    ReaderQueryHits(MultiColumnQueryHits hits,
+                    IndexReader reader,
+                    PerQueryCache cache) {
+        super(hits);
+        this.reader = reader;
+        this.cache = cache;
+    }
+
+    /**
+     * @return the index reader the query was executed on.
+     */
+    IndexReader getIndexReader() {
+        return reader;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScoreNode[] nextScoreNodes() throws IOException {
+        PerQueryCache previous = PerQueryCache.enter(cache);
+        try {
+            return super.nextScoreNodes();
+        } finally {
+            PerQueryCache.leave(previous);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void skip(int n) throws IOException {
+        PerQueryCache previous = PerQueryCache.enter(cache);
+        try {
+            super.skip(n);
+        } finally {
+            PerQueryCache.leave(previous);
+        }
+    }
+
+    /**
+     * Closes the underlying hits, disposes the cache of the query and
+     * releases the index reader.
+     *
+     * @throws IOException if an error occurs while closing the hits.
+     */
+    public void close() throws IOException {
+        PerQueryCache previous = PerQueryCache.enter(cache);
+        try {
+            super.close();
+        } finally {
+            PerQueryCache.leave(previous);
+            cache.dispose();
+            Util.closeOrRelease(reader);
+        }
+    }
+}
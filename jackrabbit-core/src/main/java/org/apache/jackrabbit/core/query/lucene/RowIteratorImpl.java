@@ -21,12 +21,15 @@ import org.apache.jackrabbit.core.PropertyImpl;
 import org.apache.jackrabbit.core.NodeId;
 import org.apache.jackrabbit.core.ItemManager;
 import org.apache.jackrabbit.core.HierarchyManager;
+import org.apache.jackrabbit.core.security.AccessManager;
 import org.apache.jackrabbit.spi.commons.conversion.NameException;
 import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
 import org.apache.jackrabbit.spi.QValueFactory;
 import org.apache.jackrabbit.spi.QValue;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.value.QValueFactoryImpl;
 import org.apache.jackrabbit.spi.commons.value.ValueFactoryQImpl;
@@ -50,6 +53,7 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.io.IOException;
 
 /**
@@ -135,6 +139,19 @@ class RowIteratorImpl implements RowIterator {
      */
     private final ValueFactoryQImpl valueFactory;
 
+    /**
+     * The property values stored in the index for the result nodes or
+     * <code>null</code> if values are always read from the nodes.
+     * <p/>
+     * The exact type is: <code>Map&lt;NodeId, StoredValues></code>
+     */
+    private final Map storedValues;
+
+    /**
+     * The access manager of the session that executes the query.
+     */
+    private final AccessManager accessMgr;
+
     /**
      * Creates a new <code>RowIteratorImpl</code> that iterates over the result
      * nodes.
@@ -152,6 +169,11 @@ class RowIteratorImpl implements RowIterator {
      *                        result that created this row iterator.
      * @param spellSuggestion the spell suggestion associated with the query
      *                        result or <code>null</code> if none is available.
+     * @param storedValues    the property values stored in the index for the
+     *                        result nodes or <code>null</code> if values must
+     *                        be read from the nodes.
+     * @param accessMgr       the access manager of the session that executes
+     *                        the query.
      */
     RowIteratorImpl(ScoreNodeIterator scoreNodes,
                     Name[] properties,
@@ -160,7 +182,9 @@ class RowIteratorImpl implements RowIterator {
                     HierarchyManager hmgr,
                     NamePathResolver resolver,
                     ExcerptProvider exProvider,
-                    SpellSuggestion spellSuggestion) {
+                    SpellSuggestion spellSuggestion,
+                    Map storedValues,
+                    AccessManager accessMgr) {
         this.scoreNodes = scoreNodes;
         this.properties = properties;
         this.selectorNames.addAll(Arrays.asList(selectorNames));
@@ -170,6 +194,8 @@ class RowIteratorImpl implements RowIterator {
         this.excerptProvider = exProvider;
         this.spellSuggestion = spellSuggestion;
         this.valueFactory = new ValueFactoryQImpl(QVALUE_FACTORY, resolver);
+        this.storedValues = storedValues;
+        this.accessMgr = accessMgr;
     }
 
     /**
@@ -296,7 +322,15 @@ class RowIteratorImpl implements RowIterator {
             if (values == null) {
                 Value[] tmp = new Value[properties.length];
                 for (int i = 0; i < properties.length; i++) {
-                    if (getNodeImpl().hasProperty(properties[i])) {
+                    StoredValues stored = getStoredValues(properties[i]);
+                    if (stored != null) {
+                        tmp[i] = stored.getValue(properties[i], resolver, valueFactory);
+                    } else if (NameConstants.JCR_PATH.equals(properties[i])
+                            && node == null && storedValues != null) {
+                        // no transient changes, avoid loading the node
+                        QValue p = QVALUE_FACTORY.create(hmgr.getPath(sn[0].getNodeId()));
+                        tmp[i] = valueFactory.createValue(p);
+                    } else if (getNodeImpl().hasProperty(properties[i])) {
                         PropertyImpl prop = getNodeImpl().getProperty(properties[i]);
                         if (!prop.getDefinition().isMultiple()) {
                             if (prop.getDefinition().getRequiredType() == PropertyType.UNDEFINED) {
@@ -361,9 +395,12 @@ class RowIteratorImpl implements RowIterator {
                         throw new ItemNotFoundException(propertyName);
                     }
                 }
+                StoredValues stored = getStoredValues(prop);
                 if (NameConstants.JCR_PATH.equals(prop)) {
                     QValue p = QVALUE_FACTORY.create(hmgr.getPath(sn[0].getNodeId()));
                     return valueFactory.createValue(p);
+                } else if (stored != null) {
+                    return stored.getValue(prop, resolver, valueFactory);
                 } else if (getNodeImpl().hasProperty(prop)) {
                     PropertyImpl p = (PropertyImpl)
                         getNodeImpl().getProperty(prop);
@@ -541,6 +578,38 @@ class RowIteratorImpl implements RowIterator {
             return node;
         }
 
+        /**
+         * Returns the values stored in the index for the node of this row if
+         * they contain the value of the property with the given name and the
+         * session is allowed to read the property.
+         *
+         * @param name the name of a property.
+         * @return the stored values or <code>null</code> if the value must be
+         *         read from the node.
+         * @throws RepositoryException if the name cannot be translated or the
+         *                             access check fails.
+         */
+        private StoredValues getStoredValues(Name name)
+                throws RepositoryException {
+            if (storedValues == null || node != null
+                    || NameConstants.JCR_PATH.equals(name)
+                    || NameConstants.JCR_SCORE.equals(name)) {
+                return null;
+            }
+            StoredValues stored = (StoredValues) storedValues.get(sn[0].getNodeId());
+            if (stored == null || !stored.isAvailable(name)) {
+                return null;
+            }
+            // read access on the node does not imply read access on
+            // its properties
+            Path path = PathFactoryImpl.getInstance().create(
+                    hmgr.getPath(sn[0].getNodeId()), name, true);
+            if (!accessMgr.canRead(path)) {
+                return null;
+            }
+            return stored;
+        }
+
         /**
          * Checks if there is a single selector and otherwise throws a
          * RepositoryException.
@@ -31,6 +31,9 @@ import org.apache.jackrabbit.core.query.QueryHandler;
 import org.apache.jackrabbit.core.query.QueryHandlerContext;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
+import org.apache.jackrabbit.core.query.lucene.hits.Hits;
+import org.apache.jackrabbit.core.query.lucene.hits.ScorerHits;
+import org.apache.jackrabbit.core.security.AccessManager;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.NodeStateIterator;
 import org.apache.jackrabbit.core.state.ItemStateManager;
@@ -43,7 +46,9 @@ import org.apache.jackrabbit.spi.Path;
 import org.apache.jackrabbit.spi.PathFactory;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.query.DefaultQueryNodeFactory;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
 import org.apache.jackrabbit.spi.commons.query.qom.QueryObjectModelTree;
 import org.apache.jackrabbit.uuid.UUID;
 import org.slf4j.Logger;
@@ -54,7 +59,10 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermPositions;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.Similarity;
@@ -69,6 +77,9 @@ import org.apache.commons.collections.Transformer;
 import org.xml.sax.SAXException;
 import org.w3c.dom.Element;
 
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.NamespaceException;
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.InvalidQueryException;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -83,9 +94,11 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Collection;
+import java.util.StringTokenizer;
 
 /**
  * Implements a {@link org.apache.jackrabbit.core.query.QueryHandler} using
@@ -137,6 +150,11 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public static final int DEFAULT_MERGE_FACTOR = 10;
 
+    /**
+     * The default value for property {@link #maxConcurrentMerges}.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_MERGES = 2;
+
     /**
      * the default value for property {@link #maxFieldLength}.
      */
@@ -166,6 +184,26 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public static final int DEFAULT_TERM_INFOS_INDEX_DIVISOR = 1;
 
+    /**
+     * The default value for property {@link #accessCheckSampleSize}.
+     */
+    public static final int DEFAULT_ACCESS_CHECK_SAMPLE_SIZE = 100;
+
+    /**
+     * The default value for property {@link #textCacheSize}: 100 MB.
+     */
+    public static final long DEFAULT_TEXT_CACHE_SIZE = 100 * 1024 * 1024;
+
+    /**
+     * The default value for property {@link #queryTreeCacheSize}.
+     */
+    public static final int DEFAULT_QUERY_TREE_CACHE_SIZE = 1000;
+
+    /**
+     * The default value for property {@link #queryStatisticsSize}.
+     */
+    public static final int DEFAULT_QUERY_STATISTICS_SIZE = 100;
+
     /**
      * The path factory.
      */
@@ -214,6 +252,25 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private TextExtractor extractor;
 
+    /**
+     * Directory of the cache for text extracted from binaries in the data
+     * store. If <code>null</code> the cache is disabled.
+     */
+    private String textCacheDirectory;
+
+    /**
+     * The maximum size in bytes of the text cache directory.
+     * <p/>
+     * Default value is: {@link #DEFAULT_TEXT_CACHE_SIZE}.
+     */
+    private long textCacheSize = DEFAULT_TEXT_CACHE_SIZE;
+
+    /**
+     * The cache for text extracted from binaries in the data store or
+     * <code>null</code> if the cache is disabled.
+     */
+    private ExtractedTextCache textCache;
+
     /**
      * The namespace mappings used internally.
      */
@@ -252,6 +309,19 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int mergeFactor = DEFAULT_MERGE_FACTOR;
 
+    /**
+     * maxConcurrentMerges config parameter
+     */
+    private int maxConcurrentMerges = DEFAULT_MAX_CONCURRENT_MERGES;
+
+    /**
+     * The maximum rate in megabytes per second at which index merges write
+     * to disk. A value of zero disables the limit.
+     * <p/>
+     * Default value is: <code>0</code>.
+     */
+    private int maxMergeRate = 0;
+
     /**
      * maxFieldLength config parameter
      */
@@ -331,6 +401,89 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int resultFetchSize = Integer.MAX_VALUE;
 
+    /**
+     * The number of matches that are access checked when the total size of a
+     * query result is estimated.
+     * <p/>
+     * Default value is: {@link #DEFAULT_ACCESS_CHECK_SAMPLE_SIZE}.
+     */
+    private int accessCheckSampleSize = DEFAULT_ACCESS_CHECK_SAMPLE_SIZE;
+
+    /**
+     * The maximum number of parsed query trees that are cached. A value of
+     * zero disables the cache.
+     * <p/>
+     * Default value is: {@link #DEFAULT_QUERY_TREE_CACHE_SIZE}.
+     */
+    private int queryTreeCacheSize = DEFAULT_QUERY_TREE_CACHE_SIZE;
+
+    /**
+     * The cache of parsed query trees or <code>null</code> if the cache is
+     * disabled.
+     */
+    private QueryTreeCache queryTreeCache;
+
+    /**
+     * The maximum number of query hits lists that are cached. A value of
+     * zero disables the cache.
+     * <p/>
+     * Default value is: <code>0</code> (disabled).
+     */
+    private int queryResultCacheSize;
+
+    /**
+     * The cache of query hits or <code>null</code> if the cache is disabled.
+     */
+    private QueryResultCache queryResultCache;
+
+    /**
+     * The maximum number of threads that score the index segments of a
+     * single query. A value of one scores all segments on the thread that
+     * executes the query.
+     * <p/>
+     * Default value is: <code>1</code> (disabled).
+     */
+    private int queryParallelism = 1;
+
+    /**
+     * If set <code>true</code> an existing index in format version 3 is
+     * rewritten once on startup to add the trie encoded long, double and
+     * date values. If <code>false</code> such an index is left unchanged and
+     * range queries on these values are executed without the trie terms.
+     * <p/>
+     * Default value is: <code>false</code>.
+     */
+    private boolean trieMigration = false;
+
+    /**
+     * The maximum number of statements for which query statistics are
+     * collected. A value of zero disables query statistics.
+     * <p/>
+     * Default value is: {@link #DEFAULT_QUERY_STATISTICS_SIZE}.
+     */
+    private int queryStatisticsSize = DEFAULT_QUERY_STATISTICS_SIZE;
+
+    /**
+     * The time in milliseconds after which a query is logged as slow. A value
+     * of zero disables the slow query log.
+     * <p/>
+     * Default value is: <code>0</code> (disabled).
+     */
+    private long slowQueryThreshold;
+
+    /**
+     * If set to <code>true</code> the query statistics are registered as a
+     * JMX MBean.
+     * <p/>
+     * Default value is: <code>false</code>.
+     */
+    private boolean queryStatisticsMBean;
+
+    /**
+     * The query statistics or <code>null</code> if disabled.
+     */
+    private QueryStatistics queryStatistics;
+
     /**
      * If set to <code>true</code> the fulltext field is stored and and a term
      * vector is created with offset information.
@@ -360,6 +513,15 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private IndexingConfiguration indexingConfig;
 
+    /**
+     * The names of the configured lower-case properties whose string values
+     * are indexed lower-cased for all nodes in this index. Determined when
+     * the index is initialized.
+     * <p/>
+     * The exact type is: <code>Set&lt;Name></code>
+     */
+    private Set lowerCaseIndexed = Collections.EMPTY_SET;
+
     /**
      * The indexing configuration class.
      * Implements {@link IndexingConfiguration}.
@@ -471,6 +633,22 @@ public class SearchIndex extends AbstractQueryHandler {
         }
 
         extractor = createTextExtractor();
+        textCache = createExtractedTextCache();
+        if (queryTreeCacheSize > 0) {
+            queryTreeCache = new QueryTreeCache(queryTreeCacheSize);
+        }
+        if (queryResultCacheSize > 0) {
+            queryResultCache = new QueryResultCache(queryResultCacheSize);
+        }
+        if (queryStatisticsSize > 0) {
+            queryStatistics = new QueryStatistics(
+                    queryStatisticsSize, slowQueryThreshold);
+            if (queryStatisticsMBean) {
+                queryStatistics.register(
+                        "org.apache.jackrabbit:type=QueryStatistics,index="
+                        + QueryStatistics.quote(path));
+            }
+        }
         synProvider = createSynonymProvider();
         directoryManager = createDirectoryManager();
 
@@ -534,6 +712,8 @@ public class SearchIndex extends AbstractQueryHandler {
             }
         }
 
+        lowerCaseIndexed = checkLowerCaseProperties();
+
         // initialize spell checker
         spellChecker = createSpellChecker();
 
@@ -665,8 +845,19 @@ public class SearchIndex extends AbstractQueryHandler {
                                              String statement,
                                              String language)
             throws InvalidQueryException {
-        QueryImpl query = new QueryImpl(session, itemMgr, this,
-                getContext().getPropertyTypeRegistry(), statement, language, getQueryNodeFactory());
+        long time = System.currentTimeMillis();
+        QueryImpl query;
+        if (queryTreeCache != null) {
+            QueryRootNode root = queryTreeCache.getQueryTree(
+                    statement, language, session, getQueryNodeFactory());
+            query = new QueryImpl(session, itemMgr, this,
+                    getContext().getPropertyTypeRegistry(), root);
+        } else {
+            query = new QueryImpl(session, itemMgr, this,
+                    getContext().getPropertyTypeRegistry(), statement, language, getQueryNodeFactory());
+        }
+        query.setStatement(statement, language,
+                System.currentTimeMillis() - time);
         query.setRespectDocumentOrder(documentOrder);
         return query;
     }
@@ -708,6 +899,9 @@ public class SearchIndex extends AbstractQueryHandler {
      * to this handler.
      */
     public void close() {
+        if (queryStatistics != null) {
+            queryStatistics.unregister();
+        }
         if (synonymProviderConfigFs != null) {
             try {
                 synonymProviderConfigFs.close();
@@ -754,21 +948,49 @@ public class SearchIndex extends AbstractQueryHandler {
         Sort sort = new Sort(createSortFields(orderProps, orderSpecs));
 
         final IndexReader reader = getIndexReader(queryImpl.needsSystemTree());
-        JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
-                session, reader, getContext().getItemStateManager());
-        searcher.setSimilarity(getSimilarity());
-        return new FilterMultiColumnQueryHits(
-                searcher.execute(query, sort, resultFetchHint,
-                        QueryImpl.DEFAULT_SELECTOR_NAME)) {
-            public void close() throws IOException {
-                try {
-                    super.close();
-                } finally {
-                    PerQueryCache.getInstance().dispose();
-                    Util.closeOrRelease(reader);
+        QueryStat stat = QueryStat.getCurrent();
+        if (stat != null) {
+            stat.setIndexReaders(countIndexReaders(reader));
+        }
+        PerQueryCache cache = new PerQueryCache();
+        PerQueryCache previous = PerQueryCache.enter(cache);
+        boolean success = false;
+        try {
+            QueryHits hits = null;
+            QueryResultCache.Key key = null;
+            long[] generations = null;
+            if (queryResultCache != null) {
+                generations = QueryResultCache.getGenerations(reader);
+                if (generations != null) {
+                    key = new QueryResultCache.Key(query, orderProps,
+                            orderSpecs, queryImpl.needsSystemTree());
+                    hits = queryResultCache.getHits(key, generations);
+                }
+            }
+            if (hits == null) {
+                JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                        session, reader, getContext().getItemStateManager());
+                searcher.setSimilarity(getSimilarity());
+                searcher.setParallelism(queryParallelism);
+                hits = searcher.evaluate(query, sort, resultFetchHint);
+                // only cache hits that do not depend on the session
+                if (key != null && (hits instanceof LuceneQueryHits
+                        || hits instanceof SortedLuceneQueryHits)) {
+                    hits = queryResultCache.record(key, generations, hits);
                 }
             }
-        };
+            MultiColumnQueryHits result = new ReaderQueryHits(
+                    new QueryHitsAdapter(hits, QueryImpl.DEFAULT_SELECTOR_NAME),
+                    reader, cache);
+            success = true;
+            return result;
+        } finally {
+            PerQueryCache.leave(previous);
+            if (!success) {
+                cache.dispose();
+                Util.closeOrRelease(reader);
+            }
+        }
     }
 
     /**
@@ -795,20 +1017,131 @@ public class SearchIndex extends AbstractQueryHandler {
         Sort sort = new Sort(createSortFields(orderProps, orderSpecs));
 
         final IndexReader reader = getIndexReader();
-        JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
-                session, reader, getContext().getItemStateManager());
-        searcher.setSimilarity(getSimilarity());
-        return new FilterMultiColumnQueryHits(
-                query.execute(searcher, sort, resultFetchHint)) {
-            public void close() throws IOException {
-                try {
-                    super.close();
-                } finally {
-                    PerQueryCache.getInstance().dispose();
-                    Util.closeOrRelease(reader);
+        PerQueryCache cache = new PerQueryCache();
+        PerQueryCache previous = PerQueryCache.enter(cache);
+        boolean success = false;
+        try {
+            JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                    session, reader, getContext().getItemStateManager());
+            searcher.setSimilarity(getSimilarity());
+            searcher.setParallelism(queryParallelism);
+            MultiColumnQueryHits result = new ReaderQueryHits(
+                    query.execute(searcher, sort, resultFetchHint),
+                    reader, cache);
+            success = true;
+            return result;
+        } finally {
+            PerQueryCache.leave(previous);
+            if (!success) {
+                cache.dispose();
+                Util.closeOrRelease(reader);
+            }
+        }
+    }
+
+    /**
+     * Counts the nodes that match the query. The matches are counted on the
+     * lucene scorer directly and no {@link ScoreNode}s are created. Access
+     * rights are only checked on the first <code>sampleSize</code> matches.
+     * If there are more matches the number of readable nodes is extrapolated
+     * from the sample.
+     *
+     * @param session    the session that executes the query.
+     * @param queryImpl  the query impl.
+     * @param query      the lucene query.
+     * @param sampleSize the maximum number of matches to access check. Pass
+     *                   {@link Integer#MAX_VALUE} to get the exact number.
+     * @return the number of readable nodes that match the query.
+     * @throws IOException         if an error occurs while searching the index.
+     * @throws RepositoryException if an error occurs while checking access
+     *                             rights.
+     */
+    public long countHits(SessionImpl session,
+                          AbstractQueryImpl queryImpl,
+                          Query query,
+                          int sampleSize)
+            throws IOException, RepositoryException {
+        checkOpen();
+
+        IndexReader reader = getIndexReader(queryImpl.needsSystemTree());
+        PerQueryCache cache = new PerQueryCache();
+        PerQueryCache previous = PerQueryCache.enter(cache);
+        try {
+            JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                    session, reader, getContext().getItemStateManager());
+            searcher.setSimilarity(getSimilarity());
+            Scorer scorer = query.weight(searcher).scorer(reader);
+            if (scorer == null) {
+                return 0;
+            }
+            AccessManager accessMgr = session.getAccessManager();
+            Hits hits = new ScorerHits(scorer);
+            long total = 0;
+            long checked = 0;
+            long granted = 0;
+            for (int doc = hits.next(); doc != -1; doc = hits.next()) {
+                total++;
+                if (checked < sampleSize) {
+                    checked++;
+                    Document d = reader.document(doc, FieldSelectors.UUID);
+                    NodeId id = new NodeId(UUID.fromString(d.get(FieldNames.UUID)));
+                    if (isReadable(accessMgr, id)) {
+                        granted++;
+                    }
+                }
+            }
+            return extrapolate(total, checked, granted);
+        } finally {
+            PerQueryCache.leave(previous);
+            cache.dispose();
+            Util.closeOrRelease(reader);
+        }
+    }
+
+    /**
+     * Counts the rows that match the multi column query. Access rights are
+     * only checked on the first <code>sampleSize</code> rows. If there are
+     * more rows the number of readable rows is extrapolated from the sample.
+     *
+     * @param session    the session that executes the query.
+     * @param query      the query.
+     * @param sampleSize the maximum number of rows to access check. Pass
+     *                   {@link Integer#MAX_VALUE} to get the exact number.
+     * @return the number of readable rows that match the query.
+     * @throws IOException         if an error occurs while searching the index.
+     * @throws RepositoryException if an error occurs while checking access
+     *                             rights.
+     */
+    public long countHits(SessionImpl session,
+                          MultiColumnQuery query,
+                          int sampleSize)
+            throws IOException, RepositoryException {
+        MultiColumnQueryHits hits = executeQuery(session, query,
+                new Path[0], new boolean[0], Integer.MAX_VALUE);
+        try {
+            AccessManager accessMgr = session.getAccessManager();
+            long total = 0;
+            long checked = 0;
+            long granted = 0;
+            ScoreNode[] sn;
+            while ((sn = hits.nextScoreNodes()) != null) {
+                total++;
+                if (checked < sampleSize) {
+                    checked++;
+                    boolean readable = true;
+                    for (int i = 0; i < sn.length && readable; i++) {
+                        readable = sn[i] == null
+                                || isReadable(accessMgr, sn[i].getNodeId());
+                    }
+                    if (readable) {
+                        granted++;
+                    }
                 }
             }
-        };
+            return extrapolate(total, checked, granted);
+        } finally {
+            hits.close();
+        }
     }
 
     /**
@@ -863,6 +1196,29 @@ public class SearchIndex extends AbstractQueryHandler {
         return indexingConfig;
     }
 
+    /**
+     * Returns the names of the properties whose lower-cased string values
+     * can be looked up in {@link FieldNames#LOWER_CASE_PROPERTIES}. A property
+     * is only contained if it is configured as lower-case property and all
+     * nodes in the searched indexes are indexed with the lower-cased values.
+     * Content indexed before the property was configured is only covered
+     * after a re-index.
+     *
+     * @param includeSystemIndex whether the query also searches the parent
+     *                           index with the system tree.
+     * @return the names of the lower-case properties.
+     */
+    public Set getLowerCaseProperties(boolean includeSystemIndex) {
+        QueryHandler handler = getContext().getParentHandler();
+        if (includeSystemIndex && handler instanceof SearchIndex
+                && !lowerCaseIndexed.isEmpty()) {
+            Set names = new HashSet(lowerCaseIndexed);
+            names.retainAll(((SearchIndex) handler).getLowerCaseProperties(false));
+            return names;
+        }
+        return lowerCaseIndexed;
+    }
+
     /**
      * @return the synonym provider of this search index. If none is set for
      *         this search index the synonym provider of the parent handler is
@@ -908,6 +1264,26 @@ public class SearchIndex extends AbstractQueryHandler {
         return getIndexReader(true);
     }
 
+    /**
+     * Returns the property values stored in the index for a document. See
+     * {@link IndexingConfiguration#isStored(Name)}.
+     *
+     * @param reader the index reader the document number is valid for.
+     * @param doc    the document number of a node.
+     * @return the stored values or <code>null</code> if the node was indexed
+     *         without stored values.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    StoredValues getStoredValues(IndexReader reader, int doc)
+            throws IOException {
+        Document document = reader.document(doc, FieldSelectors.STORED_PROPERTIES);
+        String[] values = document.getValues(FieldNames.STORED_PROPERTIES);
+        if (values != null) {
+            return new StoredValues(values, nsMappings);
+        }
+        return null;
+    }
+
     /**
      * Returns the index format version that this search index is able to
      * support when a query is executed on this index.
@@ -1014,7 +1390,9 @@ public class SearchIndex extends AbstractQueryHandler {
                 getContext().getItemStateManager(), nsMappings, extractor);
         indexer.setSupportHighlighting(supportHighlighting);
         indexer.setIndexingConfiguration(indexingConfig);
+        indexer.setNodeTypeRegistry(getContext().getNodeTypeRegistry());
         indexer.setIndexFormatVersion(indexFormatVersion);
+        indexer.setExtractedTextCache(textCache);
         Document doc = indexer.createDoc();
         mergeAggregatedNodeIndexes(node, doc);
         return doc;
@@ -1051,6 +1429,38 @@ public class SearchIndex extends AbstractQueryHandler {
         return txtExtr;
     }
 
+    /**
+     * Factory method to create the <code>ExtractedTextCache</code> instance.
+     *
+     * @return the text cache or <code>null</code> if no text cache directory
+     *         is configured.
+     * @throws IOException if the cache directory cannot be created.
+     */
+    protected ExtractedTextCache createExtractedTextCache() throws IOException {
+        if (textCacheDirectory == null) {
+            return null;
+        }
+        // the version of the text extractors consists of the configured
+        // classes and the implementation version of their packages
+        StringBuffer version = new StringBuffer();
+        StringTokenizer tokenizer = new StringTokenizer(textFilterClasses, ", \t\n\r\f");
+        while (tokenizer.hasMoreTokens()) {
+            String name = tokenizer.nextToken();
+            version.append(name);
+            try {
+                Package pkg = Class.forName(name).getPackage();
+                if (pkg != null && pkg.getImplementationVersion() != null) {
+                    version.append('-').append(pkg.getImplementationVersion());
+                }
+            } catch (ClassNotFoundException e) {
+                // ignore, JackrabbitTextExtractor will report this
+            }
+            version.append(',');
+        }
+        return new ExtractedTextCache(
+                new File(textCacheDirectory), version.toString(), textCacheSize);
+    }
+
     /**
      * @param namespaceMappings The namespace mappings
      * @return the fulltext indexing configuration or <code>null</code> if there
@@ -1118,6 +1528,116 @@ public class SearchIndex extends AbstractQueryHandler {
         }
     }
 
+    /**
+     * Checks which of the configured lower-case properties are indexed
+     * lower-cased for all nodes. A property is skipped if a node has a
+     * string value for it but no lower-cased value, which is the case when
+     * the node was indexed before the property was configured. Such a
+     * property requires a re-index.
+     *
+     * @return the names of the lower-case properties that can be used in
+     *         queries.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    protected Set checkLowerCaseProperties() throws IOException {
+        if (indexingConfig == null) {
+            return Collections.EMPTY_SET;
+        }
+        Name[] names = indexingConfig.getLowerCaseProperties();
+        if (names.length == 0) {
+            return Collections.EMPTY_SET;
+        }
+        if (!index.getIndexFormatVersion().isAtLeast(IndexFormatVersion.V3)) {
+            // property types are not available
+            log.warn("Lower-case properties require a re-index of {}", path);
+            return Collections.EMPTY_SET;
+        }
+        NamePathResolver resolver = NamePathResolverImpl.create(nsMappings);
+        Set available = new HashSet();
+        CachingMultiIndexReader reader = index.getIndexReader();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                String prefix;
+                try {
+                    prefix = FieldNames.createNamedValue(
+                            resolver.getJCRName(names[i]), "");
+                } catch (NamespaceException e) {
+                    // will never happen, prefixes are created on the fly
+                    throw Util.createIOException(e);
+                }
+                BitSet strings = new BitSet();
+                TermPositions positions = reader.termPositions();
+                try {
+                    TermEnum terms = reader.terms(
+                            new Term(FieldNames.PROPERTIES, prefix));
+                    try {
+                        byte[] payload = new byte[1];
+                        do {
+                            Term t = terms.term();
+                            if (t == null
+                                    || t.field() != FieldNames.PROPERTIES
+                                    || !t.text().startsWith(prefix)) {
+                                break;
+                            }
+                            positions.seek(terms);
+                            while (positions.next()) {
+                                positions.nextPosition();
+                                if (!positions.isPayloadAvailable()) {
+                                    continue;
+                                }
+                                payload = positions.getPayload(payload, 0);
+                                if (PropertyMetaData.fromByteArray(payload).getPropertyType()
+                                        == PropertyType.STRING) {
+                                    strings.set(positions.doc());
+                                }
+                            }
+                        } while (terms.next());
+                    } finally {
+                        terms.close();
+                    }
+                } finally {
+                    positions.close();
+                }
+                if (!strings.isEmpty()) {
+                    TermDocs docs = reader.termDocs();
+                    try {
+                        TermEnum terms = reader.terms(
+                                new Term(FieldNames.LOWER_CASE_PROPERTIES, prefix));
+                        try {
+                            do {
+                                Term t = terms.term();
+                                if (t == null
+                                        || t.field() != FieldNames.LOWER_CASE_PROPERTIES
+                                        || !t.text().startsWith(prefix)) {
+                                    break;
+                                }
+                                docs.seek(terms);
+                                while (docs.next()) {
+                                    strings.clear(docs.doc());
+                                }
+                            } while (terms.next());
+                        } finally {
+                            terms.close();
+                        }
+                    } finally {
+                        docs.close();
+                    }
+                }
+                if (strings.isEmpty()) {
+                    available.add(names[i]);
+                } else {
+                    log.warn("Values of property {} are not indexed lower-cased "
+                            + "for {} nodes. Please re-index {} to use them in "
+                            + "queries.", new Object[]{names[i],
+                            new Integer(strings.cardinality()), path});
+                }
+            }
+        } finally {
+            reader.release();
+        }
+        return Collections.unmodifiableSet(available);
+    }
+
     /**
      * Creates a file system resource to the synonym provider configuration.
      *
@@ -1465,6 +1985,16 @@ public class SearchIndex extends AbstractQueryHandler {
          */
         public int[] getParents(int n, int[] docNumbers) throws IOException {
             int i = readerIndex(n);
+            int parent = subReaders[i].getParentDoc(n - starts[i]);
+            if (parent >= 0) {
+                if (docNumbers.length != 1) {
+                    docNumbers = new int[1];
+                }
+                docNumbers[0] = parent + starts[i];
+                return docNumbers;
+            } else if (parent == -1) {
+                return DocId.EMPTY;
+            }
             DocId id = subReaders[i].getParentDocId(n - starts[i]);
             id = id.applyOffset(starts[i]);
             return id.getDocumentNumbers(this, docNumbers);
@@ -1705,6 +2235,40 @@ public class SearchIndex extends AbstractQueryHandler {
         return mergeFactor;
     }
 
+    /**
+     * Sets the maximum number of index merges that run at the same time.
+     *
+     * @param maxConcurrentMerges the maximum number of concurrent merges.
+     */
+    public void setMaxConcurrentMerges(int maxConcurrentMerges) {
+        this.maxConcurrentMerges = maxConcurrentMerges;
+    }
+
+    /**
+     * @return the maximum number of index merges that run at the same time.
+     */
+    public int getMaxConcurrentMerges() {
+        return maxConcurrentMerges;
+    }
+
+    /**
+     * Sets the maximum rate in megabytes per second at which all running
+     * index merges write to disk together. A value of zero disables the
+     * limit.
+     *
+     * @param maxMergeRate the maximum merge rate in megabytes per second.
+     */
+    public void setMaxMergeRate(int maxMergeRate) {
+        this.maxMergeRate = maxMergeRate;
+    }
+
+    /**
+     * @return the maximum merge rate in megabytes per second.
+     */
+    public int getMaxMergeRate() {
+        return maxMergeRate;
+    }
+
     /**
      * @see VolatileIndex#setBufferSize(int)
      */
@@ -1803,6 +2367,24 @@ public class SearchIndex extends AbstractQueryHandler {
         return resultFetchSize;
     }
 
+    /**
+     * Sets the number of matches that are access checked when the total size
+     * of a query result is estimated.
+     *
+     * @param size the number of matches to access check.
+     */
+    public void setAccessCheckSampleSize(int size) {
+        accessCheckSampleSize = size;
+    }
+
+    /**
+     * @return the number of matches that are access checked when the total
+     *         size of a query result is estimated.
+     */
+    public int getAccessCheckSampleSize() {
+        return accessCheckSampleSize;
+    }
+
     /**
      * The number of background threads for the extractor pool.
      *
@@ -1857,6 +2439,42 @@ public class SearchIndex extends AbstractQueryHandler {
         return extractorTimeout;
     }
 
+    /**
+     * Sets the directory of the cache for text extracted from binaries in the
+     * data store. The directory may be shared by multiple workspaces. If not
+     * set, text is extracted every time a binary is indexed.
+     *
+     * @param path the path of the text cache directory.
+     */
+    public void setTextCacheDirectory(String path) {
+        textCacheDirectory = path;
+    }
+
+    /**
+     * @return the path of the text cache directory or <code>null</code> if
+     *         the text cache is disabled.
+     */
+    public String getTextCacheDirectory() {
+        return textCacheDirectory;
+    }
+
+    /**
+     * Sets the maximum size in bytes of the text cache directory. When the
+     * cache grows beyond this size, the least recently used text is deleted.
+     *
+     * @param size the maximum size in bytes.
+     */
+    public void setTextCacheSize(long size) {
+        textCacheSize = size;
+    }
+
+    /**
+     * @return the maximum size in bytes of the text cache directory.
+     */
+    public long getTextCacheSize() {
+        return textCacheSize;
+    }
+
     /**
      * If set to <code>true</code> additional information is stored in the index
      * to support highlighting using the rep:excerpt pseudo property.
@@ -2100,7 +2718,12 @@ public class SearchIndex extends AbstractQueryHandler {
 
     /**
      * Sets name of the directory manager class. The class must implement
-     * {@link DirectoryManager}.
+     * {@link DirectoryManager}. Besides the default
+     * {@link FSDirectoryManager}, Jackrabbit provides
+     * {@link org.apache.jackrabbit.core.query.lucene.directory.NIOFSDirectoryManager}
+     * and
+     * {@link org.apache.jackrabbit.core.query.lucene.directory.MMapDirectoryManager},
+     * which allow concurrent reads of the same index file without locking.
      *
      * @param className the name of the class that implements directory manager.
      */
@@ -2143,8 +2766,217 @@ public class SearchIndex extends AbstractQueryHandler {
         this.initializeHierarchyCache = initializeHierarchyCache;
     }
 
+    /**
+     * Sets the maximum number of parsed query trees that are cached. The
+     * cache is shared by all sessions of the workspace. A value of zero
+     * disables the cache.
+     *
+     * @param size the maximum number of cached query trees.
+     */
+    public void setQueryTreeCacheSize(int size) {
+        queryTreeCacheSize = size;
+    }
+
+    /**
+     * @return the maximum number of cached query trees.
+     */
+    public int getQueryTreeCacheSize() {
+        return queryTreeCacheSize;
+    }
+
+    /**
+     * @return the cache of query hits or <code>null</code> if the cache is
+     *         disabled.
+     */
+    QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
+    /**
+     * Sets the maximum number of query hits lists that are cached. The cache
+     * is shared by all sessions of the workspace and holds the hits of a
+     * query before access rights are checked. Cached hits are discarded as
+     * soon as the index changes. A value of zero disables the cache.
+     *
+     * @param size the maximum number of cached query hits lists.
+     */
+    public void setQueryResultCacheSize(int size) {
+        queryResultCacheSize = size;
+    }
+
+    /**
+     * @return the maximum number of cached query hits lists.
+     */
+    public int getQueryResultCacheSize() {
+        return queryResultCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of threads that score the index segments of a
+     * single query. The threads are taken from the pool that also inverts
+     * documents while indexing. It is shared by all workspaces and limited
+     * to the number of available processors.
+     * Only queries without path constraints, e.g. full text, wildcard and
+     * range queries, are scored in parallel. The hits of every segment are
+     * buffered in memory before they are merged, so a query that matches
+     * many documents needs eight bytes per matching document. A value of
+     * one disables parallel scoring.
+     *
+     * @param parallelism the maximum number of threads per query.
+     */
+    public void setQueryParallelism(int parallelism) {
+        queryParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the maximum number of threads that score the index segments
+     *         of a single query.
+     */
+    public int getQueryParallelism() {
+        return queryParallelism;
+    }
+
+    /**
+     * Sets the maximum number of statements for which query statistics are
+     * collected. A value of zero disables query statistics.
+     *
+     * @param size the maximum number of statements.
+     */
+    public void setQueryStatisticsSize(int size) {
+        queryStatisticsSize = size;
+    }
+
+    /**
+     * @return the maximum number of statements for which query statistics
+     *         are collected.
+     */
+    public int getQueryStatisticsSize() {
+        return queryStatisticsSize;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a query is logged as slow.
+     * A value of zero disables the slow query log.
+     *
+     * @param millis the slow query threshold.
+     */
+    public void setSlowQueryThreshold(long millis) {
+        slowQueryThreshold = millis;
+        if (queryStatistics != null) {
+            queryStatistics.setSlowQueryThreshold(millis);
+        }
+    }
+
+    /**
+     * @return the time in milliseconds after which a query is logged as
+     *         slow.
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * If set to <code>true</code> the query statistics are registered as a
+     * JMX MBean when the search index is initialized.
+     *
+     * @param b whether to register the query statistics MBean.
+     */
+    public void setQueryStatisticsMBean(boolean b) {
+        queryStatisticsMBean = b;
+    }
+
+    /**
+     * @return whether the query statistics are registered as a JMX MBean.
+     */
+    public boolean getQueryStatisticsMBean() {
+        return queryStatisticsMBean;
+    }
+
+    /**
+     * If set to <code>true</code> an existing index in format version 3 is
+     * migrated to the trie encoded values when the search index is
+     * initialized. The migration rewrites every index segment once, which
+     * takes time and disk space proportional to the size of the index.
+     *
+     * @param b whether to migrate existing indexes to trie encoded values.
+     */
+    public void setTrieMigration(boolean b) {
+        trieMigration = b;
+    }
+
+    /**
+     * @return whether existing indexes are migrated to trie encoded values.
+     */
+    public boolean getTrieMigration() {
+        return trieMigration;
+    }
+
+    /**
+     * @return the query statistics of this search index or <code>null</code>
+     *         if query statistics are disabled.
+     */
+    public QueryStatistics getQueryStatistics() {
+        return queryStatistics;
+    }
+
     //----------------------------< internal >----------------------------------
 
+    /**
+     * Returns the number of index segments the given <code>reader</code> is
+     * composed of.
+     *
+     * @param reader an index reader.
+     * @return the number of index segments.
+     */
+    private static int countIndexReaders(IndexReader reader) {
+        if (reader instanceof MultiIndexReader) {
+            IndexReader[] readers = ((MultiIndexReader) reader).getIndexReaders();
+            int count = 0;
+            for (int i = 0; i < readers.length; i++) {
+                count += countIndexReaders(readers[i]);
+            }
+            return count;
+        } else {
+            return 1;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the node with the given <code>id</code>
+     * exists and is readable with the given access manager.
+     *
+     * @param accessMgr the access manager of the session.
+     * @param id        the id of a node.
+     * @return whether the node is readable.
+     * @throws RepositoryException if an error occurs while checking access
+     *                             rights.
+     */
+    private static boolean isReadable(AccessManager accessMgr, NodeId id)
+            throws RepositoryException {
+        try {
+            return accessMgr.isGranted(id, AccessManager.READ);
+        } catch (ItemNotFoundException e) {
+            // node deleted while query was executed
+            return false;
+        }
+    }
+
+    /**
+     * Extrapolates the number of readable matches from an access checked
+     * sample.
+     *
+     * @param total   the total number of matches.
+     * @param checked the number of access checked matches.
+     * @param granted the number of readable matches in the sample.
+     * @return the (estimated) number of readable matches.
+     */
+    private static long extrapolate(long total, long checked, long granted) {
+        if (checked == total) {
+            return granted;
+        }
+        return Math.round((double) total * granted / checked);
+    }
+
     /**
      * Checks if this <code>SearchIndex</code> is open, otherwise throws
      * an <code>IOException</code>.
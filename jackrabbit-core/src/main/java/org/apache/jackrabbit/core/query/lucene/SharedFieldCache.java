@@ -24,7 +24,11 @@ import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.search.SortComparator;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -40,6 +44,11 @@ public class SharedFieldCache {
 
     /**
      * Expert: Stores term text values and document ordering data.
+     * <p/>
+     * The distinct values of a field are kept once in ascending order and
+     * each document only refers to its value by an ordinal. Sorting documents
+     * of the same index segment therefore only compares two integers and does
+     * not require an object per document.
      */
     public static class ValueIndex {
 
@@ -51,62 +60,95 @@ public class SharedFieldCache {
         private static final int SPARSE_FACTOR = 100;
 
         /**
-         * Values indexed by document id.
+         * The distinct values in ascending order. The value with ordinal
+         * <code>n</code> is at index <code>n - 1</code>.
          */
         private final Comparable[] values;
 
         /**
-         * Values (Comparable) map indexed by document id.
+         * Ordinals indexed by document id or <code>null</code> if
+         * {@link #sparse}. Ordinal <code>0</code> means the document does not
+         * have a value.
+         */
+        private final int[] ords;
+
+        /**
+         * The document ids with a value in ascending order if {@link #sparse}.
          */
-        public final Map valuesMap;
+        private final int[] sparseDocs;
 
         /**
-         * Boolean indicating whether the {@link #valuesMap} impl has to be used
+         * The ordinals for the {@link #sparseDocs} if {@link #sparse}.
+         */
+        private final int[] sparseOrds;
+
+        /**
+         * Boolean indicating whether the sparse representation has to be used
          */
         public final boolean sparse;
 
         /**
          * Creates one of these objects
+         *
+         * @param values    the distinct values in ascending order.
+         * @param ords      the ordinals indexed by document id.
+         * @param setValues the number of documents with a value.
          */
-        public ValueIndex(Comparable[] values, int setValues) {
-            if (isSparse(values, setValues)) {
+        ValueIndex(Comparable[] values, int[] ords, int setValues) {
+            this.values = values;
+            if (isSparse(ords, setValues)) {
                 this.sparse = true;
-                this.values = null;
-                if (setValues == 0) {
-                    this.valuesMap = null;
-                } else {
-                    this.valuesMap = getValuesMap(values, setValues);
+                this.ords = null;
+                this.sparseDocs = new int[setValues];
+                this.sparseOrds = new int[setValues];
+                for (int i = 0, j = 0; i < ords.length && j < setValues; i++) {
+                    if (ords[i] != 0) {
+                        sparseDocs[j] = i;
+                        sparseOrds[j++] = ords[i];
+                    }
                 }
             } else {
                 this.sparse = false;
-                this.values = values;
-                this.valuesMap = null;
+                this.ords = ords;
+                this.sparseDocs = null;
+                this.sparseOrds = null;
             }
         }
 
+        /**
+         * Returns the value of the document with the given id.
+         *
+         * @param i the document id.
+         * @return the value or <code>null</code> if the document does not
+         *         have a value.
+         */
         public Comparable getValue(int i) {
-            if (sparse) {
-                return valuesMap == null ? null : (Comparable) valuesMap.get(new Integer(i));
-            } else {
-                return values[i];
-            }
+            int ord = getOrdinal(i);
+            return ord == 0 ? null : values[ord - 1];
         }
 
-        private Map getValuesMap(Comparable[] values, int setValues) {
-            Map map = new HashMap(setValues);
-            for (int i = 0; i < values.length && setValues > 0; i++) {
-                if (values[i] != null) {
-                    map.put(new Integer(i), values[i]);
-                    setValues--;
-                }
+        /**
+         * Returns the ordinal of the value of the document with the given id.
+         * Ordinals of documents within the same <code>ValueIndex</code> are
+         * in the same order as their values.
+         *
+         * @param i the document id.
+         * @return the ordinal or <code>0</code> if the document does not have
+         *         a value.
+         */
+        public int getOrdinal(int i) {
+            if (sparse) {
+                int idx = Arrays.binarySearch(sparseDocs, i);
+                return idx < 0 ? 0 : sparseOrds[idx];
+            } else {
+                return ords[i];
             }
-            return map;
         }
 
-        private boolean isSparse(Comparable[] values, int setValues) {
+        private boolean isSparse(int[] ords, int setValues) {
             // some really simple test to test whether the array is sparse. Currently, when less then 1% is set, the array is already sparse 
             // for this typical cache to avoid memory issues
-            if (setValues * SPARSE_FACTOR < values.length) {
+            if (setValues * SPARSE_FACTOR < ords.length) {
                 return true;
             }
             return false;
@@ -157,9 +199,11 @@ public class SharedFieldCache {
         field = field.intern();
         ValueIndex ret = lookup(reader, field, prefix, comparator);
         if (ret == null) {
-            Comparable[] retArray = new Comparable[reader.maxDoc()];
+            int[] ords = new int[reader.maxDoc()];
+            // distinct values in the order they are read from the index
+            List values = new ArrayList();
             int setValues = 0;
-            if (retArray.length > 0) {
+            if (ords.length > 0) {
                 IndexFormatVersion version = IndexFormatVersion.getVersion(reader);
                 boolean hasPayloads = version.isAtLeast(IndexFormatVersion.V3);
                 TermDocs termDocs;
@@ -174,6 +218,8 @@ public class SharedFieldCache {
                 TermEnum termEnum = reader.terms(new Term(field, prefix));
 
                 char[] tmp = new char[16];
+                // value ordinals of the current term by property type
+                Map typeOrds = new HashMap();
                 try {
                     if (termEnum.term() == null) {
                         throw new RuntimeException("no terms in field " + field);
@@ -194,6 +240,7 @@ public class SharedFieldCache {
                         text.getChars(prefix.length(), text.length(), tmp, 0);
                         String value = new String(tmp, 0, len);
 
+                        typeOrds.clear();
                         termDocs.seek(termEnum);
                         while (termDocs.next()) {
                             type = PropertyType.UNDEFINED;
@@ -205,8 +252,17 @@ public class SharedFieldCache {
                                     type = PropertyMetaData.fromByteArray(payload).getPropertyType();
                                 }
                             }
-                            setValues++;
-                            retArray[termDocs.doc()] = getValue(value, type);
+                            Integer key = new Integer(type);
+                            Integer ord = (Integer) typeOrds.get(key);
+                            if (ord == null) {
+                                values.add(getValue(value, type));
+                                ord = new Integer(values.size());
+                                typeOrds.put(key, ord);
+                            }
+                            if (ords[termDocs.doc()] == 0) {
+                                setValues++;
+                            }
+                            ords[termDocs.doc()] = ord.intValue();
                         }
                     } while (termEnum.next());
                 } finally {
@@ -214,13 +270,57 @@ public class SharedFieldCache {
                     termEnum.close();
                 }
             }
-            ValueIndex value = new ValueIndex(retArray, setValues);
+            ValueIndex value = createValueIndex(values, ords, setValues);
             store(reader, field, prefix, comparator, value);
             return value;
         }
         return ret;
     }
 
+    /**
+     * Creates a <code>ValueIndex</code>. The <code>values</code> are sorted
+     * and the <code>ords</code> are re-assigned according to the sort order
+     * of the values.
+     *
+     * @param values    the distinct values in the order they were read.
+     * @param ords      the ordinals indexed by document id. Ordinal
+     *                  <code>n</code> refers to the value at index
+     *                  <code>n - 1</code> in <code>values</code>.
+     * @param setValues the number of documents with a value.
+     * @return the value index.
+     */
+    private ValueIndex createValueIndex(List values, int[] ords, int setValues) {
+        final Comparable[] sorted = (Comparable[]) values.toArray(
+                new Comparable[values.size()]);
+        Integer[] order = new Integer[sorted.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = new Integer(i);
+        }
+        Arrays.sort(order, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                return Util.compare(sorted[((Integer) o1).intValue()],
+                        sorted[((Integer) o2).intValue()]);
+            }
+        });
+        // map old ordinal to new ordinal, equal values share an ordinal
+        int[] mapping = new int[sorted.length + 1];
+        List distinct = new ArrayList();
+        for (int i = 0; i < order.length; i++) {
+            Comparable c = sorted[order[i].intValue()];
+            if (distinct.isEmpty() || Util.compare(
+                    (Comparable) distinct.get(distinct.size() - 1), c) != 0) {
+                distinct.add(c);
+            }
+            mapping[order[i].intValue() + 1] = distinct.size();
+        }
+        for (int i = 0; i < ords.length; i++) {
+            ords[i] = mapping[ords[i]];
+        }
+        return new ValueIndex(
+                (Comparable[]) distinct.toArray(new Comparable[distinct.size()]),
+                ords, setValues);
+    }
+
     /**
      * See if a <code>ValueIndex</code> object is in the cache.
      */
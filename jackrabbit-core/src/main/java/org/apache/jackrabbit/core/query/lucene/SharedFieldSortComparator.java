@@ -246,6 +246,31 @@ public class SharedFieldSortComparator extends SortComparator {
             }
         }
 
+        /**
+         * Compares the ordinals of the sort values if both score docs are in
+         * the same index segment. Otherwise the sort values are compared.
+         *
+         * @param i first score doc.
+         * @param j second score doc.
+         * @return a negative integer if <code>i</code> should come before
+         *         <code>j</code><br> a positive integer if <code>i</code>
+         *         should come after <code>j</code><br> <code>0</code> if they
+         *         are equal
+         */
+        public int compare(ScoreDoc i, ScoreDoc j) {
+            int idx1 = readerIndex(i.doc);
+            int idx2 = readerIndex(j.doc);
+            if (idx1 == idx2) {
+                // ordinals are never negative
+                return indexes[idx1].getOrdinal(i.doc - starts[idx1])
+                        - indexes[idx2].getOrdinal(j.doc - starts[idx2]);
+            } else {
+                return Util.compare(
+                        indexes[idx1].getValue(i.doc - starts[idx1]),
+                        indexes[idx2].getValue(j.doc - starts[idx2]));
+            }
+        }
+
         /**
          * Returns the index term for the score doc <code>i</code>.
          *
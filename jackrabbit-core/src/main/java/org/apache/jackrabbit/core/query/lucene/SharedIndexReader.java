@@ -62,6 +62,22 @@ class SharedIndexReader extends RefCountingIndexReader {
         return getBase().getParent(n, deleted);
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is a document in this index.
+     *
+     * @param n the document number.
+     * @param deleted the documents that should be regarded as deleted.
+     * @return the document number of <code>n</code>'s parent, <code>-1</code>
+     *         if <code>n</code> does not have a parent or
+     *         {@link CachingIndexReader#FOREIGN_PARENT} if the parent is not a
+     *         document in this index.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public int getParentDoc(int n, BitSet deleted) throws IOException {
+        return getBase().getParentDoc(n, deleted);
+    }
+
     /**
      * Simply passes the call to the wrapped reader as is.<br/>
      * If <code>term</code> is for a {@link FieldNames#UUID} field and this
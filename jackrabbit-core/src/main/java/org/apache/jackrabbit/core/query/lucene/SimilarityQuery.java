@@ -77,4 +77,26 @@ public class SimilarityQuery extends Query {
     public String toString(String field) {
         return "rep:similar(" + uuid + ")";
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof SimilarityQuery) {
+            SimilarityQuery other = (SimilarityQuery) obj;
+            return uuid.equals(other.uuid)
+                    && analyzer.equals(other.analyzer)
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = uuid.hashCode();
+        h = 31 * h + analyzer.hashCode();
+        return h ^ Float.floatToIntBits(getBoost());
+    }
 }
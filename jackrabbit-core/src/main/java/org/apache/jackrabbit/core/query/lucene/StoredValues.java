@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import org.apache.jackrabbit.core.state.PropertyState;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+
+/**
+ * <code>StoredValues</code> holds the property values that are stored in the
+ * {@link FieldNames#STORED_PROPERTIES} field of a node document. See
+ * {@link IndexingConfiguration#isStored(Name)}.
+ * <p/>
+ * Every document of a node indexed with stored properties contains an empty
+ * marker value. Each stored property adds a named value that starts with one
+ * of the following characters:
+ * <ul>
+ * <li><code>v</code>: a single value followed by the property type, a colon
+ * and the string representation of the internal value.</li>
+ * <li><code>s</code>: like <code>v</code> but the property definition does
+ * not require a type and the value is returned as a string.</li>
+ * <li><code>m</code>: a multi-valued property, which is not returned in a
+ * row.</li>
+ * <li><code>x</code>: the value is not stored and must be read from the
+ * node.</li>
+ * </ul>
+ * A property that is not set on the node has no named value. Neither has a
+ * property of a node that was indexed before the property was configured as
+ * stored, so a missing value is treated like a value that is not stored.
+ */
+final class StoredValues {
+
+    /**
+     * A value with the type of the property.
+     */
+    private static final char VALUE = 'v';
+
+    /**
+     * A value that is returned as a string.
+     */
+    private static final char STRING = 's';
+
+    /**
+     * A multi-valued property.
+     */
+    private static final char MULTI_VALUED = 'm';
+
+    /**
+     * A value that is not stored.
+     */
+    private static final char NOT_STORED = 'x';
+
+    /**
+     * The encoded values.
+     * <p/>
+     * The exact type is: <code>Map&lt;String, String></code> where the key is
+     * the property name in the index internal namespace mapping.
+     */
+    private final Map values = new HashMap();
+
+    /**
+     * The namespace mappings of the index.
+     */
+    private final NamespaceMappings mappings;
+
+    /**
+     * Creates stored values from the values of the
+     * {@link FieldNames#STORED_PROPERTIES} field of a document.
+     *
+     * @param fieldValues the field values.
+     * @param mappings    the namespace mappings of the index.
+     */
+    StoredValues(String[] fieldValues, NamespaceMappings mappings) {
+        this.mappings = mappings;
+        for (int i = 0; i < fieldValues.length; i++) {
+            int idx = FieldNames.getNameLength(fieldValues[i]);
+            if (idx > 0) {
+                values.put(fieldValues[i].substring(0, idx - 1),
+                        fieldValues[i].substring(idx));
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the value of the property with the given
+     * name can be returned without reading the node.
+     *
+     * @param name the name of a property configured as stored.
+     * @return <code>true</code> if the value is available.
+     * @throws RepositoryException if the name cannot be translated into the
+     *                             index internal namespace mapping.
+     */
+    boolean isAvailable(Name name) throws RepositoryException {
+        String encoded = (String) values.get(mappings.translateName(name));
+        return encoded != null && encoded.charAt(0) != NOT_STORED;
+    }
+
+    /**
+     * Returns the value of the property with the given name as it would be
+     * returned in a row of a query result.
+     *
+     * @param name         the name of a property.
+     * @param resolver     the resolver of the session.
+     * @param valueFactory the value factory of the session.
+     * @return the value or <code>null</code> if the property is
+     *         multi-valued.
+     * @throws RepositoryException if the value is not available or cannot
+     *                             be converted.
+     * @see #isAvailable(Name)
+     */
+    Value getValue(Name name,
+                   NamePathResolver resolver,
+                   ValueFactory valueFactory) throws RepositoryException {
+        String encoded = (String) values.get(mappings.translateName(name));
+        if (encoded == null || encoded.charAt(0) == NOT_STORED) {
+            throw new RepositoryException("Value not stored: " + name);
+        } else if (encoded.charAt(0) == MULTI_VALUED) {
+            return null;
+        }
+        int idx = encoded.indexOf(':');
+        int type = Integer.parseInt(encoded.substring(1, idx));
+        Value value = InternalValue.valueOf(
+                encoded.substring(idx + 1), type).toJCRValue(resolver);
+        if (encoded.charAt(0) == STRING) {
+            return valueFactory.createValue(value.getString());
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * Encodes the value of a property for a named value.
+     *
+     * @param state        the property state.
+     * @param requiredType the required type of the property definition or
+     *                     <code>-1</code> if the definition is unknown.
+     * @return the encoded value.
+     */
+    static String encode(PropertyState state, int requiredType) {
+        if (state.isMultiValued()) {
+            return String.valueOf(MULTI_VALUED);
+        }
+        InternalValue[] v = state.getValues();
+        if (requiredType == -1 || v.length != 1
+                || v[0].getType() == PropertyType.BINARY) {
+            return String.valueOf(NOT_STORED);
+        }
+        StringBuffer sb = new StringBuffer();
+        sb.append(requiredType == PropertyType.UNDEFINED ? STRING : VALUE);
+        sb.append(v[0].getType()).append(':').append(v[0].toString());
+        return sb.toString();
+    }
+}
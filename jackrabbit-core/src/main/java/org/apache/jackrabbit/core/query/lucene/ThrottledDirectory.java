@@ -0,0 +1,345 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
+
+/**
+ * <code>ThrottledDirectory</code> wraps a <code>Directory</code> and limits
+ * the rate at which data is written to the files of the directory. The
+ * rate is controlled by a {@link Throttle}, which may be shared by multiple
+ * directories to limit the total rate.
+ */
+class ThrottledDirectory extends Directory {
+
+    /**
+     * The underlying directory.
+     */
+    private final Directory directory;
+
+    /**
+     * The throttle for the writes.
+     */
+    private final Throttle throttle;
+
+    /**
+     * Creates a new <code>ThrottledDirectory</code>.
+     *
+     * @param directory the underlying directory.
+     * @param throttle  the throttle for the writes.
+     */
+    ThrottledDirectory(Directory directory, Throttle throttle) {
+        this.directory = directory;
+        this.throttle = throttle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] list() throws IOException {
+        return directory.list();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean fileExists(String name) throws IOException {
+        return directory.fileExists(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long fileModified(String name) throws IOException {
+        return directory.fileModified(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void touchFile(String name) throws IOException {
+        directory.touchFile(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void deleteFile(String name) throws IOException {
+        directory.deleteFile(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void renameFile(String from, String to) throws IOException {
+        directory.renameFile(from, to);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long fileLength(String name) throws IOException {
+        return directory.fileLength(name);
+    }
+
+    /**
+     * Creates an output that writes to a file of the underlying directory
+     * with the rate of the throttle.
+     *
+     * @param name the name of the file.
+     * @return the throttled output.
+     * @throws IOException if the file cannot be created.
+     */
+    public IndexOutput createOutput(String name) throws IOException {
+        return new ThrottledIndexOutput(directory.createOutput(name));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync(String name) throws IOException {
+        directory.sync(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexInput openInput(String name) throws IOException {
+        return directory.openInput(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexInput openInput(String name, int bufferSize)
+            throws IOException {
+        return directory.openInput(name, bufferSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Lock makeLock(String name) {
+        return directory.makeLock(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clearLock(String name) throws IOException {
+        directory.clearLock(name);
+    }
+
+    /**
+     * Does nothing. The underlying directory is not closed.
+     */
+    public void close() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLockFactory(LockFactory lockFactory) {
+        directory.setLockFactory(lockFactory);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LockFactory getLockFactory() {
+        return directory.getLockFactory();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getLockID() {
+        return directory.getLockID();
+    }
+
+    //------------------------------< internal >--------------------------------
+
+    /**
+     * Limits the rate of writes to a number of bytes per second. A throttle
+     * is safe for use by multiple threads, the rate is then shared by all
+     * threads.
+     */
+    static final class Throttle {
+
+        /**
+         * A thread only sleeps if it is ahead of the rate by at least this
+         * number of milliseconds.
+         */
+        private static final long MIN_PAUSE = 20;
+
+        /**
+         * The number of bytes per millisecond.
+         */
+        private final double bytesPerMillis;
+
+        /**
+         * The time in milliseconds when the bytes written so far are
+         * consumed at the rate of this throttle.
+         */
+        private long nextTime;
+
+        /**
+         * Creates a new throttle.
+         *
+         * @param mbPerSecond the rate in megabytes per second.
+         */
+        Throttle(int mbPerSecond) {
+            this.bytesPerMillis = mbPerSecond * 1024.0 * 1024.0 / 1000.0;
+        }
+
+        /**
+         * Informs this throttle that <code>numBytes</code> were written. The
+         * calling thread is put to sleep if the rate is exceeded.
+         *
+         * @param numBytes the number of bytes written.
+         * @throws InterruptedIOException if the thread is interrupted while
+         *                                it sleeps.
+         */
+        void bytesWritten(long numBytes) throws InterruptedIOException {
+            long now = System.currentTimeMillis();
+            long pause;
+            synchronized (this) {
+                nextTime = Math.max(nextTime, now) + (long) (numBytes / bytesPerMillis);
+                pause = nextTime - now;
+            }
+            if (pause >= MIN_PAUSE) {
+                try {
+                    Thread.sleep(pause);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * An <code>IndexOutput</code> that informs the throttle about the bytes
+     * written. The throttle is informed about every {@link #CHUNK_SIZE}
+     * bytes.
+     */
+    private final class ThrottledIndexOutput extends IndexOutput {
+
+        /**
+         * The number of bytes after which the throttle is informed.
+         */
+        private static final int CHUNK_SIZE = 64 * 1024;
+
+        /**
+         * The underlying output.
+         */
+        private final IndexOutput out;
+
+        /**
+         * The number of bytes written since the throttle was last informed.
+         */
+        private int pending;
+
+        ThrottledIndexOutput(IndexOutput out) {
+            this.out = out;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeByte(byte b) throws IOException {
+            out.writeByte(b);
+            written(1);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void writeBytes(byte[] b, int offset, int length)
+                throws IOException {
+            out.writeBytes(b, offset, length);
+            written(length);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() throws IOException {
+            out.close();
+            if (pending > 0) {
+                throttle.bytesWritten(pending);
+                pending = 0;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long getFilePointer() {
+            return out.getFilePointer();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void seek(long pos) throws IOException {
+            out.seek(pos);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long length() throws IOException {
+            return out.length();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void setLength(long length) throws IOException {
+            out.setLength(length);
+        }
+
+        /**
+         * Adds <code>numBytes</code> to the pending bytes and informs the
+         * throttle when a chunk is complete.
+         *
+         * @param numBytes the number of bytes written.
+         * @throws IOException if the thread is interrupted.
+         */
+        private void written(int numBytes) throws IOException {
+            pending += numBytes;
+            if (pending >= CHUNK_SIZE) {
+                throttle.bytesWritten(pending);
+                pending = 0;
+            }
+        }
+    }
+}
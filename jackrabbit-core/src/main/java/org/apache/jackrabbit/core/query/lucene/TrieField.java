@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>TrieField</code> implements the multi-precision (trie) encoding of
+ * long, double and date values in the {@link FieldNames#TRIE_PROPERTIES}
+ * field.
+ * <p/>
+ * Every value is first converted into a long that has the same sort order
+ * as the value. Dates use their time in milliseconds and doubles are
+ * converted with {@link #doubleToSortableLong(double)}. The long is then
+ * indexed with {@link #LEVELS} terms. The term on level <code>n</code>
+ * contains the value without its lowest <code>n * 4</code> bits, that is,
+ * every level removes one hexadecimal digit. A term has the form:
+ * <code>propertyName</code> + '[' + type + level + hex digits, where type
+ * is the property type of the value. A range of values is then covered by
+ * a few terms per level instead of one term per distinct value, see
+ * {@link #getTermRanges(String, int, long, long)}.
+ */
+public class TrieField {
+
+    /**
+     * The number of bits that are removed from a value on every level.
+     */
+    private static final int PRECISION_STEP = 4;
+
+    /**
+     * The number of levels, that is, the number of terms per value.
+     */
+    public static final int LEVELS = 64 / PRECISION_STEP;
+
+    /**
+     * The digits of the encoded values and levels.
+     */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private TrieField() {
+    }
+
+    /**
+     * Converts a double value into a long with the same sort order.
+     *
+     * @param value the double value.
+     * @return the sortable long.
+     */
+    public static long doubleToSortableLong(double value) {
+        long bits = Double.doubleToLongBits(value);
+        if (bits < 0) {
+            bits ^= 0x7fffffffffffffffL;
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the terms for the given sortable <code>value</code>, one term
+     * per level.
+     *
+     * @param propertyName the name of the property.
+     * @param type         the property type of the value, either
+     *                     {@link javax.jcr.PropertyType#LONG},
+     *                     {@link javax.jcr.PropertyType#DOUBLE} or
+     *                     {@link javax.jcr.PropertyType#DATE}.
+     * @param value        the sortable value.
+     * @return the term texts.
+     */
+    public static String[] createTerms(String propertyName,
+                                       int type,
+                                       long value) {
+        String[] terms = new String[LEVELS];
+        for (int level = 0; level < LEVELS; level++) {
+            terms[level] = createTerm(propertyName, type, value, level);
+        }
+        return terms;
+    }
+
+    /**
+     * Returns the term for the given sortable <code>value</code> on a level.
+     *
+     * @param propertyName the name of the property.
+     * @param type         the property type of the value.
+     * @param value        the sortable value.
+     * @param level        the level.
+     * @return the term text.
+     */
+    public static String createTerm(String propertyName,
+                                    int type,
+                                    long value,
+                                    int level) {
+        StringBuffer sb = new StringBuffer(propertyName.length() + 3 + LEVELS);
+        sb.append(propertyName).append('[');
+        sb.append(DIGITS[type]).append(DIGITS[level]);
+        // flip the sign bit, so that negative values sort first
+        value ^= 0x8000000000000000L;
+        for (int shift = 64 - PRECISION_STEP;
+                shift >= level * PRECISION_STEP; shift -= PRECISION_STEP) {
+            sb.append(DIGITS[(int) (value >>> shift) & 0xf]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits the range of sortable values from <code>lower</code> to
+     * <code>upper</code> (both inclusive) into ranges of terms. Every range
+     * of terms contains terms of one level only. The ranges on the lower
+     * levels cover the bounds, the ranges on the higher levels cover the
+     * values in between.
+     *
+     * @param propertyName the name of the property.
+     * @param type         the property type of the values.
+     * @param lower        the lower bound.
+     * @param upper        the upper bound.
+     * @return list of <code>String[]</code> with the lower and upper term
+     *         text of a range, both inclusive. The list is empty if
+     *         <code>lower</code> is greater than <code>upper</code>.
+     */
+    public static List getTermRanges(String propertyName,
+                                     int type,
+                                     long lower,
+                                     long upper) {
+        List ranges = new ArrayList();
+        if (lower > upper) {
+            return ranges;
+        }
+        for (int level = 0; ; level++) {
+            int shift = level * PRECISION_STEP;
+            long diff = 1L << (shift + PRECISION_STEP);
+            long mask = ((1L << PRECISION_STEP) - 1L) << shift;
+            boolean hasLower = (lower & mask) != 0L;
+            boolean hasUpper = (upper & mask) != mask;
+            long nextLower = (hasLower ? lower + diff : lower) & ~mask;
+            long nextUpper = (hasUpper ? upper - diff : upper) & ~mask;
+            if (level == LEVELS - 1 || nextLower > nextUpper
+                    || nextLower < lower || nextUpper > upper) {
+                // highest level reached or the remaining range
+                // cannot be covered with terms of the next level
+                ranges.add(createRange(propertyName, type, lower, upper, level));
+                break;
+            }
+            if (hasLower) {
+                ranges.add(createRange(propertyName, type,
+                        lower, lower | mask, level));
+            }
+            if (hasUpper) {
+                ranges.add(createRange(propertyName, type,
+                        upper & ~mask, upper, level));
+            }
+            lower = nextLower;
+            upper = nextUpper;
+        }
+        return ranges;
+    }
+
+    /**
+     * Creates a range of terms on a level.
+     *
+     * @param propertyName the name of the property.
+     * @param type         the property type of the values.
+     * @param lower        the lower bound.
+     * @param upper        the upper bound.
+     * @param level        the level.
+     * @return the lower and upper term text.
+     */
+    private static String[] createRange(String propertyName,
+                                        int type,
+                                        long lower,
+                                        long upper,
+                                        int level) {
+        return new String[]{
+                createTerm(propertyName, type, lower, level),
+                createTerm(propertyName, type, upper, level)
+        };
+    }
+}
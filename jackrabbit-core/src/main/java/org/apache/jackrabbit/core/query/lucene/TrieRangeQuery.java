@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Implements a range query on the trie encoded values of a long, double or
+ * date property. See {@link TrieField}. The query only reads the terms of
+ * the ranges returned by
+ * {@link TrieField#getTermRanges(String, int, long, long)}, which is a
+ * logarithmic number of terms in the size of the range.
+ */
+public class TrieRangeQuery extends Query {
+
+    /**
+     * Name of the property to search.
+     */
+    private final String propName;
+
+    /**
+     * The property type of the values to match.
+     */
+    private final int type;
+
+    /**
+     * The sortable lower bound, inclusive.
+     */
+    private final long lower;
+
+    /**
+     * The sortable upper bound, inclusive.
+     */
+    private final long upper;
+
+    /**
+     * Creates a new <code>TrieRangeQuery</code>.
+     *
+     * @param propName name of the property to search.
+     * @param type     the property type of the values to match, either
+     *                 {@link javax.jcr.PropertyType#LONG},
+     *                 {@link javax.jcr.PropertyType#DOUBLE} or
+     *                 {@link javax.jcr.PropertyType#DATE}.
+     * @param lower    the sortable lower bound, inclusive.
+     * @param upper    the sortable upper bound, inclusive.
+     */
+    public TrieRangeQuery(String propName, int type, long lower, long upper) {
+        this.propName = propName;
+        this.type = type;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * Creates the <code>Weight</code> for this query.
+     *
+     * @param searcher the searcher to use for the <code>Weight</code>.
+     * @return the <code>Weigth</code> for this query.
+     */
+    protected Weight createWeight(Searcher searcher) {
+        return new TrieRangeQueryWeight(searcher);
+    }
+
+    /**
+     * Returns a string representation of this query.
+     *
+     * @param field the field name for which to create a string representation.
+     * @return a string representation of this query.
+     */
+    public String toString(String field) {
+        return propName + ":[" + lower + " TO " + upper + "]";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof TrieRangeQuery) {
+            TrieRangeQuery other = (TrieRangeQuery) obj;
+            return propName.equals(other.propName)
+                    && type == other.type
+                    && lower == other.lower
+                    && upper == other.upper
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = propName.hashCode();
+        h = 31 * h + type;
+        h = 31 * h + (int) (lower ^ (lower >>> 32));
+        h = 31 * h + (int) (upper ^ (upper >>> 32));
+        return h ^ Float.floatToIntBits(getBoost());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void extractTerms(Set terms) {
+        // no terms to extract
+    }
+
+    /**
+     * The <code>Weight</code> implementation for this <code>TrieRangeQuery</code>.
+     */
+    private class TrieRangeQueryWeight extends AbstractWeight {
+
+        /**
+         * Creates a new <code>TrieRangeQueryWeight</code> instance using
+         * <code>searcher</code>.
+         *
+         * @param searcher a <code>Searcher</code> instance.
+         */
+        public TrieRangeQueryWeight(Searcher searcher) {
+            super(searcher);
+        }
+
+        /**
+         * Creates a {@link TrieRangeQueryScorer} instance.
+         *
+         * @param reader index reader
+         * @return a {@link TrieRangeQueryScorer} instance
+         */
+        protected Scorer createScorer(IndexReader reader) {
+            return new TrieRangeQueryScorer(searcher.getSimilarity(), reader);
+        }
+
+        /**
+         * Returns this <code>TrieRangeQuery</code>.
+         *
+         * @return this <code>TrieRangeQuery</code>.
+         */
+        public Query getQuery() {
+            return TrieRangeQuery.this;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public float getValue() {
+            return 1.0f;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public float sumOfSquaredWeights() throws IOException {
+            return 1.0f;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void normalize(float norm) {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Explanation explain(IndexReader reader, int doc) throws IOException {
+            return new Explanation();
+        }
+    }
+
+    /**
+     * Implements a <code>Scorer</code> for this <code>TrieRangeQuery</code>.
+     */
+    private final class TrieRangeQueryScorer extends Scorer {
+
+        /**
+         * The index reader to use for calculating the matching documents.
+         */
+        private final IndexReader reader;
+
+        /**
+         * The documents ids that match this range query.
+         */
+        private final BitSet hits;
+
+        /**
+         * Set to <code>true</code> when the hits have been calculated.
+         */
+        private boolean hitsCalculated = false;
+
+        /**
+         * The next document id to return
+         */
+        private int nextDoc = -1;
+
+        /**
+         * The cache key to use to store the results.
+         */
+        private final String cacheKey;
+
+        /**
+         * The map to store the results.
+         */
+        private final Map resultMap;
+
+        /**
+         * Creates a new TrieRangeQueryScorer.
+         *
+         * @param similarity the similarity implementation.
+         * @param reader     the index reader to use.
+         */
+        TrieRangeQueryScorer(Similarity similarity, IndexReader reader) {
+            super(similarity);
+            this.reader = reader;
+            this.cacheKey = propName + '\uFFFF' + type + '\uFFFF' + lower + '\uFFFF' + upper;
+            // check cache
+            PerQueryCache cache = PerQueryCache.getInstance();
+            Map m = (Map) cache.get(TrieRangeQueryScorer.class, reader);
+            if (m == null) {
+                m = new HashMap();
+                cache.put(TrieRangeQueryScorer.class, reader, m);
+            }
+            resultMap = m;
+
+            BitSet result = (BitSet) resultMap.get(cacheKey);
+            if (result == null) {
+                result = cache.getBitSet();
+            } else {
+                hitsCalculated = true;
+            }
+            hits = result;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean next() throws IOException {
+            calculateHits();
+            nextDoc = hits.nextSetBit(nextDoc + 1);
+            return nextDoc > -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int doc() {
+            return nextDoc;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public float score() {
+            return 1.0f;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean skipTo(int target) throws IOException {
+            calculateHits();
+            nextDoc = hits.nextSetBit(target);
+            return nextDoc > -1;
+        }
+
+        /**
+         * Returns an empty Explanation object.
+         * @return an empty Explanation object.
+         */
+        public Explanation explain(int doc) {
+            return new Explanation();
+        }
+
+        /**
+         * Calculates the ids of the documents matching this range query.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        private void calculateHits() throws IOException {
+            if (hitsCalculated) {
+                return;
+            }
+            String field = FieldNames.TRIE_PROPERTIES;
+            // use unpositioned TermDocs
+            TermDocs docs = reader.termDocs();
+            try {
+                Iterator ranges = TrieField.getTermRanges(
+                        propName, type, lower, upper).iterator();
+                while (ranges.hasNext()) {
+                    String[] range = (String[]) ranges.next();
+                    TermEnum terms = reader.terms(new Term(field, range[0]));
+                    try {
+                        do {
+                            Term t = terms.term();
+                            if (t == null || t.field() != field
+                                    || t.text().compareTo(range[1]) > 0) {
+                                break;
+                            }
+                            docs.seek(terms);
+                            while (docs.next()) {
+                                hits.set(docs.doc());
+                            }
+                        } while (terms.next());
+                    } finally {
+                        terms.close();
+                    }
+                }
+            } finally {
+                docs.close();
+            }
+            hitsCalculated = true;
+            // put to cache
+            resultMap.put(cacheKey, hits);
+        }
+    }
+}
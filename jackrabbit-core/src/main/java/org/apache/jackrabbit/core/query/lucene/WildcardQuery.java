@@ -161,6 +161,32 @@ public class WildcardQuery extends Query implements Transformable {
         return propName + ":" + pattern;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof WildcardQuery) {
+            WildcardQuery other = (WildcardQuery) obj;
+            return field.equals(other.field)
+                    && (propName == null ? other.propName == null : propName.equals(other.propName))
+                    && pattern.equals(other.pattern)
+                    && transform == other.transform
+                    && getBoost() == other.getBoost();
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        int h = field.hashCode();
+        h = 31 * h + (propName == null ? 0 : propName.hashCode());
+        h = 31 * h + pattern.hashCode();
+        h = 31 * h + transform;
+        return h ^ Float.floatToIntBits(getBoost());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -288,7 +314,7 @@ public class WildcardQuery extends Query implements Transformable {
 
             BitSet result = (BitSet) resultMap.get(cacheKey);
             if (result == null) {
-                result = new BitSet(reader.maxDoc());
+                result = cache.getBitSet();
             } else {
                 hitsCalculated = true;
             }
@@ -59,6 +59,7 @@ import org.apache.jackrabbit.spi.commons.query.qom.UpperCaseImpl;
 import org.apache.jackrabbit.spi.commons.query.jsr283.qom.QueryObjectModelConstants;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
+import org.apache.lucene.search.Query;
 
 /**
  * <code>ConstraintBuilder</code> builds a {@link Constraint} from a tree of
@@ -173,6 +174,15 @@ public class ConstraintBuilder {
 
             DynamicOperand dynOp = (DynamicOperand) op1.accept(this, staticValue);
             SelectorImpl selector = getSelector(op1.getSelectorQName());
+            if (op1 instanceof LowerCaseImpl
+                    && staticValue.getType() == PropertyType.STRING) {
+                // use lower-cased values in the index if available
+                Query q = factory.create((LowerCaseImpl) op1,
+                        node.getOperator(), staticValue.getString());
+                if (q != null) {
+                    return new QueryConstraint(q, selector, factory);
+                }
+            }
             if (node.getOperator() == QueryObjectModelConstants.OPERATOR_LIKE) {
                 return new LikeConstraint(dynOp, staticValue, selector);
             } else {
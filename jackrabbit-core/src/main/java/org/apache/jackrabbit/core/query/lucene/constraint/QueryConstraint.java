@@ -36,7 +36,7 @@ import org.apache.lucene.index.IndexReader;
  * <code>QueryConstraint</code> implements a constraint that is based on a
  * lucene query.
  */
-public abstract class QueryConstraint extends SelectorBasedConstraint {
+public class QueryConstraint extends SelectorBasedConstraint {
 
     /**
      * The constraint query.
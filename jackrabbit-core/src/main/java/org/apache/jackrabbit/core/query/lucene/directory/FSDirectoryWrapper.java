@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.directory;
+
+import org.apache.lucene.store.BufferedIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.Lock;
+import org.apache.lucene.store.LockFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * <code>FSDirectoryWrapper</code> wraps an {@link FSDirectory} and delegates
+ * all calls to it. Sub classes provide their own implementation of
+ * {@link #openInput(File, int)} to read the files of the directory.
+ */
+abstract class FSDirectoryWrapper extends Directory {
+
+    /**
+     * The underlying file system directory.
+     */
+    protected final FSDirectory directory;
+
+    /**
+     * Creates a new wrapper for the given <code>directory</code>.
+     *
+     * @param directory the underlying file system directory.
+     */
+    protected FSDirectoryWrapper(FSDirectory directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens an input for the given file.
+     *
+     * @param file       the file to read.
+     * @param bufferSize the buffer size to use if the input is buffered.
+     * @return the input for the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    protected abstract IndexInput openInput(File file, int bufferSize)
+            throws IOException;
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexInput openInput(String name) throws IOException {
+        return openInput(new File(directory.getFile(), name),
+                BufferedIndexInput.BUFFER_SIZE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexInput openInput(String name, int bufferSize)
+            throws IOException {
+        return openInput(new File(directory.getFile(), name), bufferSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] list() throws IOException {
+        return directory.list();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean fileExists(String name) throws IOException {
+        return directory.fileExists(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long fileModified(String name) throws IOException {
+        return directory.fileModified(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void touchFile(String name) throws IOException {
+        directory.touchFile(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void deleteFile(String name) throws IOException {
+        directory.deleteFile(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void renameFile(String from, String to) throws IOException {
+        directory.renameFile(from, to);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long fileLength(String name) throws IOException {
+        return directory.fileLength(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexOutput createOutput(String name) throws IOException {
+        return directory.createOutput(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync(String name) throws IOException {
+        directory.sync(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Lock makeLock(String name) {
+        return directory.makeLock(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clearLock(String name) throws IOException {
+        directory.clearLock(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException {
+        directory.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLockFactory(LockFactory lockFactory) {
+        directory.setLockFactory(lockFactory);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public LockFactory getLockFactory() {
+        return directory.getLockFactory();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getLockID() {
+        return directory.getLockID();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        return getClass().getName() + "@" + directory.getFile();
+    }
+}
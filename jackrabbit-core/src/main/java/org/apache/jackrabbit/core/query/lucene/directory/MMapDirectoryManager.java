@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.directory;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexInput;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <code>MMapDirectoryManager</code> implements a directory manager for file
+ * system directories, which map files into memory for reading. Concurrent
+ * readers access the mapped files without any synchronization and the
+ * operating system caches the pages of the files. Files are written like
+ * with {@link FSDirectoryManager}.
+ * <p/>
+ * Mapped files use virtual address space but no heap memory. This directory
+ * manager should therefore only be used on a 64 bit JVM when the index is
+ * large. A mapped file is only unmapped when the garbage collector reclaims
+ * its buffers, until then some operating systems do not allow to delete
+ * the file. The search index retries such deletes later.
+ */
+public class MMapDirectoryManager extends FSDirectoryManager {
+
+    /**
+     * {@inheritDoc}
+     */
+    public Directory getDirectory(String name) throws IOException {
+        return new MMapDirectory((FSDirectory) super.getDirectory(name));
+    }
+
+    /**
+     * A file system directory that reads files with a
+     * {@link MMapIndexInput}.
+     */
+    private static final class MMapDirectory extends FSDirectoryWrapper {
+
+        MMapDirectory(FSDirectory directory) {
+            super(directory);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        protected IndexInput openInput(File file, int bufferSize)
+                throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                return new MMapIndexInput(raf);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * An index input that reads from a file mapped into memory. The file is
+     * mapped in chunks of {@link #CHUNK_SIZE} bytes, because a single
+     * buffer cannot map more than 2 GB. Clones use duplicates of the
+     * buffers.
+     */
+    private static final class MMapIndexInput extends IndexInput {
+
+        /**
+         * Number of bits of the chunk size.
+         */
+        private static final int CHUNK_BITS = 30;
+
+        /**
+         * The size of a mapped chunk: 1 GB.
+         */
+        private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+        /**
+         * The mapped chunks of the file.
+         */
+        private final ByteBuffer[] buffers;
+
+        /**
+         * The length of the file.
+         */
+        private final long length;
+
+        /**
+         * The index of the current chunk.
+         */
+        private int current;
+
+        /**
+         * The current chunk.
+         */
+        private ByteBuffer buffer;
+
+        /**
+         * Maps the file into memory. The file may be closed when this
+         * constructor returns.
+         *
+         * @param file the file to map.
+         * @throws IOException if the file cannot be mapped.
+         */
+        MMapIndexInput(RandomAccessFile file) throws IOException {
+            length = file.length();
+            int numChunks = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+            buffers = new ByteBuffer[Math.max(1, numChunks)];
+            FileChannel channel = file.getChannel();
+            for (int i = 0; i < buffers.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                long size = Math.min(CHUNK_SIZE, length - start);
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+            buffer = buffers[0];
+        }
+
+        /**
+         * Creates a clone with duplicates of the buffers of <code>other</code>.
+         * The duplicates have the same positions, so the clone is positioned
+         * at the same file pointer.
+         *
+         * @param other the input to clone.
+         */
+        private MMapIndexInput(MMapIndexInput other) {
+            length = other.length;
+            buffers = new ByteBuffer[other.buffers.length];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = other.buffers[i].duplicate();
+            }
+            current = other.current;
+            buffer = buffers[current];
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public byte readByte() throws IOException {
+            try {
+                return buffer.get();
+            } catch (BufferUnderflowException e) {
+                nextChunk();
+                return buffer.get();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void readBytes(byte[] b, int offset, int len)
+                throws IOException {
+            while (len > buffer.remaining()) {
+                int num = buffer.remaining();
+                buffer.get(b, offset, num);
+                offset += num;
+                len -= num;
+                nextChunk();
+            }
+            buffer.get(b, offset, len);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long getFilePointer() {
+            return ((long) current << CHUNK_BITS) + buffer.position();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void seek(long pos) throws IOException {
+            if (pos < 0 || pos > length) {
+                throw new IOException("seek position out of range: " + pos);
+            }
+            int chunk = (int) (pos >>> CHUNK_BITS);
+            if (chunk == buffers.length) {
+                // end of a file with a length that is a multiple of the
+                // chunk size
+                chunk--;
+            }
+            current = chunk;
+            buffer = buffers[chunk];
+            buffer.position((int) (pos - ((long) chunk << CHUNK_BITS)));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * Does nothing, the buffers are unmapped when they are garbage
+         * collected.
+         */
+        public void close() {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object clone() {
+            return new MMapIndexInput(this);
+        }
+
+        /**
+         * Moves to the start of the next chunk.
+         *
+         * @throws IOException if there is no next chunk.
+         */
+        private void nextChunk() throws IOException {
+            if (current + 1 >= buffers.length) {
+                throw new IOException("read past EOF");
+            }
+            current++;
+            buffer = buffers[current];
+            buffer.position(0);
+        }
+    }
+}
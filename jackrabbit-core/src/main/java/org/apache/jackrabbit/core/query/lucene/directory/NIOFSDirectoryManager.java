@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.directory;
+
+import org.apache.lucene.store.BufferedIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexInput;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <code>NIOFSDirectoryManager</code> implements a directory manager for file
+ * system directories, which read files with positional reads on a
+ * <code>FileChannel</code>. Unlike {@link FSDirectoryManager}, concurrent
+ * readers of the same file do not synchronize on a shared file pointer.
+ * Files are written like with {@link FSDirectoryManager}.
+ */
+public class NIOFSDirectoryManager extends FSDirectoryManager {
+
+    /**
+     * {@inheritDoc}
+     */
+    public Directory getDirectory(String name) throws IOException {
+        return new NIOFSDirectory((FSDirectory) super.getDirectory(name));
+    }
+
+    /**
+     * A file system directory that reads files with a
+     * {@link NIOFSIndexInput}.
+     */
+    private static final class NIOFSDirectory extends FSDirectoryWrapper {
+
+        NIOFSDirectory(FSDirectory directory) {
+            super(directory);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        protected IndexInput openInput(File file, int bufferSize)
+                throws IOException {
+            return new NIOFSIndexInput(file, bufferSize);
+        }
+    }
+
+    /**
+     * An index input that reads with positional reads from a
+     * <code>FileChannel</code>. Clones share the channel, which is closed
+     * when the original input is closed.
+     */
+    private static final class NIOFSIndexInput extends BufferedIndexInput {
+
+        /**
+         * The file to read from.
+         */
+        private final RandomAccessFile file;
+
+        /**
+         * The channel of the file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * The length of the file.
+         */
+        private final long length;
+
+        /**
+         * Whether this input is a clone.
+         */
+        private boolean isClone = false;
+
+        NIOFSIndexInput(File path, int bufferSize) throws IOException {
+            super(bufferSize);
+            file = new RandomAccessFile(path, "r");
+            channel = file.getChannel();
+            length = file.length();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        protected void readInternal(byte[] b, int offset, int len)
+                throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(b, offset, len);
+            long position = getFilePointer();
+            while (bb.hasRemaining()) {
+                int num = channel.read(bb, position);
+                if (num == -1) {
+                    throw new IOException("read past EOF");
+                }
+                position += num;
+            }
+        }
+
+        /**
+         * Does nothing, every read passes its position.
+         */
+        protected void seekInternal(long pos) {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * Closes the file unless this input is a clone.
+         *
+         * @throws IOException if the file cannot be closed.
+         */
+        public void close() throws IOException {
+            if (!isClone) {
+                file.close();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Object clone() {
+            NIOFSIndexInput clone = (NIOFSIndexInput) super.clone();
+            clone.isClone = true;
+            return clone;
+        }
+    }
+}
@@ -76,6 +76,13 @@ public class Join implements MultiColumnQueryHits, QueryObjectModelConstants {
      */
     protected final List buffer = new LinkedList();
 
+    /**
+     * Whether it is known upfront that this join does not return any rows.
+     * This is the case for an inner equi join where none of the inner score
+     * nodes has a value for the join property.
+     */
+    private final boolean empty;
+
     /**
      * Creates a new join.
      *
@@ -93,6 +100,8 @@ public class Join implements MultiColumnQueryHits, QueryObjectModelConstants {
         this.outerScoreNodeIndex = outerScoreNodeIndex;
         this.innerJoin = innerJoin;
         this.condition = condition;
+        this.empty = innerJoin && condition instanceof EquiJoin
+                && ((EquiJoin) condition).isEmpty();
         this.emptyInnerHits = new ScoreNode[condition.getInnerSelectorNames().length];
         // outer selector names go to the left, inner selector
         // names go to the right.
@@ -250,6 +259,10 @@ public class Join implements MultiColumnQueryHits, QueryObjectModelConstants {
         if (!buffer.isEmpty()) {
             return (ScoreNode[]) buffer.remove(0);
         }
+        if (empty) {
+            // no need to iterate over the outer score nodes
+            return null;
+        }
         do {
             // refill buffer
             ScoreNode[] sn = outer.nextScoreNodes();
@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.apache.jackrabbit.core.query.lucene.ScoreNode;
 
@@ -34,6 +35,13 @@ public final class ScoreNodeMap {
      */
     private final Map map = new HashMap();
 
+    /**
+     * @return <code>true</code> if this map does not contain any score nodes.
+     */
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
     /**
      * Adds <code>scoreNodes</code> to this map under the given <code>key</code>.
      * If there already exists a mapping with the given <code>key</code> the
@@ -48,6 +56,11 @@ public final class ScoreNodeMap {
      * <li>If the existing value for <code>key</code> is a <code>List</code> the
      * <code>scoreNodes</code> are simply added to the <code>List</code>.
      * </li>
+     * <li>If the existing value for <code>key</code> is a
+     * <code>ScoreNode[][]</code> (see {@link #getScoreNodes(Object)}), then
+     * the value is turned into a <code>List</code> again and the new value is
+     * added to the <code>List</code>.
+     * </li>
      * </ul>
      *
      * @param key   the lookup key.
@@ -60,6 +73,11 @@ public final class ScoreNodeMap {
             map.put(key, existing);
         } else if (existing instanceof List) {
             ((List) existing).add(nodes);
+        } else if (existing instanceof ScoreNode[][]) {
+            ArrayList tmp = new ArrayList(Arrays.asList((ScoreNode[][]) existing));
+            tmp.add(nodes);
+            existing = tmp;
+            map.put(key, existing);
         } else {
             // ScoreNode[]
             ArrayList tmp = new ArrayList();
@@ -72,7 +90,8 @@ public final class ScoreNodeMap {
 
     /**
      * Returns an array of <code>ScoreNode[]</code> for the given
-     * <code>key</code>.
+     * <code>key</code>. The returned array is shared between calls with the
+     * same <code>key</code> and must not be modified by the caller.
      *
      * @param key the key.
      * @return an array of <code>ScoreNode[]</code> that match the given
@@ -82,12 +101,21 @@ public final class ScoreNodeMap {
         Object sn = map.get(key);
         if (sn == null) {
             return null;
-        } else if (sn instanceof List) {
-            List list = (List) sn;
-            return (ScoreNode[][]) list.toArray(new ScoreNode[list.size()][]);
+        } else if (sn instanceof ScoreNode[][]) {
+            return (ScoreNode[][]) sn;
         } else {
-            // ScoreNode[]
-            return new ScoreNode[][]{(ScoreNode[]) sn};
+            ScoreNode[][] nodes;
+            if (sn instanceof List) {
+                List list = (List) sn;
+                nodes = (ScoreNode[][]) list.toArray(new ScoreNode[list.size()][]);
+            } else {
+                // ScoreNode[]
+                nodes = new ScoreNode[][]{(ScoreNode[]) sn};
+            }
+            // keep the array, the same key is usually looked up
+            // for many outer score nodes
+            map.put(key, nodes);
+            return nodes;
         }
     }
 }
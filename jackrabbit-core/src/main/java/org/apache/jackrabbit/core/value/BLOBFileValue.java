@@ -23,6 +23,7 @@ import java.io.OutputStream;
 import javax.jcr.RepositoryException;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.BoundedInputStream;
 import org.apache.jackrabbit.core.data.DataIdentifier;
 
 /**
@@ -44,6 +45,25 @@ public abstract class BLOBFileValue {
      */
     public abstract InputStream getStream() throws RepositoryException;
 
+    /**
+     * Returns an InputStream over a range of this value. The stream ends
+     * early if the end of the value is reached. This implementation skips
+     * the bytes before the offset.
+     *
+     * @param offset the position of the first byte, starting at 0
+     * @param length the maximum number of bytes
+     * @return An InputStream over the range.
+     * @throws RepositoryException if the stream could not be opened
+     */
+    public InputStream getStream(long offset, long length)
+            throws RepositoryException {
+        try {
+            return BoundedInputStream.getRange(getStream(), offset, length);
+        } catch (IOException e) {
+            throw new RepositoryException("Error reading " + this, e);
+        }
+    }
+
     /**
      * Returns the length of this <code>BLOBFileValue</code>.
      *
@@ -104,6 +104,16 @@ public class BLOBInDataStore extends BLOBFileValue {
         return getDataRecord().getStream();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the requested range is read from the data store.
+     */
+    public InputStream getStream(long offset, long length)
+            throws RepositoryException {
+        return getDataRecord().getStream(offset, length);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.value;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.api.jsr283.Binary;
+
+/**
+ * A JSR 283 binary that is backed by a blob file value. Positional reads
+ * only read the requested range of the value.
+ */
+class BinaryImpl implements Binary {
+
+    private final BLOBFileValue blob;
+
+    /**
+     * Construct a new binary from the given blob.
+     *
+     * @param blob the blob
+     */
+    BinaryImpl(BLOBFileValue blob) {
+        this.blob = blob;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getStream() throws RepositoryException {
+        return blob.getStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int read(byte[] b, long position)
+            throws IOException, RepositoryException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+        InputStream in = blob.getStream(position, b.length);
+        try {
+            int pos = 0;
+            while (pos < b.length) {
+                int n = in.read(b, pos, b.length - pos);
+                if (n < 0) {
+                    break;
+                }
+                pos += n;
+            }
+            return pos == 0 && b.length > 0 ? -1 : pos;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSize() throws RepositoryException {
+        return blob.getLength();
+    }
+
+}
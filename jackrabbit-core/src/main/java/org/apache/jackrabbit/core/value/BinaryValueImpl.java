@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.value;
 
 import javax.jcr.RepositoryException;
 import org.apache.jackrabbit.api.JackrabbitValue;
+import org.apache.jackrabbit.api.jsr283.Binary;
 import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.value.BinaryValue;
 
@@ -46,6 +47,17 @@ public class BinaryValueImpl extends BinaryValue implements JackrabbitValue {
         return id == null ? null : id.toString();
     }
 
+    /**
+     * Get a JSR 283 binary that supports reading at a given position.
+     * The binary reads ranges directly from the data store if the value
+     * is stored there.
+     *
+     * @return the binary
+     */
+    public Binary getBinary() {
+        return new BinaryImpl(blob);
+    }
+
     /**
      * Get the wrapped blob file value
      * 
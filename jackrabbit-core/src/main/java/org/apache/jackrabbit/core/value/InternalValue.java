@@ -85,8 +85,11 @@ public class InternalValue {
 
     /**
      * Temporary binary values smaller or equal this size are kept in memory
+     * if no data store is used. The default is 1024, it can be changed with
+     * the system property "org.jackrabbit.minBlobFileSize".
      */
-    private static final int MIN_BLOB_FILE_SIZE = 1024;
+    private static final int MIN_BLOB_FILE_SIZE =
+        Integer.getInteger("org.jackrabbit.minBlobFileSize", 1024).intValue();
 
     private Object val;
     private final int type;
@@ -627,7 +630,8 @@ public class InternalValue {
     private static BLOBFileValue getBLOBFileValue(DataStore store, InputStream in, boolean temporary) throws RepositoryException {
         int maxMemorySize;
         if (store != null) {
-            maxMemorySize = store.getMinRecordLength() - 1;
+            // values shorter than this are inline, see isInline
+            maxMemorySize = store.getMinRecordLength();
         } else {
             maxMemorySize = MIN_BLOB_FILE_SIZE;
         }
@@ -662,6 +666,20 @@ public class InternalValue {
         }
     }
 
+    /**
+     * Checks whether a binary value of the given length is kept in memory and
+     * stored inline in the bundle, instead of being stored in the data store.
+     * Values that are smaller than the minimum record length of the data store
+     * are inline, all other values are stored in the data store.
+     *
+     * @param length the length of the binary value
+     * @param store the data store
+     * @return true if the value is inline
+     */
+    public static boolean isInline(long length, DataStore store) {
+        return length < store.getMinRecordLength();
+    }
+
     private static BLOBFileValue getBLOBFileValue(DataStore store, String id) {
         if (BLOBInMemory.isInstance(id)) {
             return BLOBInMemory.getInstance(id);
@@ -688,7 +706,7 @@ public class InternalValue {
             // already in the data store, OK
             return;
         } else if (v instanceof BLOBInMemory) {
-            if (v.getLength() < dataStore.getMinRecordLength()) {
+            if (isInline(v.getLength(), dataStore)) {
                 // in memory and does not make sense to store, OK
                 return;
             }
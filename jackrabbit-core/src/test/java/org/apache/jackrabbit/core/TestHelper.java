@@ -18,6 +18,8 @@ package org.apache.jackrabbit.core;
 
 import javax.jcr.RepositoryException;
 
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
+
 /**
  * <code>TestHelper</code> provides test utility methods.
  */
@@ -35,4 +37,20 @@ public class TestHelper {
             throws RepositoryException {
         repo.getWorkspaceInfo(name).dispose();
     }
+
+    /**
+     * Returns the persistence manager of the workspace with the given
+     * <code>name</code>.
+     *
+     * @param name the name of the workspace.
+     * @param repo the repository.
+     * @return the persistence manager of the workspace.
+     * @throws RepositoryException if there is no workspace with the given
+     *                             name.
+     */
+    public static PersistenceManager getPersistenceManager(String name,
+                                                           RepositoryImpl repo)
+            throws RepositoryException {
+        return repo.getWorkspaceInfo(name).getPersistenceManager();
+    }
 }
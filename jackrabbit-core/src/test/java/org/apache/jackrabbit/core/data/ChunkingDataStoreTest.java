@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Tests the class ChunkingDataStore
+ */
+public class ChunkingDataStoreTest extends JUnitTest {
+
+    private File testDir = new File(System.getProperty("java.io.tmpdir"), "chunkingDataStore");
+
+    private ChunkingDataStore store;
+
+    private byte[] data = new byte[256 * 1024];
+
+    protected void setUp() throws Exception {
+        FileUtils.deleteDirectory(testDir);
+        store = new ChunkingDataStore();
+        store.setAverageChunkSize(4096);
+        store.init(testDir.getPath());
+        new Random(1).nextBytes(data);
+    }
+
+    protected void tearDown() throws IOException {
+        store.close();
+        FileUtils.deleteDirectory(testDir);
+    }
+
+    public void testAddAndRead() throws Exception {
+        DataRecord rec = store.addRecord(new ByteArrayInputStream(data));
+        assertEquals(data.length, rec.getLength());
+        rec = store.getRecord(rec.getIdentifier());
+        assertContent(data, 0, data.length, rec.getStream());
+        assertContent(data, 5000, 20000, rec.getStream(5000, 20000));
+        assertContent(data, data.length - 10, 10, rec.getStream(data.length - 10, 100));
+        assertEquals(-1, rec.getStream(data.length + 10, 10).read());
+
+        // the same record is only stored once
+        int chunks = store.getChunkCount();
+        assertTrue(chunks > data.length / 4096 / 4);
+        assertEquals(rec.getIdentifier(),
+                store.addRecord(new ByteArrayInputStream(data)).getIdentifier());
+        assertEquals(chunks, store.getChunkCount());
+
+        DataRecord empty = store.addRecord(new ByteArrayInputStream(new byte[0]));
+        assertEquals(0, empty.getLength());
+        assertEquals(-1, store.getRecord(empty.getIdentifier()).getStream().read());
+    }
+
+    public void testSmallRecord() throws Exception {
+        byte[] small = new byte[50];
+        System.arraycopy(data, 0, small, 0, small.length);
+        DataRecord rec = store.addRecord(new ByteArrayInputStream(small));
+        assertEquals(small.length, rec.getLength());
+        assertContent(small, 0, small.length,
+                store.getRecord(rec.getIdentifier()).getStream());
+
+        // small records are stored without chunks
+        assertEquals(0, store.getChunkCount());
+        assertEquals(rec.getIdentifier(), store.getAllIdentifiers().next());
+        assertEquals(rec.getIdentifier(),
+                store.addRecord(new ByteArrayInputStream(small)).getIdentifier());
+
+        rec = null;
+        store.clearInUse();
+        assertEquals(1, store.deleteAllOlderThan(System.currentTimeMillis() + 10000));
+        assertFalse(store.getAllIdentifiers().hasNext());
+    }
+
+    public void testNearDuplicate() throws Exception {
+        DataIdentifier id = store.addRecord(new ByteArrayInputStream(data)).getIdentifier();
+        int chunks = store.getChunkCount();
+
+        // insert a few bytes in the middle
+        byte[] edited = new byte[data.length + 3];
+        System.arraycopy(data, 0, edited, 0, 100000);
+        System.arraycopy(data, 100000, edited, 100003, data.length - 100000);
+        DataRecord rec = store.addRecord(new ByteArrayInputStream(edited));
+        assertFalse(id.equals(rec.getIdentifier()));
+        assertContent(edited, 0, edited.length, rec.getStream());
+        int added = store.getChunkCount() - chunks;
+        assertTrue("added " + added + " of " + chunks, added <= 3);
+
+        // append to the end
+        byte[] appended = new byte[data.length + 1000];
+        System.arraycopy(data, 0, appended, 0, data.length);
+        chunks = store.getChunkCount();
+        rec = store.addRecord(new ByteArrayInputStream(appended));
+        assertContent(appended, 0, appended.length, rec.getStream());
+        added = store.getChunkCount() - chunks;
+        assertTrue("added " + added + " of " + chunks, added <= 2);
+    }
+
+    public void testDeleteAllOlderThan() throws Exception {
+        DataIdentifier id = store.addRecord(new ByteArrayInputStream(data)).getIdentifier();
+        int chunks = store.getChunkCount();
+        byte[] other = new byte[10000];
+        new Random(2).nextBytes(other);
+        DataIdentifier otherId = store.addRecord(
+                new ByteArrayInputStream(other)).getIdentifier();
+        assertTrue(store.getChunkCount() > chunks);
+
+        Thread.sleep(10);
+        long now = System.currentTimeMillis();
+        store.clearInUse();
+        DataRecord kept = store.getRecord(id);
+        // the garbage collector would update the modified date of this record
+        touchManifest(id, now + 1000);
+        assertEquals(1, store.deleteAllOlderThan(now));
+        assertNull(store.getRecordIfStored(otherId));
+        assertEquals(chunks, store.getChunkCount());
+        assertContent(data, 0, data.length, kept.getStream());
+    }
+
+    private void touchManifest(DataIdentifier id, long time) {
+        String s = id.toString();
+        new File(testDir, "repository/datastore/records/" + s.substring(0, 2)
+                + "/" + s.substring(2, 4) + "/" + s.substring(4, 6) + "/" + s)
+                .setLastModified(time);
+    }
+
+    private static void assertContent(byte[] expected, int offset, int length,
+            InputStream in) throws IOException {
+        try {
+            byte[] actual = IOUtils.toByteArray(in);
+            assertEquals(length, actual.length);
+            for (int i = 0; i < length; i++) {
+                assertEquals(expected[offset + i], actual[i]);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -19,6 +19,9 @@ package org.apache.jackrabbit.core.data;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.util.Random;
 
 import junit.framework.TestCase;
@@ -101,4 +104,188 @@ public class DBDataStoreTest extends TestCase {
         }
     }
 
+    public void testGetRange() throws Exception {
+        DataRecord record = store.getRecord(identifier);
+        assertRange(record, 0, data.length);
+        assertRange(record, 100, 200);
+        assertRange(record, data.length - 10, 100);
+        assertRange(record, data.length + 10, 100);
+        assertRange(record, 10, 0);
+    }
+
+    private void assertRange(DataRecord record, int offset, int length)
+            throws Exception {
+        InputStream stream = record.getStream(offset, length);
+        try {
+            int end = Math.min(data.length, offset + length);
+            for (int i = offset; i < end; i++) {
+                assertEquals((data[i]) & 0xff, stream.read());
+            }
+            assertEquals(-1, stream.read());
+        } finally {
+            stream.close();
+        }
+    }
+
+    public void testLocalCache() throws Exception {
+        store.close();
+        store = new DbDataStore();
+        store.setUrl("jdbc:derby:target/test-db-datastore/db");
+        store.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        store.setCacheSize(2 * data.length + 100);
+        store.init("target/test-db-datastore");
+        File cache = new File("target/test-db-datastore/repository/datastore-cache");
+
+        DataIdentifier[] ids = new DataIdentifier[3];
+        ids[0] = identifier;
+        for (int i = 1; i < ids.length; i++) {
+            byte[] d = (byte[]) data.clone();
+            d[0] = (byte) i;
+            ids[i] = store.addRecord(new ByteArrayInputStream(d)).getIdentifier();
+        }
+
+        // the first read copies the record to the cache
+        for (int i = 0; i < 2; i++) {
+            InputStream stream = store.getRecord(identifier).getStream();
+            try {
+                for (int j = 0; j < data.length; j++) {
+                    assertEquals((data[j]) & 0xff, stream.read());
+                }
+                assertEquals(-1, stream.read());
+            } finally {
+                stream.close();
+            }
+            assertTrue(getCacheFile(cache, identifier).exists());
+        }
+
+        // the least recently used record is evicted
+        for (int i = 1; i < ids.length; i++) {
+            InputStream stream = store.getRecord(ids[i]).getStream();
+            assertEquals(i, stream.read());
+            stream.close();
+        }
+        assertFalse(getCacheFile(cache, identifier).exists());
+        assertTrue(getCacheFile(cache, ids[1]).exists());
+        assertTrue(getCacheFile(cache, ids[2]).exists());
+
+        // range reads of cached and uncached records
+        assertRange(store.getRecord(identifier), 100, 200);
+        DataRecord record = store.getRecord(ids[2]);
+        InputStream stream = record.getStream(0, 1);
+        assertEquals(2, stream.read());
+        assertEquals(-1, stream.read());
+        stream.close();
+
+        // deleted records are removed from the cache
+        store.clearInUse();
+        assertTrue(store.deleteRecord(ids[2], Long.MAX_VALUE));
+        assertFalse(getCacheFile(cache, ids[2]).exists());
+        assertTrue(getCacheFile(cache, ids[1]).exists());
+        store.deleteAllOlderThan(Long.MAX_VALUE);
+        assertFalse(getCacheFile(cache, ids[1]).exists());
+
+        // a cache file that was deleted by someone else no longer counts
+        // towards the size of the cache
+        for (int i = 0; i < 2; i++) {
+            byte[] d = (byte[]) data.clone();
+            d[0] = (byte) (10 + i);
+            ids[i] = store.addRecord(new ByteArrayInputStream(d)).getIdentifier();
+        }
+        stream = store.getRecord(ids[0]).getStream();
+        assertEquals(10, stream.read());
+        stream.close();
+        assertTrue(getCacheFile(cache, ids[0]).delete());
+        for (int i = 0; i < 2; i++) {
+            stream = store.getRecord(ids[i]).getStream();
+            assertEquals(10 + i, stream.read());
+            stream.close();
+        }
+        assertTrue(getCacheFile(cache, ids[0]).exists());
+        assertTrue(getCacheFile(cache, ids[1]).exists());
+    }
+
+    public void testChunkedRecord() throws Exception {
+        store.close();
+        store = new DbDataStore();
+        // a new database, so that the chunk table is created
+        store.setUrl("jdbc:derby:target/test-db-datastore/chunked;create=true");
+        store.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        store.setChunkSize(100);
+        store.init("target/test-db-datastore");
+
+        byte[] d = (byte[]) data.clone();
+        d[0]++;
+        DataIdentifier id = store.addRecord(new ByteArrayInputStream(d)).getIdentifier();
+        assertEquals(11, getChunkCount(id));
+        assertEquals(id, store.addRecord(new ByteArrayInputStream(d)).getIdentifier());
+        assertEquals(11, getChunkCount(id));
+
+        DataRecord record = store.getRecord(id);
+        assertEquals(d.length, record.getLength());
+        InputStream stream = record.getStream();
+        try {
+            for (int i = 0; i < d.length; i++) {
+                assertEquals((d[i]) & 0xff, stream.read());
+            }
+            assertEquals(-1, stream.read());
+        } finally {
+            stream.close();
+        }
+        // the records only differ in the first byte
+        assertRange(record, 150, 300);
+        assertRange(record, 1000, 100);
+        assertRange(record, 1, 99);
+
+        DataRecord empty = store.addRecord(new ByteArrayInputStream(new byte[0]));
+        assertEquals(0, empty.getLength());
+        stream = store.getRecord(empty.getIdentifier()).getStream();
+        assertEquals(-1, stream.read());
+        stream.close();
+
+        // chunked records are still read if chunking is disabled
+        store.close();
+        store = new DbDataStore();
+        store.setUrl("jdbc:derby:target/test-db-datastore/chunked;create=true");
+        store.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        store.init("target/test-db-datastore");
+        record = store.getRecord(id);
+        stream = record.getStream();
+        try {
+            for (int i = 0; i < d.length; i++) {
+                assertEquals((d[i]) & 0xff, stream.read());
+            }
+            assertEquals(-1, stream.read());
+        } finally {
+            stream.close();
+        }
+        assertRange(record, 150, 300);
+        stream = store.getRecord(empty.getIdentifier()).getStream();
+        assertEquals(-1, stream.read());
+        stream.close();
+
+        // and their chunks are garbage collected
+        Thread.sleep(10);
+        store.deleteAllOlderThan(System.currentTimeMillis());
+        assertEquals(0, getChunkCount(id));
+    }
+
+    private static int getChunkCount(DataIdentifier id) throws Exception {
+        Connection conn = DriverManager.getConnection(
+                "jdbc:derby:target/test-db-datastore/chunked");
+        try {
+            ResultSet rs = conn.createStatement().executeQuery(
+                    "SELECT COUNT(*) FROM DATASTORE_CHUNK WHERE ID='" + id + "'");
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            conn.close();
+        }
+    }
+
+    private static File getCacheFile(File cache, DataIdentifier id) {
+        String s = id.toString();
+        return new File(cache, s.substring(0, 2) + "/" + s.substring(2, 4)
+                + "/" + s.substring(4, 6) + "/" + s);
+    }
+
 }
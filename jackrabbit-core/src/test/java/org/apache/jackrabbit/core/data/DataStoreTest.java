@@ -29,6 +29,7 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Random;
 
 /**
@@ -95,6 +96,12 @@ public class DataStoreTest extends JUnitTest {
             doTest(fds, 0);
             // doTestMultiThreaded(fds, 4);
             fds.close();
+
+            ChunkingDataStore cds = new ChunkingDataStore();
+            cds.setAverageChunkSize(256);
+            cds.init(testDir + "/chunking");
+            doTest(cds, 0);
+            cds.close();
             
         } catch (Throwable t) {
             t.printStackTrace();
@@ -102,6 +109,100 @@ public class DataStoreTest extends JUnitTest {
         }
     }
     
+    public void testCompression() throws Exception {
+        FileDataStore fds = new FileDataStore();
+        fds.setCompressThreshold(1000);
+        fds.init(testDir + "/compressed");
+        try {
+            StringBuffer buff = new StringBuffer();
+            for (int i = 0; buff.length() < 100000; i++) {
+                buff.append("<node name=\"n").append(i).append("\"/>\n");
+            }
+            byte[] text = buff.toString().getBytes("UTF-8");
+            byte[] random = new byte[10000];
+            new Random(1).nextBytes(random);
+            byte[] small = new byte[999];
+
+            DataRecord rec = fds.addRecord(new ByteArrayInputStream(text));
+            File dir = new File(testDir, "compressed/repository/datastore");
+            assertEquals(text.length, rec.getLength());
+            assertTrue(getSize(dir) < text.length / 3);
+            // the identifier is the digest of the uncompressed stream
+            assertEquals(rec.getIdentifier(), fds.addRecord(
+                    new ByteArrayInputStream(text)).getIdentifier());
+            rec = fds.getRecord(rec.getIdentifier());
+            assertEquals(text.length, rec.getLength());
+            assertEquals(new ByteArrayInputStream(text), rec.getStream());
+            assertEquals(new ByteArrayInputStream(text, 5000, 100), rec.getStream(5000, 100));
+
+            // not compressed: random data and small records
+            long size = getSize(dir);
+            DataRecord r2 = fds.addRecord(new ByteArrayInputStream(random));
+            assertEquals(size + random.length, getSize(dir));
+            DataRecord r3 = fds.addRecord(new ByteArrayInputStream(small));
+            assertEquals(size + random.length + small.length, getSize(dir));
+            assertEquals(new ByteArrayInputStream(random), r2.getStream());
+            assertEquals(new ByteArrayInputStream(small), r3.getStream());
+
+            ArrayList ids = new ArrayList();
+            for (Iterator it = fds.getAllIdentifiers(); it.hasNext();) {
+                ids.add(it.next());
+            }
+            assertEquals(3, ids.size());
+            assertTrue(ids.contains(rec.getIdentifier()));
+
+            Thread.sleep(10);
+            fds.clearInUse();
+            assertTrue(fds.deleteRecord(rec.getIdentifier(), System.currentTimeMillis()));
+            assertNull(fds.getRecordIfStored(rec.getIdentifier()));
+            assertEquals(2, fds.deleteAllOlderThan(System.currentTimeMillis()));
+        } finally {
+            fds.close();
+        }
+    }
+
+    public void testConcurrentAddAndDelete() throws Exception {
+        final FileDataStore fds = new FileDataStore();
+        fds.init(testDir + "/concurrent");
+        try {
+            // deleting records also removes the empty directories
+            // that concurrently added records are moved to
+            final boolean[] stop = new boolean[1];
+            Thread deleter = new Thread() {
+                public void run() {
+                    for (int i = 0; !stop[0]; i++) {
+                        try {
+                            DataIdentifier id = fds.addRecord(
+                                    new RandomInputStream(-i, 200)).getIdentifier();
+                            fds.inUse.remove(id);
+                            fds.deleteRecord(id, Long.MAX_VALUE);
+                        } catch (DataStoreException e) {
+                            // ignore
+                        }
+                    }
+                }
+            };
+            deleter.start();
+            try {
+                doTestMultiThreaded(fds, 4);
+            } finally {
+                stop[0] = true;
+                deleter.join();
+            }
+        } finally {
+            fds.close();
+        }
+    }
+
+    private static long getSize(File dir) {
+        long size = 0;
+        File[] list = dir.listFiles();
+        for (int i = 0; list != null && i < list.length; i++) {
+            size += list[i].isDirectory() ? getSize(list[i]) : list[i].length();
+        }
+        return size;
+    }
+
     private void shutdownDatabase(String url) {
         if (url.startsWith("jdbc:derby:") || url.startsWith("jdbc:hsqldb:")) {
             try {
@@ -161,6 +262,17 @@ public class DataStoreTest extends JUnitTest {
             }
             assertEquals(expected, in);
             in.close();
+
+            // read a range that may extend beyond the end
+            int start = random.nextInt(size);
+            int length = random.nextInt(size);
+            in = rec.getStream(start, length);
+            expected = new RandomInputStream(size + offset, size);
+            for (int j = 0; j < start; j++) {
+                expected.read();
+            }
+            assertEquals(new BoundedInputStream(expected, length), in);
+            in.close();
         }
     }
     
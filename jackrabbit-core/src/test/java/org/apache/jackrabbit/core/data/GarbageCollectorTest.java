@@ -18,6 +18,9 @@ package org.apache.jackrabbit.core.data;
 
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.TestHelper;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.test.AbstractJCRTest;
 import org.slf4j.Logger;
@@ -140,6 +143,120 @@ public class GarbageCollectorTest extends AbstractJCRTest implements ScanEventLi
         deleteMyNodes();
     }
 
+    public void testMarkSweep() throws Exception {
+        Node root = testRootNode;
+        Session session = root.getSession();
+
+        RepositoryImpl rep = (RepositoryImpl) session.getRepository();
+        if (!(rep.getDataStore() instanceof DeletableDataStore)) {
+            LOG.info("testMarkSweep skipped. Data store is not deletable.");
+            return;
+        }
+
+        deleteMyNodes();
+        runGC(session, true);
+
+        Node n = root.addNode("nodeWithBlob");
+        n.setProperty("test", new RandomInputStream(20, 10000));
+        Node n2 = root.addNode("nodeWithTemporaryBlob");
+        n2.setProperty("test", new RandomInputStream(21, 10000));
+        session.save();
+        n2.remove();
+        session.save();
+        Thread.sleep(1000);
+
+        for (int i = 0; i < 2; i++) {
+            GarbageCollector gc = ((SessionImpl) session).createDataStoreGarbageCollector();
+            gc.setMarkSweep(true);
+            gc.setPersistenceManagerScan(i == 0);
+            gc.scan();
+            gc.stopScan();
+            int count = listIdentifiers(gc);
+            gc.getDataStore().clearInUse();
+            if (i == 0) {
+                assertEquals(1, gc.deleteUnused());
+            } else {
+                assertEquals(0, gc.deleteUnused());
+            }
+            assertEquals(count - (i == 0 ? 1 : 0), listIdentifiers(gc));
+            gc.close();
+        }
+
+        InputStream in = n.getProperty("test").getStream();
+        InputStream in2 = new RandomInputStream(20, 10000);
+        while (true) {
+            int a = in.read();
+            int b = in2.read();
+            assertEquals(a, b);
+            if (a < 0) {
+                break;
+            }
+        }
+        in.close();
+
+        deleteMyNodes();
+    }
+
+    public void testParallelScan() throws Exception {
+        Session session = testRootNode.getSession();
+        RepositoryImpl rep = (RepositoryImpl) session.getRepository();
+        if (rep.getDataStore() == null) {
+            LOG.info("testParallelScan skipped. Data store is not used.");
+            return;
+        }
+        PersistenceManager pm = TestHelper.getPersistenceManager(workspaceName, rep);
+        if (!(pm instanceof IterablePersistenceManager)) {
+            LOG.info("testParallelScan skipped. Persistence manager is not iterable.");
+            return;
+        }
+        IterablePersistenceManager[] pmList =
+            new IterablePersistenceManager[] {(IterablePersistenceManager) pm};
+        int nodes = 0;
+        for (Iterator it = pmList[0].getAllNodeIds(null, 0); it.hasNext(); it.next()) {
+            nodes++;
+        }
+
+        for (int threads = 1; threads <= 4; threads += 3) {
+            GarbageCollector gc = new GarbageCollector(
+                    (SessionImpl) session, pmList, new Session[0]);
+            final int[] scanned = new int[1];
+            gc.setScanEventListener(new ScanEventListener() {
+                public void beforeScanning(Node n) {
+                }
+                public void afterScanning(Node n) {
+                    synchronized (scanned) {
+                        scanned[0]++;
+                    }
+                }
+                public void done() {
+                }
+            });
+            gc.setScanThreads(threads);
+            gc.setMaxNodesPerSecond(nodes * 2);
+            long start = System.currentTimeMillis();
+            gc.scan();
+            long time = System.currentTimeMillis() - start;
+            gc.stopScan();
+            gc.close();
+            assertEquals(nodes, scanned[0]);
+            // the scan rate is limited to twice the number of nodes
+            assertTrue("scan took " + time + " ms", time >= 400);
+        }
+
+        // the scan rate also applies to a later scan of the same collector
+        GarbageCollector gc = new GarbageCollector(
+                (SessionImpl) session, pmList, new Session[0]);
+        gc.setMaxNodesPerSecond(nodes);
+        gc.scan();
+        Thread.sleep(2000);
+        long start = System.currentTimeMillis();
+        gc.scan();
+        long time = System.currentTimeMillis() - start;
+        gc.stopScan();
+        gc.close();
+        assertTrue("second scan took " + time + " ms", time >= 900);
+    }
+
     private void runGC(Session session, boolean all) throws RepositoryException, IOException, ItemStateException {
         GarbageCollector gc = ((SessionImpl)session).createDataStoreGarbageCollector();
         gc.setScanEventListener(this);
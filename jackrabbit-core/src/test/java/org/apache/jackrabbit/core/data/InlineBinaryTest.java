@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.Session;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.TestHelper;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests that small binaries are stored in the bundle, and that binaries in
+ * the data store are moved into the bundle after the minimum record length
+ * was increased.
+ */
+public class InlineBinaryTest extends AbstractJCRTest {
+
+    /** logger instance */
+    private static final Logger LOG = LoggerFactory.getLogger(InlineBinaryTest.class);
+
+    public void testInlineSmallBinaries() throws Exception {
+        RepositoryImpl rep = (RepositoryImpl) superuser.getRepository();
+        DataStore store = rep.getDataStore();
+        if (!(store instanceof FileDataStore)) {
+            LOG.info("testInlineSmallBinaries skipped. File data store is not used.");
+            return;
+        }
+        PersistenceManager pm = TestHelper.getPersistenceManager(
+                superuser.getWorkspace().getName(), rep);
+        if (!(pm instanceof AbstractBundlePersistenceManager)) {
+            LOG.info("testInlineSmallBinaries skipped. Bundle persistence manager is not used.");
+            return;
+        }
+        AbstractBundlePersistenceManager bpm = (AbstractBundlePersistenceManager) pm;
+        FileDataStore fds = (FileDataStore) store;
+        int minRecordLength = fds.getMinRecordLength();
+        byte[] data = new byte[minRecordLength + 100];
+        new Random(1).nextBytes(data);
+
+        Node n = testRootNode.addNode(nodeName1);
+        n.setProperty(propertyName1, new ByteArrayInputStream(data));
+        // exactly one byte less than the minimum record length is inline
+        n.setProperty(propertyName2, new ByteArrayInputStream(data, 0, minRecordLength - 1));
+        testRootNode.save();
+        InternalValue[] values = bpm.getBinaryValues(((NodeImpl) n).getNodeId());
+        assertEquals(2, values.length);
+        assertEquals(1, countInDataStore(values));
+
+        fds.setMinRecordLength(data.length + 1);
+        try {
+            assertTrue(bpm.inlineSmallBinaries() >= 1);
+            assertEquals(0, bpm.inlineSmallBinaries());
+        } finally {
+            fds.setMinRecordLength(minRecordLength);
+        }
+        values = bpm.getBinaryValues(((NodeImpl) n).getNodeId());
+        assertEquals(0, countInDataStore(values));
+        byte[] read = IOUtils.toByteArray(
+                superuser.getRootNode().getNode(testPath).getNode(nodeName1)
+                .getProperty(propertyName1).getStream());
+        assertEquals(data.length, read.length);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i], read[i]);
+        }
+    }
+
+    public void testGarbageCollectionAfterInline() throws Exception {
+        RepositoryImpl rep = (RepositoryImpl) superuser.getRepository();
+        DataStore store = rep.getDataStore();
+        if (!(store instanceof FileDataStore)) {
+            LOG.info("testGarbageCollectionAfterInline skipped. File data store is not used.");
+            return;
+        }
+        PersistenceManager pm = TestHelper.getPersistenceManager(
+                superuser.getWorkspace().getName(), rep);
+        if (!(pm instanceof AbstractBundlePersistenceManager)) {
+            LOG.info("testGarbageCollectionAfterInline skipped. Bundle persistence manager is not used.");
+            return;
+        }
+        AbstractBundlePersistenceManager bpm = (AbstractBundlePersistenceManager) pm;
+        FileDataStore fds = (FileDataStore) store;
+        int minRecordLength = fds.getMinRecordLength();
+        byte[] data = new byte[minRecordLength + 100];
+        new Random(2).nextBytes(data);
+
+        Node n = testRootNode.addNode(nodeName1);
+        n.setProperty(propertyName1, new ByteArrayInputStream(data));
+        testRootNode.save();
+        // the item state of the property references the record
+        Property p = n.getProperty(propertyName1);
+
+        fds.setMinRecordLength(data.length + 1);
+        try {
+            assertTrue(bpm.inlineSmallBinaries() >= 1);
+        } finally {
+            fds.setMinRecordLength(minRecordLength);
+        }
+
+        Thread.sleep(1000);
+        // scan the bundles only, reading the cached item states would
+        // update the modified date of the record
+        GarbageCollector gc = new GarbageCollector((SessionImpl) superuser,
+                new IterablePersistenceManager[] {bpm}, new Session[0]);
+        try {
+            gc.scan();
+            gc.stopScan();
+            store.clearInUse();
+            gc.deleteUnused();
+        } finally {
+            gc.close();
+        }
+        assertEquals(data.length, IOUtils.toByteArray(p.getStream()).length);
+    }
+
+    private static int countInDataStore(InternalValue[] values) {
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].getBLOBFileValue().getDataIdentifier() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
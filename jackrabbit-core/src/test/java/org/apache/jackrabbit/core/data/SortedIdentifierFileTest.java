@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import org.apache.jackrabbit.test.JUnitTest;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Tests the class SortedIdentifierFile
+ */
+public class SortedIdentifierFileTest extends JUnitTest {
+
+    public void testEmpty() throws IOException {
+        SortedIdentifierFile file = new SortedIdentifierFile();
+        SortedIdentifierFile.Reader reader = file.open();
+        assertNull(reader.next());
+        reader.close();
+        file.delete();
+    }
+
+    public void testSortAndMerge() throws IOException {
+        // more identifiers than fit in one run, with duplicates
+        Random random = new Random(1);
+        TreeSet expected = new TreeSet();
+        SortedIdentifierFile file = new SortedIdentifierFile();
+        for (int i = 0; i < 250000; i++) {
+            String id = Integer.toHexString(random.nextInt(200000));
+            expected.add(id);
+            file.add(new DataIdentifier(id));
+        }
+        SortedIdentifierFile.Reader reader = file.open();
+        try {
+            for (Iterator it = expected.iterator(); it.hasNext();) {
+                assertEquals(it.next(), reader.next());
+            }
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+            file.delete();
+        }
+    }
+
+}
@@ -44,6 +44,10 @@ public class TestAll extends TestCase {
         suite.addTestSuite(CopyValueTest.class);
         suite.addTestSuite(TestTwoGetStreams.class);
         suite.addTestSuite(TempFileInputStreamTest.class);
+        suite.addTestSuite(SortedIdentifierFileTest.class);
+        suite.addTestSuite(ChunkingDataStoreTest.class);
+        suite.addTestSuite(InlineBinaryTest.class);
+        suite.addTestSuite(WriteBehindDataStoreTest.class);
         return suite;
     }
 
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Tests the class WriteBehindDataStore
+ */
+public class WriteBehindDataStoreTest extends JUnitTest {
+
+    private File testDir = new File(System.getProperty("java.io.tmpdir"), "writeBehindDataStore");
+
+    private TestBackend backend;
+
+    private WriteBehindDataStore store;
+
+    private byte[] data = new byte[100000];
+
+    protected void setUp() throws Exception {
+        FileUtils.deleteDirectory(testDir);
+        new Random(1).nextBytes(data);
+        backend = new TestBackend();
+        store = createStore(backend);
+    }
+
+    protected void tearDown() throws IOException {
+        backend.failures = 0;
+        synchronized (backend) {
+            backend.blocked = false;
+            backend.notifyAll();
+        }
+        try {
+            store.close();
+        } catch (DataStoreException e) {
+            // ignore
+        }
+        FileUtils.deleteDirectory(testDir);
+    }
+
+    public void testAddAndUpload() throws Exception {
+        backend.setBlocked(true);
+        DataRecord rec = store.addRecord(new ByteArrayInputStream(data));
+        assertEquals(data.length, rec.getLength());
+        assertEquals(1, store.getPendingCount());
+        assertNull(backend.getRecordIfStored(rec.getIdentifier()));
+
+        // a pending record is read from the local directory
+        DataRecord pending = store.getRecord(rec.getIdentifier());
+        assertEquals(data.length, pending.getLength());
+        assertContent(data, pending.getStream());
+        assertEquals(rec.getIdentifier(), store.getAllIdentifiers().next());
+
+        backend.setBlocked(false);
+        assertTrue(store.waitForUploads(10000));
+        assertEquals(0, store.getPendingCount());
+        assertContent(data, backend.getRecord(rec.getIdentifier()).getStream());
+
+        // a record returned while pending is read from the backend
+        assertContent(data, pending.getStream());
+        assertContent(data, store.getRecord(rec.getIdentifier()).getStream());
+
+        // adding the same record again does not upload it twice
+        int uploads = backend.uploads;
+        store.addRecord(new ByteArrayInputStream(data));
+        assertTrue(store.waitForUploads(10000));
+        assertEquals(uploads, backend.uploads);
+    }
+
+    public void testDeleteAfterUpload() throws Exception {
+        DataRecord rec = store.addRecord(new ByteArrayInputStream(data));
+        store.addRecord(new ByteArrayInputStream(new byte[1000])).getIdentifier();
+        assertTrue(store.waitForUploads(10000));
+
+        // the local copy of an unreferenced record is deleted
+        File pending = new File(testDir, "pending");
+        for (int i = 0; i < 100 && getFileCount(pending) > 1; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertEquals(1, getFileCount(pending));
+
+        // while the local copy of a record in use is kept
+        System.gc();
+        Thread.sleep(100);
+        assertEquals(1, getFileCount(pending));
+        assertEquals(data.length, rec.getLength());
+        assertContent(data, rec.getStream());
+    }
+
+    public void testGarbageCollectionAfterUpload() throws Exception {
+        DataRecord rec = store.addRecord(new ByteArrayInputStream(data));
+        assertTrue(store.waitForUploads(10000));
+        DataIdentifier id = rec.getIdentifier();
+        // the backend copy was uploaded long before the scan started
+        String name = id.toString();
+        File file = new File(new File(new File(new File(new File(testDir, "backend"),
+                name.substring(0, 2)), name.substring(2, 4)), name.substring(4, 6)), name);
+        assertTrue(file.exists());
+        file.setLastModified(System.currentTimeMillis() - 60000);
+
+        // the scan reads the record that is still in the local directory
+        long start = System.currentTimeMillis();
+        store.updateModifiedDateOnAccess(start);
+        assertContent(data, store.getRecord(id).getStream());
+        store.clearInUse();
+        store.deleteAllOlderThan(start);
+
+        assertTrue(file.exists());
+        assertContent(data, backend.getRecord(id).getStream());
+        assertEquals(data.length, rec.getLength());
+    }
+
+    public void testRetry() throws Exception {
+        backend.failures = 2;
+        DataRecord rec = store.addRecord(new ByteArrayInputStream(data));
+        assertContent(data, store.getRecord(rec.getIdentifier()).getStream());
+        assertTrue(store.waitForUploads(10000));
+        assertEquals(0, backend.failures);
+        assertContent(data, backend.getRecord(rec.getIdentifier()).getStream());
+    }
+
+    public void testRestart() throws Exception {
+        backend.setBlocked(true);
+        DataIdentifier id = store.addRecord(new ByteArrayInputStream(data)).getIdentifier();
+        backend.failures = Integer.MAX_VALUE;
+        backend.setBlocked(false);
+        store.close();
+        assertNull(backend.getRecordIfStored(id));
+
+        // the pending record is uploaded after the restart
+        backend = new TestBackend();
+        store = createStore(backend);
+        assertContent(data, store.getRecord(id).getStream());
+        assertTrue(store.waitForUploads(10000));
+        assertContent(data, backend.getRecord(id).getStream());
+    }
+
+    private WriteBehindDataStore createStore(DataStore backend)
+            throws Exception {
+        WriteBehindDataStore s = new WriteBehindDataStore();
+        s.setBackend(backend);
+        s.setPath(new File(testDir, "pending").getPath());
+        s.setRetryDelay(10);
+        s.init(testDir.getPath());
+        return s;
+    }
+
+    private static int getFileCount(File dir) {
+        int count = 0;
+        File[] list = dir.listFiles();
+        for (int i = 0; list != null && i < list.length; i++) {
+            count += list[i].isDirectory() ? getFileCount(list[i]) : 1;
+        }
+        return count;
+    }
+
+    private void assertContent(byte[] expected, InputStream in)
+            throws IOException {
+        try {
+            byte[] actual = IOUtils.toByteArray(in);
+            assertEquals(expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], actual[i]);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A backend that can block or fail uploads.
+     */
+    private class TestBackend extends FileDataStore {
+
+        volatile int failures;
+
+        volatile int uploads;
+
+        boolean blocked;
+
+        TestBackend() {
+            setPath(new File(testDir, "backend").getPath());
+        }
+
+        synchronized void setBlocked(boolean blocked) {
+            this.blocked = blocked;
+            notifyAll();
+        }
+
+        public DataRecord addRecord(InputStream stream)
+                throws DataStoreException {
+            synchronized (this) {
+                while (blocked) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new DataStoreException("Interrupted", e);
+                    }
+                }
+            }
+            if (failures > 0) {
+                failures--;
+                throw new DataStoreException("Upload failed");
+            }
+            uploads++;
+            return super.addRecord(stream);
+        }
+    }
+
+}
@@ -42,6 +42,15 @@ public class IndexFormatVersionTest extends AbstractJCRTest {
         checkIndexFormatVersion("index-format-v3", IndexFormatVersion.V3);
     }
 
+    public void testVersionThreeTrieMigration() throws RepositoryException {
+        // an index with version three is migrated if trieMigration is set
+        checkIndexFormatVersion("index-format-v3-trie", IndexFormatVersion.V4);
+    }
+
+    public void testVersionFour() throws RepositoryException {
+        checkIndexFormatVersion("index-format-v4", IndexFormatVersion.V4);
+    }
+
     private void checkIndexFormatVersion(String wspName,
                                          IndexFormatVersion version)
             throws RepositoryException {
@@ -19,8 +19,19 @@ package org.apache.jackrabbit.core.query;
 import javax.jcr.RepositoryException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
 import javax.jcr.Value;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Query;
+import javax.jcr.query.Row;
 import javax.jcr.query.RowIterator;
+
+import org.apache.jackrabbit.core.query.lucene.SearchIndex;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.query.jsr283.qom.QueryObjectModelConstants;
+import org.apache.jackrabbit.spi.commons.query.jsr283.qom.QueryObjectModelFactory;
+
+import java.io.ByteArrayInputStream;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -122,4 +133,91 @@ public class IndexingRuleTest extends AbstractIndexingTest {
         assertTrue("Title must not be present in excerpt",
                 excerpt.getString().indexOf("Apache") == -1);
     }
+
+    public void testLowerCase() throws RepositoryException {
+        // assumes that property 'caption' is indexed lower-cased
+        Node node1 = testRootNode.addNode(nodeName1, NT_UNSTRUCTURED);
+        node1.setProperty("caption", "Apache");
+        Node node2 = testRootNode.addNode(nodeName2, NT_UNSTRUCTURED);
+        node2.setProperty("caption", "APACHE Jackrabbit");
+        Node node3 = testRootNode.addNode(nodeName3, NT_UNSTRUCTURED);
+        node3.setProperty("caption", "apache lucene");
+        Node node4 = testRootNode.addNode(nodeName4, NT_UNSTRUCTURED);
+        node4.setProperty("caption", "Jackrabbit");
+        testRootNode.save();
+
+        SearchIndex index = (SearchIndex) getQueryHandler();
+        assertTrue("lower-cased values of caption must be used",
+                index.getLowerCaseProperties(false).contains(
+                        NameFactoryImpl.getInstance().create("", "caption")));
+
+        String path = "/jcr:root" + testRootNode.getPath();
+        executeXPathQuery(path + "/*[fn:lower-case(@caption) = 'apache']",
+                new Node[]{node1});
+        executeXPathQuery(path + "/*[fn:lower-case(@caption) = 'Apache']",
+                new Node[]{});
+        executeXPathQuery(path + "/*[jcr:like(fn:lower-case(@caption), 'apache%')]",
+                new Node[]{node1, node2, node3});
+        executeXPathQuery(path + "/*[fn:lower-case(@caption) > 'apache jackrabbit']",
+                new Node[]{node3, node4});
+        executeXPathQuery(path + "/*[fn:lower-case(@caption) <= 'apache jackrabbit']",
+                new Node[]{node1, node2});
+        executeXPathQuery(path + "/*[fn:lower-case(@caption) != 'apache']",
+                new Node[]{node2, node3, node4});
+        executeXPathQuery(path + "/*[fn:upper-case(@caption) = 'JACKRABBIT']",
+                new Node[]{node4});
+
+        executeSQLQuery("SELECT * FROM nt:base WHERE jcr:path LIKE '"
+                + testRoot + "/%' AND LOWER(caption) LIKE 'apache _%'",
+                new Node[]{node2, node3});
+
+        QueryObjectModelFactory qf = ((QueryManagerImpl) qm).getQOMFactory();
+        QueryResult result = qf.createQuery(
+                qf.selector(NT_UNSTRUCTURED, "s"),
+                qf.and(
+                        qf.childNode("s", testRoot),
+                        qf.comparison(
+                                qf.lowerCase(qf.propertyValue("s", "caption")),
+                                QueryObjectModelConstants.OPERATOR_EQUAL_TO,
+                                qf.literal(session.getValueFactory().createValue(
+                                        "apache jackrabbit")))),
+                null, null).execute();
+        checkResult(result, new Node[]{node2});
+    }
+
+    public void testStoredValues() throws RepositoryException {
+        // assumes that caption, amount, tags and data are stored
+        Node node1 = testRootNode.addNode(nodeName1, NT_UNSTRUCTURED);
+        node1.setProperty("caption", "Apache");
+        node1.setProperty("amount", 42);
+        node1.setProperty("tags", new String[]{"a", "b"});
+        node1.setProperty("data", new ByteArrayInputStream(TEXT.getBytes()));
+        Node node2 = testRootNode.addNode(nodeName2, NT_UNSTRUCTURED);
+        node2.setProperty("caption", "Jackrabbit");
+        testRootNode.save();
+
+        String stmt = "SELECT caption, amount, tags, data, jcr:path FROM nt:base"
+                + " WHERE jcr:path LIKE '" + testRoot + "/%' ORDER BY caption";
+        RowIterator rows = qm.createQuery(stmt, Query.SQL).execute().getRows();
+        assertEquals(2, rows.getSize());
+        Row row = rows.nextRow();
+        Value[] values = row.getValues();
+        assertEquals("Apache", values[0].getString());
+        assertEquals(PropertyType.STRING, values[1].getType());
+        assertEquals("42", values[1].getString());
+        assertNull("multi-valued property must not be returned", values[2]);
+        assertEquals(TEXT, values[3].getString());
+        assertEquals(node1.getPath(), values[4].getString());
+        assertEquals("Apache", row.getValue("caption").getString());
+        row = rows.nextRow();
+        assertEquals("Jackrabbit", row.getValue("caption").getString());
+        assertNull(row.getValue("amount"));
+        assertNull(row.getValues()[1]);
+
+        // transient changes are visible in rows
+        node1.setProperty("amount", 7);
+        rows = qm.createQuery(stmt, Query.SQL).execute().getRows();
+        assertEquals("7", rows.nextRow().getValue("amount").getString());
+        testRootNode.refresh(false);
+    }
 }
@@ -61,6 +61,30 @@ public class OrderByTest extends AbstractQueryTest {
         checkResult(result, 3);
     }
 
+    public void testOrderByLongWithDuplicatesAndMissingValues()
+            throws RepositoryException {
+        Node n1 = testRootNode.addNode("node1");
+        Node n2 = testRootNode.addNode("node2");
+        Node n3 = testRootNode.addNode("node3");
+        Node n4 = testRootNode.addNode("node4");
+        Node n5 = testRootNode.addNode("node5");
+        n1.setProperty("value", 100);
+        n2.setProperty("value", 9);
+        n3.setProperty("value", -5);
+        n4.setProperty("value", 9);
+        // n5 does not have a value
+        testRootNode.save();
+
+        String xpath = testPath + "/* order by @value";
+        NodeIterator it = executeQuery(xpath).getNodes();
+        assertEquals(n5.getPath(), it.nextNode().getPath());
+        long[] expected = new long[]{-5, 9, 9, 100};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], it.nextNode().getProperty("value").getLong());
+        }
+        assertFalse(it.hasNext());
+    }
+
     public void testChildAxisString() throws RepositoryException {
         checkChildAxis(new Value[]{getValue("a"), getValue("b"), getValue("c")});
     }
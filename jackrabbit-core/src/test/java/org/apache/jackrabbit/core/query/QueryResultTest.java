@@ -65,6 +65,26 @@ public class QueryResultTest extends AbstractQueryTest {
         }
     }
 
+    public void testGetTotalSize() throws RepositoryException {
+        QueryManager qm = superuser.getWorkspace().getQueryManager();
+        for (int i = 0; i < 10; i++) {
+            String stmt = testPath + "/*[@" + propertyName1 + " < 1000]";
+            QueryImpl query = (QueryImpl) qm.createQuery(stmt, Query.XPATH);
+            assertEquals("Wrong exact total size",
+                    INITIAL_NODE_NUM - i, query.getTotalSize(true));
+            assertEquals("Wrong estimated total size",
+                    INITIAL_NODE_NUM - i, query.getTotalSize(false));
+            // limit and offset must not have an effect
+            query.setLimit(5);
+            query.setOffset(2);
+            assertEquals("Wrong exact total size",
+                    INITIAL_NODE_NUM - i, query.getTotalSize(true));
+            // remove node for the next iteration
+            testRootNode.getNode("node" + i).remove();
+            testRootNode.save();
+        }
+    }
+
     public void testIteratorNext() throws RepositoryException {
         QueryManager qm = superuser.getWorkspace().getQueryManager();
         for (int i = 0; i < 10; i++) {
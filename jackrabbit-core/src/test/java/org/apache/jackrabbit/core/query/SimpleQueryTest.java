@@ -16,7 +16,10 @@
  */
 package org.apache.jackrabbit.core.query;
 
+import org.apache.jackrabbit.spi.commons.query.jsr283.qom.QueryObjectModelConstants;
+
 import javax.jcr.Node;
+import javax.jcr.RepositoryException;
 import javax.jcr.Value;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
@@ -164,6 +167,32 @@ public class SimpleQueryTest extends AbstractQueryTest {
         checkResult(result, 3);
     }
 
+    public void testLongRange() throws Exception {
+        long[] values = new long[]{Long.MIN_VALUE, -1000, -1, 0, 15, 16,
+                255, 256, 100000, Long.MAX_VALUE};
+        Node[] nodes = new Node[values.length];
+        for (int i = 0; i < values.length; i++) {
+            nodes[i] = testRootNode.addNode("node" + i);
+            nodes[i].setProperty("value", values[i]);
+        }
+        testRootNode.save();
+
+        String xpath = testPath + "/*[@value >= 16]";
+        executeXPathQuery(xpath, new Node[]{nodes[5], nodes[6], nodes[7], nodes[8], nodes[9]});
+
+        xpath = testPath + "/*[@value < 16]";
+        executeXPathQuery(xpath, new Node[]{nodes[0], nodes[1], nodes[2], nodes[3], nodes[4]});
+
+        xpath = testPath + "/*[@value > -1 and @value <= 256]";
+        executeXPathQuery(xpath, new Node[]{nodes[3], nodes[4], nodes[5], nodes[6], nodes[7]});
+
+        xpath = testPath + "/*[@value > 9223372036854775806]";
+        executeXPathQuery(xpath, new Node[]{nodes[9]});
+
+        xpath = testPath + "/*[@value < -9223372036854775807]";
+        executeXPathQuery(xpath, new Node[]{nodes[0]});
+    }
+
     public void testLikePattern() throws Exception {
         Node n = testRootNode.addNode("node1");
         n.setProperty("value", new String[]{"king"});
@@ -525,4 +554,40 @@ public class SimpleQueryTest extends AbstractQueryTest {
         result = q.execute();
         checkResult(result, new Node[]{foo, bla});
     }
+
+    public void testEquiJoin() throws Exception {
+        Node a1 = testRootNode.addNode("a1");
+        a1.setProperty("ref", "x");
+        Node a2 = testRootNode.addNode("a2");
+        a2.setProperty("ref", "x");
+        Node a3 = testRootNode.addNode("a3");
+        a3.setProperty("ref", "z");
+        Node b1 = testRootNode.addNode("b1");
+        b1.setProperty("key", "x");
+        for (int i = 0; i < 5; i++) {
+            Node b = testRootNode.addNode("b" + (i + 2));
+            b.setProperty("key", "y");
+        }
+        testRootNode.save();
+
+        QueryResult result = createEquiJoin("key").execute();
+        checkResult(result, 2, 2);
+        // no inner node has a value for the join property
+        result = createEquiJoin("missing").execute();
+        checkResult(result, 0, 0);
+    }
+
+    private Query createEquiJoin(String innerProperty)
+            throws RepositoryException {
+        return qomFactory.createQuery(
+                qomFactory.join(
+                        qomFactory.selector(testNodeType, "a"),
+                        qomFactory.selector(testNodeType, "b"),
+                        QueryObjectModelConstants.JOIN_TYPE_INNER,
+                        qomFactory.equiJoinCondition("a", "ref", "b", innerProperty)),
+                qomFactory.and(
+                        qomFactory.descendantNode("a", testRoot),
+                        qomFactory.descendantNode("b", testRoot)),
+                null, null);
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.util.Text;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>ExtractedTextCacheTest</code> performs tests on the cache for text
+ * extracted from binaries in the data store.
+ */
+public class ExtractedTextCacheTest extends TestCase {
+
+    private static final File DIRECTORY = new File(new File("target"), "text-cache-test");
+
+    private static final DataIdentifier ID = new DataIdentifier("0123456789abcdef");
+
+    private static final String TYPE = "application/pdf";
+
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog.";
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(DIRECTORY);
+        super.tearDown();
+    }
+
+    public void testCacheText() throws Exception {
+        ExtractedTextCache cache = new ExtractedTextCache(DIRECTORY, "v1", Long.MAX_VALUE);
+        assertNull(cache.getText(ID, TYPE, null));
+
+        Reader reader = cache.cacheText(ID, TYPE, null, new StringReader(TEXT));
+        assertEquals(TEXT, read(reader));
+        assertEquals(TEXT, read(cache.getText(ID, TYPE, null)));
+
+        // different mime type, encoding or extractor version
+        assertNull(cache.getText(ID, "text/plain", null));
+        assertNull(cache.getText(ID, TYPE, "UTF-8"));
+        assertNull(new ExtractedTextCache(DIRECTORY, "v2", Long.MAX_VALUE).getText(ID, TYPE, null));
+    }
+
+    public void testIncompleteText() throws Exception {
+        ExtractedTextCache cache = new ExtractedTextCache(DIRECTORY, "v1", Long.MAX_VALUE);
+        Reader reader = cache.cacheText(ID, TYPE, null, new StringReader(TEXT));
+        char[] buffer = new char[4];
+        assertEquals(4, reader.read(buffer));
+        reader.close();
+        assertNull(cache.getText(ID, TYPE, null));
+
+        // empty text is not cached
+        assertEquals("", read(cache.cacheText(ID, TYPE, null, new StringReader(""))));
+        assertNull(cache.getText(ID, TYPE, null));
+    }
+
+    public void testEviction() throws Exception {
+        // room for two texts
+        long max = 2 * TEXT.length() + TEXT.length() / 2;
+        ExtractedTextCache cache = new ExtractedTextCache(DIRECTORY, "v1", max);
+        DataIdentifier[] ids = new DataIdentifier[3];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new DataIdentifier("0123456789abcde" + i);
+        }
+        read(cache.cacheText(ids[0], TYPE, null, new StringReader(TEXT)));
+        read(cache.cacheText(ids[1], TYPE, null, new StringReader(TEXT)));
+        // the first text is used more recently than the second
+        File first = getFile(ids[0]);
+        File second = getFile(ids[1]);
+        assertTrue(first.exists() && second.exists());
+        second.setLastModified(first.lastModified() - 10000);
+
+        read(cache.cacheText(ids[2], TYPE, null, new StringReader(TEXT)));
+        assertTrue(cache.getSize() <= max);
+        assertNull(cache.getText(ids[1], TYPE, null));
+        assertEquals(TEXT, read(cache.getText(ids[2], TYPE, null)));
+
+        // the size is read from the directory
+        assertEquals(cache.getSize(),
+                new ExtractedTextCache(DIRECTORY, "v1", max).getSize());
+    }
+
+    /**
+     * @return the cache file of the text of a binary with extractor version
+     *         "v1" and no encoding.
+     */
+    private static File getFile(DataIdentifier id) {
+        String key = Text.md5(id + "\n" + TYPE + "\nnull\nv1");
+        return new File(new File(DIRECTORY, key.substring(0, 2)), key + ".txt");
+    }
+
+    private static String read(Reader reader) throws IOException {
+        try {
+            return IOUtils.toString(reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
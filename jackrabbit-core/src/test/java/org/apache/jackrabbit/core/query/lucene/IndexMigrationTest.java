@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.util.Random;
+
+import javax.jcr.PropertyType;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
+import org.apache.jackrabbit.uuid.UUID;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.DefaultSimilarity;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>IndexMigrationTest</code> checks that an index with format version
+ * 3 is migrated to trie encoded values and that {@link TrieRangeQuery}
+ * returns the same nodes as a comparison of the values.
+ */
+public class IndexMigrationTest extends TestCase {
+
+    private static final File DIRECTORY = new File(new File("target"), "index-migration-test");
+
+    private static final String INDEX = "index";
+
+    private static final int NUM_DOCS = 200;
+
+    private final Random rand = new Random(42);
+
+    private final long[] longs = new long[NUM_DOCS];
+
+    private final double[] doubles = new double[NUM_DOCS];
+
+    private final long[] dates = new long[NUM_DOCS];
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(DIRECTORY);
+        super.tearDown();
+    }
+
+    public void testTrieMigration() throws Exception {
+        DirectoryManager directoryManager = createIndex();
+
+        // opening the index migrates it
+        new PersistentIndex(INDEX, new JackrabbitAnalyzer(),
+                new DefaultSimilarity(), new DocNumberCache(100), null,
+                directoryManager, true).close();
+
+        Directory dir = directoryManager.getDirectory(INDEX);
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            assertEquals(IndexFormatVersion.V4,
+                    IndexFormatVersion.getVersion(reader));
+            assertEquals(NUM_DOCS, reader.numDocs());
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (int i = 0; i < 50; i++) {
+                long[] bounds = new long[]{
+                        longs[rand.nextInt(NUM_DOCS)], longs[rand.nextInt(NUM_DOCS)]};
+                checkRange(searcher, "long", PropertyType.LONG, longs, bounds);
+
+                for (int j = 0; j < bounds.length; j++) {
+                    bounds[j] = TrieField.doubleToSortableLong(
+                            doubles[rand.nextInt(NUM_DOCS)]);
+                }
+                long[] values = new long[NUM_DOCS];
+                for (int j = 0; j < NUM_DOCS; j++) {
+                    values[j] = TrieField.doubleToSortableLong(doubles[j]);
+                }
+                checkRange(searcher, "double", PropertyType.DOUBLE, values, bounds);
+
+                bounds[0] = dates[rand.nextInt(NUM_DOCS)];
+                bounds[1] = dates[rand.nextInt(NUM_DOCS)];
+                checkRange(searcher, "date", PropertyType.DATE, dates, bounds);
+            }
+            // unbounded range and the string values
+            checkRange(searcher, "long", PropertyType.LONG, longs,
+                    new long[]{Long.MIN_VALUE, Long.MAX_VALUE});
+            assertEquals(0, searcher.search(new TrieRangeQuery("long",
+                    PropertyType.STRING, Long.MIN_VALUE, Long.MAX_VALUE), null, 1).totalHits);
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    public void testTrieMigrationDisabled() throws Exception {
+        DirectoryManager directoryManager = createIndex();
+        new PersistentIndex(INDEX, new JackrabbitAnalyzer(),
+                new DefaultSimilarity(), new DocNumberCache(100), null,
+                directoryManager, false).close();
+
+        Directory dir = directoryManager.getDirectory(INDEX);
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            assertEquals(IndexFormatVersion.V3,
+                    IndexFormatVersion.getVersion(reader));
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    public void testUnmigratableValue() throws Exception {
+        DirectoryManager directoryManager = createIndex();
+        Directory dir = directoryManager.getDirectory(INDEX);
+        IndexWriter writer = new IndexWriter(dir, new JackrabbitAnalyzer(),
+                false, IndexWriter.MaxFieldLength.UNLIMITED);
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.UUID, UUID.randomUUID().toString(),
+                Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        addProperty(doc, "long", "invalid", PropertyType.LONG);
+        writer.addDocument(doc);
+        writer.close();
+        dir.close();
+
+        new PersistentIndex(INDEX, new JackrabbitAnalyzer(),
+                new DefaultSimilarity(), new DocNumberCache(100), null,
+                directoryManager, true).close();
+
+        dir = directoryManager.getDirectory(INDEX);
+        IndexReader reader = IndexReader.open(dir);
+        try {
+            assertEquals(IndexFormatVersion.V3,
+                    IndexFormatVersion.getVersion(reader));
+            assertEquals(NUM_DOCS + 1, reader.numDocs());
+        } finally {
+            reader.close();
+            dir.close();
+        }
+        assertFalse(directoryManager.hasDirectory(INDEX + "_v4"));
+    }
+
+    public void testSeekTrieTerm() throws Exception {
+        DirectoryManager directoryManager = createIndex();
+        Directory dir = directoryManager.getDirectory(INDEX);
+        IndexReader reader = new IndexMigration.TrieMigrationIndexReader(
+                IndexReader.open(dir));
+        try {
+            int count = 0;
+            TermEnum terms = reader.terms();
+            try {
+                while (terms.next()) {
+                    Term t = terms.term();
+                    if (t.field() != FieldNames.TRIE_PROPERTIES) {
+                        continue;
+                    }
+                    TermDocs docs = reader.termDocs(t);
+                    int num = 0;
+                    while (docs.next()) {
+                        num++;
+                    }
+                    docs.close();
+                    assertEquals(t.toString(), terms.docFreq(), num);
+                    count++;
+                }
+            } finally {
+                terms.close();
+            }
+            assertTrue(count > 0);
+            TermDocs docs = reader.termDocs(new Term(FieldNames.TRIE_PROPERTIES,
+                    TrieField.createTerm("unknown", PropertyType.LONG, 0, 0)));
+            assertFalse(docs.next());
+            docs.close();
+        } finally {
+            reader.close();
+            dir.close();
+        }
+    }
+
+    /**
+     * Creates an index in format version 3 with random long, double and date
+     * values.
+     *
+     * @return the directory manager of the index.
+     */
+    private DirectoryManager createIndex() throws Exception {
+        SearchIndex handler = new SearchIndex();
+        handler.setPath(DIRECTORY.getPath());
+        DirectoryManager directoryManager = new FSDirectoryManager();
+        directoryManager.init(handler);
+        Directory dir = directoryManager.getDirectory(INDEX);
+        IndexWriter writer = new IndexWriter(dir, new JackrabbitAnalyzer(),
+                true, IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < NUM_DOCS; i++) {
+            longs[i] = i % 10 == 0 ? Long.MIN_VALUE + i : rand.nextLong() >> rand.nextInt(64);
+            doubles[i] = (rand.nextDouble() - 0.5) * Math.pow(10, rand.nextInt(20) - 10);
+            // dates from 1900 to 2100
+            dates[i] = -2208988800000L + (long) (rand.nextDouble() * 6311433600000L);
+            Document doc = new Document();
+            doc.add(new Field(FieldNames.UUID, UUID.randomUUID().toString(),
+                    Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+            doc.add(new Field(FieldNames.PARENT, "", Field.Store.YES,
+                    Field.Index.NOT_ANALYZED_NO_NORMS));
+            doc.add(new Field(FieldNames.LOCAL_NAME, "node", Field.Store.NO,
+                    Field.Index.NOT_ANALYZED_NO_NORMS));
+            addProperty(doc, "long", LongField.longToString(longs[i]), PropertyType.LONG);
+            addProperty(doc, "double", DoubleField.doubleToString(doubles[i]), PropertyType.DOUBLE);
+            addProperty(doc, "date", DateField.timeToString(dates[i]), PropertyType.DATE);
+            // a string that looks like a long must not be migrated
+            addProperty(doc, "long", LongField.longToString(i), PropertyType.STRING);
+            writer.addDocument(doc);
+        }
+        writer.close();
+        dir.close();
+        return directoryManager;
+    }
+
+    private void checkRange(IndexSearcher searcher,
+                            String propName,
+                            int type,
+                            long[] values,
+                            long[] bounds) throws Exception {
+        long lower = Math.min(bounds[0], bounds[1]);
+        long upper = Math.max(bounds[0], bounds[1]);
+        int expected = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] >= lower && values[i] <= upper) {
+                expected++;
+            }
+        }
+        TrieRangeQuery q = new TrieRangeQuery(propName, type, lower, upper);
+        assertEquals(q.toString(), expected, searcher.search(q, null, 1).totalHits);
+    }
+
+    private static void addProperty(Document doc,
+                                    String name,
+                                    String value,
+                                    int type) {
+        Field field = new Field(FieldNames.PROPERTIES, new SingletonTokenStream(
+                FieldNames.createNamedValue(name, value), type));
+        field.setOmitNorms(true);
+        doc.add(field);
+    }
+}
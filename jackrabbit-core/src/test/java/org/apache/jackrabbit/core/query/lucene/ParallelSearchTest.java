@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.query.AbstractQueryTest;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/**
+ * <code>ParallelSearchTest</code> checks that queries scored on index
+ * segments in parallel return the same hits as queries scored on the calling
+ * thread.
+ */
+public class ParallelSearchTest extends AbstractQueryTest {
+
+    private SearchIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        index = (SearchIndex) getQueryHandler();
+        for (int i = 0; i < 10; i++) {
+            testRootNode.addNode(nodeName1 + i).setProperty(
+                    propertyName1, i % 2 == 0 ? "even" : "odd");
+            // one save per node creates more than one index segment
+            testRootNode.save();
+        }
+    }
+
+    public void testMatchAll() throws Exception {
+        checkHits(new MatchAllDocsQuery(), new Sort(new SortField[0]));
+    }
+
+    public void testBooleanQuery() throws Exception {
+        String field = index.getNamespaceMappings().translateName(
+                ((SessionImpl) superuser).getQName(propertyName1));
+        BooleanQuery query = new BooleanQuery();
+        query.add(new JackrabbitTermQuery(new Term(FieldNames.PROPERTIES,
+                FieldNames.createNamedValue(field, "even"))),
+                BooleanClause.Occur.SHOULD);
+        query.add(new WildcardQuery(FieldNames.PROPERTIES, field, "o%"),
+                BooleanClause.Occur.SHOULD);
+        checkHits(query, new Sort(new SortField[0]));
+        checkHits(query, new Sort());
+    }
+
+    public void testNotSegmentQuery() throws Exception {
+        // path constraints are always scored on the calling thread
+        String uuid = ((NodeImpl) testRootNode).getNodeId().getUUID().toString();
+        Query query = new DescendantSelfAxisQuery(
+                new JackrabbitTermQuery(new Term(FieldNames.UUID, uuid)),
+                new MatchAllDocsQuery(), false);
+        checkHits(query, new Sort(new SortField[0]));
+    }
+
+    /**
+     * Checks that the query returns the same hits in the same order with
+     * and without parallel scoring.
+     */
+    private void checkHits(Query query, Sort sort) throws Exception {
+        List expected = getHits(query, sort, 1);
+        assertTrue(expected.size() >= 10);
+        assertEquals(expected, getHits(query, sort, 4));
+    }
+
+    private List getHits(Query query, Sort sort, int parallelism)
+            throws Exception {
+        IndexReader reader = index.getIndexReader();
+        try {
+            assertTrue(((MultiIndexReader) reader).getIndexReaders().length > 1);
+            JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                    (SessionImpl) superuser, reader, null);
+            searcher.setSimilarity(index.getSimilarity());
+            searcher.setParallelism(parallelism);
+            QueryHits hits = searcher.evaluate(query, sort, Integer.MAX_VALUE);
+            List result = new ArrayList();
+            try {
+                ScoreNode sn;
+                while ((sn = hits.nextScoreNode()) != null) {
+                    result.add(sn.getNodeId() + "/" + sn.getScore());
+                }
+            } finally {
+                hits.close();
+            }
+            return result;
+        } finally {
+            Util.closeOrRelease(reader);
+            PerQueryCache.getInstance().dispose();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>PerQueryCacheTest</code> checks that disposing the cache of a query
+ * does not release the bit sets of other queries on the same thread.
+ */
+public class PerQueryCacheTest extends TestCase {
+
+    public void testDisposeOtherQuery() {
+        PerQueryCache first = new PerQueryCache();
+        PerQueryCache previous = PerQueryCache.enter(first);
+        BitSet bits;
+        try {
+            bits = PerQueryCache.getInstance().getBitSet();
+            bits.set(42);
+        } finally {
+            PerQueryCache.leave(previous);
+        }
+
+        PerQueryCache second = new PerQueryCache();
+        previous = PerQueryCache.enter(second);
+        try {
+            assertSame(second, PerQueryCache.getInstance());
+            PerQueryCache.getInstance().getBitSet().set(7);
+        } finally {
+            PerQueryCache.leave(previous);
+            second.dispose();
+        }
+
+        assertTrue("bit set of open query was released", bits.get(42));
+        assertEquals(1, bits.cardinality());
+        first.dispose();
+    }
+
+    public void testDisposeCurrent() {
+        PerQueryCache cache = PerQueryCache.getInstance();
+        cache.dispose();
+        assertNotSame(cache, PerQueryCache.getInstance());
+        PerQueryCache.getInstance().dispose();
+    }
+
+    public void testPoolMemoryBound() {
+        BitSet large = new BitSet();
+        large.set(64 * 1024 * 1024);
+        BitSetPool.release(large);
+        for (int i = 0; i < 64; i++) {
+            assertNotSame("oversized bit set pooled", large, BitSetPool.acquire());
+        }
+    }
+}
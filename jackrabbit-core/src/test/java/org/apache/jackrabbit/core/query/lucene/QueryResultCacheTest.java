@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.jsr283.security.AccessControlManager;
+import org.apache.jackrabbit.api.jsr283.security.AccessControlPolicy;
+import org.apache.jackrabbit.api.jsr283.security.AccessControlPolicyIterator;
+import org.apache.jackrabbit.api.jsr283.security.Privilege;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.query.AbstractQueryTest;
+import org.apache.jackrabbit.core.security.authorization.JackrabbitAccessControlList;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.test.NotExecutableException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * <code>QueryResultCacheTest</code> checks that cached query hits are
+ * discarded when the index changes, that equal lucene queries share a
+ * cache entry and that cached hits are access checked for each session.
+ */
+public class QueryResultCacheTest extends AbstractQueryTest {
+
+    private static final Path[] NO_PROPS = new Path[0];
+
+    private static final boolean[] NO_SPECS = new boolean[0];
+
+    private QueryResultCache cache;
+
+    private SearchIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new QueryResultCache(10);
+        index = (SearchIndex) getQueryHandler();
+    }
+
+    public void testEqualQueries() {
+        Term t = new Term(FieldNames.LABEL, "a");
+        assertEquals(new DescendantSelfAxisQuery(new TermQuery(t), false),
+                new DescendantSelfAxisQuery(new TermQuery(t), false));
+        assertEquals(new DescendantSelfAxisQuery(new TermQuery(t), false).hashCode(),
+                new DescendantSelfAxisQuery(new TermQuery(t), false).hashCode());
+        assertFalse(new DescendantSelfAxisQuery(new TermQuery(t), false).equals(
+                new DescendantSelfAxisQuery(new TermQuery(t), true)));
+        assertFalse(new CaseTermQuery.Upper(t).equals(new CaseTermQuery.Lower(t)));
+        assertEquals(new QueryResultCache.Key(new NotQuery(new TermQuery(t)), NO_PROPS, NO_SPECS, false),
+                new QueryResultCache.Key(new NotQuery(new TermQuery(t)), NO_PROPS, NO_SPECS, false));
+        assertFalse(new QueryResultCache.Key(new TermQuery(t), NO_PROPS, NO_SPECS, false).equals(
+                new QueryResultCache.Key(new TermQuery(t), NO_PROPS, NO_SPECS, true)));
+    }
+
+    public void testInvalidation() throws Exception {
+        QueryResultCache.Key key = new QueryResultCache.Key(
+                new MatchAllDocsQuery(), NO_PROPS, NO_SPECS, false);
+        List nodes = readHits(key, true);
+        assertEquals(nodes, readHits(key, false));
+
+        // a change to the index discards the cached hits
+        testRootNode.addNode(nodeName1);
+        testRootNode.save();
+        List changed = readHits(key, true);
+        assertEquals(nodes.size() + 1, changed.size());
+        assertEquals(changed, readHits(key, false));
+    }
+
+    public void testDiscardOlderGenerations() throws Exception {
+        QueryResultCache.Key key = new QueryResultCache.Key(
+                new MatchAllDocsQuery(), NO_PROPS, NO_SPECS, false);
+        readHits(key, true);
+        long[] generations;
+        IndexReader reader = index.getIndexReader();
+        try {
+            generations = QueryResultCache.getGenerations(reader);
+        } finally {
+            Util.closeOrRelease(reader);
+        }
+
+        // the first access with a new generation discards all older entries
+        testRootNode.addNode(nodeName1);
+        testRootNode.save();
+        readHits(new QueryResultCache.Key(
+                new TermQuery(new Term(FieldNames.LABEL, "a")), NO_PROPS, NO_SPECS, false), true);
+        assertNull(cache.getHits(key, generations));
+    }
+
+    public void testDifferentQueries() throws Exception {
+        Node n1 = testRootNode.addNode(nodeName1);
+        n1.setProperty(propertyName1, "a");
+        testRootNode.addNode(nodeName2);
+        testRootNode.save();
+
+        QueryResultCache.Key all = new QueryResultCache.Key(
+                new MatchAllDocsQuery(), NO_PROPS, NO_SPECS, false);
+        String field = index.getNamespaceMappings().translateName(
+                ((SessionImpl) superuser).getQName(propertyName1));
+        QueryResultCache.Key a = new QueryResultCache.Key(new TermQuery(
+                new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(field, "a"))),
+                NO_PROPS, NO_SPECS, false);
+        List allIds = readHits(all, true);
+        List aIds = readHits(a, true);
+        assertEquals(1, aIds.size());
+        assertTrue(allIds.size() > 1);
+        assertEquals(allIds, readHits(all, false));
+        assertEquals(aIds, readHits(a, false));
+    }
+
+    public void testExecuteQuery() throws Exception {
+        QueryResultCache results = index.getQueryResultCache();
+        assertNotNull("query result cache must be enabled", results);
+        Node n1 = testRootNode.addNode(nodeName1);
+        n1.setProperty(propertyName1, "a");
+        Node n2 = testRootNode.addNode(nodeName2);
+        n2.setProperty(propertyName1, "b");
+        testRootNode.save();
+
+        String stmt = testPath + "/*[@" + propertyName1 + " = 'a']";
+        checkResult(executeQuery(stmt), new Node[]{n1});
+        long hits = results.getHitCount();
+        checkResult(executeQuery(stmt), new Node[]{n1});
+        assertEquals("hits must be read from the cache",
+                hits + 1, results.getHitCount());
+
+        // a change to the index discards the cached hits
+        n2.setProperty(propertyName1, "a");
+        testRootNode.save();
+        checkResult(executeQuery(stmt), new Node[]{n1, n2});
+        assertEquals("hits must not be read from the cache",
+                hits + 1, results.getHitCount());
+    }
+
+    public void testAccessCheckOnCachedHits() throws Exception {
+        QueryResultCache results = index.getQueryResultCache();
+        assertNotNull("query result cache must be enabled", results);
+        Node n1 = testRootNode.addNode(nodeName1);
+        n1.setProperty(propertyName1, "a");
+        Node n2 = testRootNode.addNode(nodeName2);
+        n2.setProperty(propertyName1, "a");
+        testRootNode.save();
+
+        Session anonymous = helper.getReadOnlySession();
+        try {
+            // deny read access on n2 for the anonymous session
+            AccessControlManager acMgr =
+                    ((SessionImpl) superuser).getAccessControlManager();
+            JackrabbitAccessControlList acl = null;
+            for (AccessControlPolicyIterator it = acMgr.getApplicablePolicies(
+                    n2.getPath()); it.hasNext();) {
+                AccessControlPolicy acp = it.nextAccessControlPolicy();
+                if (acp instanceof JackrabbitAccessControlList) {
+                    acl = (JackrabbitAccessControlList) acp;
+                }
+            }
+            if (acl == null) {
+                throw new NotExecutableException("No JackrabbitAccessControlList found");
+            }
+            Principal principal = ((User) ((JackrabbitSession) anonymous)
+                    .getUserManager().getAuthorizable(anonymous.getUserID()))
+                    .getPrincipal();
+            acl.addEntry(principal, new Privilege[]{
+                    acMgr.privilegeFromName(Privilege.JCR_READ)}, false);
+            acMgr.setPolicy(n2.getPath(), acl);
+            superuser.save();
+
+            String stmt = testPath + "/*[@" + propertyName1 + " = 'a']";
+            checkResult(executeQuery(stmt), new Node[]{n1, n2});
+            long hits = results.getHitCount();
+            // the hits cached for the superuser are access checked again
+            QueryResult result = anonymous.getWorkspace().getQueryManager()
+                    .createQuery(stmt, Query.XPATH).execute();
+            NodeIterator nodes = result.getNodes();
+            assertTrue(nodes.hasNext());
+            assertEquals(n1.getPath(), nodes.nextNode().getPath());
+            assertFalse("denied node must not be returned", nodes.hasNext());
+            assertEquals("hits must be read from the cache",
+                    hits + 1, results.getHitCount());
+        } finally {
+            anonymous.logout();
+        }
+    }
+
+    /**
+     * Reads the hits for the query of <code>key</code>.
+     *
+     * @param key      the cache key.
+     * @param evaluate whether the query must be evaluated or the hits must
+     *                 be read from the cache.
+     * @return the node ids of the hits.
+     */
+    private List readHits(QueryResultCache.Key key, boolean evaluate)
+            throws Exception {
+        IndexReader reader = index.getIndexReader();
+        try {
+            long[] generations = QueryResultCache.getGenerations(reader);
+            assertNotNull(generations);
+            QueryHits hits = cache.getHits(key, generations);
+            if (evaluate) {
+                assertNull("hits must not be cached", hits);
+                JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                        (SessionImpl) superuser, reader, null);
+                hits = cache.record(key, generations,
+                        searcher.evaluate(key.getQuery()));
+            } else {
+                assertNotNull("hits must be cached", hits);
+            }
+            List ids = new ArrayList();
+            try {
+                ScoreNode sn;
+                while ((sn = hits.nextScoreNode()) != null) {
+                    ids.add(sn.getNodeId());
+                }
+            } finally {
+                hits.close();
+            }
+            return ids;
+        } finally {
+            Util.closeOrRelease(reader);
+            PerQueryCache.getInstance().dispose();
+        }
+    }
+}
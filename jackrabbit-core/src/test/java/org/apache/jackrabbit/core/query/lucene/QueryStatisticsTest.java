@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import javax.jcr.Node;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.core.query.AbstractQueryTest;
+
+/**
+ * <code>QueryStatisticsTest</code> checks the statistics collected for
+ * executed queries.
+ */
+public class QueryStatisticsTest extends AbstractQueryTest {
+
+    public void testExecutedQuery() throws Exception {
+        Node n1 = testRootNode.addNode(nodeName1);
+        n1.setProperty(propertyName1, "foo");
+        Node n2 = testRootNode.addNode(nodeName2);
+        n2.setProperty(propertyName1, "foo");
+        testRootNode.save();
+
+        QueryStatistics statistics = ((SearchIndex) getQueryHandler()).getQueryStatistics();
+        assertNotNull("statistics are enabled by default", statistics);
+        statistics.reset();
+
+        String stmt = testPath + "/*[@" + propertyName1 + " = 'foo']";
+        for (int i = 0; i < 2; i++) {
+            Query q = qm.createQuery(stmt, Query.XPATH);
+            checkResult(q.execute(), 2);
+        }
+        assertEquals(2, statistics.getQueryCount());
+
+        QueryStatistics.Statement[] top = statistics.getTopStatements(10);
+        assertEquals(1, top.length);
+        assertEquals(stmt, top[0].getStatement());
+        assertEquals(Query.XPATH, top[0].getLanguage());
+        assertEquals(2, top[0].getCount());
+        QueryStat last = top[0].getLastExecution();
+        assertEquals(2, last.getRawHits());
+        assertEquals(2, last.getGrantedHits());
+        assertTrue(last.getIndexReaders() > 0);
+    }
+
+    public void testSlowQueries() {
+        QueryStatistics statistics = new QueryStatistics(2, 100);
+        statistics.record(createStat("fast", 10));
+        statistics.record(createStat("slow", 200));
+        statistics.record(createStat("slow", 300));
+        assertEquals(2, statistics.getSlowQueryCount());
+        assertEquals(2, statistics.getSlowQueries().length);
+        assertEquals(300, statistics.getSlowQueryStats()[0].getTotalTime());
+
+        // least recently used statement is dropped
+        statistics.record(createStat("other", 1));
+        QueryStatistics.Statement[] top = statistics.getTopStatements(10);
+        assertEquals(2, top.length);
+        assertEquals("slow", top[0].getStatement());
+        assertEquals(500, top[0].getTotalTime());
+        assertEquals(300, top[0].getMaxTime());
+        assertEquals("other", top[1].getStatement());
+    }
+
+    public void testMBean() throws Exception {
+        QueryStatistics statistics = new QueryStatistics(10, 0);
+        String index = "c:\\repository\\\"index\"?*";
+        assertEquals("\"c:\\\\repository\\\\\\\"index\\\"\\?\\*\"",
+                QueryStatistics.quote(index));
+        String name = "org.apache.jackrabbit:type=QueryStatistics,index="
+                + QueryStatistics.quote(index);
+        statistics.register(name);
+        try {
+            assertTrue(statistics.isRegistered());
+        } finally {
+            statistics.unregister();
+        }
+        assertFalse(statistics.isRegistered());
+    }
+
+    private static QueryStat createStat(String statement, long time) {
+        QueryStat stat = new QueryStat(statement, Query.XPATH);
+        stat.setSearchTime(time);
+        return stat;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import javax.jcr.Session;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.query.AbstractQueryTest;
+import org.apache.jackrabbit.spi.commons.query.QueryNodeFactory;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
+
+/**
+ * <code>QueryTreeCacheTest</code> checks that parsed query trees are re-used
+ * only as long as the namespace mappings of the session are the same.
+ */
+public class QueryTreeCacheTest extends AbstractQueryTest {
+
+    private static final String STATEMENT = "//element(*, qtc:base)[@qtc:title = 'a']";
+
+    private QueryTreeCache cache;
+
+    private QueryNodeFactory factory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new QueryTreeCache(10);
+        factory = ((SearchIndex) getQueryHandler()).getQueryNodeFactory();
+    }
+
+    public void testSameStatement() throws Exception {
+        String stmt = testPath + "/*[@" + propertyName1 + " = 'a']";
+        QueryRootNode root = cache.getQueryTree(
+                stmt, Query.XPATH, (SessionImpl) superuser, factory);
+        assertSame(root, cache.getQueryTree(
+                stmt, Query.XPATH, (SessionImpl) superuser, factory));
+        assertNotSame(root, cache.getQueryTree(
+                stmt + " order by @" + propertyName1, Query.XPATH,
+                (SessionImpl) superuser, factory));
+    }
+
+    public void testRemappedPrefix() throws Exception {
+        Session nt = helper.getReadOnlySession();
+        Session mix = helper.getReadOnlySession();
+        try {
+            nt.setNamespacePrefix("qtc", NS_NT_URI);
+            mix.setNamespacePrefix("qtc", NS_MIX_URI);
+            QueryRootNode ntRoot = cache.getQueryTree(
+                    STATEMENT, Query.XPATH, (SessionImpl) nt, factory);
+            assertSame(ntRoot, cache.getQueryTree(
+                    STATEMENT, Query.XPATH, (SessionImpl) nt, factory));
+
+            QueryRootNode mixRoot = cache.getQueryTree(
+                    STATEMENT, Query.XPATH, (SessionImpl) mix, factory);
+            assertNotSame(ntRoot, mixRoot);
+            assertFalse(ntRoot.dump().equals(mixRoot.dump()));
+            assertSame(mixRoot, cache.getQueryTree(
+                    STATEMENT, Query.XPATH, (SessionImpl) mix, factory));
+
+            // prefix is unknown to the superuser session
+            try {
+                cache.getQueryTree(STATEMENT, Query.XPATH,
+                        (SessionImpl) superuser, factory);
+                fail("prefix qtc must not be resolved with cached query tree");
+            } catch (InvalidQueryException e) {
+                // expected
+            }
+        } finally {
+            nt.logout();
+            mix.logout();
+        }
+    }
+
+    public void testTreeNotModified() throws Exception {
+        SearchIndex index = (SearchIndex) getQueryHandler();
+        QueryRootNode root = cache.getQueryTree(
+                testPath + "/*[position() = 2]", Query.XPATH, (SessionImpl) superuser, factory);
+        String dump = root.dump();
+        LuceneQueryBuilder.createQuery(root, (SessionImpl) superuser,
+                index.getContext().getItemStateManager(),
+                index.getNamespaceMappings(), index.getTextAnalyzer(),
+                index.getContext().getPropertyTypeRegistry(),
+                index.getSynonymProvider(), index.getIndexFormatVersion(),
+                index.getLowerCaseProperties(root.needsSystemTree()));
+        assertEquals("cached query tree was modified", dump, root.dump());
+    }
+}
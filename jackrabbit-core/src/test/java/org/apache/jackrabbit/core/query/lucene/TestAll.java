@@ -37,6 +37,14 @@ public class TestAll extends TestCase {
 
         suite.addTestSuite(IndexingQueueTest.class);
         suite.addTestSuite(IndexingAggregateTest.class);
+        suite.addTestSuite(ExtractedTextCacheTest.class);
+        suite.addTestSuite(IndexMigrationTest.class);
+        suite.addTestSuite(QueryTreeCacheTest.class);
+        suite.addTestSuite(ThrottledDirectoryTest.class);
+        suite.addTestSuite(QueryResultCacheTest.class);
+        suite.addTestSuite(QueryStatisticsTest.class);
+        suite.addTestSuite(ParallelSearchTest.class);
+        suite.addTestSuite(PerQueryCacheTest.class);
 
         return suite;
     }
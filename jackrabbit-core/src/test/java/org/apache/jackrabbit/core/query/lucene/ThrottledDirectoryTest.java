@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMDirectory;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>ThrottledDirectoryTest</code> checks that a
+ * {@link ThrottledDirectory} writes the data to the underlying directory and
+ * limits the write rate.
+ */
+public class ThrottledDirectoryTest extends TestCase {
+
+    private static final int MB = 1024 * 1024;
+
+    public void testRate() throws Exception {
+        RAMDirectory ram = new RAMDirectory();
+        ThrottledDirectory.Throttle throttle = new ThrottledDirectory.Throttle(4);
+        // two directories share the rate
+        Directory[] dirs = new Directory[]{
+                new ThrottledDirectory(ram, throttle),
+                new ThrottledDirectory(ram, throttle)
+        };
+        byte[] data = new byte[MB / 4];
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < dirs.length; i++) {
+            IndexOutput out = dirs[i].createOutput("file" + i);
+            try {
+                for (int j = 0; j < 4; j++) {
+                    out.writeBytes(data, data.length);
+                }
+                out.writeByte((byte) i);
+            } finally {
+                out.close();
+            }
+        }
+        time = System.currentTimeMillis() - time;
+        // 2 MB at 4 MB/s takes at least 500 ms, the last chunk may not
+        // have been waited for
+        assertTrue("written too fast: " + time + " ms", time >= 400);
+
+        for (int i = 0; i < dirs.length; i++) {
+            assertEquals(MB + 1, ram.fileLength("file" + i));
+            IndexInput in = ram.openInput("file" + i);
+            try {
+                in.seek(MB);
+                assertEquals((byte) i, in.readByte());
+            } finally {
+                in.close();
+            }
+        }
+        ram.close();
+    }
+}
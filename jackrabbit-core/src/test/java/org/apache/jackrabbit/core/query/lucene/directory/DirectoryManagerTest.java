@@ -19,10 +19,13 @@ package org.apache.jackrabbit.core.query.lucene.directory;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Random;
 import java.io.File;
 
 import org.apache.jackrabbit.core.query.lucene.SearchIndex;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
 
 import junit.framework.TestCase;
 
@@ -33,7 +36,8 @@ import junit.framework.TestCase;
 public class DirectoryManagerTest extends TestCase {
 
     private static final Collection IMPLEMENTATIONS = Arrays.asList(
-            new Class[]{FSDirectoryManager.class, RAMDirectoryManager.class});
+            new Class[]{FSDirectoryManager.class, RAMDirectoryManager.class,
+                    NIOFSDirectoryManager.class, MMapDirectoryManager.class});
 
     private static final SearchIndex INDEX = new SearchIndex();
 
@@ -90,6 +94,59 @@ public class DirectoryManagerTest extends TestCase {
         });
     }
 
+    public void testReadWrite() throws Exception {
+        execute(new Callable(){
+            public void call(DirectoryManager directoryManager) throws Exception {
+                Random rand = new Random(7);
+                byte[] data = new byte[100000];
+                rand.nextBytes(data);
+                Directory dir = directoryManager.getDirectory(TEST);
+                try {
+                    IndexOutput out = dir.createOutput("data");
+                    out.writeBytes(data, data.length);
+                    out.close();
+                    dir.createOutput("empty").close();
+
+                    IndexInput in = dir.openInput("data");
+                    try {
+                        assertEquals(data.length, in.length());
+                        byte[] buffer = new byte[data.length];
+                        in.readBytes(buffer, 0, buffer.length);
+                        assertTrue(Arrays.equals(data, buffer));
+                        assertEquals(data.length, in.getFilePointer());
+
+                        IndexInput clone = (IndexInput) in.clone();
+                        for (int i = 0; i < 100; i++) {
+                            int pos = rand.nextInt(data.length);
+                            in.seek(pos);
+                            assertEquals(data[pos], in.readByte());
+                            int len = Math.min(rand.nextInt(5000), data.length - pos - 1);
+                            in.readBytes(buffer, 0, len);
+                            for (int j = 0; j < len; j++) {
+                                assertEquals(data[pos + 1 + j], buffer[j]);
+                            }
+                            assertEquals(pos + 1 + len, in.getFilePointer());
+                        }
+                        // clone is not moved by reads on the original
+                        assertEquals(data.length, clone.getFilePointer());
+                        clone.seek(0);
+                        assertEquals(data[0], clone.readByte());
+                        clone.close();
+                    } finally {
+                        in.close();
+                    }
+
+                    in = dir.openInput("empty");
+                    assertEquals(0, in.length());
+                    in.close();
+                } finally {
+                    dir.close();
+                }
+                directoryManager.delete(TEST);
+            }
+        });
+    }
+
     private void execute(Callable callable) throws Exception {
         for (Iterator it = IMPLEMENTATIONS.iterator(); it.hasNext(); ) {
             Class clazz = (Class) it.next();